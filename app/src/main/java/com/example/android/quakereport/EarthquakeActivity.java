@@ -2,46 +2,95 @@ package com.example.android.quakereport;
 
 import android.app.LoaderManager;
 import android.content.Context;
-import android.content.Intent;
 import android.content.Loader;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.ProgressBar;
+import android.widget.SeekBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Implement the Loader Manager, so that that background tasks can be completed in a resource efficient way
  */
-public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Earthquake>> {
+public class EarthquakeActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<EarthquakeDisplayModel>, EarthquakeLoader.OnBatchLoadedListener {
 
     //Log tag that returns the package name for errors
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
 
-    //URL that provides the JSON response from the USGS site
+    //URL that provides the JSON response from the USGS site, the loader adds the offset and limit for each page
     private static final String REQUEST_URL =
-            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&eventtype=earthquake&orderby=time&minmag=3&limit=1000";
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&eventtype=earthquake&orderby=time&minmag=3";
+
+    //Summary feed polled for new earthquakes while the list is shown, and the smallest magnitude the
+    //request URL asks for, since the feed starts lower
+    private static final String POLL_FEED_URL = FeedPoller.hourFeedUrl("2.5");
+    private static final double POLL_MIN_MAGNITUDE = 3;
 
     //Constant value for the earthquake loader ID. This really only comes into play if you're using multiple loaders.
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
+    //Number of earthquakes parsed before they are shown, so the first rows appear while the rest are downloading
+    private static final int BATCH_SIZE = 50;
+
+    //Number of earthquakes requested per page
+    private static final int PAGE_SIZE = 200;
+
+    //How many rows from the end of the list the next page starts loading
+    private static final int NEXT_PAGE_THRESHOLD = 20;
+
+    //Rows either side of those on screen whose details are prefetched
+    private static final int PREFETCH_ROWS = 10;
+
+    //Key the sort order is saved under across configuration changes
+    private static final String STATE_SORT_ORDER = "sortOrder";
+
     //Global instance of the EarthquakeAdapter, so it can be used in multiple methods in this class
     private EarthquakeAdapter mAdapter;
 
     //Global instance of the TextView that is displayed when the list is empty
     private TextView mEmptyStateTextView;
 
+    //List of earthquakes, watched to time how long a result takes to reach the screen, and its layout manager
+    private RecyclerView mListView;
+    private LinearLayoutManager mLayoutManager;
+
+    //First and last row on screen when the details were last prefetched, and whether the rows have changed since
+    private int mPrefetchFirst = RecyclerView.NO_POSITION;
+    private int mPrefetchLast = RecyclerView.NO_POSITION;
+    private boolean mPrefetchStale = true;
+
+    //Prefetches the details once the rows have changed, posted so it runs after they're laid out
+    private final Runnable mPrefetchUpdater = new Runnable() {
+        @Override
+        public void run() {
+            updatePrefetch();
+        }
+    };
+
     //Global instance of the ProgressBar, so it can be used in multiple methods in this class
     private ProgressBar mProgressBar;
 
+    //Label showing the minimum magnitude filter
+    private TextView mMinMagnitudeLabel;
+
+    //Minimum magnitude shown, NaN shows every earthquake, and the order they're shown in
+    private double mMinMagnitude = Double.NaN;
+    private EarthquakeQueryEngine.SortOrder mSortOrder = EarthquakeQueryEngine.SortOrder.NEWEST_FIRST;
+
     /**
      * OnCreate method for this activity
      */
@@ -50,6 +99,11 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
+        //Put back the sort order chosen before a configuration change, the seek bar restores itself
+        if (savedInstanceState != null && savedInstanceState.getString(STATE_SORT_ORDER) != null) {
+            mSortOrder = EarthquakeQueryEngine.SortOrder.valueOf(savedInstanceState.getString(STATE_SORT_ORDER));
+        }
+
         //Check if the user is connected to the Internet
         if (!checkInternetConnectivity()) {
             //Hide the loading spinner
@@ -60,43 +114,279 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
             mEmptyStateTextView.setText(R.string.no_connectivity);
         } else {
-            //Creates a object constructor for the ListView
-            ListView earthquakeListView = (ListView) findViewById(R.id.list);
+            //Creates a object constructor for the RecyclerView, which lays its rows out in a vertical list
+            final RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+            mListView = earthquakeListView;
+            final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+            mLayoutManager = layoutManager;
+            earthquakeListView.setLayoutManager(layoutManager);
+            earthquakeListView.setHasFixedSize(true);
 
-            //Find and set the empty text view as the empty view for the layout
+            //Find the empty text view, shown whenever the list has no items
             mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-            earthquakeListView.setEmptyView(mEmptyStateTextView);
 
             //Creates an adapter for the words to use, appends the array of words to the adapter,
             //the adapter is responsible for making a View for each item in the data set
-            mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
+            mAdapter = new EarthquakeAdapter(this);
 
-            //Sets the adapter method on the ListView
+            //Sets the adapter method on the RecyclerView
             //so the list can be populated in the user interface
             earthquakeListView.setAdapter(mAdapter);
 
-            //On click listener for each item
-            earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            //A RecyclerView has no empty view of its own, so show it whenever the adapter's rows change,
+            //and the rows on screen may be different earthquakes now, so prefetch their details again
+            mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    onRowsChanged();
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    onRowsChanged();
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    onRowsChanged();
+                }
+            });
+            updateEmptyView();
+
+            //On click listener for each item, showing the earthquake's details, which are usually prefetched already
+            mAdapter.setOnItemClickListener(new EarthquakeAdapter.OnItemClickListener() {
                 @Override
-                public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                    //Find the current earthquake that was clicked on
-                    Earthquake currentEarthquake = mAdapter.getItem(position);
+                public void onItemClick(int position) {
+                    startActivity(EarthquakeDetailActivity.newIntent(EarthquakeActivity.this,
+                            mAdapter.getItem(position)));
+                }
+            });
+
+            //Filter the loaded earthquakes as the seek bar moves, this runs locally so it can follow the user's finger
+            mMinMagnitudeLabel = (TextView) findViewById(R.id.min_magnitude_label);
+            SeekBar minMagnitudeSeekBar = (SeekBar) findViewById(R.id.min_magnitude_seek_bar);
+            minMagnitudeSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+                @Override
+                public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                    //Progress is in tenths of a magnitude, 0 shows everything
+                    mMinMagnitude = progress == 0 ? Double.NaN : progress / 10.0;
+                    applyFilter();
+                }
 
-                    //Convert the String URL into a URI object (to pass into the Intent constructor)
-                    Uri earthquakeUri = Uri.parse(currentEarthquake.getDetailUrl());
+                @Override
+                public void onStartTrackingTouch(SeekBar seekBar) {
+                }
 
-                    //Load the webpage
-                    openWebPage(earthquakeUri);
+                @Override
+                public void onStopTrackingTouch(SeekBar seekBar) {
                 }
             });
+            applyFilter();
 
             //Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
+            final LoaderManager loaderManager = getLoaderManager();
+
+            //Load the next page when the user scrolls close to the end of the list, and prefetch the details of the
+            //rows around those on screen. A fling passes too many rows to be worth it, so that waits until it stops.
+            earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                    if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                        updatePrefetch();
+                    }
+                }
+
+                @Override
+                public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                    if (recyclerView.getScrollState() != RecyclerView.SCROLL_STATE_SETTLING) {
+                        updatePrefetch();
+                    }
+
+                    //Only page through the list in its loaded order, so filtering never goes to the network
+                    if (mAdapter.isFiltered()) {
+                        return;
+                    }
+                    int totalItemCount = mAdapter.getItemCount();
+                    int lastVisiblePosition = layoutManager.findLastVisibleItemPosition();
+                    if (totalItemCount > 0
+                            && lastVisiblePosition >= totalItemCount - 1 - NEXT_PAGE_THRESHOLD) {
+                        Loader<EarthquakeDisplayModel> loader = loaderManager.getLoader(EARTHQUAKE_LOADER_ID);
+                        if (loader != null) {
+                            ((EarthquakeLoader) loader).loadNextPage();
+                        }
+                    }
+                }
+            });
+
+            //Show the earthquakes saved by the last run straight away, unless a loader kept from before a
+            //configuration change already has them
+            if (loaderManager.getLoader(EARTHQUAKE_LOADER_ID) == null) {
+                EarthquakeDisplayModel snapshot = EarthquakeLoader.readSnapshot(this);
+                if (snapshot != null && snapshot.size() > 0) {
+                    mAdapter.setModel(snapshot);
+                    mProgressBar = (ProgressBar) findViewById(R.id.loading_spinner);
+                    mProgressBar.setVisibility(View.GONE);
+                }
+            }
 
             //Initialize the loader. Pass in the int ID constant defined above and pass in null for
             //the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
             //because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
+            //A loader kept from before a configuration change still points at the old activity, so re-attach it
+            EarthquakeLoader loader = (EarthquakeLoader) loaderManager.<EarthquakeDisplayModel>initLoader(
+                    EARTHQUAKE_LOADER_ID, null, this);
+            loader.setOnBatchLoadedListener(this);
+            loader.setPollFeed(POLL_FEED_URL, POLL_MIN_MAGNITUDE);
+        }
+    }
+
+    /**
+     * Add the sort order menu
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.sort, menu);
+        int checkedId = mSortOrder == EarthquakeQueryEngine.SortOrder.LARGEST_FIRST
+                ? R.id.sort_largest_first : R.id.sort_newest_first;
+        menu.findItem(checkedId).setChecked(true);
+        return true;
+    }
+
+    /**
+     * Re-sort the loaded earthquakes when a sort order is picked
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.sort_newest_first:
+                mSortOrder = EarthquakeQueryEngine.SortOrder.NEWEST_FIRST;
+                break;
+            case R.id.sort_largest_first:
+                mSortOrder = EarthquakeQueryEngine.SortOrder.LARGEST_FIRST;
+                break;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+        item.setChecked(true);
+        applyFilter();
+        return true;
+    }
+
+    /**
+     * Keep the sort order across configuration changes
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT_ORDER, mSortOrder.name());
+    }
+
+    /**
+     * Show the loaded earthquakes with the current minimum magnitude and sort order
+     */
+    private void applyFilter() {
+        if (mAdapter == null) {
+            return;
+        }
+        mMinMagnitudeLabel.setText(Double.isNaN(mMinMagnitude) ? getString(R.string.all_magnitudes)
+                : getString(R.string.min_magnitude, EarthquakeDisplayModel.formatMagnitude(mMinMagnitude)));
+        mAdapter.setFilter(mMinMagnitude, mSortOrder);
+    }
+
+    /**
+     * Prefetch the details of the rows on screen again when the list comes back into view
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mListView != null) {
+            mPrefetchStale = true;
+            mListView.post(mPrefetchUpdater);
+        }
+    }
+
+    /**
+     * Cancel the prefetches while the list is out of view, i.e. behind an earthquake's details
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (mListView != null) {
+            mListView.removeCallbacks(mPrefetchUpdater);
+            EarthquakeDetailActivity.getDetailLoader().prefetch(Collections.<String>emptyList());
+        }
+    }
+
+    /**
+     * Update the empty view and the prefetched details once the adapter's rows have changed
+     */
+    private void onRowsChanged() {
+        updateEmptyView();
+        mPrefetchStale = true;
+        mListView.removeCallbacks(mPrefetchUpdater);
+        mListView.post(mPrefetchUpdater);
+    }
+
+    /**
+     * Prefetch the details of the rows on screen, then those either side of them nearest first, which cancels
+     * the prefetches of rows scrolled away from. Nothing is done while the same rows are still on screen.
+     * Rows without an id have no detail to prefetch.
+     */
+    private void updatePrefetch() {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (!mPrefetchStale && first == mPrefetchFirst && last == mPrefetchLast) {
+            return;
+        }
+        mPrefetchFirst = first;
+        mPrefetchLast = last;
+        mPrefetchStale = false;
+
+        List<String> ids = new ArrayList<>();
+        if (first != RecyclerView.NO_POSITION && last != RecyclerView.NO_POSITION) {
+            int count = mAdapter.getItemCount();
+            for (int position = first; position <= last && position < count; position++) {
+                addId(ids, position);
+            }
+            //Rows further down first, as that's the way the list is usually scrolled
+            for (int distance = 1; distance <= PREFETCH_ROWS; distance++) {
+                if (last + distance < count) {
+                    addId(ids, last + distance);
+                }
+                if (first - distance >= 0) {
+                    addId(ids, first - distance);
+                }
+            }
+        }
+        EarthquakeDetailActivity.getDetailLoader().prefetch(ids);
+    }
+
+    /**
+     * Add the id of the row at {@param position} to {@param ids}, if it has one
+     */
+    private void addId(List<String> ids, int position) {
+        String id = mAdapter.getId(position);
+        if (id != null) {
+            ids.add(id);
+        }
+    }
+
+    /**
+     * Show the empty view only while the list has no items
+     */
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Detach from the loader, so it doesn't hold on to this activity after it's destroyed
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        Loader<EarthquakeDisplayModel> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        if (loader != null) {
+            ((EarthquakeLoader) loader).setOnBatchLoadedListener(null);
         }
     }
 
@@ -122,8 +412,27 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      * @return a new instance of the Loader
      */
     @Override
-    public Loader<List<Earthquake>> onCreateLoader(int id, Bundle args) {
-        return new EarthquakeLoader(this, REQUEST_URL);
+    public Loader<EarthquakeDisplayModel> onCreateLoader(int id, Bundle args) {
+        return new EarthquakeLoader(this, REQUEST_URL, BATCH_SIZE, PAGE_SIZE);
+    }
+
+    /**
+     * Show each batch of earthquakes as soon as the loader has parsed it, pass in:
+     * The {@param batch} of new earthquakes
+     * The {@param position} of the batch's first earthquake in the loader's result
+     */
+    @Override
+    public void onBatchLoaded(EarthquakeDisplayModel batch, int position) {
+        //Only append if the batch follows on from what is shown, any gap is filled by onLoadFinished
+        if (position != mAdapter.getLoadedCount()) {
+            return;
+        }
+
+        //Hide the loading spinner, as the first rows are ready
+        mProgressBar = (ProgressBar) findViewById(R.id.loading_spinner);
+        mProgressBar.setVisibility(View.GONE);
+
+        mAdapter.addAll(batch);
     }
 
     /**
@@ -132,22 +441,53 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      * The {@param result} from the Loader creation
      */
     @Override
-    public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> result) {
+    public void onLoadFinished(Loader<EarthquakeDisplayModel> loader, EarthquakeDisplayModel result) {
         //Hide the loading spinner
         mProgressBar = (ProgressBar) findViewById(R.id.loading_spinner);
         mProgressBar.setVisibility(View.GONE);
 
-        // Set empty state text to display "No earthquakes found."
-        mEmptyStateTextView.setText(R.string.no_earthquakes);
+        //Tell a failed request apart from a query with no earthquakes
+        boolean failed = ((EarthquakeLoader) loader).hasLastLoadFailed();
 
-        //Clear the adapter of previous data
-        mAdapter.clear();
+        // Set empty state text to display "No earthquakes found.", or that USGS couldn't be reached
+        mEmptyStateTextView.setText(failed ? R.string.load_failed : R.string.no_earthquakes);
+
+        //If there is a valid model of {@Link Earthquake}'s, then show it, replacing the batches shown while loading
+        //Otherwise clear the adapter of previous data
+        //The adapter only updates the rows of the list that differ from what is shown
+        if (result != null && result.size() > 0) {
+            final long startNanos = System.nanoTime();
+            mAdapter.setModel(result, new Runnable() {
+                @Override
+                public void run() {
+                    timeRender(startNanos);
+                }
+            });
+            //Let the user know the earthquakes shown may be out of date
+            if (failed || result.isStale()) {
+                Toast.makeText(this, R.string.stale_earthquakes, Toast.LENGTH_LONG).show();
+            }
+        } else {
+            mAdapter.clear();
+        }
+    }
 
-        //If there is a valid list of {@Link Earthquake}'s, then add them to the adapter's dataset
-        //This triggers the ListView to update
-        if (result != null && !result.isEmpty()) {
-            mAdapter.addAll(result);
+    /**
+     * Record the time from {@param startNanos} to the list next being about to draw, once it has laid out its rows
+     */
+    private void timeRender(final long startNanos) {
+        if (mListView == null) {
+            return;
         }
+        mListView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                Metrics.timer(Metrics.LIST_RENDER).recordSince(startNanos);
+                //The observer may have been replaced since, so remove the listener from the current one
+                mListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                return true;
+            }
+        });
     }
 
     /**
@@ -155,21 +495,8 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      * The {@param loader} to be used
      */
     @Override
-    public void onLoaderReset(Loader<List<Earthquake>> loader) {
+    public void onLoaderReset(Loader<EarthquakeDisplayModel> loader) {
         // Loader reset, so we can clear out our existing data.
         mAdapter.clear();
     }
-
-    /**
-     * Opens an intent using the URL passed in a parameter
-     * The {@param url} to be used
-     */
-    public void openWebPage(Uri url) {
-        //Create an intent
-        Intent intent = new Intent(Intent.ACTION_VIEW, url);
-        if (intent.resolveActivity(getPackageManager()) != null) {
-            //If possible, open the intent
-            startActivity(intent);
-        }
-    }
-}
\ No newline at end of file
+}
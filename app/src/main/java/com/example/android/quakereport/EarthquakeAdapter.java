@@ -2,167 +2,418 @@ package com.example.android.quakereport;
 
 import android.app.Activity;
 import android.graphics.drawable.GradientDrawable;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import static com.example.android.quakereport.R.id.magnitude;
 
 /**
- * Earthquake adapter class that handles the multiple TextViews for the ListView
+ * Earthquake adapter class that handles the multiple TextViews for the RecyclerView
+ * The rows come from an {@link EarthquakeDisplayModel}, which has all their text formatted already,
+ * so binding a recycled row only sets values on views it has already looked up.
+ * A minimum magnitude and sort order can be set, which are answered from the model's
+ * {@link EarthquakeQueryEngine} as a view over its sorted rows, so changing them needs no network or copying.
+ * A new model is compared with the rows shown by event id on a background thread, and only the rows it
+ * inserts, removes or changes are passed on to the list, so a refresh keeps the scroll position and
+ * animates just those rows.
  */
-public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
+public class EarthquakeAdapter extends RecyclerView.Adapter<EarthquakeAdapter.ViewHolder> {
+
+    /**
+     * Told when a row is clicked
+     */
+    public interface OnItemClickListener {
+
+        /**
+         * The row at {@param position} was clicked
+         */
+        void onItemClick(int position);
+    }
+
+    //Works out the differences between the rows shown and a new model, shared by every adapter
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EarthquakeAdapter diff");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    //The context used to inflate the layout file and look up the colours
+    private final Activity mContext;
+
+    //Handler used to pass differences from the background thread to the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //The earthquakes being shown
+    private EarthquakeDisplayModel mModel;
+
+    //Whether the model was created by this adapter, rather than handed over by the loader, so it can be appended to
+    private boolean mOwnsModel;
+
+    //Model waiting for its differences from the rows shown to be worked out, or null if there isn't one,
+    //and what to run once it's shown
+    private EarthquakeDisplayModel mPendingModel;
+    private Runnable mPendingOnShown;
+
+    //Counts every difference started, so one worked out against rows no longer shown is thrown away
+    private int mDiffGeneration;
+
+    //Minimum magnitude shown, NaN shows every earthquake
+    private double mMinMagnitude = Double.NaN;
+
+    //Order the earthquakes are shown in, the model's own order is newest first
+    private EarthquakeQueryEngine.SortOrder mSortOrder = EarthquakeQueryEngine.SortOrder.NEWEST_FIRST;
+
+    //The rows shown and their order, or null to show every row of the model in its own order
+    private RowView mView;
+
+    //Magnitude circle colours, indexed by magnitude bucket
+    private final int[] mMagnitudeColours;
+
+    //Text shown in place of the offset for locations without one
+    private final String mNearTheText;
+
+    //Told when a row is clicked, or null
+    private OnItemClickListener mOnItemClickListener;
+
+    //Time taken to bind each row, and to work out the differences of a new model
+    private final Histogram mBindTimer = Metrics.timer(Metrics.ADAPTER_BIND);
+    private final Histogram mDiffTimer = Metrics.timer(Metrics.ADAPTER_DIFF);
+
+    //Passes each difference on to the list
+    private final EarthquakeDiff.Callback mDiffCallback = new EarthquakeDiff.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position, count);
+        }
+    };
 
     /**
      * A custom constructor.
      *
-     * @param context     is used to inflate the layout file
-     * @param earthquakes is the data we want to populate into the lists
+     * @param context is used to inflate the layout file
+     */
+    public EarthquakeAdapter(Activity context) {
+        mContext = context;
+        mMagnitudeColours = resolveMagnitudeColours(context);
+        mNearTheText = context.getString(R.string.near_the);
+        mModel = new EarthquakeDisplayModel();
+        mOwnsModel = true;
+    }
+
+    /**
+     * Call {@param listener} when a row is clicked, null to stop
      */
-    public EarthquakeAdapter(Activity context, List<Earthquake> earthquakes) {
-        // This initialises the ArrayAdapter's internal storage for the context and the list.
-        // The second argument is used when the ArrayAdapter is populating a single TextView.
-        // Because this is a custom adapter for two TextViews the adapter is not
-        // going to use this second argument, so it can be any value.
-        super(context, 0, earthquakes);
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        mOnItemClickListener = listener;
     }
 
     /**
-     * Provides a view for an AdapterView (ListView, GridView, etc.)
+     * Show the earthquakes in {@param model}. The model is not changed by the adapter.
+     */
+    public void setModel(EarthquakeDisplayModel model) {
+        setModel(model, null);
+    }
+
+    /**
+     * Show the earthquakes in {@param model}, then run {@param onShown} on the main thread if it isn't null.
+     * The model is not changed by the adapter.
+     * Unless the list is empty, or is being emptied, the rows shown stay until the differences have been
+     * worked out in the background, then only the rows that differ are updated. If another model is set
+     * first, this one is never shown and {@param onShown} isn't run.
+     */
+    public void setModel(EarthquakeDisplayModel model, Runnable onShown) {
+        if (getItemCount() == 0 || model.size() == 0) {
+            mPendingModel = null;
+            mPendingOnShown = null;
+            mDiffGeneration++;
+            int removed = getItemCount();
+            mModel = model;
+            mOwnsModel = false;
+            updateView();
+            notifyItemRangeRemoved(0, removed);
+            notifyItemRangeInserted(0, getItemCount());
+            if (onShown != null) {
+                onShown.run();
+            }
+            return;
+        }
+        mPendingModel = model;
+        mPendingOnShown = onShown;
+        startDiff();
+    }
+
+    /**
+     * Remove every earthquake from the adapter
+     */
+    public void clear() {
+        setModel(new EarthquakeDisplayModel());
+        mOwnsModel = true;
+    }
+
+    /**
+     * Append the rows of {@param batch} after the rows already shown
+     */
+    public void addAll(EarthquakeDisplayModel batch) {
+        //Copy a handed over model before changing it, as the loader still holds on to it
+        if (!mOwnsModel) {
+            mModel = new EarthquakeDisplayModel(mModel, mModel.size() + batch.size());
+            mOwnsModel = true;
+        }
+        int oldCount = getItemCount();
+        mModel.addAll(batch);
+        updateView();
+        //Appended rows go on the end unless a filter or sort order puts them among the others
+        if (mView == null) {
+            notifyItemRangeInserted(oldCount, batch.size());
+        } else {
+            notifyDataSetChanged();
+        }
+        restartPendingDiff();
+    }
+
+    /**
+     * Only show earthquakes of at least {@param minMagnitude}, NaN to show them all, in {@param sortOrder}
+     */
+    public void setFilter(double minMagnitude, EarthquakeQueryEngine.SortOrder sortOrder) {
+        mMinMagnitude = minMagnitude;
+        mSortOrder = sortOrder;
+        updateView();
+        notifyDataSetChanged();
+        restartPendingDiff();
+    }
+
+    /**
+     * @return true if a filter or sort order is hiding or moving rows, so the rows shown aren't simply the loaded ones
+     */
+    public boolean isFiltered() {
+        return mView != null;
+    }
+
+    /**
+     * @return the number of earthquakes loaded, including any the filter hides
+     */
+    public int getLoadedCount() {
+        return mModel.size();
+    }
+
+    /**
+     * @return the number of earthquakes shown
+     */
+    @Override
+    public int getItemCount() {
+        return mView == null ? mModel.size() : mView.size();
+    }
+
+    /**
+     * @return a new {@link Earthquake} for the row at {@param position}
+     */
+    public Earthquake getItem(int position) {
+        return mModel.getTable().get(getRow(position));
+    }
+
+    /**
+     * @return the event id of the earthquake at {@param position}
+     */
+    public String getId(int position) {
+        return mModel.getTable().getId(getRow(position));
+    }
+
+    /**
+     * Inflate a row and look its views up once, clicks are passed on with the position the row is at then
+     *
+     * @param parent   The parent ViewGroup that is used for inflation.
+     * @param viewType Unused, every row has the same layout.
+     * @return The holder of the new row's views.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(mContext).inflate(R.layout.element_layout, parent, false);
+        final ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                //The row may be on its way out of the list, so has no position any more
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && mOnItemClickListener != null) {
+                    mOnItemClickListener.onItemClick(position);
+                }
+            }
+        });
+        return holder;
+    }
+
+    /**
+     * Populate a recycled row
      *
-     * @param position    is the position in the list of data that should be displayed in the list item view.
-     * @param convertView The recycled view to populate.
-     * @param parent      The parent ViewGroup that is used for inflation.
-     * @return The View for the position in the AdapterView.
+     * @param holder   The views of the row.
+     * @param position is the position in the list of data that should be displayed in the row.
      */
-    @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        //Get the data item for this position
-        Earthquake currentEarthquake = getItem(position);
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long startNanos = System.nanoTime();
+
+        //Populate the data into the template view using the display model
+        int row = getRow(position);
+        holder.magnitudeView.setText(mModel.getMagnitudeText(row));
+
+        // Set the proper background colour on the magnitude circle, from the colours looked up in the constructor
+        holder.magnitudeCircle.setColor(mMagnitudeColours[mModel.getMagnitudeBucket(row)]);
+
+        //Populate the date & time into the respective TextViews
+        holder.dateView.setText(mModel.getDateText(row));
+        holder.timeView.setText(mModel.getTimeText(row));
+
+        //The location was split when the earthquake was parsed
+        String offset = mModel.getLocationOffset(row);
+        //Substitute some text for the offset if the location doesn't have one
+        holder.offsetView.setText(offset.isEmpty() ? mNearTheText : offset);
+        holder.locationView.setText(mModel.getPrimaryLocation(row));
+
+        mBindTimer.recordSince(startNanos);
+    }
+
+    /**
+     * @return the row of the model shown at {@param position}
+     */
+    private int getRow(int position) {
+        return mView == null ? position : mView.getRow(position);
+    }
+
+    /**
+     * Work out which rows to show from the filter, as a view over the model's sorted rows
+     */
+    private void updateView() {
+        mView = filter(mModel, mMinMagnitude, mSortOrder);
+    }
 
-        //Check if an existing view is being reused, otherwise inflate the view
-        if (convertView == null) {
-            convertView = LayoutInflater.from(getContext()).inflate(R.layout.element_layout, parent, false);
+    /**
+     * Start working out the differences between the rows shown and the pending model in the background, then
+     * show the pending model and pass on just the rows that differ. Any difference already being worked out is
+     * thrown away when it arrives.
+     */
+    private void startDiff() {
+        final int generation = ++mDiffGeneration;
+        final EarthquakeDisplayModel oldModel = mModel;
+        final RowView oldView = mView;
+        final EarthquakeDisplayModel newModel = mPendingModel;
+        final double minMagnitude = mMinMagnitude;
+        final EarthquakeQueryEngine.SortOrder sortOrder = mSortOrder;
+
+        //The background thread reads the model shown, so copy it before appending to it from now on
+        mOwnsModel = false;
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startNanos = System.nanoTime();
+                final RowView newView = filter(newModel, minMagnitude, sortOrder);
+                final EarthquakeDiff diff = EarthquakeDiff.calculate(oldModel, oldView, newModel, newView);
+                mDiffTimer.recordSince(startNanos);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        //The rows shown have changed since, so the difference no longer applies
+                        if (generation != mDiffGeneration) {
+                            return;
+                        }
+                        Runnable onShown = mPendingOnShown;
+                        mPendingModel = null;
+                        mPendingOnShown = null;
+                        mModel = newModel;
+                        mView = newView;
+                        diff.dispatchTo(mDiffCallback);
+                        if (onShown != null) {
+                            onShown.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Work the pending model's differences out again, if there is one, as the rows shown have just changed
+     */
+    private void restartPendingDiff() {
+        if (mPendingModel != null) {
+            startDiff();
         }
+    }
 
-        //Lookup the views for the data population
-        TextView magnitudeView = (TextView) convertView.findViewById(magnitude);
-        TextView locationView = (TextView) convertView.findViewById(R.id.primaryLocation);
-        TextView offsetView = (TextView) convertView.findViewById(R.id.locationOffset);
-        TextView dateView = (TextView) convertView.findViewById(R.id.date);
-        TextView timeView = (TextView) convertView.findViewById(R.id.time);
-
-        //Populate the data into the template view using the data object
-        magnitudeView.setText("" + currentEarthquake.getMagnitude());
-
-        // Set the proper background colour on the magnitude circle.
-        // Fetch the background from the TextView, which is a GradientDrawable.
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
-        // Get the appropriate background colour based on the current earthquake magnitude
-        int magnitudeColour = getMagnitudeColour(currentEarthquake.getMagnitude());
-        // Set the colour on the magnitude circle
-        magnitudeCircle.setColor(magnitudeColour);
-
-        //Create a date from the milliseconds provided in the time
-        Date dateObject = new Date(currentEarthquake.getTimeInMilliseconds());
-        //Format the date & time
-        String formattedDate = formatDate(dateObject);
-        String formattedTime = formatTime(dateObject);
-        //Populate that date & time into the respective TextViews
-        dateView.setText(formattedDate);
-        timeView.setText(formattedTime);
-
-        //Get string of original location
-        String ogLocation = currentEarthquake.getLocation();
-        //Get index location of "of" in string
-        int ofIndex = ogLocation.indexOf("of");
-
-        //If statement to check if the string has an offset or not
-        if (ogLocation.contains("of")) {
-            //Create the relevant substrings using "of" as a separator location
-            String offset = ogLocation.substring(0, ofIndex + 3);
-            String location = ogLocation.substring(ofIndex + 3, ogLocation.length());
-            //Populate the views with the correct data
-            offsetView.setText(offset);
-            locationView.setText(location);
-        } else {
-            //Substitute some text for the offset and set the data to the TextViews
-            offsetView.setText("Near to the");
-            locationView.setText(ogLocation);
+    /**
+     * @return the rows of {@param model} of at least {@param minMagnitude} in {@param sortOrder}, or null for
+     * every row in the model's own order
+     */
+    private static RowView filter(EarthquakeDisplayModel model, double minMagnitude,
+                                  EarthquakeQueryEngine.SortOrder sortOrder) {
+        if (Double.isNaN(minMagnitude) && sortOrder == EarthquakeQueryEngine.SortOrder.NEWEST_FIRST) {
+            return null;
+        }
+        return model.getQueryEngine().filter(minMagnitude, Double.NaN, 0, 0, sortOrder);
+    }
+
+    /**
+     * @return the colour for every magnitude bucket, looked up once so binding a row doesn't need to
+     */
+    private static int[] resolveMagnitudeColours(Activity context) {
+        int[] colourIds = {
+                R.color.magnitude1, R.color.magnitude1, R.color.magnitude2, R.color.magnitude3,
+                R.color.magnitude4, R.color.magnitude5, R.color.magnitude6, R.color.magnitude7,
+                R.color.magnitude8, R.color.magnitude9, R.color.magnitude10plus
+        };
+        int[] colours = new int[EarthquakeDisplayModel.MAGNITUDE_BUCKETS];
+        for (int i = 0; i < colourIds.length; i++) {
+            //Return the colour, instead of the colour ID
+            colours[i] = ContextCompat.getColor(context, colourIds[i]);
         }
+        return colours;
+    }
+
+    /**
+     * Holds the views of a row, so they are only looked up when the row is inflated
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView magnitudeView;
+        final GradientDrawable magnitudeCircle;
+        final TextView locationView;
+        final TextView offsetView;
+        final TextView dateView;
+        final TextView timeView;
 
-        //Return the completed view to render on-screen
-        return convertView;
-    }
-
-    /**
-     * Return the formatted date string (i.e. "Mar 3, 1984") from a Date object.
-     */
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy");
-        return dateFormat.format(dateObject);
-    }
-
-    /**
-     * Return the formatted date string (i.e. "4:30 PM") from a Date object.
-     */
-    private String formatTime(Date dateObject) {
-        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
-        return timeFormat.format(dateObject);
-    }
-
-    /**
-     * @param magnitude - based on the input
-     * @return the correct colour ID for the magnitude circle
-     */
-    private int getMagnitudeColour(double magnitude) {
-        int magColourID;
-        //Convert double to int, so switch can work
-        int magFloor = (int) Math.floor(magnitude);
-        switch (magFloor) {
-            case 0:
-            case 1:
-                magColourID = R.color.magnitude1;
-                break;
-            case 2:
-                magColourID = R.color.magnitude2;
-                break;
-            case 3:
-                magColourID = R.color.magnitude3;
-                break;
-            case 4:
-                magColourID = R.color.magnitude4;
-                break;
-            case 5:
-                magColourID = R.color.magnitude5;
-                break;
-            case 6:
-                magColourID = R.color.magnitude6;
-                break;
-            case 7:
-                magColourID = R.color.magnitude7;
-                break;
-            case 8:
-                magColourID = R.color.magnitude8;
-                break;
-            case 9:
-                magColourID = R.color.magnitude9;
-                break;
-            default:
-                magColourID = R.color.magnitude10plus;
-                break;
+        ViewHolder(View view) {
+            super(view);
+            //Lookup the views for the data population
+            magnitudeView = (TextView) view.findViewById(magnitude);
+            // Fetch the background from the TextView, which is a GradientDrawable.
+            magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
+            locationView = (TextView) view.findViewById(R.id.primaryLocation);
+            offsetView = (TextView) view.findViewById(R.id.locationOffset);
+            dateView = (TextView) view.findViewById(R.id.date);
+            timeView = (TextView) view.findViewById(R.id.time);
         }
-        //Return the colour, instead of the colour ID
-        return ContextCompat.getColor(getContext(), magColourID);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,244 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the details of one earthquake: the summary from the list straight away, and the felt reports,
+ * intensities, alert, tsunami flag and ShakeMap from the event's detail GeoJSON once it's loaded, which it
+ * usually already is, as the list prefetches the details of the rows around those on screen
+ */
+public class EarthquakeDetailActivity extends AppCompatActivity {
+
+    //Keys of the extras the earthquake is passed in
+    private static final String EXTRA_ID = "id";
+    private static final String EXTRA_MAGNITUDE = "magnitude";
+    private static final String EXTRA_LOCATION = "location";
+    private static final String EXTRA_TIME = "time";
+    private static final String EXTRA_EVENT_PAGE_URL = "eventPageUrl";
+
+    //Most details cached, how long one is used for before it's loaded again, and how many are prefetched at once
+    private static final int DETAIL_CACHE_SIZE = 64;
+    private static final long DETAIL_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_PREFETCHES = 2;
+
+    //Loads the details for every screen, so the list's prefetches are found here
+    private static EarthquakeDetailLoader sDetailLoader;
+
+    //Handler used to pass the loaded detail to the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //Id and event page of the earthquake shown
+    private String mId;
+    private String mEventPageUrl;
+
+    //Whether the activity has been destroyed, so a detail loaded afterwards isn't shown
+    private boolean mDestroyed;
+
+    //Views filled in once the detail is loaded
+    private ProgressBar mProgressBar;
+    private TextView mErrorView;
+    private View mDetailViews;
+
+    //Passes the loaded detail to the main thread
+    private final EarthquakeDetailLoader.Callback mDetailCallback = new EarthquakeDetailLoader.Callback() {
+        @Override
+        public void onDetailLoaded(String id, final EarthquakeDetail detail) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mDestroyed) {
+                        showDetail(detail);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * @return the loader every screen gets the details from, created the first time it's needed
+     */
+    public static synchronized EarthquakeDetailLoader getDetailLoader() {
+        if (sDetailLoader == null) {
+            sDetailLoader = new EarthquakeDetailLoader(EarthquakeQuery.QUERY_ENDPOINT, DETAIL_CACHE_SIZE,
+                    DETAIL_TIME_TO_LIVE_MILLIS, MAX_PREFETCHES);
+        }
+        return sDetailLoader;
+    }
+
+    /**
+     * @return an intent showing the details of {@param earthquake}
+     */
+    public static Intent newIntent(Context context, Earthquake earthquake) {
+        return new Intent(context, EarthquakeDetailActivity.class)
+                .putExtra(EXTRA_ID, earthquake.getId())
+                .putExtra(EXTRA_MAGNITUDE, earthquake.getMagnitude())
+                .putExtra(EXTRA_LOCATION, earthquake.getLocation())
+                .putExtra(EXTRA_TIME, earthquake.getTimeInMilliseconds())
+                .putExtra(EXTRA_EVENT_PAGE_URL, earthquake.getDetailUrl());
+    }
+
+    /**
+     * OnCreate method for this activity
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.earthquake_detail_activity);
+
+        Intent intent = getIntent();
+        mId = intent.getStringExtra(EXTRA_ID);
+        mEventPageUrl = intent.getStringExtra(EXTRA_EVENT_PAGE_URL);
+        mProgressBar = (ProgressBar) findViewById(R.id.detail_loading_spinner);
+        mErrorView = (TextView) findViewById(R.id.detail_error);
+        mDetailViews = findViewById(R.id.detail_items);
+
+        //Show what the list already knows, while the rest loads
+        showSummary(intent.getDoubleExtra(EXTRA_MAGNITUDE, Double.NaN), null,
+                intent.getStringExtra(EXTRA_LOCATION), intent.getLongExtra(EXTRA_TIME, 0));
+
+        Button eventPageButton = (Button) findViewById(R.id.detail_event_page);
+        eventPageButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                openWebPage(mEventPageUrl);
+            }
+        });
+
+        //Show the detail straight away if it was prefetched, otherwise load it ahead of any prefetches.
+        //An event without an id has no detail to load.
+        EarthquakeDetailLoader loader = getDetailLoader();
+        EarthquakeDetail detail = mId == null ? null : loader.getCached(mId);
+        if (detail != null || mId == null) {
+            showDetail(detail);
+        } else {
+            loader.load(mId, mDetailCallback);
+        }
+    }
+
+    /**
+     * Stop waiting for the detail, it's still cached for next time
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mDestroyed = true;
+        getDetailLoader().removeCallback(mDetailCallback);
+    }
+
+    /**
+     * Show the {@param magnitude} and how it was measured ({@param magnitudeType}, which may be null),
+     * the {@param location} and the time in {@param timeInMilliseconds}
+     */
+    private void showSummary(double magnitude, String magnitudeType, String location, long timeInMilliseconds) {
+        TextView magnitudeView = (TextView) findViewById(R.id.detail_magnitude);
+        String magnitudeText = EarthquakeDisplayModel.formatMagnitude(magnitude);
+        magnitudeView.setText(magnitudeType == null ? getString(R.string.detail_magnitude, magnitudeText)
+                : getString(R.string.detail_magnitude_type, magnitudeText, magnitudeType));
+
+        TextView locationView = (TextView) findViewById(R.id.detail_location);
+        locationView.setText(location);
+
+        TextView timeView = (TextView) findViewById(R.id.detail_time);
+        timeView.setText(DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT)
+                .format(new Date(timeInMilliseconds)));
+    }
+
+    /**
+     * Show the {@param detail}, or that it couldn't be loaded if it's null
+     */
+    private void showDetail(final EarthquakeDetail detail) {
+        mProgressBar.setVisibility(View.GONE);
+        if (detail == null) {
+            mErrorView.setVisibility(View.VISIBLE);
+            return;
+        }
+        mErrorView.setVisibility(View.GONE);
+        mDetailViews.setVisibility(View.VISIBLE);
+
+        //The detail may have been revised since the list was loaded
+        if (!Double.isNaN(detail.getMagnitude()) && detail.getLocation() != null) {
+            showSummary(detail.getMagnitude(), detail.getMagnitudeType(), detail.getLocation(),
+                    detail.getTimeInMilliseconds());
+        }
+        if (detail.getEventPageUrl() != null) {
+            mEventPageUrl = detail.getEventPageUrl();
+        }
+
+        TextView depthView = (TextView) findViewById(R.id.detail_depth);
+        if (Double.isNaN(detail.getDepth())) {
+            depthView.setVisibility(View.GONE);
+        } else {
+            depthView.setText(getString(R.string.detail_depth, detail.getDepth()));
+        }
+
+        TextView feltView = (TextView) findViewById(R.id.detail_felt);
+        feltView.setText(detail.getFeltReports() > 0
+                ? getString(R.string.detail_felt, detail.getFeltReports()) : getString(R.string.detail_not_felt));
+
+        showIntensity(R.id.detail_community_intensity, R.string.detail_community_intensity,
+                detail.getCommunityIntensity());
+        showIntensity(R.id.detail_instrumental_intensity, R.string.detail_instrumental_intensity,
+                detail.getInstrumentalIntensity());
+
+        TextView alertView = (TextView) findViewById(R.id.detail_alert);
+        if (detail.getAlertLevel() == null) {
+            alertView.setVisibility(View.GONE);
+        } else {
+            alertView.setText(getString(R.string.detail_alert, detail.getAlertLevel()));
+        }
+
+        findViewById(R.id.detail_tsunami).setVisibility(detail.isTsunami() ? View.VISIBLE : View.GONE);
+
+        Button shakeMapButton = (Button) findViewById(R.id.detail_shake_map);
+        if (detail.getShakeMapImageUrl() == null) {
+            shakeMapButton.setVisibility(View.GONE);
+        } else {
+            shakeMapButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    openWebPage(detail.getShakeMapImageUrl());
+                }
+            });
+        }
+    }
+
+    /**
+     * Show the {@param intensity} in the view with {@param viewId} using the string with {@param formatId},
+     * or hide the view if the intensity is NaN
+     */
+    private void showIntensity(int viewId, int formatId, double intensity) {
+        TextView intensityView = (TextView) findViewById(viewId);
+        if (Double.isNaN(intensity)) {
+            intensityView.setVisibility(View.GONE);
+        } else {
+            intensityView.setText(getString(formatId, intensity));
+        }
+    }
+
+    /**
+     * Opens the {@param url} in a browser, if there is one
+     */
+    private void openWebPage(String url) {
+        if (url == null) {
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(url));
+        if (intent.resolveActivity(getPackageManager()) != null) {
+            startActivity(intent);
+        }
+    }
+}
@@ -2,26 +2,283 @@ package com.example.android.quakereport;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Earthquake loader task
+ * Earthquakes are published in batches while they are parsed, and when a page size is set further
+ * pages are requested with the USGS offset/limit parameters through an {@link EarthquakePager}, and the
+ * earthquakes they add are appended to the loaded result.
+ * The first load delivers the earthquakes saved in the {@link EarthquakeStore} straight away, then
+ * brings them up to date through {@link EarthquakeSync}, or replaces them with the first page if the loader pages.
+ * Results and batches are delivered as an {@link EarthquakeDisplayModel}, with their text formatted on the
+ * background thread. The loader keeps its result across configuration changes, so it's never formatted twice.
+ * A loader can instead be given several {@link EarthquakeQuery}s, which are fetched in parallel by a
+ * {@link FetchOrchestrator} and merged into one result.
+ * A single URL loader can also poll a summary feed through a {@link FeedPoller} while it's started. Changed
+ * earthquakes are merged into the store, and the loader then reloads its result from the store. A paged result
+ * is the query's earthquakes in the server's order rather than the store, so a loader that pages syncs the
+ * query's changes into its pages instead, keeping their place, see {@link EarthquakePager}.
+ * A cancelled load aborts its request and stops parsing straight away. The earthquakes it had already parsed
+ * are merged into the store, so they are shown as soon as the query is loaded again.
+ * When a request fails for good, the loader falls back to the earthquakes it last had and marks them stale,
+ * see {@link EarthquakeDisplayModel#isStale()}, and {@link #hasLastLoadFailed()} tells a failure apart from
+ * an empty result.
+ * Every successful result is saved as an {@link EarthquakeSnapshot}, which {@link #readSnapshot(Context)} reads
+ * back in a few milliseconds, so a cold start can show it before the loader has even started.
+ * Every load is timed and its allocations measured in {@link Metrics}, which are published at the end of the load,
+ * to logcat in debug builds.
  */
-public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
+public class EarthquakeLoader extends AsyncTaskLoader<EarthquakeDisplayModel> {
 
     //Log tag that returns the package name for errors
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
 
+    /**
+     * Callback for earthquakes that have been parsed before the whole load has finished
+     */
+    public interface OnBatchLoadedListener {
+        /**
+         * Called on the main thread with a batch of earthquakes
+         *
+         * @param batch    the newly parsed earthquakes, ready to show
+         * @param position the index of the first earthquake of the batch within the loader's result
+         */
+        void onBatchLoaded(EarthquakeDisplayModel batch, int position);
+    }
+
+    //Name of the file the earthquake store is saved in
+    private static final String STORE_FILE_NAME = "earthquakes.store";
+
+    //Name of the file the last loaded result is saved in, to be shown straight away on a cold start
+    private static final String SNAPSHOT_FILE_NAME = "earthquakes.snapshot";
+
+    //Most earthquakes kept in the store
+    private static final int STORE_MAX_ENTRIES = 2000;
+
+    //Oldest an earthquake in the store can be
+    private static final long STORE_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    //The store shared by every loader in the app
+    private static EarthquakeStore sStore;
+
+    //Most queries fetched at the same time by a multi-query loader
+    private static final int MAX_CONCURRENT_QUERIES = 4;
+
+    //The orchestrator shared by every multi-query loader in the app
+    private static FetchOrchestrator sOrchestrator;
+
+    //Whether the metrics sinks and allocation meter have been set up for the app
+    private static boolean sMetricsInstalled;
+
     //Global instance of the String Url, so it can be used in multiple methods in this class
     private String mUrl;
 
+    //The queries fetched together instead of the URL, or null for a single URL loader
+    private List<EarthquakeQuery> mQueries;
+
+    //How many earthquakes are parsed before a batch is published, 0 disables batching
+    private int mBatchSize;
+
+    //How many earthquakes are requested per page, 0 requests the URL as it is in one go
+    private int mPageSize;
+
+    //Keeps track of the pages fetched from the server, or null if the loader doesn't page
+    private final EarthquakePager mPager;
+
+    //Handler used to pass batches from the background thread to the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //Receives the batches, only ever touched on the main thread
+    private OnBatchLoadedListener mBatchListener;
+
+    //Every earthquake loaded so far, across all pages. Never changed once delivered.
+    private volatile EarthquakeDisplayModel mModel;
+
+    //Whether the last page was full, so there may be more to load
+    private volatile boolean mHasMorePages = true;
+
+    //Whether the pager may have earthquakes the delivered model doesn't, because a load was cancelled
+    private volatile boolean mModelOutOfDate;
+
+    //Whether a load is currently running
+    private boolean mLoading;
+
+    //Whether the last load couldn't get its earthquakes from the server
+    private volatile boolean mLastLoadFailed;
+
+    //Cancels the running load, replaced by each load
+    private volatile CancellationToken mCancellation;
+
+    //Where loaded earthquakes are saved to, and shown from on the next cold start
+    private final EarthquakeStore mStore;
+
+    //Keeps the store up to date with the query, fetching only what has changed
+    private final EarthquakeSync mSync;
+
+    //Polls a summary feed for changes while the loader is started, or null if it doesn't poll
+    private FeedPoller mPoller;
+
+    //Whether the poller has changed the store since the result was last loaded from it
+    private volatile boolean mStoreChanged;
+
+    //Merges polled changes into the store, then reloads once no load is running
+    private final FeedPoller.OnEarthquakesChangedListener mPollListener =
+            new FeedPoller.OnEarthquakesChangedListener() {
+                @Override
+                public void onEarthquakesChanged(List<Earthquake> changed) {
+                    mStore.putAll(changed);
+                    saveStore();
+                    mStoreChanged = true;
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mLoading && mModel != null) {
+                                onContentChanged();
+                            }
+                        }
+                    });
+                }
+            };
+
     /**
      * The constructor for this class
      */
     public EarthquakeLoader(Context context, String url) {
+        this(context, url, 0, 0);
+    }
+
+    /**
+     * Constructor for a progressive and optionally paged loader
+     *
+     * @param batchSize how many parsed earthquakes make up a batch, 0 or less disables batching
+     * @param pageSize  how many earthquakes to request per page, 0 or less disables paging
+     */
+    public EarthquakeLoader(Context context, String url, int batchSize, int pageSize) {
         super(context);
         mUrl = url;
+        mBatchSize = batchSize;
+        mPageSize = pageSize;
+        mPager = url != null && pageSize > 0 ? new EarthquakePager(url, pageSize) : null;
+        mStore = getStore(context);
+        mSync = new EarthquakeSync(mStore);
+        installMetrics();
+    }
+
+    /**
+     * Constructor for a loader that fetches every one of the {@param queries} in parallel and merges the results
+     */
+    public EarthquakeLoader(Context context, List<EarthquakeQuery> queries) {
+        this(context, null, 0, 0);
+        mQueries = queries;
+    }
+
+    /**
+     * @return the earthquake store shared across the app, creating it on first use
+     */
+    public static synchronized EarthquakeStore getStore(Context context) {
+        if (sStore == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), STORE_FILE_NAME);
+            sStore = new EarthquakeStore(file, STORE_MAX_ENTRIES, STORE_MAX_AGE_MILLIS);
+        }
+        return sStore;
+    }
+
+    /**
+     * @return the result saved by the last successful load, or null if there isn't one or it's damaged,
+     * in which case the earthquakes are loaded the usual way
+     */
+    public static EarthquakeDisplayModel readSnapshot(Context context) {
+        File file = getSnapshotFile(context);
+        long startNanos = System.nanoTime();
+        try {
+            EarthquakeDisplayModel snapshot = EarthquakeSnapshot.read(file);
+            Metrics.timer(Metrics.SNAPSHOT_READ).recordSince(startNanos);
+            return snapshot;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake snapshot", e);
+            //Don't trip over it again, the next successful load writes a new one
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * @return the file the snapshot is saved in
+     */
+    private static File getSnapshotFile(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Set up the metrics for the app, the first time a loader is created
+     */
+    private static synchronized void installMetrics() {
+        if (sMetricsInstalled) {
+            return;
+        }
+        sMetricsInstalled = true;
+        //Android has no per-thread allocation count, but ART keeps one for the process
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Metrics.setAllocationMeter(new RuntimeAllocationMeter());
+        }
+        if (BuildConfig.DEBUG) {
+            Metrics.addSink(new LogcatMetricsSink());
+        }
+    }
+
+    /**
+     * Set the listener that receives batches of earthquakes while they are still loading
+     */
+    public void setOnBatchLoadedListener(OnBatchLoadedListener listener) {
+        mBatchListener = listener;
+    }
+
+    /**
+     * Poll the summary feed at {@param feedUrl} while the loader is started, passing on earthquakes of at
+     * least {@param minMagnitude}. Does nothing if the loader already polls that feed, so it can be called
+     * again after a configuration change without losing the poller's backoff.
+     */
+    public void setPollFeed(String feedUrl, double minMagnitude) {
+        if (mPoller != null) {
+            if (feedUrl.equals(mPoller.getFeedUrl())) {
+                return;
+            }
+            mPoller.stop();
+            mPoller.removeListener(mPollListener);
+        }
+        mPoller = new FeedPoller(feedUrl, minMagnitude);
+        mPoller.addListener(mPollListener);
+        if (isStarted()) {
+            mPoller.start();
+        }
+    }
+
+    /**
+     * @return true if the last load couldn't reach the server, or got an error back, so its result is
+     * whatever was loaded before
+     */
+    public boolean hasLastLoadFailed() {
+        return mLastLoadFailed;
+    }
+
+    /**
+     * Request the next page of earthquakes, if paging is enabled and there are more to load
+     */
+    public void loadNextPage() {
+        if (mPager == null || mLoading || !mHasMorePages || mModel == null) {
+            return;
+        }
+        forceLoad();
     }
 
     /**
@@ -29,26 +286,400 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
      */
     @Override
     protected void onStartLoading() {
-        //Force the load
-        forceLoad();
+        //Hand back what is already loaded, so the pages aren't thrown away
+        if (mModel != null) {
+            deliverResult(mModel);
+        }
+        //Force the load if nothing has been loaded yet
+        if (mModel == null || takeContentChanged()) {
+            forceLoad();
+        }
+        if (mPoller != null) {
+            mPoller.start();
+        }
+    }
+
+    /**
+     * Stop polling while nothing is shown
+     */
+    @Override
+    protected void onStopLoading() {
+        if (mPoller != null) {
+            mPoller.stop();
+        }
+    }
+
+    /**
+     * Keep track of the running load, so paging requests are not doubled up
+     */
+    @Override
+    protected void onForceLoad() {
+        super.onForceLoad();
+        mLoading = true;
     }
 
     /**
      * The background process for the Loader
      *
-     * @return
+     * @return every earthquake loaded so far, including the new page
      */
     @Override
-    public List<Earthquake> loadInBackground() {
+    public EarthquakeDisplayModel loadInBackground() {
+        CancellationToken cancellation = new CancellationToken();
+        mCancellation = cancellation;
+
+        //Time the load and measure what it allocates, then publish everything recorded so far
+        long startNanos = System.nanoTime();
+        long startAllocated = Metrics.getAllocatedBytes();
+        try {
+            EarthquakeDisplayModel result = load(cancellation);
+            //Only a complete, fresh result is worth showing on the next cold start
+            if (result != null && result.size() > 0 && !result.isStale() && !mLastLoadFailed
+                    && !cancellation.isCancelled()) {
+                writeSnapshot(result);
+            }
+            return result;
+        } finally {
+            Metrics.timer(Metrics.LOAD_TOTAL).recordSince(startNanos);
+            long allocated = Metrics.getAllocatedBytes();
+            if (startAllocated >= 0 && allocated >= 0) {
+                Metrics.histogram(Metrics.LOAD_ALLOCATED_BYTES).record(allocated - startAllocated);
+            }
+            Metrics.publish();
+        }
+    }
+
+    /**
+     * Load the next result, unless {@param cancellation} is cancelled
+     */
+    private EarthquakeDisplayModel load(CancellationToken cancellation) {
+        mLastLoadFailed = false;
+
+        //Fetch the queries together, if this loader was given them
+        if (mQueries != null) {
+            return loadQueries(cancellation);
+        }
+
         // Don't perform the request if there are no URLs, or the URL is null.
         if (mUrl == null) {
             return null;
         }
 
-        //Get the data for the URL provided
-        List<Earthquake> result = QueryUtils.fetchEarthquakeData(mUrl);
+        //Earthquakes loaded before, the new page is appended after them
+        final EarthquakeDisplayModel previous = mModel;
+
+        //Page through the query, if this loader pages
+        if (mPager != null) {
+            return loadPage(previous, cancellation);
+        }
+
+        //The poller has merged changes into the store, so show the store as it is now
+        if (previous != null && mStoreChanged) {
+            mStoreChanged = false;
+            return new EarthquakeDisplayModel(EarthquakeTable.from(mStore.getEarthquakes()));
+        }
+
+        //On the first load, show the stored earthquakes straight away and only fetch what has changed since
+        EarthquakeDisplayModel cached = null;
+        if (previous == null) {
+            cached = new EarthquakeDisplayModel(EarthquakeTable.from(readStore()));
+            if (cached.size() > 0) {
+                publishCached(cached);
+            }
+        }
+
+        List<Earthquake> synced = mSync.sync(mUrl, mUrl, mBatchSize, newBatchListener(), cancellation);
+        if (cancellation.isCancelled()) {
+            //The sync kept what it parsed in the store, save it for the next load
+            saveStore();
+            return null;
+        }
+        //If the request failed, fall back to the stored earthquakes, which a stale response may have added to
+        if (synced == null) {
+            mLastLoadFailed = true;
+            return getStoredFallback(cached);
+        }
+        saveStore();
+        mHasMorePages = false;
+        return new EarthquakeDisplayModel(EarthquakeTable.from(synced));
+    }
+
+    /**
+     * Load the next page of the query and append what it adds to the {@param previous} pages, which may be
+     * null, unless {@param cancellation} is cancelled. After the poller has changed the store, the pages are
+     * synced with the query instead.
+     */
+    private EarthquakeDisplayModel loadPage(EarthquakeDisplayModel previous, CancellationToken cancellation) {
+        //Until a page has come from the server, whatever is shown is replaced rather than appended to
+        boolean firstPage = mPager.size() == 0;
+        int revision = mPager.getRevision();
+        int keptCount = mPager.size();
+
+        //The poller has seen changes, so merge the query's changes into the pages where they belong
+        if (mStoreChanged && !firstPage) {
+            mStoreChanged = false;
+            boolean synced = mPager.sync(mSync, cancellation);
+            saveStore();
+            if (cancellation.isCancelled()) {
+                mModelOutOfDate = true;
+                return null;
+            }
+            mLastLoadFailed = !synced;
+            return getPagedResult(previous, revision, keptCount);
+        }
+        mStoreChanged = false;
+
+        //On the first load, show the stored earthquakes straight away while the first page is fetched
+        EarthquakeDisplayModel cached = null;
+        if (previous == null) {
+            cached = new EarthquakeDisplayModel(EarthquakeTable.from(readStore()));
+            if (cached.size() > 0) {
+                publishCached(cached);
+            }
+        }
+
+        //Get the next page, passing on only the earthquakes it adds, at their position in the result. The page
+        //is saved in the store, so it can be shown on the next cold start, and a cancelled one is fetched again
+        //by the next load.
+        FeedResponse response = mPager.fetchNextPage(mSync, mBatchSize, newBatchListener(), cancellation);
+        saveStore();
+        if (cancellation.isCancelled()) {
+            //The pages may have been synced before the cancel
+            mModelOutOfDate = true;
+            return null;
+        }
+
+        //If the page failed, keep what was already loaded, or fall back to the store
+        if (response == null) {
+            mLastLoadFailed = true;
+            return firstPage ? getStoredFallback(cached) : getPagedResult(previous, revision, keptCount);
+        }
+        mHasMorePages = mPager.hasMorePages();
 
-        //Return the result
+        EarthquakeDisplayModel result = getPagedResult(firstPage ? null : previous, revision, keptCount);
+        if (response.isStale()) {
+            mLastLoadFailed = true;
+            if (result == previous) {
+                //The delivered model may be shown, so mark a copy of it
+                result = new EarthquakeDisplayModel(previous, previous.size());
+            }
+            result.setStale(true);
+        }
         return result;
     }
+
+    /**
+     * @return the pager's earthquakes, appended to the {@param previous} result, which may be null, if the pager
+     * has only appended to the {@param keptCount} earthquakes it kept at {@param revision} since. The delivered
+     * model is copied rather than changed, so only the new earthquakes are formatted.
+     */
+    private EarthquakeDisplayModel getPagedResult(EarthquakeDisplayModel previous, int revision, int keptCount) {
+        if (previous == null || mModelOutOfDate || mPager.getRevision() != revision || previous.size() != keptCount) {
+            mModelOutOfDate = false;
+            return new EarthquakeDisplayModel(EarthquakeTable.from(mPager.getEarthquakes()));
+        }
+        List<Earthquake> appended = mPager.getEarthquakes().subList(keptCount, mPager.size());
+        if (appended.isEmpty()) {
+            return previous;
+        }
+        EarthquakeDisplayModel result = new EarthquakeDisplayModel(previous, previous.size() + appended.size());
+        result.addAll(appended);
+        return result;
+    }
+
+    /**
+     * @return a listener that formats batches as they are parsed, then passes them over to the main thread
+     */
+    private GeoJsonParser.OnBatchParsedListener newBatchListener() {
+        return new GeoJsonParser.OnBatchParsedListener() {
+            @Override
+            public void onBatchParsed(List<Earthquake> earthquakes, final int position) {
+                final EarthquakeDisplayModel batch = new EarthquakeDisplayModel(EarthquakeTable.from(earthquakes));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mBatchListener != null && !isReset()) {
+                            mBatchListener.onBatchLoaded(batch, position);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * @return the stored earthquakes marked stale after a failed request, or null if there are none. The
+     * {@param cached} model, which may be null, is copied instead if nothing has been stored since it was read.
+     */
+    private EarthquakeDisplayModel getStoredFallback(EarthquakeDisplayModel cached) {
+        List<Earthquake> stored = mStore.getEarthquakes();
+        if (stored.isEmpty()) {
+            return null;
+        }
+        //The cached model may already be shown, so mark a copy of it
+        EarthquakeDisplayModel fallback = cached != null && stored.size() == cached.size()
+                ? new EarthquakeDisplayModel(cached, cached.size())
+                : new EarthquakeDisplayModel(EarthquakeTable.from(stored));
+        fallback.setStale(true);
+        return fallback;
+    }
+
+    /**
+     * Abort the running load's request and parse, called on the main thread when the load is cancelled
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        CancellationToken cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+    }
+
+    /**
+     * Remember the delivered result, it is the base the next page is appended to
+     */
+    @Override
+    public void deliverResult(EarthquakeDisplayModel data) {
+        mLoading = false;
+        mModel = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+            //Pick up changes polled while the load was running
+            if (mStoreChanged && data != null) {
+                onContentChanged();
+            }
+        }
+    }
+
+    /**
+     * A cancelled load is no longer running
+     */
+    @Override
+    public void onCanceled(EarthquakeDisplayModel data) {
+        mLoading = false;
+        if (data != null && mPager != null) {
+            mModelOutOfDate = true;
+        }
+    }
+
+    /**
+     * When the Loader is reset, forget the loaded pages
+     */
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        if (mPoller != null) {
+            mPoller.stop();
+            mPoller.removeListener(mPollListener);
+            mPoller = null;
+        }
+        mLoading = false;
+        mModel = null;
+        mHasMorePages = true;
+        if (mPager != null) {
+            mPager.reset();
+        }
+    }
+
+    /**
+     * Fetch every query in parallel and merge the results into one model, unless {@param cancellation} is cancelled
+     */
+    private EarthquakeDisplayModel loadQueries(CancellationToken cancellation) {
+        try {
+            List<Earthquake> merged = getOrchestrator().fetchAll(mQueries, cancellation);
+            if (cancellation.isCancelled()) {
+                return null;
+            }
+            mHasMorePages = false;
+            if (merged == null) {
+                mLastLoadFailed = true;
+                return null;
+            }
+            return new EarthquakeDisplayModel(EarthquakeTable.from(merged));
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "Interrupted while fetching the earthquake queries", e);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return the orchestrator shared across the app, creating it on first use
+     */
+    private static synchronized FetchOrchestrator getOrchestrator() {
+        if (sOrchestrator == null) {
+            sOrchestrator = new FetchOrchestrator(MAX_CONCURRENT_QUERIES);
+        }
+        return sOrchestrator;
+    }
+
+    /**
+     * Pass the stored earthquakes to the main thread as an early result, while the load carries on
+     */
+    private void publishCached(final EarthquakeDisplayModel cached) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                //Don't replace anything the running load has already delivered
+                if (mModel == null && isStarted()) {
+                    mModel = cached;
+                    EarthquakeLoader.super.deliverResult(cached);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the earthquakes in the store, reading it from disk if needed
+     */
+    private List<Earthquake> readStore() {
+        try {
+            mStore.load();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake store", e);
+        }
+        return mStore.getEarthquakes();
+    }
+
+    /**
+     * Save the {@param model} as the snapshot shown on the next cold start
+     */
+    private void writeSnapshot(EarthquakeDisplayModel model) {
+        try {
+            EarthquakeSnapshot.write(getSnapshotFile(getContext()), model);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem saving the earthquake snapshot", e);
+        }
+    }
+
+    /**
+     * Save the store to disk, so the earthquakes can be shown on the next cold start
+     */
+    private void saveStore() {
+        try {
+            mStore.save();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem saving the earthquake store", e);
+        }
+    }
+
+    /**
+     * Measures the bytes allocated by the whole process, through ART's runtime statistics from Android 6.0.
+     * Other threads' allocations are counted too, so a load's figure is only exact when nothing else is running.
+     */
+    private static final class RuntimeAllocationMeter implements Metrics.AllocationMeter {
+        @Override
+        public long getAllocatedBytes() {
+            String bytes = Debug.getRuntimeStat("art.gc.bytes-allocated");
+            if (bytes == null) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(bytes);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
 }
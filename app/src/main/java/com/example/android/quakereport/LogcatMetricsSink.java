@@ -0,0 +1,19 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+/**
+ * Writes each snapshot of the {@link Metrics} to logcat, a line per metric
+ */
+public class LogcatMetricsSink implements MetricsSink {
+
+    //Log tag the metrics are written under, so they can be filtered with "adb logcat -s QuakeMetrics"
+    public static final String LOG_TAG = "QuakeMetrics";
+
+    @Override
+    public void publish(MetricsSnapshot snapshot) {
+        for (String line : snapshot.formatLines()) {
+            Log.i(LOG_TAG, line);
+        }
+    }
+}
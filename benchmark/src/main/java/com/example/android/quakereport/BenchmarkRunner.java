@@ -0,0 +1,209 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Runs the benchmarks with the GC profiler and checks the results against a baseline.
+ * For every benchmark and fixture size the baseline holds the throughput (operations per second),
+ * the 99th percentile time of one operation (milliseconds) and the bytes allocated per operation.
+ * A run fails, exiting with status 1, if the allocation grows by more than the baseline's tolerance.
+ * The allocation is the same on any machine, but the times aren't, so they are only reported unless
+ * "--check-times" is given, which also fails the run if throughput drops or the 99th percentile grows by
+ * more than the tolerance. That is only meaningful on the machine the baseline was written on.
+ * Measurements with no baseline entry are reported but never fail the run.
+ * Arguments: the baseline file, the JSON report file, then optionally "--update-baseline" to write the
+ * measured values to the baseline instead of checking them, "--check-times", and a regular expression
+ * selecting benchmarks.
+ */
+public final class BenchmarkRunner {
+
+    //Baseline key holding the fraction a measurement may get worse by before it fails the run
+    private static final String TOLERANCE_KEY = "tolerance";
+    private static final double DEFAULT_TOLERANCE = 0.15;
+
+    //Suffixes of the baseline keys for each measurement
+    private static final String THROUGHPUT = "throughput";
+    private static final String P99_MILLIS = "p99Millis";
+    private static final String ALLOCATED_BYTES = "allocatedBytesPerOp";
+
+    //Label the GC profiler gives the normalised allocation rate, after a separator that varies by version
+    private static final String ALLOCATION_LABEL = "gc.alloc.rate.norm";
+
+    /**
+     * Private constructor, this class is only run from the command line
+     */
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkRunner <baseline file> <report file> [--update-baseline]"
+                    + " [--check-times] [regex]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        File reportFile = new File(args[1]);
+        boolean updateBaseline = false;
+        boolean checkTimes = false;
+        String include = BenchmarkRunner.class.getPackage().getName() + "\\..*Benchmark";
+        for (int i = 2; i < args.length; i++) {
+            if ("--update-baseline".equals(args[i])) {
+                updateBaseline = true;
+            } else if ("--check-times".equals(args[i])) {
+                checkTimes = true;
+            } else {
+                include = args[i];
+            }
+        }
+
+        reportFile.getParentFile().mkdirs();
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(reportFile.getPath());
+        Map<String, Double> measured = collect(new Runner(options.build()).run());
+
+        Properties baseline = readProperties(baselineFile);
+        if (updateBaseline) {
+            writeBaseline(baselineFile, baseline, measured);
+            System.out.println("Baseline written to " + baselineFile);
+            return;
+        }
+
+        List<String> regressions = compare(baseline, measured, checkTimes);
+        if (!regressions.isEmpty()) {
+            System.err.println(regressions.size() + " benchmark regression(s) against " + baselineFile + ":");
+            for (String regression : regressions) {
+                System.err.println("  " + regression);
+            }
+            System.exit(1);
+        }
+        System.out.println("No benchmark regressions against " + baselineFile);
+    }
+
+    /**
+     * @return every measurement in the {@param results}, by baseline key
+     */
+    private static Map<String, Double> collect(Collection<RunResult> results) {
+        Map<String, Double> measured = new TreeMap<>();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            String key = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1)
+                    + "." + result.getParams().getParam("features");
+            Mode mode = result.getParams().getMode();
+
+            if (mode == Mode.Throughput) {
+                measured.put(key + "." + THROUGHPUT, result.getPrimaryResult().getScore());
+                //The allocation per operation doesn't depend on the mode, so it's only taken from one of them
+                //JMH hands the secondary results back with the raw type, so each is read as a Result<?>
+                for (String label : result.getSecondaryResults().keySet()) {
+                    if (label.endsWith(ALLOCATION_LABEL)) {
+                        Result<?> secondary = result.getSecondaryResults().get(label);
+                        measured.put(key + "." + ALLOCATED_BYTES, secondary.getScore());
+                    }
+                }
+            } else if (mode == Mode.SampleTime) {
+                //Sample times are in the benchmark's output unit, seconds, per operation
+                double p99Seconds = result.getPrimaryResult().getStatistics().getPercentile(99.0);
+                measured.put(key + "." + P99_MILLIS, p99Seconds * 1000);
+            }
+        }
+        return measured;
+    }
+
+    /**
+     * @return a description of every measurement that is worse than its baseline by more than the tolerance,
+     * only looking at the allocation unless {@param checkTimes} is set
+     */
+    private static List<String> compare(Properties baseline, Map<String, Double> measured, boolean checkTimes) {
+        double tolerance = Double.parseDouble(baseline.getProperty(TOLERANCE_KEY, String.valueOf(DEFAULT_TOLERANCE)));
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : measured.entrySet()) {
+            String key = entry.getKey();
+            double value = entry.getValue();
+            String expected = baseline.getProperty(key);
+            if (expected == null) {
+                System.out.println(String.format(Locale.US, "%-55s %14.3f (no baseline)", key, value));
+                continue;
+            }
+            double limit = Double.parseDouble(expected);
+            //Throughput should stay high, time and allocation should stay low
+            boolean higherIsBetter = key.endsWith(THROUGHPUT);
+            boolean regressed = higherIsBetter ? value < limit * (1 - tolerance) : value > limit * (1 + tolerance);
+            String line = String.format(Locale.US, "%-55s %14.3f baseline %14.3f", key, value, limit);
+            if (!checkTimes && !key.endsWith(ALLOCATED_BYTES)) {
+                System.out.println(line + (regressed ? "  slower, not checked" : ""));
+                continue;
+            }
+            System.out.println(line + (regressed ? "  REGRESSED" : ""));
+            if (regressed) {
+                regressions.add(line);
+            }
+        }
+        return regressions;
+    }
+
+    private static Properties readProperties(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Replace the baseline's measurements with the {@param measured} values, keeping its tolerance and
+     * the entries of any benchmarks that weren't run
+     */
+    private static void writeBaseline(File file, Properties baseline, Map<String, Double> measured)
+            throws IOException {
+        //Written by hand rather than with Properties.store, so the keys stay sorted and diffs stay readable
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1"));
+        try {
+            out.println("# Benchmark baseline, regenerate with: ./gradlew :benchmark:jmh -PupdateBaseline");
+            out.println(TOLERANCE_KEY + "=" + baseline.getProperty(TOLERANCE_KEY, String.valueOf(DEFAULT_TOLERANCE)));
+            Map<String, String> entries = new TreeMap<>();
+            for (String key : baseline.stringPropertyNames()) {
+                entries.put(key, baseline.getProperty(key));
+            }
+            entries.remove(TOLERANCE_KEY);
+            for (Map.Entry<String, Double> entry : measured.entrySet()) {
+                entries.put(entry.getKey(), String.format(Locale.US, "%.3f", entry.getValue()));
+            }
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.println(entry.getKey() + "=" + entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
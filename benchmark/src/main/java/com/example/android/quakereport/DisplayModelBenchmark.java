@@ -0,0 +1,46 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the ready-to-render model from parsed earthquakes, the per-row work the list used to do while binding
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class DisplayModelBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int features;
+
+    //The earthquakes the model is built from
+    private List<Earthquake> mEarthquakes;
+
+    @Setup
+    public void setUp() throws IOException {
+        mEarthquakes = GeoJsonParser.parseFeatures(new ByteArrayInputStream(Fixtures.load(features)));
+    }
+
+    @Benchmark
+    public EarthquakeDisplayModel buildDisplayModel() {
+        return new EarthquakeDisplayModel(EarthquakeTable.from(mEarthquakes));
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * USGS GeoJSON documents for the benchmarks to work on.
+ * A recorded response is used when one is found in the fixtures directory (the quakereport.fixtures
+ * system property) named usgs-N.geojson for N features. Otherwise a document with the same shape as the
+ * FDSN query response, every property and the geometry included, is generated from a fixed seed so
+ * every run measures the same bytes.
+ */
+public final class Fixtures {
+
+    //System property naming the directory recorded fixtures are read from
+    public static final String FIXTURES_DIR_PROPERTY = "quakereport.fixtures";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Seed for the generated documents
+    private static final long SEED = 19840303L;
+
+    //Newest event time in the generated documents, they go back in time from here
+    private static final long NEWEST_TIME = 1500000000000L;
+
+    //Regions the generated places are near, a few without an offset the way USGS writes them
+    private static final String[] REGIONS = {
+            "Lata, Solomon Islands", "Tobelo, Indonesia", "Ndoi Island, Fiji", "Hihifo, Tonga",
+            "Anchor Point, Alaska", "Adak, Alaska", "Volcano, Hawaii", "The Geysers, CA", "Ridgecrest, CA",
+            "Petrolia, CA", "Coquimbo, Chile", "Iquique, Chile", "Lima, Peru", "Acapulco, Mexico",
+            "Pinotepa de Don Luis, Mexico", "Kokopo, Papua New Guinea", "Hachinohe, Japan", "Iwaki, Japan",
+            "Hualian, Taiwan", "Sarangani, Philippines", "Bitung, Indonesia", "Ahar, Iran", "Lixourion, Greece",
+            "Visso, Italy", "Kathmandu, Nepal", "Fayzabad, Afghanistan", "Severo-Kuril'sk, Russia",
+            "Ust'-Kamchatsk Staryy, Russia", "Port-Vila, Vanuatu", "Isangel, Vanuatu", "Norcia, Italy",
+            "Pahala, Hawaii", "Cobb, CA", "Guthrie, Oklahoma", "Pawnee, Oklahoma", "Eureka, Nevada"};
+    private static final String[] AREAS = {
+            "Mid-Atlantic Ridge", "South of the Fiji Islands", "Southern East Pacific Rise",
+            "Kermadec Islands region", "Central East Pacific Rise", "Carlsberg Ridge"};
+    private static final String[] DIRECTIONS = {
+            "N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE", "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"};
+    private static final String[] NETWORKS = {"us", "ak", "nc", "ci", "hv", "nn", "ok", "pr"};
+    private static final String[] MAGNITUDE_TYPES = {"mb", "ml", "md", "mww", "mwr", "ms_20"};
+
+    /**
+     * Private constructor, this class only provides static helper methods
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * @return the document with {@param features} features, recorded if there is one and generated if not
+     */
+    public static byte[] load(int features) throws IOException {
+        String directory = System.getProperty(FIXTURES_DIR_PROPERTY);
+        if (directory != null) {
+            File file = new File(directory, "usgs-" + features + ".geojson");
+            if (file.isFile()) {
+                return readFile(file);
+            }
+        }
+        return generate(features);
+    }
+
+    /**
+     * @return a generated document with {@param features} features, newest first like the feed
+     */
+    public static byte[] generate(int features) throws IOException {
+        Random random = new Random(SEED + features);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(features * 1024 + 1024);
+        Writer out = new OutputStreamWriter(bytes, UTF_8);
+
+        out.write("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":" + NEWEST_TIME
+                + ",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=" + features
+                + "\",\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.8\",\"limit\":" + features
+                + ",\"offset\":1,\"count\":" + features + "},\"features\":[");
+        long time = NEWEST_TIME;
+        for (int i = 0; i < features; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            time -= 1000 + random.nextInt(600000);
+            writeFeature(out, random, i, time);
+        }
+        out.write("],\"bbox\":[-179.9,-65.2,-3.1,179.9,84.6,650.3]}");
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the {@param document} gzip compressed, the way the server sends it
+     */
+    public static byte[] gzip(byte[] document) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(document.length / 4);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(document);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void writeFeature(Writer out, Random random, int index, long time) throws IOException {
+        String network = NETWORKS[random.nextInt(NETWORKS.length)];
+        String code = String.format(Locale.US, "%08x", index * 2654435761L & 0xffffffffL);
+        String id = network + code;
+        double magnitude = Math.round((2.5 + random.nextDouble() * random.nextDouble() * 5.5) * 100) / 100.0;
+        String place = randomPlace(random);
+        long updated = time + random.nextInt(86400000);
+        double longitude = Math.round((random.nextDouble() * 360 - 180) * 10000) / 10000.0;
+        double latitude = Math.round((random.nextDouble() * 150 - 70) * 10000) / 10000.0;
+        double depth = Math.round(random.nextDouble() * random.nextDouble() * 600 * 100) / 100.0;
+        boolean reviewed = random.nextInt(4) != 0;
+
+        out.write("{\"type\":\"Feature\",\"properties\":{\"mag\":");
+        out.write(Double.toString(magnitude));
+        out.write(",\"place\":\"");
+        out.write(place);
+        out.write("\",\"time\":");
+        out.write(Long.toString(time));
+        out.write(",\"updated\":");
+        out.write(Long.toString(updated));
+        out.write(",\"tz\":" + (random.nextInt(25) - 12) * 60);
+        out.write(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + id + "\"");
+        out.write(",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=" + id
+                + "&format=geojson\"");
+        if (random.nextInt(3) == 0) {
+            out.write(",\"felt\":" + random.nextInt(500) + ",\"cdi\":" + random.nextInt(9)
+                    + ",\"mmi\":" + Math.round(random.nextDouble() * 800) / 100.0 + ",\"alert\":\"green\"");
+        } else {
+            out.write(",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null");
+        }
+        out.write(",\"status\":\"" + (reviewed ? "reviewed" : "automatic") + "\"");
+        out.write(",\"tsunami\":" + (random.nextInt(50) == 0 ? 1 : 0));
+        out.write(",\"sig\":" + (int) (magnitude * magnitude * 20));
+        out.write(",\"net\":\"" + network + "\",\"code\":\"" + code + "\"");
+        out.write(",\"ids\":\"," + id + ",\",\"sources\":\"," + network + ",\"");
+        out.write(",\"types\":\",geoserve,origin,phase-data,\"");
+        out.write(",\"nst\":" + (random.nextBoolean() ? Integer.toString(random.nextInt(120)) : "null"));
+        out.write(",\"dmin\":" + Math.round(random.nextDouble() * 2000) / 1000.0);
+        out.write(",\"rms\":" + Math.round(random.nextDouble() * 150) / 100.0);
+        out.write(",\"gap\":" + random.nextInt(300));
+        out.write(",\"magType\":\"" + MAGNITUDE_TYPES[random.nextInt(MAGNITUDE_TYPES.length)] + "\"");
+        out.write(",\"type\":\"earthquake\",\"title\":\"M " + magnitude + " - " + place + "\"}");
+        out.write(",\"geometry\":{\"type\":\"Point\",\"coordinates\":[" + longitude + "," + latitude + ","
+                + depth + "]},\"id\":\"" + id + "\"}");
+    }
+
+    /**
+     * @return a place written the way USGS does, i.e. "112km SSE of Lata, Solomon Islands"
+     */
+    private static String randomPlace(Random random) {
+        if (random.nextInt(20) == 0) {
+            return AREAS[random.nextInt(AREAS.length)];
+        }
+        return (1 + random.nextInt(300)) + "km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)] + " of "
+                + REGIONS[random.nextInt(REGIONS.length)];
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+}
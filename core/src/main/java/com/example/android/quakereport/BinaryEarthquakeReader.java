@@ -0,0 +1,140 @@
+package com.example.android.quakereport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads earthquakes written by {@link BinaryEarthquakeWriter}, filling a direct buffer from the channel a
+ * block at a time. An export that is cut short or damaged is reported as an error rather than read as
+ * fewer earthquakes.
+ */
+final class BinaryEarthquakeReader implements EarthquakeReader {
+
+    //Longest text accepted, anything longer means the export is damaged
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //The channel read from
+    private final ReadableByteChannel mChannel;
+
+    //Bytes read from the channel that haven't been used yet, between the position and the limit
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BinaryEarthquakeWriter.BUFFER_SIZE);
+
+    //Whether the header has been read, and the end marker
+    private boolean mStarted;
+    private boolean mFinished;
+
+    //Records read
+    private long mCount;
+
+    BinaryEarthquakeReader(ReadableByteChannel channel) {
+        mChannel = channel;
+        mBuffer.limit(0);
+    }
+
+    @Override
+    public Earthquake read() throws IOException {
+        if (mFinished) {
+            return null;
+        }
+        if (!mStarted) {
+            require(8);
+            if (mBuffer.getInt() != BinaryEarthquakeWriter.MAGIC) {
+                throw new IOException("Not a binary earthquake export");
+            }
+            int version = mBuffer.getInt();
+            if (version != BinaryEarthquakeWriter.FORMAT_VERSION) {
+                throw new IOException("Unsupported binary earthquake export version " + version);
+            }
+            mStarted = true;
+        }
+
+        require(1);
+        byte marker = mBuffer.get();
+        if (marker == BinaryEarthquakeWriter.END) {
+            require(8);
+            long count = mBuffer.getLong();
+            if (count != mCount) {
+                throw new IOException("Binary earthquake export has " + mCount + " records, expected " + count);
+            }
+            mFinished = true;
+            return null;
+        }
+        if (marker != BinaryEarthquakeWriter.RECORD) {
+            throw new IOException("Damaged binary earthquake export after record " + mCount);
+        }
+
+        require(1);
+        int flags = mBuffer.get();
+        String id = getString();
+        String location = getString();
+        String url = getString();
+        require(6 * 8);
+        long time = mBuffer.getLong();
+        long updated = mBuffer.getLong();
+        double magnitude = mBuffer.getDouble();
+        double longitude = mBuffer.getDouble();
+        double latitude = mBuffer.getDouble();
+        double depth = mBuffer.getDouble();
+        if (location == null) {
+            throw new IOException("Damaged binary earthquake export at record " + mCount);
+        }
+        mCount++;
+        return new Earthquake(id, magnitude, location, time, updated, url,
+                (flags & BinaryEarthquakeWriter.FLAG_DELETED) != 0, longitude, latitude, depth);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Read from the channel until the buffer holds at least {@param bytes}, which can't be more than its size
+     *
+     * @throws EOFException if the channel ends first
+     */
+    private void require(int bytes) throws IOException {
+        if (mBuffer.remaining() >= bytes) {
+            return;
+        }
+        mBuffer.compact();
+        try {
+            while (mBuffer.position() < bytes) {
+                if (mChannel.read(mBuffer) < 0) {
+                    throw new EOFException("Binary earthquake export is cut short after record " + mCount);
+                }
+            }
+        } finally {
+            mBuffer.flip();
+        }
+    }
+
+    /**
+     * @return the next length prefixed UTF-8 text, or null
+     */
+    private String getString() throws IOException {
+        require(4);
+        int length = mBuffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Damaged binary earthquake export at record " + mCount);
+        }
+        //Text longer than the buffer is gathered from it a block at a time
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            require(Math.min(length - offset, mBuffer.capacity()));
+            int count = Math.min(mBuffer.remaining(), length - offset);
+            mBuffer.get(bytes, offset, count);
+            offset += count;
+        }
+        return new String(bytes, UTF_8);
+    }
+}
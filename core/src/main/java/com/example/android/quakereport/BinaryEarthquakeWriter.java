@@ -0,0 +1,143 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes earthquakes in a compact binary form, through a direct buffer that is written to the channel
+ * whenever it fills.
+ * The export starts with a header of the magic number and format version. Each earthquake is a record
+ * marker, a flags byte, its id, location and URL as UTF-8 with an int length (-1 for null), then its time
+ * and update time as longs and its magnitude, longitude, latitude and depth as doubles.
+ * An end marker and the number of records follow the last one, so a cut short export can be told apart.
+ */
+final class BinaryEarthquakeWriter implements EarthquakeWriter {
+
+    //Identifies an export in this form ("QRBX"), and the version of the form
+    static final int MAGIC = 0x51524258;
+    static final int FORMAT_VERSION = 1;
+
+    //Marks that a record or the end follows
+    static final byte RECORD = 1;
+    static final byte END = 0;
+
+    //Flag bits of a record
+    static final int FLAG_DELETED = 1;
+
+    //Size of the buffer, the channel is written to in blocks of about this size
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    //Size of every number of a record, plus its marker and flags
+    private static final int FIXED_RECORD_BYTES = 2 + 3 * 4 + 2 * 8 + 4 * 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //The channel written to
+    private final WritableByteChannel mChannel;
+
+    //Records waiting to be written to the channel
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    //Records written
+    private long mCount;
+
+    BinaryEarthquakeWriter(WritableByteChannel channel) {
+        mChannel = channel;
+        mBuffer.putInt(MAGIC);
+        mBuffer.putInt(FORMAT_VERSION);
+    }
+
+    @Override
+    public void write(Earthquake earthquake) throws IOException {
+        byte[] id = encode(earthquake.getId());
+        byte[] location = encode(earthquake.getLocation());
+        byte[] url = encode(earthquake.getDetailUrl());
+        int size = FIXED_RECORD_BYTES + length(id) + length(location) + length(url);
+        if (size <= BUFFER_SIZE) {
+            //Keep the whole record in the buffer, which is always the case but for text of tens of KB
+            ensureRemaining(size);
+        }
+
+        ensureRemaining(2);
+        mBuffer.put(RECORD);
+        mBuffer.put((byte) (earthquake.isDeleted() ? FLAG_DELETED : 0));
+        putString(id);
+        putString(location);
+        putString(url);
+        ensureRemaining(6 * 8);
+        mBuffer.putLong(earthquake.getTimeInMilliseconds());
+        mBuffer.putLong(earthquake.getUpdatedInMilliseconds());
+        mBuffer.putDouble(earthquake.getMagnitude());
+        mBuffer.putDouble(earthquake.getLongitude());
+        mBuffer.putDouble(earthquake.getLatitude());
+        mBuffer.putDouble(earthquake.getDepth());
+        mCount++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            ensureRemaining(1 + 8);
+            mBuffer.put(END);
+            mBuffer.putLong(mCount);
+            flush();
+        } finally {
+            mChannel.close();
+        }
+    }
+
+    /**
+     * Write out the buffer if it has less than {@param bytes} left
+     */
+    private void ensureRemaining(int bytes) throws IOException {
+        if (mBuffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Put the length of {@param bytes} then the bytes, -1 for null, writing out the buffer as it fills
+     */
+    private void putString(byte[] bytes) throws IOException {
+        ensureRemaining(4);
+        if (bytes == null) {
+            mBuffer.putInt(-1);
+            return;
+        }
+        mBuffer.putInt(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!mBuffer.hasRemaining()) {
+                flush();
+            }
+            int count = Math.min(mBuffer.remaining(), bytes.length - offset);
+            mBuffer.put(bytes, offset, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * @return {@param text} as UTF-8, or null if it's null
+     */
+    private static byte[] encode(String text) {
+        return text == null ? null : text.getBytes(UTF_8);
+    }
+
+    /**
+     * @return the number of bytes {@param bytes} takes up, 0 for null
+     */
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+}
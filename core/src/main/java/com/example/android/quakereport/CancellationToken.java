@@ -0,0 +1,55 @@
+package com.example.android.quakereport;
+
+/**
+ * Lets a fetch be cancelled from another thread.
+ * The work being cancelled checks {@link #isCancelled()} between steps, and anything blocked in a way
+ * checking can't reach, like a socket read, registers an action that unblocks it. Much like the platform's
+ * CancellationSignal, which isn't available off Android.
+ */
+public class CancellationToken {
+
+    //Whether the token has been cancelled
+    private volatile boolean mCancelled;
+
+    //Run when the token is cancelled, or null. Guarded by this.
+    private Runnable mOnCancel;
+
+    /**
+     * Cancel the work, running its cancel action if it has one. Does nothing if already cancelled.
+     */
+    public synchronized void cancel() {
+        if (mCancelled) {
+            return;
+        }
+        mCancelled = true;
+        //Run with the lock held, so once an action is cleared it's certain never to run
+        if (mOnCancel != null) {
+            mOnCancel.run();
+        }
+    }
+
+    /**
+     * @return whether the work has been cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Run {@param onCancel} when the token is cancelled, straight away if it already is, replacing any
+     * earlier action. Null clears the action, after which the old one is certain not to run.
+     */
+    public synchronized void setOnCancel(Runnable onCancel) {
+        mOnCancel = onCancel;
+        if (mCancelled && onCancel != null) {
+            onCancel.run();
+        }
+    }
+
+    /**
+     * @return whether the {@param cancellation} is set and has been cancelled
+     */
+    public static boolean isCancelled(CancellationToken cancellation) {
+        return cancellation != null && cancellation.isCancelled();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.quakereport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests being sent to a server that keeps failing.
+ * The breaker starts closed and lets every request through. After a run of consecutive failures it opens,
+ * and requests are turned away straight away instead of waiting on timeouts. Once it has been open for a
+ * while it lets a single trial request through: if that succeeds the breaker closes again, if not it stays
+ * open for another period.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Whether requests are let through
+     */
+    public enum State {
+        //Every request is let through
+        CLOSED,
+        //Requests are turned away
+        OPEN,
+        //One trial request is let through, to see if the server has recovered
+        HALF_OPEN
+    }
+
+    //Consecutive failures that open the breaker
+    private final int mFailureThreshold;
+
+    //How long the breaker stays open before a trial request
+    private final long mOpenNanos;
+
+    //Guarded by this
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAtNanos;
+    private boolean mTrialRunning;
+
+    /**
+     * Create a breaker that opens after {@param failureThreshold} consecutive failures and waits
+     * {@param openMillis} before letting a trial request through
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0 || openMillis < 0) {
+            throw new IllegalArgumentException("Invalid breaker settings: " + failureThreshold + ", " + openMillis);
+        }
+        mFailureThreshold = failureThreshold;
+        mOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return whether a request may be sent now. A request that is let through must be followed by a call
+     * to {@link #onSuccess()}, {@link #onFailure()} or {@link #onAbandoned()}.
+     */
+    public synchronized boolean allowRequest() {
+        if (mState == State.OPEN) {
+            if (System.nanoTime() - mOpenedAtNanos < mOpenNanos) {
+                return false;
+            }
+            mState = State.HALF_OPEN;
+        }
+        if (mState == State.HALF_OPEN) {
+            if (mTrialRunning) {
+                return false;
+            }
+            mTrialRunning = true;
+        }
+        return true;
+    }
+
+    /**
+     * Record a request that reached the server, which closes the breaker
+     */
+    public synchronized void onSuccess() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mTrialRunning = false;
+    }
+
+    /**
+     * Record a request that failed, which opens the breaker if it was a trial or one too many in a row
+     */
+    public synchronized void onFailure() {
+        mTrialRunning = false;
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            mState = State.OPEN;
+            mOpenedAtNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Record a request that was cancelled before it could succeed or fail, so another trial can be let through
+     */
+    public synchronized void onAbandoned() {
+        mTrialRunning = false;
+    }
+
+    /**
+     * @return the current state, an open breaker whose wait is over still counts as open until it's asked
+     */
+    public synchronized State getState() {
+        return mState;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads earthquakes written by {@link CsvEarthquakeWriter}, a line at a time.
+ * Quoted fields may hold commas, doubled quotes and line breaks. Empty text fields are read as null,
+ * apart from the location, and empty numbers as unknown.
+ */
+final class CsvEarthquakeReader implements EarthquakeReader {
+
+    //Number of columns, see the header
+    private static final int COLUMNS = 10;
+
+    //Bytes decoded from UTF-8 in blocks, and the block being read
+    private final Reader mIn;
+    private final char[] mBuffer = new char[8192];
+    private int mPosition;
+    private int mLimit;
+
+    //Fields of the line being read, reused for every line
+    private final String[] mFields = new String[COLUMNS];
+    private final StringBuilder mField = new StringBuilder();
+
+    //Line being read, for error messages
+    private long mLine;
+
+    CsvEarthquakeReader(ReadableByteChannel channel) {
+        mIn = Channels.newReader(channel, "UTF-8");
+    }
+
+    @Override
+    public Earthquake read() throws IOException {
+        if (mLine == 0) {
+            if (!readLine() || !CsvEarthquakeWriter.HEADER.equals(mFields[0])) {
+                throw new IOException("Not an earthquake CSV export, the header is missing");
+            }
+        }
+        if (!readLine()) {
+            return null;
+        }
+        try {
+            String location = mFields[7] == null ? "" : mFields[7];
+            return new Earthquake(mFields[0], parseNumber(mFields[3]), location, Long.parseLong(mFields[1]),
+                    Long.parseLong(mFields[2]), mFields[8], Boolean.parseBoolean(mFields[9]),
+                    parseNumber(mFields[4]), parseNumber(mFields[5]), parseNumber(mFields[6]));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad number on line " + mLine + " of the CSV export", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    /**
+     * Read the fields of the next line into mFields, or for the header, the whole line into the first field
+     *
+     * @return false if there are no more lines
+     * @throws IOException if the line doesn't have every column
+     */
+    private boolean readLine() throws IOException {
+        int c = nextChar();
+        if (c == -1) {
+            return false;
+        }
+        mLine++;
+        boolean header = mLine == 1;
+        int field = 0;
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        mField.setLength(0);
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quote on line " + mLine + " of the CSV export");
+                }
+                if (c == '"') {
+                    c = nextChar();
+                    if (c != '"') {
+                        //The closing quote, anything after it belongs to the next field
+                        quoted = false;
+                        continue;
+                    }
+                }
+                mField.append((char) c);
+            } else if (c == -1 || c == '\n' || (c == ',' && !header)) {
+                if (field == COLUMNS) {
+                    throw new IOException("Too many columns on line " + mLine + " of the CSV export");
+                }
+                mFields[field++] = mField.length() == 0 && !wasQuoted ? null : mField.toString();
+                mField.setLength(0);
+                wasQuoted = false;
+                if (c != ',') {
+                    break;
+                }
+            } else if (c == '"' && mField.length() == 0 && !header) {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c != '\r') {
+                mField.append((char) c);
+            }
+            c = nextChar();
+        }
+        if (!header && field != COLUMNS) {
+            throw new IOException("Expected " + COLUMNS + " columns on line " + mLine + " of the CSV export, found "
+                    + field);
+        }
+        return true;
+    }
+
+    /**
+     * @return the next character, or -1 at the end
+     */
+    private int nextChar() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++];
+    }
+
+    /**
+     * @return the number in {@param field}, or NaN if it's empty
+     */
+    private static double parseNumber(String field) {
+        return field == null ? Double.NaN : Double.parseDouble(field);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes earthquakes as comma separated values, a header line then a line per earthquake.
+ * Times are milliseconds since the epoch and unknown coordinates are left empty, so everything reads back
+ * exactly. Text holding a comma, quote or line break is quoted, with its quotes doubled.
+ */
+final class CsvEarthquakeWriter implements EarthquakeWriter {
+
+    //The columns, in order
+    static final String HEADER = "id,time,updated,magnitude,longitude,latitude,depth,location,url,deleted";
+
+    //Characters encoded to UTF-8 in blocks, then written to the channel
+    private final Writer mOut;
+
+    //Whether the header has been written
+    private boolean mStarted;
+
+    CsvEarthquakeWriter(WritableByteChannel channel) {
+        mOut = new BufferedWriter(Channels.newWriter(channel, "UTF-8"));
+    }
+
+    @Override
+    public void write(Earthquake earthquake) throws IOException {
+        start();
+        writeText(earthquake.getId());
+        mOut.write(',');
+        mOut.write(Long.toString(earthquake.getTimeInMilliseconds()));
+        mOut.write(',');
+        mOut.write(Long.toString(earthquake.getUpdatedInMilliseconds()));
+        mOut.write(',');
+        writeNumber(earthquake.getMagnitude());
+        mOut.write(',');
+        writeNumber(earthquake.getLongitude());
+        mOut.write(',');
+        writeNumber(earthquake.getLatitude());
+        mOut.write(',');
+        writeNumber(earthquake.getDepth());
+        mOut.write(',');
+        writeText(earthquake.getLocation());
+        mOut.write(',');
+        writeText(earthquake.getDetailUrl());
+        mOut.write(',');
+        mOut.write(earthquake.isDeleted() ? "true" : "false");
+        mOut.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        //An empty export still has its header, so it reads back as an empty export
+        try {
+            start();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    /**
+     * Write the header line, if it hasn't been already
+     */
+    private void start() throws IOException {
+        if (!mStarted) {
+            mStarted = true;
+            mOut.write(HEADER);
+            mOut.write('\n');
+        }
+    }
+
+    /**
+     * Write {@param value}, leaving the field empty if it isn't known
+     */
+    private void writeNumber(double value) throws IOException {
+        if (!Double.isNaN(value)) {
+            mOut.write(Double.toString(value));
+        }
+    }
+
+    /**
+     * Write {@param text}, quoted if it has to be, leaving the field empty if it's null
+     */
+    private void writeText(String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+        //An empty text is quoted, to tell it apart from null
+        boolean quote = text.isEmpty();
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            mOut.write(text);
+            return;
+        }
+        mOut.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                mOut.write('"');
+            }
+            mOut.write(c);
+        }
+        mOut.write('"');
+    }
+}
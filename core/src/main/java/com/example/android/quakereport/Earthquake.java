@@ -0,0 +1,208 @@
+package com.example.android.quakereport;
+
+/**
+ * The Earthquake class that creates and provides methods that return parts of the ArrayList when called
+ * by other parts of the app
+ */
+public class Earthquake {
+
+    //Pool for the text that repeats across earthquakes: location offsets, primary locations and URL prefixes
+    private static final StringPool sStringPool = new StringPool(4096);
+
+    //Declare private variables for this class to use
+    private String mId;
+    private double mMagnitude;
+    private String mLocationOffset;
+    private String mPrimaryLocation;
+    private long mTimeInMilliseconds;
+    private long mUpdatedInMilliseconds;
+    private String mDetailUrlPrefix;
+    private String mDetailUrlSuffix;
+    private boolean mDeleted;
+    private double mLongitude;
+    private double mLatitude;
+    private double mDepth;
+
+    /**
+     * Create the constructor for this class, a constructor creates an instance of a class
+     * This constructor will create an instance of a double, long and string
+     *
+     * @param id
+     * @param magnitude
+     * @param location
+     * @param timeInMilliseconds
+     * @param detailUrl
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds, String detailUrl) {
+        this(id, magnitude, location, timeInMilliseconds, timeInMilliseconds, detailUrl, false);
+    }
+
+    /**
+     * Constructor that also takes when the event was last revised, and whether USGS has deleted it
+     *
+     * @param id
+     * @param magnitude
+     * @param location
+     * @param timeInMilliseconds
+     * @param updatedInMilliseconds
+     * @param detailUrl
+     * @param deleted
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      long updatedInMilliseconds, String detailUrl, boolean deleted) {
+        this(id, magnitude, location, timeInMilliseconds, updatedInMilliseconds, detailUrl, deleted,
+                Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Constructor that also takes where the event was, NaN for any coordinate that isn't known
+     *
+     * @param id
+     * @param magnitude
+     * @param location
+     * @param timeInMilliseconds
+     * @param updatedInMilliseconds
+     * @param detailUrl
+     * @param deleted
+     * @param longitude in degrees
+     * @param latitude  in degrees
+     * @param depth     in kilometres
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      long updatedInMilliseconds, String detailUrl, boolean deleted,
+                      double longitude, double latitude, double depth) {
+        mId = id;
+        mMagnitude = magnitude;
+        mTimeInMilliseconds = timeInMilliseconds;
+        mUpdatedInMilliseconds = updatedInMilliseconds;
+        mDeleted = deleted;
+        mLongitude = longitude;
+        mLatitude = latitude;
+        mDepth = depth;
+
+        //Split the location once here, instead of every time it's shown, and only keep the parts,
+        //taken from the pool so a place shared by many earthquakes is held once
+        //Get index location of "of" in string, to check if the string has an offset or not
+        int ofIndex = location.indexOf("of");
+        if (ofIndex >= 0) {
+            //Create the relevant substrings using "of" as a separator location
+            int splitIndex = Math.min(ofIndex + 3, location.length());
+            mLocationOffset = sStringPool.intern(location, 0, splitIndex);
+            mPrimaryLocation = sStringPool.intern(location, splitIndex, location.length());
+        } else {
+            mLocationOffset = "";
+            mPrimaryLocation = sStringPool.intern(location);
+        }
+
+        //Split the URL after its last '/', the prefix is shared by every earthquake and the suffix is
+        //usually the event id, in which case the id is kept instead of a copy of it
+        if (detailUrl != null) {
+            int suffixStart = detailUrl.lastIndexOf('/') + 1;
+            mDetailUrlPrefix = sStringPool.intern(detailUrl, 0, suffixStart);
+            if (id != null && detailUrl.length() - suffixStart == id.length()
+                    && detailUrl.startsWith(id, suffixStart)) {
+                mDetailUrlSuffix = id;
+            } else {
+                mDetailUrlSuffix = detailUrl.substring(suffixStart);
+            }
+        }
+    }
+
+    /**
+     * @return the USGS event id of the Earthquake
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return the magnitude of the Earthquake
+     */
+    public double getMagnitude() {
+        return mMagnitude;
+    }
+
+    /**
+     * @return the location of the Earthquake, joined back together from its offset and primary location
+     */
+    public String getLocation() {
+        return mLocationOffset.isEmpty() ? mPrimaryLocation : mLocationOffset + mPrimaryLocation;
+    }
+
+    /**
+     * @return the offset part of the location (i.e. "74km NW of "), or an empty String if it has none
+     */
+    public String getLocationOffset() {
+        return mLocationOffset;
+    }
+
+    /**
+     * @return the location without its offset (i.e. "San Francisco")
+     */
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    /**
+     * @return the date of the Earthquake
+     */
+    public long getTimeInMilliseconds() {
+        return mTimeInMilliseconds;
+    }
+
+    /**
+     * @return when the Earthquake was last revised
+     */
+    public long getUpdatedInMilliseconds() {
+        return mUpdatedInMilliseconds;
+    }
+
+    /**
+     * @return the URL associated with the Earthquake, joined back together from its prefix and suffix, or null
+     */
+    public String getDetailUrl() {
+        return mDetailUrlPrefix == null ? null : mDetailUrlPrefix + mDetailUrlSuffix;
+    }
+
+    /**
+     * @return the URL up to and including its last '/', shared with other earthquakes, or null if there's no URL
+     */
+    String getDetailUrlPrefix() {
+        return mDetailUrlPrefix;
+    }
+
+    /**
+     * @return the URL after its last '/', usually the event id, or null if there's no URL
+     */
+    String getDetailUrlSuffix() {
+        return mDetailUrlSuffix;
+    }
+
+    /**
+     * @return true if USGS has deleted the Earthquake, only reported when deleted events are requested
+     */
+    public boolean isDeleted() {
+        return mDeleted;
+    }
+
+    /**
+     * @return the longitude of the Earthquake in degrees, or NaN if it isn't known
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return the latitude of the Earthquake in degrees, or NaN if it isn't known
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * @return the depth of the Earthquake in kilometres, or NaN if it isn't known
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+}
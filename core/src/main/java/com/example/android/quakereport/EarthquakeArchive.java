@@ -0,0 +1,90 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports earthquakes to files in any {@link EarthquakeFormat} and imports them back, one earthquake at a time,
+ * so a dataset of any size is copied in constant memory.
+ * An import hands the earthquakes over in batches the same way a live fetch does, so it can feed the same
+ * listeners, i.e. an {@link EarthquakeStore} or a loader.
+ */
+public final class EarthquakeArchive {
+
+    /**
+     * Private constructor, this class only provides static helper methods
+     */
+    private EarthquakeArchive() {
+    }
+
+    /**
+     * @return a writer of {@param format} to {@param file}, replacing anything already in it
+     */
+    public static EarthquakeWriter openWriter(File file, EarthquakeFormat format) throws IOException {
+        return format.newWriter(new FileOutputStream(file).getChannel());
+    }
+
+    /**
+     * @return a reader of {@param format} from {@param file}
+     */
+    public static EarthquakeReader openReader(File file, EarthquakeFormat format) throws IOException {
+        return format.newReader(new FileInputStream(file).getChannel());
+    }
+
+    /**
+     * Write every earthquake of {@param reader} to {@param writer}, stopping as soon as {@param cancellation}
+     * is cancelled, which may be null. Neither is closed by this method.
+     *
+     * @return the number of earthquakes copied
+     */
+    public static long copy(EarthquakeReader reader, EarthquakeWriter writer, CancellationToken cancellation)
+            throws IOException {
+        long count = 0;
+        Earthquake earthquake;
+        while (!CancellationToken.isCancelled(cancellation) && (earthquake = reader.read()) != null) {
+            writer.write(earthquake);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Read every earthquake of {@param reader}, handing them to {@param listener} in batches of {@param batchSize}
+     * with their position in the import, as a live fetch does. Only the batch being filled is held in memory.
+     * Reading stops as soon as {@param cancellation} is cancelled, which may be null, and the partly filled
+     * batch is dropped. The reader isn't closed by this method.
+     *
+     * @return the number of earthquakes handed over
+     */
+    public static long importBatches(EarthquakeReader reader, int batchSize,
+                                     GeoJsonParser.OnBatchParsedListener listener, CancellationToken cancellation)
+            throws IOException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        long count = 0;
+        List<Earthquake> batch = new ArrayList<>(batchSize);
+        Earthquake earthquake;
+        while ((earthquake = reader.read()) != null) {
+            if (CancellationToken.isCancelled(cancellation)) {
+                return count;
+            }
+            batch.add(earthquake);
+            if (batch.size() == batchSize) {
+                listener.onBatchParsed(batch, (int) count);
+                count += batch.size();
+                //The listener keeps the batch, so start a new one
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty() && !CancellationToken.isCancelled(cancellation)) {
+            listener.onBatchParsed(batch, (int) count);
+            count += batch.size();
+        }
+        return count;
+    }
+}
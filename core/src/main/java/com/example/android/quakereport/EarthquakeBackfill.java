@@ -0,0 +1,446 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads the history of an {@link EarthquakeQuery} over a long time range into an {@link EarthquakeStore},
+ * however many earthquakes the server allows per response.
+ * The range is cut into chunks of time, newest first, each requested with the server's result cap as its limit.
+ * A chunk that comes back full may have been cut short, so it's split in two and both halves are requested
+ * again, and later chunks are made smaller too. A chunk that comes back mostly empty makes later chunks bigger.
+ * Chunks are downloaded in parallel, at most a fixed number at a time, through {@link QueryUtils} like any other
+ * request, and merged into the store by event id, so an earthquake on the edge of two chunks is only kept once.
+ * The time not downloaded yet is saved to a checkpoint file every few seconds, just after the store is saved, so
+ * a backfill that is cancelled, interrupted or killed carries on from where it stopped when it's run again.
+ * A chunk that still fails after the fetch policy's retries is left for the next run. A chunk too short to split
+ * that still comes back full is kept, but reported as truncated, as some of its earthquakes may be missing.
+ * The store's own retention limits still apply, so it has to be made to keep as much history as is backfilled.
+ */
+public class EarthquakeBackfill {
+
+    private static final Logger LOGGER = Logger.getLogger(EarthquakeBackfill.class.getSimpleName());
+
+    //Version of the checkpoint file format, files with any other version are ignored
+    private static final int FORMAT_VERSION = 1;
+
+    //Shortest chunk that is split when it comes back full, anything shorter is kept as it is
+    private static final long MIN_CHUNK_MILLIS = 1000;
+
+    //A chunk with fewer earthquakes than the cap divided by this doubles the size of later chunks
+    private static final int GROW_DIVISOR = 4;
+
+    //How often the store and checkpoint are saved while chunks are coming in
+    private static final long CHECKPOINT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * What a backfill run did
+     */
+    public static final class Result {
+        private final boolean mComplete;
+        private final int mChunkCount;
+        private final int mSplitCount;
+        private final int mFailedChunkCount;
+        private final int mTruncatedChunkCount;
+        private final long mEarthquakeCount;
+
+        Result(boolean complete, int chunkCount, int splitCount, int failedChunkCount, int truncatedChunkCount,
+               long earthquakeCount) {
+            mComplete = complete;
+            mChunkCount = chunkCount;
+            mSplitCount = splitCount;
+            mFailedChunkCount = failedChunkCount;
+            mTruncatedChunkCount = truncatedChunkCount;
+            mEarthquakeCount = earthquakeCount;
+        }
+
+        /**
+         * @return true if the whole range has been downloaded, by this run or earlier ones, and no chunk of this
+         * run was truncated
+         */
+        public boolean isComplete() {
+            return mComplete;
+        }
+
+        /**
+         * @return the number of chunks downloaded by this run
+         */
+        public int getChunkCount() {
+            return mChunkCount;
+        }
+
+        /**
+         * @return the number of chunks split in two for coming back full
+         */
+        public int getSplitCount() {
+            return mSplitCount;
+        }
+
+        /**
+         * @return the number of chunks that failed, which are left for the next run
+         */
+        public int getFailedChunkCount() {
+            return mFailedChunkCount;
+        }
+
+        /**
+         * @return the number of chunks that came back full but were too short to split, so may be missing
+         * earthquakes. They aren't downloaded again, as they would come back the same.
+         */
+        public int getTruncatedChunkCount() {
+            return mTruncatedChunkCount;
+        }
+
+        /**
+         * @return the number of earthquakes downloaded by this run, counting one on the edge of two chunks twice
+         */
+        public long getEarthquakeCount() {
+            return mEarthquakeCount;
+        }
+    }
+
+    //The store the earthquakes are merged into, and the file the time left to download is saved to
+    private final EarthquakeStore mStore;
+    private final File mCheckpointFile;
+
+    //Most chunks downloaded at the same time
+    private final int mMaxConcurrentRequests;
+
+    //Most earthquakes the server returns per response
+    private final int mResultCap;
+
+    //Length of the first chunk of a range that has no checkpoint
+    private final long mInitialChunkMillis;
+
+    //The pool the chunks are downloaded on
+    private final ExecutorService mExecutor;
+
+    /**
+     * Create a backfill engine
+     *
+     * @param store                 the store the earthquakes are merged into, and saved along with the checkpoint
+     * @param checkpointFile        the file the time left to download is saved to
+     * @param maxConcurrentRequests the most chunks downloaded at the same time
+     * @param resultCap             the most earthquakes the server returns per response, i.e. 20000 for USGS,
+     *                              or less to keep each response small
+     * @param initialChunkMillis    the length of the first chunks, before they are adapted to how many
+     *                              earthquakes come back
+     */
+    public EarthquakeBackfill(EarthquakeStore store, File checkpointFile, int maxConcurrentRequests, int resultCap,
+                              long initialChunkMillis) {
+        mStore = store;
+        mCheckpointFile = checkpointFile;
+        mMaxConcurrentRequests = maxConcurrentRequests;
+        mResultCap = resultCap;
+        mInitialChunkMillis = Math.max(initialChunkMillis, MIN_CHUNK_MILLIS);
+        mExecutor = Executors.newFixedThreadPool(maxConcurrentRequests, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EarthquakeBackfill #" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Download every earthquake of {@param range}, which must have a start and end time, into the store,
+     * carrying on from the checkpoint if it was saved for the same range. Blocks until the range is done, every
+     * remaining chunk has failed, or {@param cancellation} is cancelled, which may be null.
+     * The store and checkpoint are saved before returning.
+     *
+     * @return what the run did
+     * @throws InterruptedException if the thread is interrupted, the checkpoint is still saved
+     */
+    public Result run(EarthquakeQuery range, CancellationToken cancellation) throws InterruptedException {
+        if (range.getStartTime() == 0 || range.getEndTime() == 0) {
+            throw new IllegalStateException("Only a query with a start and end time can be backfilled");
+        }
+        String rangeKey = range.buildUpon().setLimit(0).build().toUrl();
+
+        //The chunks are merged into what was saved before, so the first save doesn't replace it with them alone
+        try {
+            mStore.load();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Problem loading the earthquake store, backfilling into an empty one", e);
+        }
+
+        //Time left to download, newest first, and the chunk length, from the checkpoint if there is one
+        Deque<long[]> pending = new ArrayDeque<>();
+        long chunkMillis = readCheckpoint(rangeKey, pending);
+        if (chunkMillis == 0) {
+            pending.add(new long[]{range.getStartTime(), range.getEndTime()});
+            chunkMillis = mInitialChunkMillis;
+        }
+
+        //Chunks that failed, left for the next run
+        List<long[]> failed = new ArrayList<>();
+
+        //Chunks being downloaded, read by the cancelling thread to abort them
+        final List<Chunk> inFlight = new CopyOnWriteArrayList<>();
+        if (cancellation != null) {
+            cancellation.setOnCancel(new Runnable() {
+                @Override
+                public void run() {
+                    for (Chunk chunk : inFlight) {
+                        chunk.mCancellation.cancel();
+                    }
+                }
+            });
+        }
+
+        int chunkCount = 0;
+        int splitCount = 0;
+        int truncatedCount = 0;
+        long earthquakeCount = 0;
+        long lastCheckpointNanos = System.nanoTime();
+        CompletionService<Chunk> completion = new ExecutorCompletionService<>(mExecutor);
+        try {
+            while (!inFlight.isEmpty() || (!pending.isEmpty() && !CancellationToken.isCancelled(cancellation))) {
+                //Keep as many chunks downloading as allowed
+                while (inFlight.size() < mMaxConcurrentRequests && !pending.isEmpty()
+                        && !CancellationToken.isCancelled(cancellation)) {
+                    Chunk chunk = new Chunk(range, cutChunk(pending, chunkMillis), mResultCap);
+                    inFlight.add(chunk);
+                    completion.submit(chunk);
+                }
+
+                Chunk chunk = takeQuietly(completion);
+                inFlight.remove(chunk);
+                long length = chunk.mWindow[1] - chunk.mWindow[0];
+                if (chunk.mCancelled || chunk.mCancellation.isCancelled()) {
+                    //Download it again next time, along with everything else that's left
+                    pending.addFirst(chunk.mWindow);
+                } else if (chunk.mCount < 0) {
+                    failed.add(chunk.mWindow);
+                } else if (chunk.mCount >= mResultCap && length > MIN_CHUNK_MILLIS) {
+                    //The response may have been cut short, so ask for each half, newer first,
+                    //and make later chunks smaller
+                    long middle = chunk.mWindow[0] + length / 2;
+                    pending.addFirst(new long[]{chunk.mWindow[0], middle});
+                    pending.addFirst(new long[]{middle, chunk.mWindow[1]});
+                    chunkMillis = Math.max(length / 2, MIN_CHUNK_MILLIS);
+                    splitCount++;
+                    Metrics.counter(Metrics.BACKFILL_SPLITS).increment();
+                } else {
+                    chunkCount++;
+                    earthquakeCount += chunk.mCount;
+                    Metrics.counter(Metrics.BACKFILL_CHUNKS).increment();
+                    if (chunk.mCount >= mResultCap) {
+                        //Full, but too short to split any further
+                        truncatedCount++;
+                        LOGGER.log(Level.WARNING, "Backfill chunk " + chunk.mWindow[0] + "-" + chunk.mWindow[1]
+                                + " is full at " + chunk.mCount + " earthquakes, some may be missing");
+                    }
+                    //A mostly empty chunk means there's room for a longer one
+                    if (chunk.mCount < mResultCap / GROW_DIVISOR && length >= chunkMillis) {
+                        chunkMillis = Math.min(chunkMillis * 2, Long.MAX_VALUE / 4);
+                    }
+                }
+
+                if (System.nanoTime() - lastCheckpointNanos >= CHECKPOINT_INTERVAL_NANOS) {
+                    saveCheckpoint(rangeKey, chunkMillis, pending, failed, inFlight);
+                    lastCheckpointNanos = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            //Nobody is waiting for the chunks being downloaded any more
+            for (Chunk chunk : inFlight) {
+                chunk.mCancellation.cancel();
+            }
+            throw e;
+        } finally {
+            if (cancellation != null) {
+                cancellation.setOnCancel(null);
+            }
+            saveCheckpoint(rangeKey, chunkMillis, pending, failed, inFlight);
+        }
+
+        return new Result(pending.isEmpty() && failed.isEmpty() && truncatedCount == 0, chunkCount, splitCount,
+                failed.size(), truncatedCount, earthquakeCount);
+    }
+
+    /**
+     * Stop the pool, chunks that are already downloading are left to finish
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Take the newest {@param chunkMillis} off the front of {@param pending}, putting back whatever is left
+     *
+     * @return the start and end of the chunk
+     */
+    private static long[] cutChunk(Deque<long[]> pending, long chunkMillis) {
+        long[] window = pending.pollFirst();
+        if (window[1] - window[0] <= chunkMillis) {
+            return window;
+        }
+        long chunkStart = window[1] - chunkMillis;
+        pending.addFirst(new long[]{window[0], chunkStart});
+        return new long[]{chunkStart, window[1]};
+    }
+
+    /**
+     * @return the next chunk to finish, which has caught anything its download threw
+     */
+    private static Chunk takeQuietly(CompletionService<Chunk> completion) throws InterruptedException {
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            //Chunk.call() catches everything it can throw
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Read the checkpoint into {@param pending}, if it was saved for the range {@param rangeKey}
+     *
+     * @return the chunk length saved with it, or 0 if there is no usable checkpoint
+     */
+    private long readCheckpoint(String rangeKey, Deque<long[]> pending) {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mCheckpointFile)));
+        } catch (FileNotFoundException e) {
+            //Nothing has been saved yet
+            return 0;
+        }
+        try {
+            if (in.readInt() != FORMAT_VERSION || !rangeKey.equals(in.readUTF())) {
+                return 0;
+            }
+            long chunkMillis = in.readLong();
+            int windowCount = in.readInt();
+            for (int i = 0; i < windowCount; i++) {
+                pending.add(new long[]{in.readLong(), in.readLong()});
+            }
+            return chunkMillis;
+        } catch (IOException e) {
+            //A damaged checkpoint means starting again, the earthquakes already stored are merged by event id
+            LOGGER.log(Level.WARNING, "Problem reading the backfill checkpoint", e);
+            pending.clear();
+            return 0;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Problem closing the backfill checkpoint", e);
+            }
+        }
+    }
+
+    /**
+     * Save the store, then every window not downloaded yet to the checkpoint, newest first.
+     * The checkpoint is only written once the store has been, and is flushed to the disk before it replaces the
+     * last one, so it never skips time the store doesn't have.
+     */
+    private void saveCheckpoint(String rangeKey, long chunkMillis, Deque<long[]> pending, List<long[]> failed,
+                                List<Chunk> inFlight) {
+        List<long[]> windows = new ArrayList<>(inFlight.size() + pending.size() + failed.size());
+        for (Chunk chunk : inFlight) {
+            windows.add(chunk.mWindow);
+        }
+        windows.addAll(pending);
+        windows.addAll(failed);
+
+        File tempFile = new File(mCheckpointFile.getPath() + ".tmp");
+        try {
+            mStore.save();
+
+            FileOutputStream fileOut = new FileOutputStream(tempFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(rangeKey);
+                out.writeLong(chunkMillis);
+                out.writeInt(windows.size());
+                for (long[] window : windows) {
+                    out.writeLong(window[0]);
+                    out.writeLong(window[1]);
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(mCheckpointFile)) {
+                throw new IOException("Could not replace " + mCheckpointFile);
+            }
+        } catch (IOException e) {
+            //The previous checkpoint is still there, so the next run repeats some chunks rather than skipping any
+            LOGGER.log(Level.WARNING, "Problem saving the backfill checkpoint", e);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * One chunk of time, downloaded into the store on the pool
+     */
+    private final class Chunk implements Callable<Chunk> {
+
+        //Start and end of the chunk
+        final long[] mWindow;
+
+        //Aborts the download
+        final CancellationToken mCancellation = new CancellationToken();
+
+        //The URL of the chunk
+        private final String mUrl;
+
+        //Earthquakes downloaded, or -1 if the download failed, and whether it was cancelled
+        int mCount;
+        boolean mCancelled;
+
+        Chunk(EarthquakeQuery range, long[] window, int resultCap) {
+            mWindow = window;
+            mUrl = range.buildUpon().setTimeWindow(window[0], window[1]).setLimit(resultCap).build().toUrl();
+        }
+
+        @Override
+        public Chunk call() {
+            try {
+                FeedResponse response = QueryUtils.fetchFeed(mUrl, null, null, 0, null, mCancellation);
+                if (response == null || response.isStale()) {
+                    //A stale response is from an earlier run, not what the server has now
+                    mCount = -1;
+                    return this;
+                }
+                //Whatever was parsed before a cancel is kept, the chunk is still downloaded again in full
+                mStore.putAll(response.getEarthquakes());
+                mCancelled = response.isPartial();
+                mCount = response.getEarthquakes().size();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Problem downloading backfill chunk " + mUrl, e);
+                mCount = -1;
+            }
+            return this;
+        }
+    }
+}
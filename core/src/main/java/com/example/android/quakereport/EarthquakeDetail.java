@@ -0,0 +1,193 @@
+package com.example.android.quakereport;
+
+/**
+ * The parts of an event's detail GeoJSON the list doesn't carry: felt reports, intensities, the PAGER alert,
+ * the tsunami flag and the ShakeMap, along with the summary it repeats.
+ * Details are immutable, so one can be shared between threads and kept in a cache.
+ */
+public final class EarthquakeDetail {
+
+    //Declare private variables for this class to use
+    private final String mId;
+    private final double mMagnitude;
+    private final String mMagnitudeType;
+    private final String mLocation;
+    private final long mTimeInMilliseconds;
+    private final long mUpdatedInMilliseconds;
+    private final double mLongitude;
+    private final double mLatitude;
+    private final double mDepth;
+    private final int mFeltReports;
+    private final double mCommunityIntensity;
+    private final double mInstrumentalIntensity;
+    private final String mAlertLevel;
+    private final boolean mTsunami;
+    private final boolean mShakeMap;
+    private final String mShakeMapImageUrl;
+    private final String mEventPageUrl;
+
+    /**
+     * Constructor for a parsed detail, NaN for any number and null for any text that isn't known
+     *
+     * @param id
+     * @param magnitude
+     * @param magnitudeType         i.e. "mb" or "mww"
+     * @param location
+     * @param timeInMilliseconds
+     * @param updatedInMilliseconds
+     * @param longitude             in degrees
+     * @param latitude              in degrees
+     * @param depth                 in kilometres
+     * @param feltReports           the number of "Did You Feel It?" responses
+     * @param communityIntensity    the intensity reported by people who felt it
+     * @param instrumentalIntensity the intensity ShakeMap worked out from the instruments
+     * @param alertLevel            the PAGER alert level, i.e. "green" or "red"
+     * @param tsunami               whether the event is in an area tsunami warnings are issued for
+     * @param shakeMap              whether the event has a ShakeMap
+     * @param shakeMapImageUrl      the URL of the ShakeMap intensity image
+     * @param eventPageUrl          the URL of the event's page on the USGS site
+     */
+    public EarthquakeDetail(String id, double magnitude, String magnitudeType, String location,
+                            long timeInMilliseconds, long updatedInMilliseconds,
+                            double longitude, double latitude, double depth,
+                            int feltReports, double communityIntensity, double instrumentalIntensity,
+                            String alertLevel, boolean tsunami, boolean shakeMap, String shakeMapImageUrl,
+                            String eventPageUrl) {
+        mId = id;
+        mMagnitude = magnitude;
+        mMagnitudeType = magnitudeType;
+        mLocation = location;
+        mTimeInMilliseconds = timeInMilliseconds;
+        mUpdatedInMilliseconds = updatedInMilliseconds;
+        mLongitude = longitude;
+        mLatitude = latitude;
+        mDepth = depth;
+        mFeltReports = feltReports;
+        mCommunityIntensity = communityIntensity;
+        mInstrumentalIntensity = instrumentalIntensity;
+        mAlertLevel = alertLevel;
+        mTsunami = tsunami;
+        mShakeMap = shakeMap;
+        mShakeMapImageUrl = shakeMapImageUrl;
+        mEventPageUrl = eventPageUrl;
+    }
+
+    /**
+     * @return the USGS event id
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return the magnitude, or NaN if it isn't known
+     */
+    public double getMagnitude() {
+        return mMagnitude;
+    }
+
+    /**
+     * @return how the magnitude was measured (i.e. "mb" or "mww"), or null if it isn't known
+     */
+    public String getMagnitudeType() {
+        return mMagnitudeType;
+    }
+
+    /**
+     * @return the location (i.e. "74km NW of San Francisco"), or null if it isn't known
+     */
+    public String getLocation() {
+        return mLocation;
+    }
+
+    /**
+     * @return when the event happened
+     */
+    public long getTimeInMilliseconds() {
+        return mTimeInMilliseconds;
+    }
+
+    /**
+     * @return when the event was last revised
+     */
+    public long getUpdatedInMilliseconds() {
+        return mUpdatedInMilliseconds;
+    }
+
+    /**
+     * @return the longitude in degrees, or NaN if it isn't known
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return the latitude in degrees, or NaN if it isn't known
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * @return the depth in kilometres, or NaN if it isn't known
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * @return the number of people who reported feeling the event, 0 if nobody has
+     */
+    public int getFeltReports() {
+        return mFeltReports;
+    }
+
+    /**
+     * @return the highest intensity reported by people who felt the event, or NaN if there isn't one
+     */
+    public double getCommunityIntensity() {
+        return mCommunityIntensity;
+    }
+
+    /**
+     * @return the highest intensity worked out from the instruments, or NaN if there isn't one
+     */
+    public double getInstrumentalIntensity() {
+        return mInstrumentalIntensity;
+    }
+
+    /**
+     * @return the PAGER alert level ("green", "yellow", "orange" or "red"), or null if there isn't one
+     */
+    public String getAlertLevel() {
+        return mAlertLevel;
+    }
+
+    /**
+     * @return true if the event is in an area tsunami warnings are issued for, which doesn't mean there was one
+     */
+    public boolean isTsunami() {
+        return mTsunami;
+    }
+
+    /**
+     * @return true if the event has a ShakeMap
+     */
+    public boolean hasShakeMap() {
+        return mShakeMap;
+    }
+
+    /**
+     * @return the URL of the ShakeMap intensity image, or null if there isn't one
+     */
+    public String getShakeMapImageUrl() {
+        return mShakeMapImageUrl;
+    }
+
+    /**
+     * @return the URL of the event's page on the USGS site, or null if it isn't known
+     */
+    public String getEventPageUrl() {
+        return mEventPageUrl;
+    }
+}
@@ -0,0 +1,338 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the detail GeoJSON of single events on demand, keeping the most recently used in a small cache.
+ * Details asked for by the user are downloaded straight away on threads of their own. Details of the events
+ * around the rows on screen can be prefetched, on a few low priority threads, in the order they were asked
+ * for, so by the time one is opened it's usually in the cache already. Each call to {@link #prefetch(List)}
+ * replaces the events wanted before it: any prefetch no longer wanted is dropped from the queue, or cancelled
+ * if it's already downloading, unless someone has opened its event in the meantime.
+ * An event is only ever downloaded once at a time, a request for one that's already downloading joins it.
+ */
+public class EarthquakeDetailLoader {
+
+    /**
+     * Told when a detail has been loaded
+     */
+    public interface Callback {
+
+        /**
+         * The detail of the event with {@param id} is {@param detail}, or null if it couldn't be loaded.
+         * Called on the thread that asked for it if it was in the cache, or on a loader thread if it wasn't.
+         */
+        void onDetailLoaded(String id, EarthquakeDetail detail);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(EarthquakeDetailLoader.class.getSimpleName());
+
+    //Threads downloading the details that have been opened
+    private static final int OPEN_THREADS = 2;
+
+    //The endpoint the details are requested from
+    private final String mEndpoint;
+
+    //Most details cached at once, and how long each is used for before it's downloaded again
+    private final int mMaxEntries;
+    private final long mTimeToLiveMillis;
+
+    //Recent details by event id, least recently used first. Guarded by this.
+    private final LinkedHashMap<String, CacheEntry> mCache;
+
+    //Details queued or downloading, by event id. Guarded by this.
+    private final Map<String, Task> mTasks = new HashMap<>();
+
+    //Downloads the opened details, and the prefetched ones, lowest rank first
+    private final ExecutorService mOpenExecutor;
+    private final ThreadPoolExecutor mPrefetchExecutor;
+
+    /**
+     * Create a loader
+     *
+     * @param endpoint         the endpoint the details are requested from, i.e. {@link EarthquakeQuery#QUERY_ENDPOINT}
+     * @param maxEntries       the most details cached at once, and so the most prefetched at once
+     * @param timeToLiveMillis how long a cached detail is used for, as felt reports and the like keep coming in
+     * @param maxPrefetches    the most details prefetched at the same time
+     */
+    public EarthquakeDetailLoader(String endpoint, int maxEntries, long timeToLiveMillis, int maxPrefetches) {
+        mEndpoint = endpoint;
+        mMaxEntries = maxEntries;
+        mTimeToLiveMillis = timeToLiveMillis;
+        mCache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+        mOpenExecutor = Executors.newFixedThreadPool(OPEN_THREADS, newThreadFactory("EarthquakeDetailLoader #",
+                Thread.NORM_PRIORITY));
+        mPrefetchExecutor = new ThreadPoolExecutor(maxPrefetches, maxPrefetches, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), newThreadFactory("EarthquakeDetailLoader prefetch #",
+                Thread.MIN_PRIORITY));
+    }
+
+    /**
+     * @return the cached detail of the event with {@param id}, or null if it isn't cached, without loading it
+     */
+    public EarthquakeDetail getCached(String id) {
+        EarthquakeDetail detail;
+        synchronized (this) {
+            detail = getCachedLocked(id);
+        }
+        if (detail != null) {
+            Metrics.counter(Metrics.DETAIL_CACHE_HITS).increment();
+        }
+        return detail;
+    }
+
+    /**
+     * Load the detail of the event with {@param id} and pass it to {@param callback}, straight away if it's
+     * cached. An event that is being prefetched is moved ahead of the other prefetches, and is no longer
+     * cancelled by scrolling away from it.
+     */
+    public void load(String id, Callback callback) {
+        if (id == null) {
+            throw new IllegalArgumentException("Can't load the detail of an event without an id");
+        }
+        EarthquakeDetail detail;
+        synchronized (this) {
+            detail = getCachedLocked(id);
+            if (detail == null) {
+                Metrics.counter(Metrics.DETAIL_CACHE_MISSES).increment();
+                Task task = mTasks.get(id);
+                if (task == null) {
+                    task = new Task(id, false);
+                    mTasks.put(id, task);
+                    mOpenExecutor.execute(task);
+                } else if (task.mPrefetch) {
+                    //Take it out of the prefetch queue if it hasn't started, otherwise let it finish where it is
+                    task.mPrefetch = false;
+                    if (mPrefetchExecutor.remove(task)) {
+                        mOpenExecutor.execute(task);
+                    }
+                }
+                task.mCallbacks.add(callback);
+                return;
+            }
+        }
+        Metrics.counter(Metrics.DETAIL_CACHE_HITS).increment();
+        callback.onDetailLoaded(id, detail);
+    }
+
+    /**
+     * Stop passing details to {@param callback}, i.e. when the screen that asked for them goes away.
+     * The downloads carry on, so the details are cached for next time.
+     */
+    public synchronized void removeCallback(Callback callback) {
+        for (Task task : mTasks.values()) {
+            task.mCallbacks.remove(callback);
+        }
+    }
+
+    /**
+     * Prefetch the details of the events with {@param ids}, in that order, i.e. the rows on screen followed by
+     * those either side of them, replacing the events asked for by the last call. Prefetches of events not in
+     * the list are cancelled, so an empty list cancels them all. Only as many as can be cached are prefetched.
+     * Events without an id are skipped.
+     */
+    public void prefetch(List<String> ids) {
+        if (ids.contains(null)) {
+            ids = new ArrayList<>(ids);
+            ids.removeAll(Collections.singleton((String) null));
+        }
+        List<Task> cancelled = new ArrayList<>();
+        synchronized (this) {
+            int count = Math.min(ids.size(), mMaxEntries);
+            Set<String> wanted = new HashSet<>(ids.subList(0, count));
+
+            //Drop the prefetches that have been scrolled away from
+            for (Iterator<Task> iterator = mTasks.values().iterator(); iterator.hasNext(); ) {
+                Task task = iterator.next();
+                if (task.mPrefetch && !wanted.contains(task.mId)) {
+                    iterator.remove();
+                    mPrefetchExecutor.remove(task);
+                    cancelled.add(task);
+                }
+            }
+
+            //Queue the rest in the order they were given, putting those already queued back in their new place
+            for (int rank = 0; rank < count; rank++) {
+                String id = ids.get(rank);
+                if (getCachedLocked(id) != null) {
+                    continue;
+                }
+                Task task = mTasks.get(id);
+                if (task == null) {
+                    task = new Task(id, true);
+                    task.mRank = rank;
+                    mTasks.put(id, task);
+                    mPrefetchExecutor.execute(task);
+                    Metrics.counter(Metrics.DETAIL_PREFETCHES).increment();
+                } else if (task.mPrefetch && mPrefetchExecutor.remove(task)) {
+                    task.mRank = rank;
+                    mPrefetchExecutor.execute(task);
+                }
+            }
+        }
+
+        //Abort the downloads outside the lock, as it closes their connections
+        for (Task task : cancelled) {
+            task.mCancellation.cancel();
+        }
+        Metrics.counter(Metrics.DETAIL_PREFETCHES_CANCELLED).add(cancelled.size());
+    }
+
+    /**
+     * Forget every cached detail, downloads that are running are left alone
+     */
+    public synchronized void clear() {
+        mCache.clear();
+    }
+
+    /**
+     * Cancel every download and stop the loader's threads, it can't be used afterwards
+     */
+    public void shutdown() {
+        List<Task> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(mTasks.values());
+            mTasks.clear();
+        }
+        mOpenExecutor.shutdownNow();
+        mPrefetchExecutor.shutdownNow();
+        for (Task task : tasks) {
+            task.mCancellation.cancel();
+        }
+    }
+
+    /**
+     * @return the cached detail of the event with {@param id}, or null if it isn't cached or has expired
+     */
+    private EarthquakeDetail getCachedLocked(String id) {
+        CacheEntry entry = mCache.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.mExpiresAt) {
+            mCache.remove(id);
+            return null;
+        }
+        return entry.mDetail;
+    }
+
+    /**
+     * Download {@param task}'s detail, cache it and pass it to whoever is waiting for it
+     */
+    private void run(Task task) {
+        synchronized (this) {
+            //Cancelled, or moved to the other executor, while it was waiting to be taken off the queue
+            if (mTasks.get(task.mId) != task || task.mStarted) {
+                return;
+            }
+            task.mStarted = true;
+        }
+
+        EarthquakeDetail detail = null;
+        try {
+            detail = QueryUtils.fetchEarthquakeDetail(EarthquakeQuery.detailUrl(mEndpoint, task.mId),
+                    task.mCancellation);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Problem loading the detail of earthquake " + task.mId, e);
+        }
+
+        List<Callback> callbacks;
+        synchronized (this) {
+            if (mTasks.get(task.mId) == task) {
+                mTasks.remove(task.mId);
+            }
+            if (detail != null && mMaxEntries > 0 && mTimeToLiveMillis > 0) {
+                mCache.put(task.mId, new CacheEntry(detail, System.currentTimeMillis() + mTimeToLiveMillis));
+            }
+            callbacks = new ArrayList<>(task.mCallbacks);
+            task.mCallbacks.clear();
+        }
+        for (Callback callback : callbacks) {
+            callback.onDetailLoaded(task.mId, detail);
+        }
+    }
+
+    /**
+     * @return a factory for daemon threads named {@param name} and a number, run at {@param priority}
+     */
+    private static ThreadFactory newThreadFactory(final String name, final int priority) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * A detail queued or downloading, and who is waiting for it
+     */
+    private final class Task implements Runnable, Comparable<Task> {
+        final String mId;
+        final CancellationToken mCancellation = new CancellationToken();
+
+        //Callers waiting for the detail, whether it's only prefetched so it can be cancelled, where it is
+        //in the prefetch queue and whether it has started. Guarded by the loader, the rank is only changed
+        //while the task is out of the queue.
+        final List<Callback> mCallbacks = new ArrayList<>(1);
+        boolean mPrefetch;
+        int mRank;
+        boolean mStarted;
+
+        Task(String id, boolean prefetch) {
+            mId = id;
+            mPrefetch = prefetch;
+        }
+
+        @Override
+        public void run() {
+            EarthquakeDetailLoader.this.run(this);
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            return mRank < other.mRank ? -1 : (mRank == other.mRank ? 0 : 1);
+        }
+    }
+
+    /**
+     * A cached detail and when it stops being used
+     */
+    private static final class CacheEntry {
+        final EarthquakeDetail mDetail;
+        final long mExpiresAt;
+
+        CacheEntry(EarthquakeDetail detail, long expiresAt) {
+            mDetail = detail;
+            mExpiresAt = expiresAt;
+        }
+    }
+}
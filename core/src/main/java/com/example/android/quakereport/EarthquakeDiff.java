@@ -0,0 +1,221 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The rows inserted, removed and changed between two lists of earthquakes, matched up by event id, so a list
+ * can be told about just those rows instead of binding every row again.
+ * The earthquakes kept in the same order are the longest run of ids the lists have in common, anything
+ * else is removed from the old list and inserted into the new one. A kept earthquake is changed if any of
+ * its text is different.
+ * Working it out takes O(n log n) for lists of n earthquakes, so it's meant to be done off the main thread,
+ * then dispatched on it with {@link #dispatchTo(Callback)}.
+ */
+public final class EarthquakeDiff {
+
+    /**
+     * Told about each change, in an order where every position is in the list as it is after the changes
+     * before it, i.e. a RecyclerView adapter
+     */
+    public interface Callback {
+
+        /**
+         * {@param count} rows were inserted at {@param position}
+         */
+        void onInserted(int position, int count);
+
+        /**
+         * {@param count} rows were removed from {@param position}
+         */
+        void onRemoved(int position, int count);
+
+        /**
+         * {@param count} rows from {@param position} show something different
+         */
+        void onChanged(int position, int count);
+    }
+
+    //Kinds of operation
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    //Operations from the end of the list to its start, as the kind, position and count of each
+    private int[] mOperations = new int[3 * 8];
+    private int mOperationCount;
+
+    //Rows inserted, removed and changed
+    private int mTouchedCount;
+
+    private EarthquakeDiff() {
+    }
+
+    /**
+     * Work out how to turn the rows of {@param oldModel} into those of {@param newModel}, in the order of
+     * {@param oldView} and {@param newView}, or every row in the model's own order where they are null
+     *
+     * @return the changes, in the order they have to be dispatched
+     */
+    public static EarthquakeDiff calculate(EarthquakeDisplayModel oldModel, RowView oldView,
+                                           EarthquakeDisplayModel newModel, RowView newView) {
+        int oldSize = oldView == null ? oldModel.size() : oldView.size();
+        int newSize = newView == null ? newModel.size() : newView.size();
+        EarthquakeTable oldTable = oldModel.getTable();
+        EarthquakeTable newTable = newModel.getTable();
+
+        //Look up where each id was in the old list, a repeated id is matched to its last position
+        Map<String, Integer> oldPositions = new HashMap<>(oldSize * 4 / 3 + 1);
+        for (int position = 0; position < oldSize; position++) {
+            oldPositions.put(oldTable.getId(getRow(oldView, position)), position);
+        }
+        int[] matches = new int[newSize];
+        for (int position = 0; position < newSize; position++) {
+            Integer oldPosition = oldPositions.get(newTable.getId(getRow(newView, position)));
+            matches[position] = oldPosition == null ? -1 : oldPosition;
+        }
+
+        //The longest run of new positions whose old positions also go up are kept, the rest moved or replaced
+        int[] kept = longestIncreasingRun(matches);
+
+        EarthquakeDiff diff = new EarthquakeDiff();
+        int laterOld = oldSize;
+        int laterNew = newSize;
+        for (int i = kept.length - 1; i >= -1; i--) {
+            int keptNew = i < 0 ? -1 : kept[i];
+            int keptOld = i < 0 ? -1 : matches[keptNew];
+
+            //Replace whatever is between this earthquake and the next kept one, positions before it haven't moved yet
+            diff.add(REMOVE, keptOld + 1, laterOld - keptOld - 1);
+            diff.add(INSERT, keptOld + 1, laterNew - keptNew - 1);
+
+            if (i >= 0 && !isSameContent(oldModel, getRow(oldView, keptOld), newModel, getRow(newView, keptNew))) {
+                diff.add(CHANGE, keptOld, 1);
+            }
+            laterOld = keptOld;
+            laterNew = keptNew;
+        }
+        return diff;
+    }
+
+    /**
+     * @return true if no rows are inserted, removed or changed
+     */
+    public boolean isEmpty() {
+        return mOperationCount == 0;
+    }
+
+    /**
+     * @return the number of rows inserted, removed or changed
+     */
+    public int getTouchedCount() {
+        return mTouchedCount;
+    }
+
+    /**
+     * Tell {@param callback} about every change, from the end of the list to its start
+     */
+    public void dispatchTo(Callback callback) {
+        for (int i = 0; i < mOperationCount; i++) {
+            int kind = mOperations[3 * i];
+            int position = mOperations[3 * i + 1];
+            int count = mOperations[3 * i + 2];
+            switch (kind) {
+                case INSERT:
+                    callback.onInserted(position, count);
+                    break;
+                case REMOVE:
+                    callback.onRemoved(position, count);
+                    break;
+                default:
+                    callback.onChanged(position, count);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Add an operation of {@param kind} on {@param count} rows at {@param position}, joining a change onto the
+     * change just after it
+     */
+    private void add(int kind, int position, int count) {
+        if (count == 0) {
+            return;
+        }
+        mTouchedCount += count;
+        if (kind == CHANGE && mOperationCount > 0) {
+            int last = 3 * (mOperationCount - 1);
+            if (mOperations[last] == CHANGE && mOperations[last + 1] == position + count) {
+                mOperations[last + 1] = position;
+                mOperations[last + 2] += count;
+                return;
+            }
+        }
+        if (3 * mOperationCount == mOperations.length) {
+            mOperations = Arrays.copyOf(mOperations, mOperations.length * 2);
+        }
+        mOperations[3 * mOperationCount] = kind;
+        mOperations[3 * mOperationCount + 1] = position;
+        mOperations[3 * mOperationCount + 2] = count;
+        mOperationCount++;
+    }
+
+    /**
+     * @return the indexes into {@param values} of the longest run of values, ignoring -1, that goes up
+     */
+    private static int[] longestIncreasingRun(int[] values) {
+        //Index of the smallest last value of a run of each length, and the index before each one in its run
+        int[] tails = new int[values.length];
+        int[] previous = new int[values.length];
+        int length = 0;
+        for (int i = 0; i < values.length; i++) {
+            int value = values[i];
+            if (value < 0) {
+                continue;
+            }
+            //Find the first run whose last value isn't smaller, as this value can end a run of that length instead
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low == 0 ? -1 : tails[low - 1];
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        int[] run = new int[length];
+        for (int i = length - 1, index = length == 0 ? -1 : tails[length - 1]; i >= 0; i--) {
+            run[i] = index;
+            index = previous[index];
+        }
+        return run;
+    }
+
+    /**
+     * @return true if {@param oldRow} of {@param oldModel} shows the same text as {@param newRow} of {@param newModel}
+     */
+    private static boolean isSameContent(EarthquakeDisplayModel oldModel, int oldRow,
+                                         EarthquakeDisplayModel newModel, int newRow) {
+        return oldModel.getMagnitudeText(oldRow).equals(newModel.getMagnitudeText(newRow))
+                && oldModel.getDateText(oldRow).equals(newModel.getDateText(newRow))
+                && oldModel.getTimeText(oldRow).equals(newModel.getTimeText(newRow))
+                && oldModel.getLocationOffset(oldRow).equals(newModel.getLocationOffset(newRow))
+                && oldModel.getPrimaryLocation(oldRow).equals(newModel.getPrimaryLocation(newRow));
+    }
+
+    /**
+     * @return the row shown at {@param position} of {@param view}, or the position itself if there is no view
+     */
+    private static int getRow(RowView view, int position) {
+        return view == null ? position : view.getRow(position);
+    }
+}
@@ -0,0 +1,357 @@
+package com.example.android.quakereport;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Ready-to-render earthquakes, with every piece of text a row shows worked out ahead of time.
+ * The magnitude text, magnitude colour bucket, date and time are formatted in bulk when rows are
+ * added, which the loader does on its background thread, so binding a row only sets values.
+ * Identical texts (the same day, minute or magnitude) share a single String.
+ * Rows with coordinates are also added to a {@link SpatialIndex}, and every row to an {@link EarthquakeQueryEngine},
+ * so location queries, sorting and filtering need no network.
+ * Like {@link EarthquakeTable}, a model is only appended to, and one that another thread can see
+ * must be copied with {@link #EarthquakeDisplayModel(EarthquakeDisplayModel, int)} before it's changed.
+ */
+public class EarthquakeDisplayModel {
+
+    //Number of magnitude colour buckets, see getMagnitudeBucket
+    public static final int MAGNITUDE_BUCKETS = 11;
+
+    //Patterns for the date (i.e. "Mar 03, 1984") and time (i.e. "16:30")
+    private static final String DATE_PATTERN = "MMM dd, yyyy";
+    private static final String TIME_PATTERN = "HH:mm";
+
+    //The earthquakes the text is for
+    private final EarthquakeTable mTable;
+
+    //Derived columns, one entry per row of the table
+    private String[] mMagnitudeTexts;
+    private byte[] mMagnitudeBuckets;
+    private String[] mDateTexts;
+    private String[] mTimeTexts;
+
+    //Where each row is, for radius, bounding box and nearest queries
+    private final SpatialIndex mSpatialIndex;
+
+    //The rows sorted by magnitude and by time, for sorting and filtering
+    private final EarthquakeQueryEngine mQueryEngine;
+
+    //Formatters and caches of the texts made so far, created on first use by the formatting thread
+    private Formatter mFormatter;
+
+    //Whether the earthquakes were kept from before because the latest request for them failed
+    private boolean mStale;
+
+    /**
+     * Create an empty model
+     */
+    public EarthquakeDisplayModel() {
+        this(new EarthquakeTable());
+    }
+
+    /**
+     * Create a model for every row of the {@param table}, which the model takes over
+     */
+    public EarthquakeDisplayModel(EarthquakeTable table) {
+        mTable = table;
+        int capacity = Math.max(table.size(), 1);
+        mMagnitudeTexts = new String[capacity];
+        mMagnitudeBuckets = new byte[capacity];
+        mDateTexts = new String[capacity];
+        mTimeTexts = new String[capacity];
+        mSpatialIndex = new SpatialIndex();
+        mQueryEngine = new EarthquakeQueryEngine();
+        formatRows(0);
+    }
+
+    /**
+     * Create a model for every row of the {@param table} with the {@param dateTexts} and {@param timeTexts} already
+     * formatted, i.e. read from an {@link EarthquakeSnapshot}, which must have been formatted the way
+     * {@link #getTextFormatKey()} describes, and the {@param queryEngine} already built
+     */
+    EarthquakeDisplayModel(EarthquakeTable table, String[] dateTexts, String[] timeTexts,
+                           EarthquakeQueryEngine queryEngine) {
+        mTable = table;
+        int capacity = Math.max(table.size(), 1);
+        mMagnitudeTexts = new String[capacity];
+        mMagnitudeBuckets = new byte[capacity];
+        mDateTexts = Arrays.copyOf(dateTexts, capacity);
+        mTimeTexts = Arrays.copyOf(timeTexts, capacity);
+        mSpatialIndex = new SpatialIndex();
+        mQueryEngine = queryEngine;
+        mFormatter = new Formatter();
+        //Magnitudes are quick to format, only the dates and times are worth keeping
+        for (int row = 0; row < table.size(); row++) {
+            double magnitude = table.getMagnitude(row);
+            mMagnitudeTexts[row] = mFormatter.magnitudeText(magnitude);
+            mMagnitudeBuckets[row] = (byte) getMagnitudeBucket(magnitude);
+        }
+        mSpatialIndex.addAll(mTable, 0);
+    }
+
+    /**
+     * Create a copy of {@param source} with room for at least {@param capacity} rows,
+     * so it can be appended to without changing the source
+     */
+    public EarthquakeDisplayModel(EarthquakeDisplayModel source, int capacity) {
+        capacity = Math.max(Math.max(capacity, source.size()), 1);
+        mTable = new EarthquakeTable(source.mTable, capacity);
+        mMagnitudeTexts = Arrays.copyOf(source.mMagnitudeTexts, capacity);
+        mMagnitudeBuckets = Arrays.copyOf(source.mMagnitudeBuckets, capacity);
+        mDateTexts = Arrays.copyOf(source.mDateTexts, capacity);
+        mTimeTexts = Arrays.copyOf(source.mTimeTexts, capacity);
+        mSpatialIndex = new SpatialIndex(source.mSpatialIndex);
+        mQueryEngine = new EarthquakeQueryEngine(source.mQueryEngine);
+    }
+
+    /**
+     * Append the {@param earthquakes}, formatting their text on the calling thread
+     */
+    public void addAll(List<Earthquake> earthquakes) {
+        int firstNewRow = mTable.size();
+        mTable.addAll(earthquakes);
+        formatRows(firstNewRow);
+    }
+
+    /**
+     * Append every row of {@param other}, reusing the text it has already formatted
+     */
+    public void addAll(EarthquakeDisplayModel other) {
+        int firstNewRow = mTable.size();
+        mTable.addAll(other.mTable);
+        ensureCapacity(mTable.size());
+        int count = other.size();
+        System.arraycopy(other.mMagnitudeTexts, 0, mMagnitudeTexts, firstNewRow, count);
+        System.arraycopy(other.mMagnitudeBuckets, 0, mMagnitudeBuckets, firstNewRow, count);
+        System.arraycopy(other.mDateTexts, 0, mDateTexts, firstNewRow, count);
+        System.arraycopy(other.mTimeTexts, 0, mTimeTexts, firstNewRow, count);
+        mSpatialIndex.addAll(mTable, firstNewRow);
+        mQueryEngine.addAll(mTable, firstNewRow);
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return mTable.size();
+    }
+
+    /**
+     * @return true if the latest request for the earthquakes failed and these were kept from before,
+     * so they may be out of date
+     */
+    public boolean isStale() {
+        return mStale;
+    }
+
+    /**
+     * Mark the earthquakes as kept from before a failed request, {@param stale}, before the model is handed over
+     */
+    public void setStale(boolean stale) {
+        mStale = stale;
+    }
+
+    /**
+     * @return the earthquakes behind the model
+     */
+    public EarthquakeTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * @return the index of where each row is, its entries are row numbers of this model
+     */
+    public SpatialIndex getSpatialIndex() {
+        return mSpatialIndex;
+    }
+
+    /**
+     * @return the engine for sorting and filtering the rows, its views hold row numbers of this model
+     */
+    public EarthquakeQueryEngine getQueryEngine() {
+        return mQueryEngine;
+    }
+
+    /**
+     * @return the magnitude text in {@param row} (i.e. "4.5")
+     */
+    public String getMagnitudeText(int row) {
+        return mMagnitudeTexts[checkRow(row)];
+    }
+
+    /**
+     * @return the magnitude colour bucket in {@param row}, see {@link #getMagnitudeBucket(double)}
+     */
+    public int getMagnitudeBucket(int row) {
+        return mMagnitudeBuckets[checkRow(row)];
+    }
+
+    /**
+     * @return the date text in {@param row} (i.e. "Mar 03, 1984")
+     */
+    public String getDateText(int row) {
+        return mDateTexts[checkRow(row)];
+    }
+
+    /**
+     * @return the time text in {@param row} (i.e. "16:30")
+     */
+    public String getTimeText(int row) {
+        return mTimeTexts[checkRow(row)];
+    }
+
+    /**
+     * @return the offset part of the location in {@param row}, or an empty String if it has none
+     */
+    public String getLocationOffset(int row) {
+        return mTable.getLocationOffset(row);
+    }
+
+    /**
+     * @return the location without its offset in {@param row}
+     */
+    public String getPrimaryLocation(int row) {
+        return mTable.getPrimaryLocation(row);
+    }
+
+    /**
+     * @return the detail URL in {@param row}
+     */
+    public String getDetailUrl(int row) {
+        return mTable.getDetailUrl(row);
+    }
+
+    /**
+     * @param magnitude - based on the input
+     * @return the magnitude colour bucket, 0 to 9 for magnitudes below 10 and 10 for everything else
+     */
+    public static int getMagnitudeBucket(double magnitude) {
+        //Convert double to int, so the bucket can be looked up
+        int magFloor = (int) Math.floor(magnitude);
+        if (magFloor >= 0 && magFloor <= 9) {
+            return magFloor;
+        }
+        return MAGNITUDE_BUCKETS - 1;
+    }
+
+    /**
+     * @return a description of how dates and times are formatted on this device, which changes with the
+     * locale and time zone, so texts formatted under another one can be told apart
+     */
+    static String getTextFormatKey() {
+        return DATE_PATTERN + '|' + TIME_PATTERN + '|' + Locale.getDefault() + '|' + TimeZone.getDefault().getID();
+    }
+
+    /**
+     * @return the {@param magnitude} with up to two decimal places and at least one (i.e. "4.0", "4.5", "4.53")
+     */
+    public static String formatMagnitude(double magnitude) {
+        long hundredths = Math.round(magnitude * 100);
+        StringBuilder text = new StringBuilder(8);
+        if (hundredths < 0) {
+            text.append('-');
+            hundredths = -hundredths;
+        }
+        int fraction = (int) (hundredths % 100);
+        text.append(hundredths / 100).append('.').append(fraction / 10);
+        //Drop a trailing zero in the hundredths
+        if (fraction % 10 != 0) {
+            text.append(fraction % 10);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Work out the derived columns for every row from {@param firstRow} onwards
+     */
+    private void formatRows(int firstRow) {
+        ensureCapacity(mTable.size());
+        if (mFormatter == null) {
+            mFormatter = new Formatter();
+        }
+        for (int row = firstRow; row < mTable.size(); row++) {
+            double magnitude = mTable.getMagnitude(row);
+            long time = mTable.getTimeInMilliseconds(row);
+            mMagnitudeTexts[row] = mFormatter.magnitudeText(magnitude);
+            mMagnitudeBuckets[row] = (byte) getMagnitudeBucket(magnitude);
+            mDateTexts[row] = mFormatter.dateText(time);
+            mTimeTexts[row] = mFormatter.timeText(time);
+        }
+        mSpatialIndex.addAll(mTable, firstRow);
+        mQueryEngine.addAll(mTable, firstRow);
+    }
+
+    /**
+     * Grow the derived columns so they can hold at least {@param capacity} rows
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mMagnitudeTexts.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mMagnitudeTexts.length + (mMagnitudeTexts.length >> 1));
+        mMagnitudeTexts = Arrays.copyOf(mMagnitudeTexts, newCapacity);
+        mMagnitudeBuckets = Arrays.copyOf(mMagnitudeBuckets, newCapacity);
+        mDateTexts = Arrays.copyOf(mDateTexts, newCapacity);
+        mTimeTexts = Arrays.copyOf(mTimeTexts, newCapacity);
+    }
+
+    /**
+     * @return {@param row}, after checking it's one of the rows in use
+     */
+    private int checkRow(int row) {
+        if (row < 0 || row >= mTable.size()) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + mTable.size());
+        }
+        return row;
+    }
+
+    /**
+     * Formats texts, reusing a single Date and handing back the same String for repeated values
+     */
+    private static final class Formatter {
+        private final SimpleDateFormat mDateFormat = new SimpleDateFormat(DATE_PATTERN);
+        private final SimpleDateFormat mTimeFormat = new SimpleDateFormat(TIME_PATTERN);
+        private final Date mDate = new Date();
+        private final Map<String, String> mTexts = new HashMap<>();
+        private final Map<Long, String> mMagnitudeTexts = new HashMap<>();
+
+        String magnitudeText(double magnitude) {
+            Long hundredths = Math.round(magnitude * 100);
+            String text = mMagnitudeTexts.get(hundredths);
+            if (text == null) {
+                text = formatMagnitude(magnitude);
+                mMagnitudeTexts.put(hundredths, text);
+            }
+            return text;
+        }
+
+        String dateText(long time) {
+            mDate.setTime(time);
+            return share(mDateFormat.format(mDate));
+        }
+
+        String timeText(long time) {
+            mDate.setTime(time);
+            return share(mTimeFormat.format(mDate));
+        }
+
+        /**
+         * @return the String already made with the same text as {@param text}, or {@param text} if it's the first
+         */
+        private String share(String text) {
+            String shared = mTexts.get(text);
+            if (shared == null) {
+                mTexts.put(text, text);
+                shared = text;
+            }
+            return shared;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.quakereport;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The formats earthquakes can be exported to and imported from, each written and read one record at a
+ * time through a buffer of fixed size, so a dataset of any size is handled in constant memory.
+ */
+public enum EarthquakeFormat {
+
+    //A header line then a line per earthquake, readable by spreadsheets
+    CSV("csv") {
+        @Override
+        public EarthquakeWriter newWriter(WritableByteChannel channel) {
+            return new CsvEarthquakeWriter(channel);
+        }
+
+        @Override
+        public EarthquakeReader newReader(ReadableByteChannel channel) {
+            return new CsvEarthquakeReader(channel);
+        }
+    },
+
+    //A JSON object per line, readable by most data tools
+    NDJSON("ndjson") {
+        @Override
+        public EarthquakeWriter newWriter(WritableByteChannel channel) {
+            return new NdjsonEarthquakeWriter(channel);
+        }
+
+        @Override
+        public EarthquakeReader newReader(ReadableByteChannel channel) {
+            return new NdjsonEarthquakeReader(channel);
+        }
+    },
+
+    //Fixed size numbers and length prefixed strings, the smallest and quickest to read back
+    BINARY("quakes") {
+        @Override
+        public EarthquakeWriter newWriter(WritableByteChannel channel) {
+            return new BinaryEarthquakeWriter(channel);
+        }
+
+        @Override
+        public EarthquakeReader newReader(ReadableByteChannel channel) {
+            return new BinaryEarthquakeReader(channel);
+        }
+    };
+
+    //File name extension, without the dot
+    private final String mExtension;
+
+    EarthquakeFormat(String extension) {
+        mExtension = extension;
+    }
+
+    /**
+     * @return the file name extension of the format, without the dot (i.e. "csv")
+     */
+    public String getExtension() {
+        return mExtension;
+    }
+
+    /**
+     * @return a writer of this format to {@param channel}, which is closed along with it
+     */
+    public abstract EarthquakeWriter newWriter(WritableByteChannel channel);
+
+    /**
+     * @return a reader of this format from {@param channel}, which is closed along with it
+     */
+    public abstract EarthquakeReader newReader(ReadableByteChannel channel);
+
+    /**
+     * @return the format whose extension {@param fileName} ends with, or null if there isn't one
+     */
+    public static EarthquakeFormat forFileName(String fileName) {
+        for (EarthquakeFormat format : values()) {
+            if (fileName.endsWith("." + format.mExtension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pages through a USGS query with its offset/limit parameters, keeping the earthquakes in the order the
+ * server returns them.
+ * The offset of the next page is the number of rows the server has returned so far, which is counted apart
+ * from the earthquakes kept: pages can overlap, and an earthquake already kept is dropped from the page
+ * rather than shown twice, so the two counts differ.
+ * The pages are the query's earthquakes as the server orders them, not whatever the store holds. Changes to the
+ * query since the pages were fetched, from a delta {@link EarthquakeSync}, are merged into them by
+ * {@link #merge(List)}, which keeps the count in step with the server, and every page after the first is
+ * brought up to date that way before it's requested, so it follows on from what the server has now.
+ * A pager belongs to one query, and is {@link #reset()} to start it again from the first page.
+ * Pagers are thread safe.
+ */
+public class EarthquakePager {
+
+    //The query being paged through
+    private final String mQueryUrl;
+
+    //How many earthquakes are requested per page
+    private final int mPageSize;
+
+    //Every earthquake kept so far, in the server's order
+    private final List<Earthquake> mEarthquakes = new ArrayList<>();
+
+    //Keys of the kept earthquakes, see EarthquakeStore.keyOf
+    private final Set<String> mKeys = new HashSet<>();
+
+    //Number of rows the server has returned for the pages, which the next page starts after
+    private int mFetchedCount;
+
+    //Whether the last page was full, so there may be more to load
+    private boolean mHasMorePages = true;
+
+    //Number of rows already kept that came back again on a later page, each one a sign the server has a
+    //new earthquake among the rows fetched that hasn't been merged yet
+    private int mRepeatedCount;
+
+    //Counts every change to the kept earthquakes other than appending a page
+    private int mRevision;
+
+    //Keys of the earthquakes of the page being parsed that are new, and so will be appended after the kept ones
+    private final Set<String> mPendingKeys = new HashSet<>();
+
+    /**
+     * Create a pager for the query at {@param queryUrl}, requesting {@param pageSize} earthquakes per page
+     */
+    public EarthquakePager(String queryUrl, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        mQueryUrl = queryUrl;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * @return the URL of the next page
+     */
+    public synchronized String getNextPageUrl() {
+        //USGS offsets start from 1
+        String separator = mQueryUrl.indexOf('?') >= 0 ? "&" : "?";
+        return mQueryUrl + separator + "offset=" + (mFetchedCount + 1) + "&limit=" + mPageSize;
+    }
+
+    /**
+     * Wrap the {@param listener} for the batches of the next page, so it's only passed the earthquakes that
+     * will be appended, at the position they will be appended at
+     */
+    public synchronized GeoJsonParser.OnBatchParsedListener filterBatches(
+            final GeoJsonParser.OnBatchParsedListener listener) {
+        mPendingKeys.clear();
+        return new GeoJsonParser.OnBatchParsedListener() {
+            @Override
+            public void onBatchParsed(List<Earthquake> earthquakes, int position) {
+                List<Earthquake> batch = new ArrayList<>(earthquakes.size());
+                int batchPosition;
+                synchronized (EarthquakePager.this) {
+                    batchPosition = mEarthquakes.size() + mPendingKeys.size();
+                    for (Earthquake earthquake : earthquakes) {
+                        String key = EarthquakeStore.keyOf(earthquake);
+                        if (!mKeys.contains(key) && mPendingKeys.add(key)) {
+                            batch.add(earthquake);
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    listener.onBatchParsed(batch, batchPosition);
+                }
+            }
+        };
+    }
+
+    /**
+     * Add the next {@param page} the server returned, which moves the next page on past every row of it
+     *
+     * @return the earthquakes of the page that weren't already kept, which have been appended
+     */
+    public synchronized List<Earthquake> addPage(List<Earthquake> page) {
+        mPendingKeys.clear();
+        mFetchedCount += page.size();
+        mHasMorePages = page.size() >= mPageSize;
+        List<Earthquake> appended = new ArrayList<>(page.size());
+        for (Earthquake earthquake : page) {
+            if (mKeys.add(EarthquakeStore.keyOf(earthquake))) {
+                appended.add(earthquake);
+            } else {
+                mRepeatedCount++;
+            }
+        }
+        mEarthquakes.addAll(appended);
+        return appended;
+    }
+
+    /**
+     * Merge the {@param changes} made to the query since the pages were fetched, deleted events included.
+     * A kept earthquake is replaced by its revision or removed if it has been deleted. An earthquake that isn't
+     * kept is inserted by time if it's newer than the last one kept, as the server now has it among the rows
+     * fetched, and the rest are left for the page that reaches them. The next page moves on by one for every
+     * earthquake inserted, unless a page has already counted its row, and back by one for every one removed.
+     *
+     * @return true if the kept earthquakes have changed
+     */
+    public synchronized boolean merge(List<Earthquake> changes) {
+        //Nothing has been fetched to merge into
+        if (mEarthquakes.isEmpty() && mHasMorePages) {
+            return false;
+        }
+        //Rows up to the last one kept have been fetched, or every row if there are no more pages
+        long lastTime = mHasMorePages ? mEarthquakes.get(mEarthquakes.size() - 1).getTimeInMilliseconds()
+                : Long.MIN_VALUE;
+        boolean changed = false;
+        for (Earthquake change : changes) {
+            String key = EarthquakeStore.keyOf(change);
+            boolean kept = mKeys.contains(key);
+            if (kept) {
+                int index = indexOf(key);
+                if (!change.isDeleted()
+                        && change.getUpdatedInMilliseconds() == mEarthquakes.get(index).getUpdatedInMilliseconds()) {
+                    //Already up to date
+                    continue;
+                }
+                mEarthquakes.remove(index);
+                mKeys.remove(key);
+                mFetchedCount--;
+                changed = true;
+            }
+            long time = change.getTimeInMilliseconds();
+            if (!change.isDeleted() && (time > lastTime || (kept && time == lastTime))) {
+                if (!kept && mRepeatedCount > 0) {
+                    //A later page has already counted this earthquake's row, and shown the one it pushed along again
+                    mRepeatedCount--;
+                } else {
+                    mFetchedCount++;
+                }
+                mEarthquakes.add(insertionIndexOf(time), change);
+                mKeys.add(key);
+                changed = true;
+            }
+        }
+        if (changed) {
+            mRevision++;
+        }
+        return changed;
+    }
+
+    /**
+     * Bring the pages up to date with the query, merging in the changes a delta sync through {@param sync}
+     * returns, unless {@param cancellation} is cancelled
+     *
+     * @return false if the query couldn't be synced, because it has never been, or the request failed or was
+     * cancelled
+     */
+    public boolean sync(EarthquakeSync sync, CancellationToken cancellation) {
+        List<Earthquake> changes = sync.syncChanges(mQueryUrl, cancellation);
+        if (changes == null) {
+            return false;
+        }
+        merge(changes);
+        return true;
+    }
+
+    /**
+     * Fetch the next page and add it, saving it in the store of the {@param sync}. Every page after the first is
+     * brought up to date through the {@param sync} first. The earthquakes the page adds are passed to the
+     * {@param listener}, which may be null, in batches of {@param batchSize}, see
+     * {@link #filterBatches(GeoJsonParser.OnBatchParsedListener)}.
+     * A cancelled page is saved, as far as it was parsed, but not added.
+     *
+     * @return the response for the page, or null if the request failed or {@param cancellation} was cancelled
+     */
+    public FeedResponse fetchNextPage(EarthquakeSync sync, int batchSize, GeoJsonParser.OnBatchParsedListener listener,
+                                      CancellationToken cancellation) {
+        //Merge what has changed first, so the page starts where the server's rows now leave off. If the sync
+        //fails the page is fetched anyway, and any row it repeats is dropped.
+        if (size() > 0) {
+            sync(sync, cancellation);
+        }
+        if (CancellationToken.isCancelled(cancellation)) {
+            return null;
+        }
+        FeedResponse response = QueryUtils.fetchFeed(getNextPageUrl(), null, null, batchSize,
+                listener == null ? null : filterBatches(listener), cancellation);
+        if (response == null) {
+            return null;
+        }
+        sync.putPage(mQueryUrl, response.getEarthquakes());
+        if (CancellationToken.isCancelled(cancellation)) {
+            return null;
+        }
+        addPage(response.getEarthquakes());
+        return response;
+    }
+
+    /**
+     * @return every earthquake kept so far, in the server's order
+     */
+    public synchronized List<Earthquake> getEarthquakes() {
+        return new ArrayList<>(mEarthquakes);
+    }
+
+    /**
+     * @return the number of earthquakes kept
+     */
+    public synchronized int size() {
+        return mEarthquakes.size();
+    }
+
+    /**
+     * @return the number of rows the server has returned, which the next page starts after
+     */
+    public synchronized int getFetchedCount() {
+        return mFetchedCount;
+    }
+
+    /**
+     * @return true if the last page was full, so there may be more to load
+     */
+    public synchronized boolean hasMorePages() {
+        return mHasMorePages;
+    }
+
+    /**
+     * @return a number that changes whenever the kept earthquakes change other than by appending a page
+     */
+    public synchronized int getRevision() {
+        return mRevision;
+    }
+
+    /**
+     * Forget every page, so the next one is the first
+     */
+    public synchronized void reset() {
+        mEarthquakes.clear();
+        mKeys.clear();
+        mPendingKeys.clear();
+        mFetchedCount = 0;
+        mHasMorePages = true;
+        mRepeatedCount = 0;
+        mRevision++;
+    }
+
+    /**
+     * @return the index of the kept earthquake with the {@param key}, or -1 if there isn't one
+     */
+    private int indexOf(String key) {
+        for (int i = 0; i < mEarthquakes.size(); i++) {
+            if (key.equals(EarthquakeStore.keyOf(mEarthquakes.get(i)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index an earthquake at {@param timeInMilliseconds} is inserted at, after every one as new or newer
+     */
+    private int insertionIndexOf(long timeInMilliseconds) {
+        int index = 0;
+        while (index < mEarthquakes.size() && mEarthquakes.get(index).getTimeInMilliseconds() >= timeInMilliseconds) {
+            index++;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.android.quakereport;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Description of one USGS FDSN event query: an optional bounding box, time window and magnitude band.
+ * Queries are immutable, use a {@link Builder} to create them.
+ * Results are always requested newest first, which {@link FetchOrchestrator} relies on when merging.
+ */
+public final class EarthquakeQuery {
+
+    //The FDSN event query endpoint
+    public static final String QUERY_ENDPOINT = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    //Format of the dates in the FDSN query parameters
+    private static final String QUERY_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS";
+
+    //The endpoint the query is sent to
+    private final String mEndpoint;
+
+    //Declare private variables for this class to use, NaN or 0 means the parameter isn't set
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+    private final long mStartTime;
+    private final long mEndTime;
+    private final double mMinMagnitude;
+    private final double mMaxMagnitude;
+    private final int mLimit;
+
+    private EarthquakeQuery(Builder builder) {
+        mEndpoint = builder.mEndpoint;
+        mMinLatitude = builder.mMinLatitude;
+        mMaxLatitude = builder.mMaxLatitude;
+        mMinLongitude = builder.mMinLongitude;
+        mMaxLongitude = builder.mMaxLongitude;
+        mStartTime = builder.mStartTime;
+        mEndTime = builder.mEndTime;
+        mMinMagnitude = builder.mMinMagnitude;
+        mMaxMagnitude = builder.mMaxMagnitude;
+        mLimit = builder.mLimit;
+    }
+
+    /**
+     * @return the start of the time window, or 0 if it isn't set
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * @return the end of the time window, or 0 if it isn't set
+     */
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    /**
+     * @return the most earthquakes the query asks for, or 0 for the server's default
+     */
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * @return a builder holding the same parameters as this query
+     */
+    public Builder buildUpon() {
+        Builder builder = new Builder();
+        builder.mEndpoint = mEndpoint;
+        builder.mMinLatitude = mMinLatitude;
+        builder.mMaxLatitude = mMaxLatitude;
+        builder.mMinLongitude = mMinLongitude;
+        builder.mMaxLongitude = mMaxLongitude;
+        builder.mStartTime = mStartTime;
+        builder.mEndTime = mEndTime;
+        builder.mMinMagnitude = mMinMagnitude;
+        builder.mMaxMagnitude = mMaxMagnitude;
+        builder.mLimit = mLimit;
+        return builder;
+    }
+
+    /**
+     * Split the time window into {@param slices} back to back windows of equal length, so they can be
+     * fetched in parallel. Each slice keeps the rest of the parameters, including the limit.
+     *
+     * @return the slices, newest first
+     */
+    public List<EarthquakeQuery> splitByTime(int slices) {
+        if (mStartTime == 0 || mEndTime == 0) {
+            throw new IllegalStateException("Only a query with a start and end time can be split");
+        }
+        List<EarthquakeQuery> queries = new ArrayList<>(slices);
+        long length = mEndTime - mStartTime;
+        for (int i = slices - 1; i >= 0; i--) {
+            long sliceStart = mStartTime + length * i / slices;
+            long sliceEnd = mStartTime + length * (i + 1) / slices;
+            queries.add(buildUpon().setTimeWindow(sliceStart, sliceEnd).build());
+        }
+        return queries;
+    }
+
+    /**
+     * @return the URL for this query
+     */
+    public String toUrl() {
+        StringBuilder url = new StringBuilder(mEndpoint)
+                .append("?format=geojson&eventtype=earthquake&orderby=time");
+        appendParameter(url, "minlatitude", mMinLatitude);
+        appendParameter(url, "maxlatitude", mMaxLatitude);
+        appendParameter(url, "minlongitude", mMinLongitude);
+        appendParameter(url, "maxlongitude", mMaxLongitude);
+        if (mStartTime != 0) {
+            url.append("&starttime=").append(formatQueryDate(mStartTime));
+        }
+        if (mEndTime != 0) {
+            url.append("&endtime=").append(formatQueryDate(mEndTime));
+        }
+        appendParameter(url, "minmagnitude", mMinMagnitude);
+        appendParameter(url, "maxmagnitude", mMaxMagnitude);
+        if (mLimit > 0) {
+            url.append("&limit=").append(mLimit);
+        }
+        return url.toString();
+    }
+
+    /**
+     * @return the URL of the detail GeoJSON of the event with {@param eventId}, sent to {@param endpoint},
+     * i.e. {@link #QUERY_ENDPOINT}
+     */
+    public static String detailUrl(String endpoint, String eventId) {
+        try {
+            return endpoint + "?format=geojson&eventid=" + URLEncoder.encode(eventId, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            //Every platform supports UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Add the parameter to the {@param url}, unless its {@param value} is NaN
+     */
+    private static void appendParameter(StringBuilder url, String name, double value) {
+        if (!Double.isNaN(value)) {
+            url.append('&').append(name).append('=').append(value);
+        }
+    }
+
+    /**
+     * @return the UTC date in the format the FDSN query parameters take
+     */
+    private static String formatQueryDate(long timeInMilliseconds) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(QUERY_DATE_FORMAT, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.format(new Date(timeInMilliseconds));
+    }
+
+    /**
+     * Builder for {@link EarthquakeQuery}, every parameter is optional
+     */
+    public static final class Builder {
+        private String mEndpoint = QUERY_ENDPOINT;
+        private double mMinLatitude = Double.NaN;
+        private double mMaxLatitude = Double.NaN;
+        private double mMinLongitude = Double.NaN;
+        private double mMaxLongitude = Double.NaN;
+        private long mStartTime;
+        private long mEndTime;
+        private double mMinMagnitude = Double.NaN;
+        private double mMaxMagnitude = Double.NaN;
+        private int mLimit;
+
+        /**
+         * Send the query to {@param endpoint} instead of the USGS one, i.e. a local stand-in for testing
+         */
+        public Builder setEndpoint(String endpoint) {
+            mEndpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * Only include earthquakes inside the bounding box, in degrees
+         */
+        public Builder setBoundingBox(double minLatitude, double maxLatitude, double minLongitude,
+                                      double maxLongitude) {
+            mMinLatitude = minLatitude;
+            mMaxLatitude = maxLatitude;
+            mMinLongitude = minLongitude;
+            mMaxLongitude = maxLongitude;
+            return this;
+        }
+
+        /**
+         * Only include earthquakes from {@param startTime} up to {@param endTime}, in milliseconds since the epoch
+         */
+        public Builder setTimeWindow(long startTime, long endTime) {
+            mStartTime = startTime;
+            mEndTime = endTime;
+            return this;
+        }
+
+        /**
+         * Only include earthquakes with a magnitude from {@param minMagnitude} up to {@param maxMagnitude},
+         * either can be NaN to leave that end open
+         */
+        public Builder setMagnitudeBand(double minMagnitude, double maxMagnitude) {
+            mMinMagnitude = minMagnitude;
+            mMaxMagnitude = maxMagnitude;
+            return this;
+        }
+
+        /**
+         * Ask for at most {@param limit} earthquakes, 0 for the server's default
+         */
+        public Builder setLimit(int limit) {
+            mLimit = limit;
+            return this;
+        }
+
+        /**
+         * @return the query
+         */
+        public EarthquakeQuery build() {
+            return new EarthquakeQuery(this);
+        }
+    }
+}
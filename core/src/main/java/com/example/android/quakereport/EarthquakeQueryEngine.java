@@ -0,0 +1,384 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Sorts and filters loaded earthquakes by magnitude and time without going back to the network.
+ * The rows are kept in two sorted orders, one by magnitude and one by time, along with the sorted
+ * values themselves, so the rows inside a magnitude band or time window are found with two binary
+ * searches and handed out as a {@link RowView} over the sorted order, without copying it.
+ * A filter on both magnitude and time walks whichever of the two ranges is cheaper, keeping the rows
+ * that pass the other test.
+ * Like {@link EarthquakeTable}, an engine is only ever appended to, and one that another thread can see
+ * must be copied with {@link #EarthquakeQueryEngine(EarthquakeQueryEngine)} before it's changed.
+ * Appending merges the new rows into new sorted arrays, so views that have already been made never change.
+ */
+public class EarthquakeQueryEngine {
+
+    /**
+     * The orders rows can be put in
+     */
+    public enum SortOrder {
+        NEWEST_FIRST, OLDEST_FIRST, LARGEST_FIRST, SMALLEST_FIRST
+    }
+
+    //Capacity of an empty engine
+    private static final int DEFAULT_CAPACITY = 16;
+
+    //Ranges shorter than this are sorted by insertion rather than merging
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    //Number of rows
+    private int mSize;
+
+    //Magnitude and time of each row, by row number
+    private double[] mMagnitudes;
+    private long[] mTimes;
+
+    //Row numbers sorted by magnitude (ties newest last) and by time, smallest first,
+    //with the sorted values alongside for searching. Never changed once made.
+    private int[] mByMagnitude;
+    private double[] mSortedMagnitudes;
+    private int[] mByTime;
+    private long[] mSortedTimes;
+
+    /**
+     * Create an empty engine
+     */
+    public EarthquakeQueryEngine() {
+        mMagnitudes = new double[DEFAULT_CAPACITY];
+        mTimes = new long[DEFAULT_CAPACITY];
+        mByMagnitude = new int[0];
+        mSortedMagnitudes = new double[0];
+        mByTime = new int[0];
+        mSortedTimes = new long[0];
+    }
+
+    /**
+     * Create a copy of {@param source}, so it can be appended to without changing the source
+     */
+    public EarthquakeQueryEngine(EarthquakeQueryEngine source) {
+        mSize = source.mSize;
+        int capacity = Math.max(source.mSize, DEFAULT_CAPACITY);
+        mMagnitudes = Arrays.copyOf(source.mMagnitudes, capacity);
+        mTimes = Arrays.copyOf(source.mTimes, capacity);
+        //The sorted arrays are replaced rather than changed, so they can be shared
+        mByMagnitude = source.mByMagnitude;
+        mSortedMagnitudes = source.mSortedMagnitudes;
+        mByTime = source.mByTime;
+        mSortedTimes = source.mSortedTimes;
+    }
+
+    /**
+     * Create an engine over {@param size} rows whose orders are already known, i.e. read from an
+     * {@link EarthquakeSnapshot}, which the engine takes over
+     *
+     * @param byMagnitude the rows sorted the way {@link #getRowsByMagnitude()} returns them
+     * @param byTime      the rows sorted the way {@link #getRowsByTime()} returns them
+     */
+    EarthquakeQueryEngine(int size, double[] magnitudes, long[] times, int[] byMagnitude, int[] byTime) {
+        mSize = size;
+        int capacity = Math.max(size, DEFAULT_CAPACITY);
+        mMagnitudes = Arrays.copyOf(magnitudes, capacity);
+        mTimes = Arrays.copyOf(times, capacity);
+        mByMagnitude = byMagnitude;
+        mByTime = byTime;
+        mSortedMagnitudes = new double[size];
+        mSortedTimes = new long[size];
+        for (int i = 0; i < size; i++) {
+            mSortedMagnitudes[i] = mMagnitudes[byMagnitude[i]];
+            mSortedTimes[i] = mTimes[byTime[i]];
+        }
+    }
+
+    /**
+     * @return the rows sorted by magnitude, then time, then row number, smallest first. Must not be changed.
+     */
+    int[] getRowsByMagnitude() {
+        return mByMagnitude;
+    }
+
+    /**
+     * @return the rows sorted by time, then row number, oldest first. Must not be changed.
+     */
+    int[] getRowsByTime() {
+        return mByTime;
+    }
+
+    /**
+     * Add every row of {@param table} from {@param fromRow} onwards, i.e. the rows appended since the last call
+     */
+    public void addAll(EarthquakeTable table, int fromRow) {
+        int newRows = table.size() - fromRow;
+        if (newRows <= 0) {
+            return;
+        }
+        ensureCapacity(table.size());
+        EarthquakeTable.Row cursor = table.newRow();
+        int[] added = new int[newRows];
+        for (int row = fromRow; row < table.size(); row++) {
+            cursor.moveTo(row);
+            mMagnitudes[row] = cursor.getMagnitude();
+            mTimes[row] = cursor.getTimeInMilliseconds();
+            added[row - fromRow] = row;
+        }
+        mSize = table.size();
+
+        //Sort the new rows each way, then merge them into the existing orders
+        int[] addedByTime = added.clone();
+        sortRows(added, true);
+        sortRows(addedByTime, false);
+        mByMagnitude = merge(mByMagnitude, added, true);
+        mByTime = merge(mByTime, addedByTime, false);
+
+        mSortedMagnitudes = new double[mSize];
+        mSortedTimes = new long[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mSortedMagnitudes[i] = mMagnitudes[mByMagnitude[i]];
+            mSortedTimes[i] = mTimes[mByTime[i]];
+        }
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return every row, in {@param order}
+     */
+    public RowView sorted(SortOrder order) {
+        return filter(Double.NaN, Double.NaN, 0, 0, order);
+    }
+
+    /**
+     * @return the rows with a magnitude from {@param minMagnitude} up to {@param maxMagnitude} and a time
+     * from {@param startTime} up to {@param endTime}, in {@param order}. NaN leaves either end of the
+     * magnitude band open, and 0 either end of the time window.
+     */
+    public RowView filter(double minMagnitude, double maxMagnitude, long startTime, long endTime,
+                          SortOrder order) {
+        boolean byMagnitude = order == SortOrder.LARGEST_FIRST || order == SortOrder.SMALLEST_FIRST;
+        boolean reversed = order == SortOrder.LARGEST_FIRST || order == SortOrder.NEWEST_FIRST;
+
+        //Each range is found with two binary searches
+        int magnitudeFrom = Double.isNaN(minMagnitude) ? 0 : lowerBound(mSortedMagnitudes, minMagnitude);
+        int magnitudeTo = Double.isNaN(maxMagnitude) ? mSize : upperBound(mSortedMagnitudes, maxMagnitude);
+        int timeFrom = startTime == 0 ? 0 : lowerBound(mSortedTimes, startTime);
+        int timeTo = endTime == 0 ? mSize : upperBound(mSortedTimes, endTime);
+        magnitudeTo = Math.max(magnitudeFrom, magnitudeTo);
+        timeTo = Math.max(timeFrom, timeTo);
+
+        //A filter on just the key being sorted by is a range of that order
+        boolean magnitudeOpen = Double.isNaN(minMagnitude) && Double.isNaN(maxMagnitude);
+        boolean timeOpen = startTime == 0 && endTime == 0;
+        if (byMagnitude && timeOpen) {
+            return new RowView(mByMagnitude, magnitudeFrom, magnitudeTo, reversed);
+        }
+        if (!byMagnitude && magnitudeOpen) {
+            return new RowView(mByTime, timeFrom, timeTo, reversed);
+        }
+
+        //Otherwise walk one range and keep the rows that pass the other test. Walking the range of the
+        //order being sorted by keeps them in order, walking the other one means sorting what's kept.
+        int orderedCount = byMagnitude ? magnitudeTo - magnitudeFrom : timeTo - timeFrom;
+        int otherCount = byMagnitude ? timeTo - timeFrom : magnitudeTo - magnitudeFrom;
+        boolean walkOrdered = orderedCount <= (long) otherCount * (32 - Integer.numberOfLeadingZeros(otherCount));
+
+        int[] rows;
+        int kept = 0;
+        if (walkOrdered == byMagnitude) {
+            rows = new int[magnitudeTo - magnitudeFrom];
+            for (int i = magnitudeFrom; i < magnitudeTo; i++) {
+                int row = mByMagnitude[i];
+                if (inTimeWindow(row, startTime, endTime)) {
+                    rows[kept++] = row;
+                }
+            }
+        } else {
+            rows = new int[timeTo - timeFrom];
+            for (int i = timeFrom; i < timeTo; i++) {
+                int row = mByTime[i];
+                if (inMagnitudeBand(row, minMagnitude, maxMagnitude)) {
+                    rows[kept++] = row;
+                }
+            }
+        }
+        rows = Arrays.copyOf(rows, kept);
+        if (!walkOrdered) {
+            sortRows(rows, byMagnitude);
+        }
+        return new RowView(rows, 0, kept, reversed);
+    }
+
+    private boolean inTimeWindow(int row, long startTime, long endTime) {
+        long time = mTimes[row];
+        return (startTime == 0 || time >= startTime) && (endTime == 0 || time <= endTime);
+    }
+
+    private boolean inMagnitudeBand(int row, double minMagnitude, double maxMagnitude) {
+        double magnitude = mMagnitudes[row];
+        return (Double.isNaN(minMagnitude) || magnitude >= minMagnitude)
+                && (Double.isNaN(maxMagnitude) || magnitude <= maxMagnitude);
+    }
+
+    /**
+     * @return the index of the first value at least {@param key}
+     */
+    private static int lowerBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first value greater than {@param key}
+     */
+    private static int upperBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first value at least {@param key}
+     */
+    private static int lowerBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first value greater than {@param key}
+     */
+    private static int upperBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return a new array holding the sorted {@param existing} and {@param added} rows, in order
+     */
+    private int[] merge(int[] existing, int[] added, boolean byMagnitude) {
+        int[] merged = new int[existing.length + added.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < existing.length && j < added.length) {
+            merged[k++] = compareRows(existing[i], added[j], byMagnitude) <= 0 ? existing[i++] : added[j++];
+        }
+        while (i < existing.length) {
+            merged[k++] = existing[i++];
+        }
+        while (j < added.length) {
+            merged[k++] = added[j++];
+        }
+        return merged;
+    }
+
+    /**
+     * Sort {@param rows} by magnitude or by time, smallest first, without boxing them
+     */
+    private void sortRows(int[] rows, boolean byMagnitude) {
+        mergeSort(rows, new int[rows.length / 2 + 1], 0, rows.length, byMagnitude);
+    }
+
+    private void mergeSort(int[] rows, int[] buffer, int from, int to, boolean byMagnitude) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i - 1;
+                while (j >= from && compareRows(rows[j], row, byMagnitude) > 0) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle, byMagnitude);
+        mergeSort(rows, buffer, middle, to, byMagnitude);
+        //Already in order, i.e. rows appended in time order
+        if (compareRows(rows[middle - 1], rows[middle], byMagnitude) <= 0) {
+            return;
+        }
+        int leftCount = middle - from;
+        System.arraycopy(rows, from, buffer, 0, leftCount);
+        int i = 0;
+        int j = middle;
+        int k = from;
+        while (i < leftCount && j < to) {
+            rows[k++] = compareRows(buffer[i], rows[j], byMagnitude) <= 0 ? buffer[i++] : rows[j++];
+        }
+        while (i < leftCount) {
+            rows[k++] = buffer[i++];
+        }
+    }
+
+    /**
+     * Compare two rows by magnitude, then time, then row number, or by time then row number
+     */
+    private int compareRows(int first, int second, boolean byMagnitude) {
+        if (byMagnitude) {
+            int compared = Double.compare(mMagnitudes[first], mMagnitudes[second]);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        long firstTime = mTimes[first];
+        long secondTime = mTimes[second];
+        if (firstTime != secondTime) {
+            return firstTime < secondTime ? -1 : 1;
+        }
+        return first < second ? -1 : (first == second ? 0 : 1);
+    }
+
+    /**
+     * Grow the per-row values so they can hold at least {@param capacity} rows
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mMagnitudes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mMagnitudes.length + (mMagnitudes.length >> 1));
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+    }
+}
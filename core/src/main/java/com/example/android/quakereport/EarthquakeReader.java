@@ -0,0 +1,17 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Somewhere earthquakes are read from one at a time, i.e. an export file, so only the earthquake being read
+ * is held in memory. Closing the reader closes what it reads from.
+ */
+public interface EarthquakeReader extends Closeable {
+
+    /**
+     * @return the next earthquake, or null once every earthquake has been read
+     * @throws IOException if the input can't be read or isn't in the expected format
+     */
+    Earthquake read() throws IOException;
+}
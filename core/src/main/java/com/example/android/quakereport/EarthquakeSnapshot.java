@@ -0,0 +1,438 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of an {@link EarthquakeDisplayModel}, so the earthquakes last shown can be shown again
+ * straight away on a cold start.
+ * The file mirrors the {@link EarthquakeTable} columns: every number is a fixed-width column that is
+ * copied into its array in one go, and every String is held once in a string table, the columns holding
+ * its index. The date and time texts and the sort orders are kept too, so nothing is formatted or sorted again
+ * unless the locale or time zone has changed since. The file is memory mapped and read without parsing anything
+ * per earthquake, other than decoding each distinct String once.
+ * A header holds a magic number, the format version and a CRC32 of the rest of the file, and a file that
+ * doesn't match them is rejected whole. Files are written to a temporary file that replaces the snapshot
+ * once it's complete, so a reader never sees half a file.
+ */
+public final class EarthquakeSnapshot {
+
+    //"QRSN", marks a snapshot file
+    private static final int MAGIC = 0x5152534E;
+
+    //Version of the format, files with any other version are rejected
+    private static final int FORMAT_VERSION = 1;
+
+    //Size of the header: magic, version, row count, payload length and CRC
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+
+    //Most rows a snapshot holds, anything claiming more is damaged
+    private static final int MAX_ROWS = 1 << 20;
+
+    //Size of the chunks the CRC is worked out over when reading
+    private static final int CRC_CHUNK_SIZE = 8192;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Private constructor, this class only provides static helper methods
+     */
+    private EarthquakeSnapshot() {
+    }
+
+    /**
+     * Write every row of {@param model} to {@param file}, replacing it once the whole snapshot is on disk
+     *
+     * @throws IOException if the file can't be written, or the model has more rows than a snapshot can hold
+     */
+    public static void write(File file, EarthquakeDisplayModel model) throws IOException {
+        EarthquakeTable table = model.getTable();
+        int size = table.size();
+        if (size > MAX_ROWS) {
+            //It could never be read back
+            throw new IOException("Too many rows for a snapshot: " + size);
+        }
+
+        //Dictionary encode every String column
+        StringTable offsets = new StringTable(size);
+        StringTable primaryLocations = new StringTable(size);
+        StringTable urlPrefixes = new StringTable(size);
+        StringTable dates = new StringTable(size);
+        StringTable times = new StringTable(size);
+        String[] ids = new String[size];
+        String[] urlSuffixes = new String[size];
+        EarthquakeTable.Row row = table.newRow();
+        for (int i = 0; i < size; i++) {
+            row.moveTo(i);
+            ids[i] = row.getId();
+            offsets.add(row.getLocationOffset());
+            primaryLocations.add(row.getPrimaryLocation());
+            String detailUrl = row.getDetailUrl();
+            if (detailUrl == null) {
+                urlPrefixes.add(null);
+            } else {
+                int suffixStart = detailUrl.lastIndexOf('/') + 1;
+                urlPrefixes.add(detailUrl.substring(0, suffixStart));
+                urlSuffixes[i] = detailUrl.substring(suffixStart);
+            }
+            dates.add(model.getDateText(i));
+            times.add(model.getTimeText(i));
+        }
+        byte[][] formatKey = encode(new String[]{EarthquakeDisplayModel.getTextFormatKey()});
+        byte[][] offsetValues = encode(offsets.values());
+        byte[][] primaryLocationValues = encode(primaryLocations.values());
+        byte[][] urlPrefixValues = encode(urlPrefixes.values());
+        byte[][] dateValues = encode(dates.values());
+        byte[][] timeValues = encode(times.values());
+        byte[][] idValues = encode(ids);
+        byte[][] urlSuffixValues = encode(urlSuffixes);
+
+        //Six columns of 8 byte numbers and seven of 4 byte codes and rows, then the Strings
+        int payloadSize = size * (6 * 8 + 7 * 4) + sizeOf(formatKey) + sizeOf(offsetValues)
+                + sizeOf(primaryLocationValues) + sizeOf(urlPrefixValues) + sizeOf(dateValues) + sizeOf(timeValues)
+                + sizeOf(idValues) + sizeOf(urlSuffixValues);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        buffer.position(HEADER_SIZE);
+        for (int i = 0; i < size; i++) {
+            buffer.putDouble(table.getMagnitude(i));
+        }
+        for (int i = 0; i < size; i++) {
+            buffer.putDouble(table.getLongitude(i));
+        }
+        for (int i = 0; i < size; i++) {
+            buffer.putDouble(table.getLatitude(i));
+        }
+        for (int i = 0; i < size; i++) {
+            buffer.putDouble(table.getDepth(i));
+        }
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(table.getTimeInMilliseconds(i));
+        }
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(table.getUpdatedInMilliseconds(i));
+        }
+        buffer.asIntBuffer().put(offsets.codes(), 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().put(primaryLocations.codes(), 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().put(urlPrefixes.codes(), 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().put(dates.codes(), 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().put(times.codes(), 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().put(model.getQueryEngine().getRowsByMagnitude(), 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().put(model.getQueryEngine().getRowsByTime(), 0, size);
+        buffer.position(buffer.position() + size * 4);
+        putStrings(buffer, formatKey);
+        putStrings(buffer, offsetValues);
+        putStrings(buffer, primaryLocationValues);
+        putStrings(buffer, urlPrefixValues);
+        putStrings(buffer, dateValues);
+        putStrings(buffer, timeValues);
+        putStrings(buffer, idValues);
+        putStrings(buffer, urlSuffixValues);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, payloadSize);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(8, size);
+        buffer.putInt(12, payloadSize);
+        buffer.putLong(16, crc.getValue());
+
+        //Write through a temporary file, flushed to the disk before it replaces the snapshot
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * @return the model saved in {@param file}, or null if there isn't one
+     * @throws IOException if the file can't be read, or is damaged or in another format, in which case it
+     *                     should be deleted and the earthquakes loaded some other way
+     */
+    public static EarthquakeDisplayModel read(File file) throws IOException {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            //Nothing has been saved yet
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try {
+            FileChannel channel = in.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot has the wrong size: " + fileSize);
+            }
+            //The mapping outlives the channel, it's released once the buffer is collected
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        } finally {
+            in.close();
+        }
+
+        try {
+            return read(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            //The CRC matched, but what it covers doesn't add up
+            throw new IOException("Snapshot is damaged", e);
+        }
+    }
+
+    /**
+     * @return the model held in {@param buffer}, after checking its header and CRC
+     */
+    private static EarthquakeDisplayModel read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Snapshot has version " + version + ", expected " + FORMAT_VERSION);
+        }
+        int size = buffer.getInt();
+        int payloadSize = buffer.getInt();
+        long expectedCrc = buffer.getLong();
+        if (size < 0 || size > MAX_ROWS || payloadSize != buffer.remaining()) {
+            throw new IOException("Snapshot has the wrong size: " + size + " rows, " + payloadSize + " bytes");
+        }
+        if (crcOf(buffer) != expectedCrc) {
+            throw new IOException("Snapshot failed its checksum");
+        }
+
+        //Copy each column out in bulk
+        int capacity = Math.max(size, 1);
+        double[] magnitudes = new double[capacity];
+        double[] longitudes = new double[capacity];
+        double[] latitudes = new double[capacity];
+        double[] depths = new double[capacity];
+        long[] times = new long[capacity];
+        long[] updatedTimes = new long[capacity];
+        getDoubles(buffer, magnitudes, size);
+        getDoubles(buffer, longitudes, size);
+        getDoubles(buffer, latitudes, size);
+        getDoubles(buffer, depths, size);
+        getLongs(buffer, times, size);
+        getLongs(buffer, updatedTimes, size);
+        int[] offsetCodes = getInts(buffer, capacity, size);
+        int[] primaryLocationCodes = getInts(buffer, capacity, size);
+        int[] urlPrefixCodes = getInts(buffer, capacity, size);
+        int[] dateCodes = getInts(buffer, size, size);
+        int[] timeCodes = getInts(buffer, size, size);
+        int[] rowsByMagnitude = getInts(buffer, size, size);
+        int[] rowsByTime = getInts(buffer, size, size);
+
+        String formatKey = getStrings(buffer, 1)[0];
+        String[] offsets = getStrings(buffer, -1);
+        String[] primaryLocations = getStrings(buffer, -1);
+        String[] urlPrefixes = getStrings(buffer, -1);
+        String[] dates = getStrings(buffer, -1);
+        String[] timeTexts = getStrings(buffer, -1);
+        String[] ids = getStrings(buffer, size);
+        String[] urlSuffixes = getStrings(buffer, size);
+
+        checkCodes(offsetCodes, size, offsets.length);
+        checkCodes(primaryLocationCodes, size, primaryLocations.length);
+        checkCodes(urlPrefixCodes, size, urlPrefixes.length);
+        checkCodes(dateCodes, size, dates.length);
+        checkCodes(timeCodes, size, timeTexts.length);
+        checkCodes(rowsByMagnitude, size, size);
+        checkCodes(rowsByTime, size, size);
+
+        EarthquakeTable table = new EarthquakeTable(size, capacity == size ? ids : copyOf(ids, capacity),
+                magnitudes, times, updatedTimes, longitudes, latitudes, depths,
+                offsetCodes, offsets, primaryLocationCodes, primaryLocations, urlPrefixCodes, urlPrefixes,
+                capacity == size ? urlSuffixes : copyOf(urlSuffixes, capacity));
+
+        //Texts formatted for another locale or time zone are formatted again
+        if (!EarthquakeDisplayModel.getTextFormatKey().equals(formatKey)) {
+            return new EarthquakeDisplayModel(table);
+        }
+        String[] dateTexts = new String[size];
+        String[] timeTextColumn = new String[size];
+        for (int i = 0; i < size; i++) {
+            dateTexts[i] = dates[dateCodes[i]];
+            timeTextColumn[i] = timeTexts[timeCodes[i]];
+        }
+        EarthquakeQueryEngine queryEngine =
+                new EarthquakeQueryEngine(size, magnitudes, times, rowsByMagnitude, rowsByTime);
+        return new EarthquakeDisplayModel(table, dateTexts, timeTextColumn, queryEngine);
+    }
+
+    /**
+     * @return the CRC32 of what remains of {@param buffer}, leaving its position where it was
+     */
+    private static long crcOf(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[CRC_CHUNK_SIZE];
+        ByteBuffer view = buffer.duplicate();
+        while (view.hasRemaining()) {
+            int length = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private static void getDoubles(ByteBuffer buffer, double[] values, int count) {
+        buffer.asDoubleBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + count * 8);
+    }
+
+    private static void getLongs(ByteBuffer buffer, long[] values, int count) {
+        buffer.asLongBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + count * 8);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int capacity, int count) {
+        int[] values = new int[capacity];
+        buffer.asIntBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    /**
+     * Read a string table of {@param expectedCount} Strings, or any number if it's negative.
+     * A table is its count, the length in bytes of each String (-1 for null), then their UTF-8 bytes.
+     */
+    private static String[] getStrings(ByteBuffer buffer, int expectedCount) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > MAX_ROWS || (expectedCount >= 0 && count != expectedCount)) {
+            throw new IOException("Snapshot has a string table of the wrong size: " + count);
+        }
+        int[] lengths = new int[count];
+        buffer.asIntBuffer().get(lengths);
+        buffer.position(buffer.position() + count * 4);
+        int totalLength = 0;
+        for (int length : lengths) {
+            totalLength += Math.max(length, 0);
+        }
+        byte[] bytes = new byte[totalLength];
+        buffer.get(bytes);
+
+        String[] values = new String[count];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            if (lengths[i] >= 0) {
+                values[i] = new String(bytes, offset, lengths[i], UTF_8);
+                offset += lengths[i];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Throw if any of the first {@param count} {@param codes} isn't an index into a table of {@param tableSize}
+     */
+    private static void checkCodes(int[] codes, int count, int tableSize) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (codes[i] < 0 || codes[i] >= tableSize) {
+                throw new IOException("Snapshot has a code outside its string table: " + codes[i]);
+            }
+        }
+    }
+
+    private static String[] copyOf(String[] values, int capacity) {
+        String[] copy = new String[capacity];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
+    }
+
+    /**
+     * @return the UTF-8 bytes of each of the {@param values}, null for a null value
+     */
+    private static byte[][] encode(String[] values) {
+        byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                bytes[i] = values[i].getBytes(UTF_8);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the size of the string table holding {@param values}
+     */
+    private static int sizeOf(byte[][] values) {
+        int size = 4 + values.length * 4;
+        for (byte[] value : values) {
+            if (value != null) {
+                size += value.length;
+            }
+        }
+        return size;
+    }
+
+    private static void putStrings(ByteBuffer buffer, byte[][] values) {
+        buffer.putInt(values.length);
+        for (byte[] value : values) {
+            buffer.putInt(value == null ? -1 : value.length);
+        }
+        for (byte[] value : values) {
+            if (value != null) {
+                buffer.put(value);
+            }
+        }
+    }
+
+    /**
+     * Builds a dictionary of the distinct values of a String column, and the code of each row
+     */
+    private static final class StringTable {
+        private final Map<String, Integer> mCodes = new HashMap<>();
+        private final String[] mValues;
+        private final int[] mRowCodes;
+        private int mRowCount;
+
+        StringTable(int rows) {
+            mValues = new String[rows];
+            mRowCodes = new int[Math.max(rows, 1)];
+        }
+
+        void add(String value) {
+            Integer code = mCodes.get(value);
+            if (code == null) {
+                code = mCodes.size();
+                mCodes.put(value, code);
+                mValues[code] = value;
+            }
+            mRowCodes[mRowCount++] = code;
+        }
+
+        String[] values() {
+            String[] values = new String[mCodes.size()];
+            System.arraycopy(mValues, 0, values, 0, values.length);
+            return values;
+        }
+
+        int[] codes() {
+            return mRowCodes;
+        }
+    }
+}
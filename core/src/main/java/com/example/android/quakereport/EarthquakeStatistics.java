@@ -0,0 +1,385 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Running statistics over a set of earthquakes: counts per magnitude band, hourly counts and rolling
+ * average magnitudes over a window of recent hours, and the largest magnitude in each region.
+ * Earthquakes are added and removed one at a time, so a store can keep its statistics up to date as
+ * events are added, revised and deleted without going over the rest of them again, and statistics
+ * built from separate partitions can be merged.
+ * Every aggregate is held in a fixed amount of memory: the hours are a ring of slots, and each region
+ * has a histogram of magnitudes to a tenth, which is what lets its largest magnitude survive removals.
+ * Statistics are not thread safe, one that another thread can see must be copied with
+ * {@link #EarthquakeStatistics(EarthquakeStatistics)} before it's changed.
+ */
+public class EarthquakeStatistics {
+
+    //Number of magnitude bands, one per whole magnitude from 0 to 9 and one for 10 and above
+    public static final int MAGNITUDE_BANDS = 10 + 1;
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    //Marks a slot that no hour has been counted in yet
+    private static final long NO_HOUR = Long.MIN_VALUE;
+
+    //Range of the region histograms, magnitudes outside it are counted at the nearest end
+    private static final double MIN_REGION_MAGNITUDE = -1.0;
+    private static final int REGION_SLOTS = 111;
+
+    //Number of hours counted, ending at the latest hour seen
+    private final int mWindowHours;
+
+    //Number of earthquakes and the sum of their magnitudes
+    private long mCount;
+    private double mMagnitudeSum;
+
+    //Number of earthquakes in each magnitude band
+    private final long[] mBandCounts;
+
+    //Ring of hourly slots, each holding the hour it counts, the number of earthquakes in it and the
+    //sum of their magnitudes. An hour lives in the slot at its number modulo the window.
+    private final long[] mSlotHours;
+    private final int[] mSlotCounts;
+    private final double[] mSlotMagnitudeSums;
+
+    //Number of earthquakes at each tenth of a magnitude, keyed by region
+    private final Map<String, int[]> mRegionHistograms;
+
+    /**
+     * Create empty statistics counting hourly figures over the latest {@param windowHours} hours
+     */
+    public EarthquakeStatistics(int windowHours) {
+        if (windowHours <= 0) {
+            throw new IllegalArgumentException("windowHours must be positive: " + windowHours);
+        }
+        mWindowHours = windowHours;
+        mBandCounts = new long[MAGNITUDE_BANDS];
+        mSlotHours = new long[windowHours];
+        Arrays.fill(mSlotHours, NO_HOUR);
+        mSlotCounts = new int[windowHours];
+        mSlotMagnitudeSums = new double[windowHours];
+        mRegionHistograms = new HashMap<>();
+    }
+
+    /**
+     * Create a copy of {@param source}, so it can be changed without changing the source
+     */
+    public EarthquakeStatistics(EarthquakeStatistics source) {
+        mWindowHours = source.mWindowHours;
+        mCount = source.mCount;
+        mMagnitudeSum = source.mMagnitudeSum;
+        mBandCounts = source.mBandCounts.clone();
+        mSlotHours = source.mSlotHours.clone();
+        mSlotCounts = source.mSlotCounts.clone();
+        mSlotMagnitudeSums = source.mSlotMagnitudeSums.clone();
+        mRegionHistograms = new HashMap<>();
+        for (Map.Entry<String, int[]> entry : source.mRegionHistograms.entrySet()) {
+            mRegionHistograms.put(entry.getKey(), entry.getValue().clone());
+        }
+    }
+
+    /**
+     * @return the statistics of every partition in {@param partitions}, each one aggregated on the
+     * {@param executor} and then merged together, counting hourly figures over {@param windowHours} hours
+     */
+    public static EarthquakeStatistics aggregate(List<? extends List<Earthquake>> partitions,
+                                                 final int windowHours, Executor executor)
+            throws InterruptedException {
+        List<FutureTask<EarthquakeStatistics>> tasks = new ArrayList<>(partitions.size());
+        for (final List<Earthquake> partition : partitions) {
+            FutureTask<EarthquakeStatistics> task = new FutureTask<>(new Callable<EarthquakeStatistics>() {
+                @Override
+                public EarthquakeStatistics call() {
+                    EarthquakeStatistics statistics = new EarthquakeStatistics(windowHours);
+                    statistics.addAll(partition);
+                    return statistics;
+                }
+            });
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        EarthquakeStatistics merged = new EarthquakeStatistics(windowHours);
+        for (FutureTask<EarthquakeStatistics> task : tasks) {
+            try {
+                merged.merge(task.get());
+            } catch (ExecutionException e) {
+                //Aggregating doesn't throw checked exceptions, so pass on whatever went wrong
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Count the {@param earthquake}
+     */
+    public void add(Earthquake earthquake) {
+        update(earthquake, 1);
+    }
+
+    /**
+     * Count every one of the {@param earthquakes}
+     */
+    public void addAll(List<Earthquake> earthquakes) {
+        for (Earthquake earthquake : earthquakes) {
+            update(earthquake, 1);
+        }
+    }
+
+    /**
+     * Stop counting the {@param earthquake}, which must have been added before
+     */
+    public void remove(Earthquake earthquake) {
+        update(earthquake, -1);
+    }
+
+    /**
+     * Add everything counted by {@param other} to these statistics. Both must count the same number of hours.
+     * Earthquakes counted by both are counted twice, so the partitions being merged shouldn't overlap.
+     */
+    public void merge(EarthquakeStatistics other) {
+        if (other.mWindowHours != mWindowHours) {
+            throw new IllegalArgumentException("Can't merge statistics over " + other.mWindowHours
+                    + " hours into statistics over " + mWindowHours + " hours");
+        }
+        mCount += other.mCount;
+        mMagnitudeSum += other.mMagnitudeSum;
+        for (int band = 0; band < MAGNITUDE_BANDS; band++) {
+            mBandCounts[band] += other.mBandCounts[band];
+        }
+        for (int slot = 0; slot < mWindowHours; slot++) {
+            if (other.mSlotHours[slot] != NO_HOUR) {
+                updateHour(other.mSlotHours[slot], other.mSlotCounts[slot], other.mSlotMagnitudeSums[slot]);
+            }
+        }
+        for (Map.Entry<String, int[]> entry : other.mRegionHistograms.entrySet()) {
+            int[] histogram = regionHistogram(entry.getKey());
+            int[] otherHistogram = entry.getValue();
+            for (int slot = 0; slot < REGION_SLOTS; slot++) {
+                histogram[slot] += otherHistogram[slot];
+            }
+        }
+    }
+
+    /**
+     * @return the number of earthquakes counted
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the mean magnitude of every earthquake counted, or NaN if there are none
+     */
+    public double getMeanMagnitude() {
+        return mCount == 0 ? Double.NaN : mMagnitudeSum / mCount;
+    }
+
+    /**
+     * @return the number of earthquakes in each magnitude band, see {@link #getMagnitudeBand(double)}
+     */
+    public long[] getBandCounts() {
+        return mBandCounts.clone();
+    }
+
+    /**
+     * @return the number of earthquakes in each of the {@param hours} hours up to and including the one
+     * holding {@param now}, oldest first
+     */
+    public int[] getHourlyCounts(long now, int hours) {
+        checkHours(hours);
+        long lastHour = hourOf(now);
+        int[] counts = new int[hours];
+        for (int i = 0; i < hours; i++) {
+            long hour = lastHour - hours + 1 + i;
+            int slot = slotOf(hour);
+            if (mSlotHours[slot] == hour) {
+                counts[i] = mSlotCounts[slot];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the mean number of earthquakes an hour, over the {@param hours} hours up to and including
+     * the one holding {@param now}
+     */
+    public double getHourlyRate(long now, int hours) {
+        checkHours(hours);
+        long count = 0;
+        for (int hourlyCount : getHourlyCounts(now, hours)) {
+            count += hourlyCount;
+        }
+        return (double) count / hours;
+    }
+
+    /**
+     * @return the mean magnitude of the earthquakes in the {@param hours} hours up to and including the one
+     * holding {@param now}, or NaN if there are none
+     */
+    public double getRollingAverageMagnitude(long now, int hours) {
+        checkHours(hours);
+        long lastHour = hourOf(now);
+        long count = 0;
+        double magnitudeSum = 0;
+        for (long hour = lastHour - hours + 1; hour <= lastHour; hour++) {
+            int slot = slotOf(hour);
+            if (mSlotHours[slot] == hour) {
+                count += mSlotCounts[slot];
+                magnitudeSum += mSlotMagnitudeSums[slot];
+            }
+        }
+        return count == 0 ? Double.NaN : magnitudeSum / count;
+    }
+
+    /**
+     * @return every region with at least one earthquake, in alphabetical order
+     */
+    public Set<String> getRegions() {
+        return new TreeSet<>(mRegionHistograms.keySet());
+    }
+
+    /**
+     * @return the number of earthquakes in {@param region}
+     */
+    public int getRegionCount(String region) {
+        int[] histogram = mRegionHistograms.get(region);
+        if (histogram == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int slotCount : histogram) {
+            count += slotCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the largest magnitude in {@param region} to a tenth, or NaN if it has no earthquakes
+     */
+    public double getMaxMagnitude(String region) {
+        int[] histogram = mRegionHistograms.get(region);
+        if (histogram != null) {
+            for (int slot = REGION_SLOTS - 1; slot >= 0; slot--) {
+                if (histogram[slot] > 0) {
+                    return MIN_REGION_MAGNITUDE + slot / 10.0;
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @return the band a {@param magnitude} is counted in, 0 to 9 for magnitudes below 10 (anything
+     * below 0 included) and 10 for everything else
+     */
+    public static int getMagnitudeBand(double magnitude) {
+        if (magnitude < 1) {
+            return 0;
+        }
+        return Math.min((int) magnitude, MAGNITUDE_BANDS - 1);
+    }
+
+    /**
+     * @return the region an {@param earthquake} is in, the last part of its primary location
+     * (i.e. "Alaska" for "Adak, Alaska", or "Mid-Atlantic Ridge" as it is)
+     */
+    public static String getRegion(Earthquake earthquake) {
+        String location = earthquake.getPrimaryLocation();
+        int separator = location.lastIndexOf(", ");
+        return separator < 0 ? location.trim() : location.substring(separator + 2).trim();
+    }
+
+    /**
+     * Count the {@param earthquake} {@param sign} times, 1 to add it and -1 to remove it
+     */
+    private void update(Earthquake earthquake, int sign) {
+        double magnitude = earthquake.getMagnitude();
+        mCount += sign;
+        mMagnitudeSum += sign * magnitude;
+        mBandCounts[getMagnitudeBand(magnitude)] += sign;
+        updateHour(hourOf(earthquake.getTimeInMilliseconds()), sign, sign * magnitude);
+
+        String region = getRegion(earthquake);
+        int[] histogram = regionHistogram(region);
+        histogram[regionSlotOf(magnitude)] += sign;
+        //Drop regions once they are empty, so removed regions don't take up memory
+        if (sign < 0 && getRegionCount(region) == 0) {
+            mRegionHistograms.remove(region);
+        }
+    }
+
+    /**
+     * Add {@param count} earthquakes with magnitudes summing to {@param magnitudeSum} to {@param hour}.
+     * An hour older than the one already in its slot has fallen out of the window and is ignored, and a
+     * newer one takes the slot over. Removing an earthquake whose hour has left the window does nothing,
+     * the same as adding it did.
+     */
+    private void updateHour(long hour, int count, double magnitudeSum) {
+        int slot = slotOf(hour);
+        long slotHour = mSlotHours[slot];
+        if (hour < slotHour) {
+            return;
+        }
+        if (hour > slotHour) {
+            if (count < 0) {
+                //Never added, or already dropped from the window
+                return;
+            }
+            mSlotHours[slot] = hour;
+            mSlotCounts[slot] = 0;
+            mSlotMagnitudeSums[slot] = 0;
+        }
+        mSlotCounts[slot] += count;
+        mSlotMagnitudeSums[slot] += magnitudeSum;
+    }
+
+    private int[] regionHistogram(String region) {
+        int[] histogram = mRegionHistograms.get(region);
+        if (histogram == null) {
+            histogram = new int[REGION_SLOTS];
+            mRegionHistograms.put(region, histogram);
+        }
+        return histogram;
+    }
+
+    private void checkHours(int hours) {
+        if (hours <= 0 || hours > mWindowHours) {
+            throw new IllegalArgumentException("hours must be from 1 to " + mWindowHours + ": " + hours);
+        }
+    }
+
+    private int slotOf(long hour) {
+        int slot = (int) (hour % mWindowHours);
+        return slot < 0 ? slot + mWindowHours : slot;
+    }
+
+    private static int regionSlotOf(double magnitude) {
+        long slot = Math.round((magnitude - MIN_REGION_MAGNITUDE) * 10);
+        return (int) Math.max(0, Math.min(REGION_SLOTS - 1, slot));
+    }
+
+    /**
+     * @return the number of whole hours since the epoch at {@param timeInMilliseconds}, rounding down
+     */
+    private static long hourOf(long timeInMilliseconds) {
+        long hour = timeInMilliseconds / HOUR_MILLIS;
+        return timeInMilliseconds < 0 && hour * HOUR_MILLIS != timeInMilliseconds ? hour - 1 : hour;
+    }
+}
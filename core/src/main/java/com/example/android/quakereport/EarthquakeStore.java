@@ -0,0 +1,401 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent store of parsed earthquakes keyed by USGS event id, along with the ETag and
+ * Last-Modified validators of the requests that produced them.
+ * The store is held in memory and written to a single file, replacing it atomically on each save.
+ * Earthquakes older than the maximum age are evicted, then the oldest are evicted until the store
+ * is within its maximum size.
+ * The store keeps {@link EarthquakeStatistics} of its earthquakes, updated as each one is added, revised,
+ * deleted or evicted, with hourly figures over the whole retention window.
+ * The file is read the first time the store is used, if {@link #load()} hasn't been called by then, so a save
+ * never replaces earthquakes that were saved before with only those added since.
+ */
+public class EarthquakeStore {
+
+    private static final Logger LOGGER = Logger.getLogger(EarthquakeStore.class.getSimpleName());
+
+    //Version of the file format, files with any other version are ignored
+    private static final int FORMAT_VERSION = 4;
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    //Most hours the statistics count, a year, however long earthquakes are kept for
+    private static final int MAX_STATISTICS_HOURS = 366 * 24;
+
+    //Orders earthquakes from the most recent to the oldest, the same as the USGS feed
+    private static final Comparator<Earthquake> NEWEST_FIRST = new Comparator<Earthquake>() {
+        @Override
+        public int compare(Earthquake a, Earthquake b) {
+            long timeA = a.getTimeInMilliseconds();
+            long timeB = b.getTimeInMilliseconds();
+            return timeA < timeB ? 1 : (timeA == timeB ? 0 : -1);
+        }
+    };
+
+    //The file the store is saved to
+    private final File mFile;
+
+    //Eviction limits
+    private final int mMaxEntries;
+    private final long mMaxAgeMillis;
+
+    //Earthquakes keyed by event id
+    private final Map<String, Earthquake> mEarthquakes = new HashMap<>();
+
+    //Statistics of the stored earthquakes
+    private EarthquakeStatistics mStatistics;
+
+    //Validators keyed by request URL, each entry holds the ETag then the Last-Modified date
+    private final Map<String, String[]> mValidators = new LinkedHashMap<>();
+
+    //Latest update time synced so far, keyed by query URL
+    private final Map<String, Long> mSyncMarks = new LinkedHashMap<>();
+
+    //Whether the file has been read yet
+    private boolean mLoaded;
+
+    /**
+     * Create a store backed by {@param file}
+     *
+     * @param maxEntries   the most earthquakes to keep
+     * @param maxAgeMillis the oldest an earthquake can be, by event time, before it's evicted
+     */
+    public EarthquakeStore(File file, int maxEntries, long maxAgeMillis) {
+        mFile = file;
+        mMaxEntries = maxEntries;
+        mMaxAgeMillis = maxAgeMillis;
+        mStatistics = new EarthquakeStatistics(windowHoursOf(maxAgeMillis));
+    }
+
+    /**
+     * Read the store from disk, if it hasn't been already. A missing, old or damaged file leaves the store empty.
+     */
+    public synchronized void load() throws IOException {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            //Nothing has been saved yet
+            return;
+        }
+
+        try {
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+
+            int validatorCount = in.readInt();
+            for (int i = 0; i < validatorCount; i++) {
+                String url = in.readUTF();
+                mValidators.put(url, new String[]{readNullableString(in), readNullableString(in)});
+            }
+
+            int syncMarkCount = in.readInt();
+            for (int i = 0; i < syncMarkCount; i++) {
+                String url = in.readUTF();
+                mSyncMarks.put(url, in.readLong());
+            }
+
+            int earthquakeCount = in.readInt();
+            for (int i = 0; i < earthquakeCount; i++) {
+                String id = readNullableString(in);
+                double magnitude = in.readDouble();
+                String location = in.readUTF();
+                long timeInMilliseconds = in.readLong();
+                long updatedInMilliseconds = in.readLong();
+                String detailUrl = readNullableString(in);
+                double longitude = in.readDouble();
+                double latitude = in.readDouble();
+                double depth = in.readDouble();
+                Earthquake earthquake = new Earthquake(id, magnitude, location, timeInMilliseconds,
+                        updatedInMilliseconds, detailUrl, false, longitude, latitude, depth);
+                putEarthquake(keyOf(earthquake), earthquake);
+            }
+        } catch (IOException e) {
+            //A damaged file is treated as empty, the data is fetched again
+            mValidators.clear();
+            mSyncMarks.clear();
+            mEarthquakes.clear();
+            mStatistics = new EarthquakeStatistics(windowHoursOf(mMaxAgeMillis));
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the store to disk, through a temporary file flushed to the disk before it replaces the saved copy,
+     * so a failed write or a crash never damages it
+     */
+    public synchronized void save() throws IOException {
+        ensureLoaded();
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeInt(mValidators.size());
+            for (Map.Entry<String, String[]> entry : mValidators.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeNullableString(out, entry.getValue()[0]);
+                writeNullableString(out, entry.getValue()[1]);
+            }
+
+            out.writeInt(mSyncMarks.size());
+            for (Map.Entry<String, Long> entry : mSyncMarks.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+
+            //The key is worked out again on load, so an earthquake without an id keeps not having one
+            out.writeInt(mEarthquakes.size());
+            for (Earthquake earthquake : mEarthquakes.values()) {
+                writeNullableString(out, earthquake.getId());
+                out.writeDouble(earthquake.getMagnitude());
+                out.writeUTF(earthquake.getLocation());
+                out.writeLong(earthquake.getTimeInMilliseconds());
+                out.writeLong(earthquake.getUpdatedInMilliseconds());
+                writeNullableString(out, earthquake.getDetailUrl());
+                out.writeDouble(earthquake.getLongitude());
+                out.writeDouble(earthquake.getLatitude());
+                out.writeDouble(earthquake.getDepth());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(mFile)) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + mFile);
+        }
+    }
+
+    /**
+     * Add or replace the {@param earthquakes} by event id, removing any that USGS reports as deleted,
+     * then apply the eviction policy
+     */
+    public synchronized void putAll(List<Earthquake> earthquakes) {
+        ensureLoaded();
+        for (Earthquake earthquake : earthquakes) {
+            if (earthquake.isDeleted()) {
+                removeEarthquake(keyOf(earthquake));
+            } else {
+                putEarthquake(keyOf(earthquake), earthquake);
+            }
+        }
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * @return every stored earthquake, most recent first
+     */
+    public synchronized List<Earthquake> getEarthquakes() {
+        ensureLoaded();
+        List<Earthquake> earthquakes = new ArrayList<>(mEarthquakes.values());
+        Collections.sort(earthquakes, NEWEST_FIRST);
+        return earthquakes;
+    }
+
+    /**
+     * @return a copy of the statistics of the stored earthquakes
+     */
+    public synchronized EarthquakeStatistics getStatistics() {
+        ensureLoaded();
+        return new EarthquakeStatistics(mStatistics);
+    }
+
+    /**
+     * @return the number of stored earthquakes
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return mEarthquakes.size();
+    }
+
+    /**
+     * @return the ETag last returned for {@param url}, or null
+     */
+    public synchronized String getETag(String url) {
+        ensureLoaded();
+        String[] validators = mValidators.get(url);
+        return validators == null ? null : validators[0];
+    }
+
+    /**
+     * @return the Last-Modified date last returned for {@param url}, or null
+     */
+    public synchronized String getLastModified(String url) {
+        ensureLoaded();
+        String[] validators = mValidators.get(url);
+        return validators == null ? null : validators[1];
+    }
+
+    /**
+     * Remember the validators of the latest response for {@param url}
+     */
+    public synchronized void setValidators(String url, String eTag, String lastModified) {
+        ensureLoaded();
+        if (eTag == null && lastModified == null) {
+            mValidators.remove(url);
+        } else {
+            mValidators.put(url, new String[]{eTag, lastModified});
+        }
+    }
+
+    /**
+     * @return the latest update time synced for {@param url}, or 0 if it has never been synced
+     */
+    public synchronized long getSyncMark(String url) {
+        ensureLoaded();
+        Long syncMark = mSyncMarks.get(url);
+        return syncMark == null ? 0 : syncMark;
+    }
+
+    /**
+     * Remember the latest update time synced for {@param url}
+     */
+    public synchronized void setSyncMark(String url, long updatedInMilliseconds) {
+        ensureLoaded();
+        mSyncMarks.put(url, updatedInMilliseconds);
+    }
+
+    /**
+     * @return how old an earthquake can be before it's evicted
+     */
+    public long getMaxAgeMillis() {
+        return mMaxAgeMillis;
+    }
+
+    /**
+     * Drop everything, both in memory and on disk
+     */
+    public synchronized void clear() {
+        //There's nothing left on disk worth reading
+        mLoaded = true;
+        mEarthquakes.clear();
+        mStatistics = new EarthquakeStatistics(windowHoursOf(mMaxAgeMillis));
+        mValidators.clear();
+        mSyncMarks.clear();
+        mFile.delete();
+    }
+
+    /**
+     * Read the file if it hasn't been read yet, a damaged file leaves the store empty as it does for {@link #load()}
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        try {
+            load();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Problem loading the earthquake store", e);
+        }
+    }
+
+    /**
+     * Remove earthquakes older than the maximum age, then the oldest until the store fits its maximum size
+     */
+    private void evict(long now) {
+        long oldestAllowed = now - mMaxAgeMillis;
+        Iterator<Earthquake> iterator = mEarthquakes.values().iterator();
+        while (iterator.hasNext()) {
+            Earthquake earthquake = iterator.next();
+            if (earthquake.getTimeInMilliseconds() < oldestAllowed) {
+                iterator.remove();
+                mStatistics.remove(earthquake);
+            }
+        }
+
+        if (mEarthquakes.size() > mMaxEntries) {
+            List<Earthquake> newestFirst = getEarthquakes();
+            for (int i = mMaxEntries; i < newestFirst.size(); i++) {
+                removeEarthquake(keyOf(newestFirst.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Store the {@param earthquake} under {@param key}, replacing any earlier version of it in the statistics
+     */
+    private void putEarthquake(String key, Earthquake earthquake) {
+        Earthquake replaced = mEarthquakes.put(key, earthquake);
+        if (replaced != null) {
+            mStatistics.remove(replaced);
+        }
+        mStatistics.add(earthquake);
+    }
+
+    /**
+     * Remove the earthquake stored under {@param key}, if there is one
+     */
+    private void removeEarthquake(String key) {
+        Earthquake removed = mEarthquakes.remove(key);
+        if (removed != null) {
+            mStatistics.remove(removed);
+        }
+    }
+
+    /**
+     * @return the number of hours the statistics count, enough to cover {@param maxAgeMillis} up to a year
+     */
+    private static int windowHoursOf(long maxAgeMillis) {
+        long hours = maxAgeMillis / HOUR_MILLIS + 2;
+        return (int) Math.min(hours, MAX_STATISTICS_HOURS);
+    }
+
+    /**
+     * @return the key an earthquake is stored under, its event id or its URL if it has no id. One with neither
+     * is keyed on its time, location and magnitude, so such earthquakes aren't all stored as one.
+     */
+    static String keyOf(Earthquake earthquake) {
+        if (earthquake.getId() != null) {
+            return earthquake.getId();
+        }
+        String detailUrl = earthquake.getDetailUrl();
+        if (detailUrl != null && !detailUrl.isEmpty()) {
+            return detailUrl;
+        }
+        return earthquake.getTimeInMilliseconds() + "|" + earthquake.getLocation() + "|" + earthquake.getMagnitude();
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.quakereport;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Keeps an {@link EarthquakeStore} up to date with a USGS query, without refetching the whole feed.
+ * The first sync of a query fetches it in full. Every later sync only asks for the events updated
+ * after the latest update time seen so far (the FDSN updatedafter parameter), including deleted
+ * events, and merges them into the store by event id. Events outside the store's retention window
+ * are neither requested nor kept.
+ * The store isn't saved to disk by the sync, that is left to the caller.
+ * A cancelled sync still merges the earthquakes it parsed before the cancel, but leaves the validators and
+ * sync mark alone, so the next sync asks for everything again and the kept earthquakes are shown meanwhile.
+ * A stale response, served after the request failed, is handled the same way.
+ * A query read a page at a time, see {@link EarthquakePager}, is synced with {@link #syncChanges} instead, which
+ * hands back the changes themselves.
+ */
+public class EarthquakeSync {
+
+    //Format of the dates in the FDSN query parameters
+    private static final String QUERY_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS";
+
+    //The store being kept up to date
+    private final EarthquakeStore mStore;
+
+    /**
+     * Create a sync engine for the {@param store}
+     */
+    public EarthquakeSync(EarthquakeStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Bring the store up to date with the query at {@param queryUrl}.
+     * If the query has never been synced, {@param fullUrl} is requested instead (with a conditional GET
+     * when the store already has earthquakes) and its earthquakes are passed to the {@param listener}
+     * in batches of {@param batchSize} as they are parsed.
+     *
+     * @return every earthquake in the store after the sync, most recent first, or null if the request failed
+     */
+    public List<Earthquake> sync(String queryUrl, String fullUrl, int batchSize,
+                                 GeoJsonParser.OnBatchParsedListener listener) {
+        return sync(queryUrl, fullUrl, batchSize, listener, null);
+    }
+
+    /**
+     * Bring the store up to date like {@link #sync(String, String, int, GeoJsonParser.OnBatchParsedListener)},
+     * stopping if {@param cancellation} is cancelled, which may be null
+     *
+     * @return every earthquake in the store after the sync, most recent first, or null if the request failed,
+     * was answered stale or was cancelled
+     */
+    public List<Earthquake> sync(String queryUrl, String fullUrl, int batchSize,
+                                 GeoJsonParser.OnBatchParsedListener listener, CancellationToken cancellation) {
+        long syncMark = mStore.getSyncMark(queryUrl);
+        if (syncMark != 0 && mStore.size() > 0) {
+            //Only ask for what has been added, revised or deleted since the last sync
+            return syncChanges(queryUrl, cancellation) == null ? null : mStore.getEarthquakes();
+        }
+
+        //Nothing to build on, so fetch the whole query
+        boolean hasStoredData = mStore.size() > 0;
+        String eTag = hasStoredData ? mStore.getETag(fullUrl) : null;
+        String lastModified = hasStoredData ? mStore.getLastModified(fullUrl) : null;
+
+        FeedResponse response = QueryUtils.fetchFeed(fullUrl, eTag, lastModified, batchSize, listener, cancellation);
+        if (response == null) {
+            return null;
+        }
+        if (response.isPartial() || response.isStale()) {
+            //Keep what was parsed or served, but the validators don't describe what the server has now
+            mStore.putAll(response.getEarthquakes());
+            return null;
+        }
+        mStore.setValidators(fullUrl, response.getETag(), response.getLastModified());
+        if (response.isNotModified()) {
+            return mStore.getEarthquakes();
+        }
+
+        //Merge the earthquakes in by event id, and move the sync mark on to the latest update
+        merge(queryUrl, syncMark, response.getEarthquakes());
+        return mStore.getEarthquakes();
+    }
+
+    /**
+     * Fetch only what has been added, revised or deleted since the query at {@param queryUrl} was last synced,
+     * and merge it into the store, stopping if {@param cancellation} is cancelled, which may be null
+     *
+     * @return the changes merged in, deleted events included, or null if the query has never been synced or
+     * the request failed or was cancelled
+     */
+    public List<Earthquake> syncChanges(String queryUrl, CancellationToken cancellation) {
+        long syncMark = mStore.getSyncMark(queryUrl);
+        if (syncMark == 0) {
+            return null;
+        }
+        List<Earthquake> changes =
+                QueryUtils.fetchEarthquakeData(buildDeltaUrl(queryUrl, syncMark), 0, null, cancellation);
+        if (changes == null) {
+            return null;
+        }
+        if (CancellationToken.isCancelled(cancellation)) {
+            //Keep what was parsed, but leave the sync mark so the rest is asked for next time
+            mStore.putAll(changes);
+            return null;
+        }
+        merge(queryUrl, syncMark, changes);
+        return changes;
+    }
+
+    /**
+     * Merge a {@param page} of the query at {@param queryUrl} into the store. If the query has never been synced,
+     * it's marked synced up to the latest update on the page, so later syncs only ask for what has changed since.
+     * Events past the page are fetched as they are by the page that reaches them.
+     */
+    public void putPage(String queryUrl, List<Earthquake> page) {
+        long syncMark = mStore.getSyncMark(queryUrl);
+        if (syncMark == 0) {
+            merge(queryUrl, syncMark, page);
+        } else {
+            mStore.putAll(page);
+        }
+    }
+
+    /**
+     * Merge the {@param changes} into the store by event id, and move the sync mark of the query at
+     * {@param queryUrl} on from {@param syncMark} to the latest update
+     */
+    private void merge(String queryUrl, long syncMark, List<Earthquake> changes) {
+        mStore.putAll(changes);
+        for (Earthquake earthquake : changes) {
+            syncMark = Math.max(syncMark, earthquake.getUpdatedInMilliseconds());
+        }
+        mStore.setSyncMark(queryUrl, syncMark);
+    }
+
+    /**
+     * @return the query URL narrowed down to events updated after {@param syncMark} within the retention window
+     */
+    private String buildDeltaUrl(String queryUrl, long syncMark) {
+        long retentionStart = System.currentTimeMillis() - mStore.getMaxAgeMillis();
+        String url = appendQueryParameter(queryUrl, "updatedafter", formatQueryDate(syncMark));
+        url = appendQueryParameter(url, "starttime", formatQueryDate(retentionStart));
+        return appendQueryParameter(url, "includedeleted", "true");
+    }
+
+    /**
+     * @return the UTC date in the format the FDSN query parameters take
+     */
+    private static String formatQueryDate(long timeInMilliseconds) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(QUERY_DATE_FORMAT, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.format(new Date(timeInMilliseconds));
+    }
+
+    /**
+     * @return the {@param url} with the query parameter added on the end
+     */
+    private static String appendQueryParameter(String url, String name, String value) {
+        try {
+            String separator = url.indexOf('?') >= 0 ? "&" : "?";
+            return url + separator + name + "=" + URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            //UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+}
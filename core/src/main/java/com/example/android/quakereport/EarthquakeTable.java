@@ -0,0 +1,483 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, column-per-field list of earthquakes.
+ * Magnitudes, times and coordinates are held in primitive arrays, places are split into their offset and primary
+ * location and each part is dictionary encoded so every distinct String is kept once, and detail URLs are split
+ * into a shared, dictionary encoded prefix and a per-row suffix. Rows are read by index, or through a reusable
+ * {@link Row} flyweight, so no object is created per earthquake.
+ * A table is only ever appended to. One that has been handed to another thread must not be changed,
+ * copy it with {@link #EarthquakeTable(EarthquakeTable, int)} instead.
+ */
+public class EarthquakeTable {
+
+    //Capacity of an empty table
+    private static final int DEFAULT_CAPACITY = 16;
+
+    //Number of rows in use
+    private int mSize;
+
+    //Columns, one entry per row
+    private String[] mIds;
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    private long[] mUpdatedTimes;
+    private double[] mLongitudes;
+    private double[] mLatitudes;
+    private double[] mDepths;
+    private int[] mOffsetCodes;
+    private int[] mPrimaryLocationCodes;
+    private int[] mUrlPrefixCodes;
+    private String[] mUrlSuffixes;
+
+    //Dictionaries for the encoded columns
+    private final StringDictionary mOffsets;
+    private final StringDictionary mPrimaryLocations;
+    private final StringDictionary mUrlPrefixes;
+
+    /**
+     * Create an empty table
+     */
+    public EarthquakeTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty table with room for {@param capacity} rows before it needs to grow
+     */
+    public EarthquakeTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mIds = new String[capacity];
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mUpdatedTimes = new long[capacity];
+        mLongitudes = new double[capacity];
+        mLatitudes = new double[capacity];
+        mDepths = new double[capacity];
+        mOffsetCodes = new int[capacity];
+        mPrimaryLocationCodes = new int[capacity];
+        mUrlPrefixCodes = new int[capacity];
+        mUrlSuffixes = new String[capacity];
+        mOffsets = new StringDictionary();
+        mPrimaryLocations = new StringDictionary();
+        mUrlPrefixes = new StringDictionary();
+    }
+
+    /**
+     * Create a copy of {@param source} with room for at least {@param capacity} rows,
+     * so it can be appended to without changing the source
+     */
+    public EarthquakeTable(EarthquakeTable source, int capacity) {
+        capacity = Math.max(Math.max(capacity, source.mSize), 1);
+        mSize = source.mSize;
+        mIds = Arrays.copyOf(source.mIds, capacity);
+        mMagnitudes = Arrays.copyOf(source.mMagnitudes, capacity);
+        mTimes = Arrays.copyOf(source.mTimes, capacity);
+        mUpdatedTimes = Arrays.copyOf(source.mUpdatedTimes, capacity);
+        mLongitudes = Arrays.copyOf(source.mLongitudes, capacity);
+        mLatitudes = Arrays.copyOf(source.mLatitudes, capacity);
+        mDepths = Arrays.copyOf(source.mDepths, capacity);
+        mOffsetCodes = Arrays.copyOf(source.mOffsetCodes, capacity);
+        mPrimaryLocationCodes = Arrays.copyOf(source.mPrimaryLocationCodes, capacity);
+        mUrlPrefixCodes = Arrays.copyOf(source.mUrlPrefixCodes, capacity);
+        mUrlSuffixes = Arrays.copyOf(source.mUrlSuffixes, capacity);
+        mOffsets = new StringDictionary(source.mOffsets);
+        mPrimaryLocations = new StringDictionary(source.mPrimaryLocations);
+        mUrlPrefixes = new StringDictionary(source.mUrlPrefixes);
+    }
+
+    /**
+     * Create a table that takes over columns already read in bulk, i.e. from an {@link EarthquakeSnapshot}.
+     * Each code column holds indexes into the dictionary values that follow it.
+     */
+    EarthquakeTable(int size, String[] ids, double[] magnitudes, long[] times, long[] updatedTimes,
+                    double[] longitudes, double[] latitudes, double[] depths,
+                    int[] offsetCodes, String[] offsets, int[] primaryLocationCodes, String[] primaryLocations,
+                    int[] urlPrefixCodes, String[] urlPrefixes, String[] urlSuffixes) {
+        mSize = size;
+        mIds = ids;
+        mMagnitudes = magnitudes;
+        mTimes = times;
+        mUpdatedTimes = updatedTimes;
+        mLongitudes = longitudes;
+        mLatitudes = latitudes;
+        mDepths = depths;
+        mOffsetCodes = offsetCodes;
+        mPrimaryLocationCodes = primaryLocationCodes;
+        mUrlPrefixCodes = urlPrefixCodes;
+        mUrlSuffixes = urlSuffixes;
+        mOffsets = new StringDictionary(offsets);
+        mPrimaryLocations = new StringDictionary(primaryLocations);
+        mUrlPrefixes = new StringDictionary(urlPrefixes);
+    }
+
+    /**
+     * @return a new table holding the {@param earthquakes}, in the same order
+     */
+    public static EarthquakeTable from(List<Earthquake> earthquakes) {
+        EarthquakeTable table = new EarthquakeTable(earthquakes.size());
+        table.addAll(earthquakes);
+        return table;
+    }
+
+    /**
+     * Append an earthquake as a new row
+     */
+    public void add(Earthquake earthquake) {
+        ensureCapacity(mSize + 1);
+
+        mIds[mSize] = earthquake.getId();
+        mMagnitudes[mSize] = earthquake.getMagnitude();
+        mTimes[mSize] = earthquake.getTimeInMilliseconds();
+        mUpdatedTimes[mSize] = earthquake.getUpdatedInMilliseconds();
+        mLongitudes[mSize] = earthquake.getLongitude();
+        mLatitudes[mSize] = earthquake.getLatitude();
+        mDepths[mSize] = earthquake.getDepth();
+        mOffsetCodes[mSize] = mOffsets.encode(earthquake.getLocationOffset());
+        mPrimaryLocationCodes[mSize] = mPrimaryLocations.encode(earthquake.getPrimaryLocation());
+        //The earthquake has already split its URL, so the parts are taken as they are
+        mUrlPrefixCodes[mSize] = mUrlPrefixes.encode(earthquake.getDetailUrlPrefix());
+        mUrlSuffixes[mSize] = earthquake.getDetailUrlSuffix();
+        mSize++;
+    }
+
+    /**
+     * Append every earthquake in {@param earthquakes}, in order
+     */
+    public void addAll(List<Earthquake> earthquakes) {
+        ensureCapacity(mSize + earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            add(earthquakes.get(i));
+        }
+    }
+
+    /**
+     * Append every row of {@param other}, in order
+     */
+    public void addAll(EarthquakeTable other) {
+        ensureCapacity(mSize + other.mSize);
+        for (int row = 0; row < other.mSize; row++) {
+            mIds[mSize] = other.mIds[row];
+            mMagnitudes[mSize] = other.mMagnitudes[row];
+            mTimes[mSize] = other.mTimes[row];
+            mUpdatedTimes[mSize] = other.mUpdatedTimes[row];
+            mLongitudes[mSize] = other.mLongitudes[row];
+            mLatitudes[mSize] = other.mLatitudes[row];
+            mDepths[mSize] = other.mDepths[row];
+            mOffsetCodes[mSize] = mOffsets.encode(other.mOffsets.decode(other.mOffsetCodes[row]));
+            mPrimaryLocationCodes[mSize] =
+                    mPrimaryLocations.encode(other.mPrimaryLocations.decode(other.mPrimaryLocationCodes[row]));
+            mUrlPrefixCodes[mSize] = mUrlPrefixes.encode(other.mUrlPrefixes.decode(other.mUrlPrefixCodes[row]));
+            mUrlSuffixes[mSize] = other.mUrlSuffixes[row];
+            mSize++;
+        }
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the USGS event id in {@param row}
+     */
+    public String getId(int row) {
+        checkRow(row);
+        return mIds[row];
+    }
+
+    /**
+     * @return the magnitude in {@param row}
+     */
+    public double getMagnitude(int row) {
+        checkRow(row);
+        return mMagnitudes[row];
+    }
+
+    /**
+     * @return the location in {@param row}, joined back together from its offset and primary location
+     */
+    public String getLocation(int row) {
+        return getLocationOffset(row) + getPrimaryLocation(row);
+    }
+
+    /**
+     * @return the offset part of the location in {@param row}, or an empty String if it has none
+     */
+    public String getLocationOffset(int row) {
+        checkRow(row);
+        return mOffsets.decode(mOffsetCodes[row]);
+    }
+
+    /**
+     * @return the location without its offset in {@param row}
+     */
+    public String getPrimaryLocation(int row) {
+        checkRow(row);
+        return mPrimaryLocations.decode(mPrimaryLocationCodes[row]);
+    }
+
+    /**
+     * @return the time in {@param row}
+     */
+    public long getTimeInMilliseconds(int row) {
+        checkRow(row);
+        return mTimes[row];
+    }
+
+    /**
+     * @return the last revision time in {@param row}
+     */
+    public long getUpdatedInMilliseconds(int row) {
+        checkRow(row);
+        return mUpdatedTimes[row];
+    }
+
+    /**
+     * @return the longitude in {@param row} in degrees, or NaN if it isn't known
+     */
+    public double getLongitude(int row) {
+        checkRow(row);
+        return mLongitudes[row];
+    }
+
+    /**
+     * @return the latitude in {@param row} in degrees, or NaN if it isn't known
+     */
+    public double getLatitude(int row) {
+        checkRow(row);
+        return mLatitudes[row];
+    }
+
+    /**
+     * @return the depth in {@param row} in kilometres, or NaN if it isn't known
+     */
+    public double getDepth(int row) {
+        checkRow(row);
+        return mDepths[row];
+    }
+
+    /**
+     * @return the detail URL in {@param row}, joined back together from its prefix and suffix, or null
+     */
+    public String getDetailUrl(int row) {
+        checkRow(row);
+        String prefix = mUrlPrefixes.decode(mUrlPrefixCodes[row]);
+        return prefix == null ? null : prefix + mUrlSuffixes[row];
+    }
+
+    /**
+     * @return a new {@link Earthquake} holding the values in {@param row}
+     */
+    public Earthquake get(int row) {
+        return new Earthquake(getId(row), getMagnitude(row), getLocation(row), getTimeInMilliseconds(row),
+                getUpdatedInMilliseconds(row), getDetailUrl(row), false,
+                getLongitude(row), getLatitude(row), getDepth(row));
+    }
+
+    /**
+     * @return a new flyweight over this table, which can be moved from row to row
+     */
+    public Row newRow() {
+        return new Row(this);
+    }
+
+    /**
+     * Grow the columns so they can hold at least {@param capacity} rows
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length + (mIds.length >> 1));
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mUpdatedTimes = Arrays.copyOf(mUpdatedTimes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mDepths = Arrays.copyOf(mDepths, newCapacity);
+        mOffsetCodes = Arrays.copyOf(mOffsetCodes, newCapacity);
+        mPrimaryLocationCodes = Arrays.copyOf(mPrimaryLocationCodes, newCapacity);
+        mUrlPrefixCodes = Arrays.copyOf(mUrlPrefixCodes, newCapacity);
+        mUrlSuffixes = Arrays.copyOf(mUrlSuffixes, newCapacity);
+    }
+
+    /**
+     * Throw if {@param row} is outside the rows in use
+     */
+    private void checkRow(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + mSize);
+        }
+    }
+
+    /**
+     * A movable view of one row of a table, so a single object can be reused for every row
+     */
+    public static final class Row {
+
+        //The table being viewed
+        private final EarthquakeTable mTable;
+
+        //The row currently being viewed
+        private int mRow;
+
+        private Row(EarthquakeTable table) {
+            mTable = table;
+        }
+
+        /**
+         * Point this view at {@param row}
+         *
+         * @return this view, so calls can be chained
+         */
+        public Row moveTo(int row) {
+            mTable.checkRow(row);
+            mRow = row;
+            return this;
+        }
+
+        /**
+         * @return the index of the row being viewed
+         */
+        public int getPosition() {
+            return mRow;
+        }
+
+        /**
+         * @return the USGS event id of the row being viewed
+         */
+        public String getId() {
+            return mTable.mIds[mRow];
+        }
+
+        /**
+         * @return the magnitude of the row being viewed
+         */
+        public double getMagnitude() {
+            return mTable.mMagnitudes[mRow];
+        }
+
+        /**
+         * @return the location of the row being viewed
+         */
+        public String getLocation() {
+            return mTable.getLocation(mRow);
+        }
+
+        /**
+         * @return the offset part of the location of the row being viewed, or an empty String if it has none
+         */
+        public String getLocationOffset() {
+            return mTable.mOffsets.decode(mTable.mOffsetCodes[mRow]);
+        }
+
+        /**
+         * @return the location without its offset of the row being viewed
+         */
+        public String getPrimaryLocation() {
+            return mTable.mPrimaryLocations.decode(mTable.mPrimaryLocationCodes[mRow]);
+        }
+
+        /**
+         * @return the time of the row being viewed
+         */
+        public long getTimeInMilliseconds() {
+            return mTable.mTimes[mRow];
+        }
+
+        /**
+         * @return the last revision time of the row being viewed
+         */
+        public long getUpdatedInMilliseconds() {
+            return mTable.mUpdatedTimes[mRow];
+        }
+
+        /**
+         * @return the longitude of the row being viewed, or NaN if it isn't known
+         */
+        public double getLongitude() {
+            return mTable.mLongitudes[mRow];
+        }
+
+        /**
+         * @return the latitude of the row being viewed, or NaN if it isn't known
+         */
+        public double getLatitude() {
+            return mTable.mLatitudes[mRow];
+        }
+
+        /**
+         * @return the depth of the row being viewed, or NaN if it isn't known
+         */
+        public double getDepth() {
+            return mTable.mDepths[mRow];
+        }
+
+        /**
+         * @return the detail URL of the row being viewed
+         */
+        public String getDetailUrl() {
+            return mTable.getDetailUrl(mRow);
+        }
+    }
+
+    /**
+     * Maps each distinct String to a small integer code, so repeated values are only stored once
+     */
+    private static final class StringDictionary {
+
+        private final List<String> mValues;
+        private final Map<String, Integer> mCodes;
+
+        StringDictionary() {
+            mValues = new ArrayList<>();
+            mCodes = new HashMap<>();
+        }
+
+        StringDictionary(StringDictionary source) {
+            mValues = new ArrayList<>(source.mValues);
+            mCodes = new HashMap<>(source.mCodes);
+        }
+
+        /**
+         * Create a dictionary where each of the {@param values} has its index as its code
+         */
+        StringDictionary(String[] values) {
+            mValues = new ArrayList<>(Arrays.asList(values));
+            mCodes = new HashMap<>(values.length * 2);
+            for (int code = 0; code < values.length; code++) {
+                mCodes.put(values[code], code);
+            }
+        }
+
+        /**
+         * @return the code for {@param value}, adding it to the dictionary if it's new
+         */
+        int encode(String value) {
+            Integer code = mCodes.get(value);
+            if (code == null) {
+                code = mValues.size();
+                mValues.add(value);
+                mCodes.put(value, code);
+            }
+            return code;
+        }
+
+        /**
+         * @return the value for {@param code}
+         */
+        String decode(int code) {
+            return mValues.get(code);
+        }
+    }
+}
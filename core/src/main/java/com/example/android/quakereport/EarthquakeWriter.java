@@ -0,0 +1,17 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Somewhere earthquakes are written to one at a time, i.e. an export file, without holding on to them.
+ * Closing the writer finishes the output and closes what it writes to.
+ */
+public interface EarthquakeWriter extends Closeable, Flushable {
+
+    /**
+     * Write {@param earthquake} after the earthquakes already written
+     */
+    void write(Earthquake earthquake) throws IOException;
+}
@@ -0,0 +1,284 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls one of the USGS summary feeds of the past hour in the background and passes on the earthquakes
+ * that have changed since the last poll.
+ * The hourly feeds are small and served with validators, so most polls are a conditional GET that
+ * returns nothing. The interval adapts to what the feed is doing: a poll that finds a burst of changes
+ * drops it to the minimum, one that finds any change resets it to the base interval, and one that fails
+ * or finds nothing new doubles it, up to the maximum.
+ * Listeners are called on the polling thread with only the earthquakes that are new or have been revised,
+ * the first poll passing on everything in the feed.
+ */
+public class FeedPoller {
+
+    /**
+     * Receives the earthquakes that have changed
+     */
+    public interface OnEarthquakesChangedListener {
+        /**
+         * Called on the polling thread with the {@param changed} earthquakes, most recent first
+         */
+        void onEarthquakesChanged(List<Earthquake> changed);
+    }
+
+    //Address of the summary feeds, followed by the magnitude and the period
+    private static final String SUMMARY_FEED_URL = "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/";
+
+    //Default intervals, the feeds are regenerated every minute
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    public static final long DEFAULT_BASE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(3);
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    //How many changed earthquakes in one poll count as a burst
+    private static final int BURST_SIZE = 3;
+
+    //The feed polled
+    private final String mFeedUrl;
+
+    //Smallest magnitude passed on, NaN passes on everything
+    private final double mMinMagnitude;
+
+    //Bounds of the interval between polls
+    private final long mMinIntervalMillis;
+    private final long mBaseIntervalMillis;
+    private final long mMaxIntervalMillis;
+
+    //Notified of changes, may be changed from any thread
+    private final List<OnEarthquakesChangedListener> mListeners = new CopyOnWriteArrayList<>();
+
+    //Runs the polls, while the poller is started
+    private ScheduledExecutorService mScheduler;
+
+    //Aborts the poll in progress when the poller is stopped
+    private CancellationToken mCancellation;
+
+    //Interval before the next poll
+    private long mIntervalMillis;
+
+    //Validators of the last response
+    private String mETag;
+    private String mLastModified;
+
+    //Update time of every earthquake in the last response, keyed by event id
+    private Map<String, Long> mSeen = new HashMap<>();
+
+    /**
+     * Create a poller for the feed at {@param feedUrl} with the default intervals
+     *
+     * @param minMagnitude the smallest magnitude passed on, or NaN to pass on every earthquake
+     */
+    public FeedPoller(String feedUrl, double minMagnitude) {
+        this(feedUrl, minMagnitude, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_BASE_INTERVAL_MILLIS,
+                DEFAULT_MAX_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Create a poller for the feed at {@param feedUrl}
+     *
+     * @param minMagnitude       the smallest magnitude passed on, or NaN to pass on every earthquake
+     * @param minIntervalMillis  the interval during a burst of changes
+     * @param baseIntervalMillis the interval after a poll with a few changes
+     * @param maxIntervalMillis  the longest the interval backs off to after errors or polls with no changes
+     */
+    public FeedPoller(String feedUrl, double minMagnitude, long minIntervalMillis, long baseIntervalMillis,
+                      long maxIntervalMillis) {
+        if (minIntervalMillis <= 0 || minIntervalMillis > baseIntervalMillis
+                || baseIntervalMillis > maxIntervalMillis) {
+            throw new IllegalArgumentException("Intervals must be positive and in order: " + minIntervalMillis
+                    + ", " + baseIntervalMillis + ", " + maxIntervalMillis);
+        }
+        mFeedUrl = feedUrl;
+        mMinMagnitude = minMagnitude;
+        mMinIntervalMillis = minIntervalMillis;
+        mBaseIntervalMillis = baseIntervalMillis;
+        mMaxIntervalMillis = maxIntervalMillis;
+        mIntervalMillis = baseIntervalMillis;
+    }
+
+    /**
+     * @return the URL of the summary feed of the past hour for {@param magnitude}, one of
+     * "significant", "4.5", "2.5", "1.0" or "all"
+     */
+    public static String hourFeedUrl(String magnitude) {
+        return SUMMARY_FEED_URL + magnitude + "_hour.geojson";
+    }
+
+    /**
+     * Start notifying {@param listener} of changes
+     */
+    public void addListener(OnEarthquakesChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Stop notifying {@param listener} of changes
+     */
+    public void removeListener(OnEarthquakesChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Start polling, straight away and then on the adaptive interval. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (mScheduler != null) {
+            return;
+        }
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FeedPoller");
+                thread.setDaemon(true);
+                //Polling is never urgent, so keep out of the way of the UI and loaders
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mCancellation = new CancellationToken();
+        schedule(mScheduler, mCancellation, 0);
+    }
+
+    /**
+     * Stop polling, interrupting a poll in progress. The changes seen so far are remembered for the next start.
+     */
+    public synchronized void stop() {
+        if (mScheduler != null) {
+            mCancellation.cancel();
+            mScheduler.shutdownNow();
+            mScheduler = null;
+            mCancellation = null;
+        }
+    }
+
+    /**
+     * @return the URL of the feed polled
+     */
+    public String getFeedUrl() {
+        return mFeedUrl;
+    }
+
+    /**
+     * @return whether the poller is started
+     */
+    public synchronized boolean isStarted() {
+        return mScheduler != null;
+    }
+
+    /**
+     * @return the interval before the next poll
+     */
+    public synchronized long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    /**
+     * Poll the feed once, notify the listeners of any changes, and work out the next interval.
+     * A poll cut short by {@param cancellation} changes nothing.
+     */
+    void poll(CancellationToken cancellation) {
+        String eTag;
+        String lastModified;
+        synchronized (this) {
+            eTag = mETag;
+            lastModified = mLastModified;
+        }
+
+        //Fetched without holding the lock, so stopping never waits on the network
+        FeedResponse response = QueryUtils.fetchFeed(mFeedUrl, eTag, lastModified, 0, null, cancellation);
+        List<Earthquake> changed = null;
+        synchronized (this) {
+            if (CancellationToken.isCancelled(cancellation)) {
+                //Stopped part way, the next start polls again
+                return;
+            }
+            if (response == null) {
+                //Back off while the feed can't be reached
+                backOff();
+                return;
+            }
+            if (response.isNotModified()) {
+                backOff();
+                return;
+            }
+            mETag = response.getETag();
+            mLastModified = response.getLastModified();
+            changed = findChanges(response.getEarthquakes());
+            if (changed.isEmpty()) {
+                backOff();
+            } else if (changed.size() >= BURST_SIZE) {
+                mIntervalMillis = mMinIntervalMillis;
+            } else {
+                mIntervalMillis = mBaseIntervalMillis;
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            for (OnEarthquakesChangedListener listener : mListeners) {
+                listener.onEarthquakesChanged(changed);
+            }
+        }
+    }
+
+    /**
+     * @return the {@param earthquakes} that are new or have been revised since the last poll and are large
+     * enough to pass on. Only the latest feed is remembered, earthquakes that age out of it are forgotten.
+     */
+    private List<Earthquake> findChanges(List<Earthquake> earthquakes) {
+        Map<String, Long> seen = new HashMap<>();
+        List<Earthquake> changed = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            String id = EarthquakeStore.keyOf(earthquake);
+            long updated = earthquake.getUpdatedInMilliseconds();
+            seen.put(id, updated);
+            Long previous = mSeen.get(id);
+            if (previous != null && previous == updated) {
+                continue;
+            }
+            if (Double.isNaN(mMinMagnitude) || earthquake.getMagnitude() >= mMinMagnitude) {
+                changed.add(earthquake);
+            }
+        }
+        mSeen = seen;
+        return changed;
+    }
+
+    /**
+     * Double the interval, up to the maximum
+     */
+    private void backOff() {
+        mIntervalMillis = Math.min(mIntervalMillis * 2, mMaxIntervalMillis);
+    }
+
+    /**
+     * Run a poll on the {@param scheduler} after {@param delayMillis}, then schedule the next one
+     */
+    private void schedule(final ScheduledExecutorService scheduler, final CancellationToken cancellation,
+                          long delayMillis) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll(cancellation);
+                } finally {
+                    synchronized (FeedPoller.this) {
+                        //Only carry on if this is still the running scheduler
+                        if (mScheduler == scheduler) {
+                            schedule(scheduler, cancellation, mIntervalMillis);
+                        }
+                    }
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.quakereport;
+
+import java.util.List;
+
+/**
+ * The outcome of a request to the USGS feed, along with the validators needed to revalidate it later
+ */
+public class FeedResponse {
+
+    //Declare private variables for this class to use
+    private List<Earthquake> mEarthquakes;
+    private boolean mNotModified;
+    private String mETag;
+    private String mLastModified;
+    private boolean mPartial;
+    private boolean mStale;
+
+    /**
+     * Create a response
+     *
+     * @param earthquakes  the parsed earthquakes, null when the server answered 304 Not Modified
+     * @param notModified  whether the server confirmed the cached copy is still current
+     * @param eTag         the ETag response header, may be null
+     * @param lastModified the Last-Modified response header, may be null
+     */
+    public FeedResponse(List<Earthquake> earthquakes, boolean notModified, String eTag, String lastModified) {
+        this(earthquakes, notModified, eTag, lastModified, false);
+    }
+
+    /**
+     * Create a response that may have been cut short
+     *
+     * @param partial whether the request was cancelled part way, leaving only the earthquakes parsed before
+     *                the cancel. A partial response's validators don't describe what it holds.
+     */
+    public FeedResponse(List<Earthquake> earthquakes, boolean notModified, String eTag, String lastModified,
+                        boolean partial) {
+        this(earthquakes, notModified, eTag, lastModified, partial, false);
+    }
+
+    /**
+     * Create a response that may have been cut short, or served from an earlier request
+     *
+     * @param stale whether the request failed and this is the last good response to it instead
+     */
+    public FeedResponse(List<Earthquake> earthquakes, boolean notModified, String eTag, String lastModified,
+                        boolean partial, boolean stale) {
+        mEarthquakes = earthquakes;
+        mNotModified = notModified;
+        mETag = eTag;
+        mLastModified = lastModified;
+        mPartial = partial;
+        mStale = stale;
+    }
+
+    /**
+     * @return the parsed earthquakes, or null if the response was 304 Not Modified
+     */
+    public List<Earthquake> getEarthquakes() {
+        return mEarthquakes;
+    }
+
+    /**
+     * @return true if the server answered 304 Not Modified
+     */
+    public boolean isNotModified() {
+        return mNotModified;
+    }
+
+    /**
+     * @return the ETag of the response, or null if there wasn't one
+     */
+    public String getETag() {
+        return mETag;
+    }
+
+    /**
+     * @return the Last-Modified date of the response, or null if there wasn't one
+     */
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return true if the request was cancelled before the whole response was parsed
+     */
+    public boolean isPartial() {
+        return mPartial;
+    }
+
+    /**
+     * @return true if the request failed and this is the last good response to it, which may be out of date
+     */
+    public boolean isStale() {
+        return mStale;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches several {@link EarthquakeQuery}s at once and merges their results.
+ * Each query is requested and parsed on its own thread from a bounded pool, so splitting a long time
+ * range into slices cuts the wall-clock time roughly by the number of slices, up to the pool size.
+ * Every response is already ordered newest first, so they are combined with a k-way merge rather
+ * than concatenated and sorted, and an earthquake returned by more than one query is only kept once.
+ */
+public class FetchOrchestrator {
+
+    //The pool the queries run on
+    private final ExecutorService mExecutor;
+
+    /**
+     * Create an orchestrator that runs at most {@param maxConcurrentRequests} queries at the same time
+     */
+    public FetchOrchestrator(int maxConcurrentRequests) {
+        mExecutor = Executors.newFixedThreadPool(maxConcurrentRequests, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FetchOrchestrator #" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Fetch every query concurrently and merge the results, blocking until they have all finished
+     *
+     * @return the earthquakes from every query, newest first and without duplicates,
+     * or null if every query failed
+     */
+    public List<Earthquake> fetchAll(List<EarthquakeQuery> queries) throws InterruptedException {
+        return fetchAll(queries, null);
+    }
+
+    /**
+     * Fetch every query concurrently like {@link #fetchAll(List)}, aborting every one of them if
+     * {@param cancellation} is cancelled, which may be null. A cancelled fetch returns what was parsed before
+     * the cancel, the caller tells it apart by checking the cancellation.
+     */
+    public List<Earthquake> fetchAll(List<EarthquakeQuery> queries, final CancellationToken cancellation)
+            throws InterruptedException {
+        //Start every query before waiting on any of them, each with its own token so each socket can be aborted
+        List<Future<List<Earthquake>>> futures = new ArrayList<>(queries.size());
+        final List<CancellationToken> queryCancellations = new ArrayList<>(queries.size());
+        for (final EarthquakeQuery query : queries) {
+            final CancellationToken queryCancellation = new CancellationToken();
+            queryCancellations.add(queryCancellation);
+            futures.add(mExecutor.submit(new Callable<List<Earthquake>>() {
+                @Override
+                public List<Earthquake> call() {
+                    return QueryUtils.fetchEarthquakeData(query.toUrl(), 0, null, queryCancellation);
+                }
+            }));
+        }
+        if (cancellation != null) {
+            cancellation.setOnCancel(new Runnable() {
+                @Override
+                public void run() {
+                    for (CancellationToken queryCancellation : queryCancellations) {
+                        queryCancellation.cancel();
+                    }
+                }
+            });
+        }
+
+        //Collect the results, a failed query adds nothing
+        List<List<Earthquake>> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<List<Earthquake>> future : futures) {
+                List<Earthquake> result = getQuietly(future);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            //Nobody is waiting for the remaining queries any more
+            for (int i = 0; i < futures.size(); i++) {
+                queryCancellations.get(i).cancel();
+                futures.get(i).cancel(true);
+            }
+            throw e;
+        } finally {
+            if (cancellation != null) {
+                cancellation.setOnCancel(null);
+            }
+        }
+
+        if (results.isEmpty() && !queries.isEmpty()) {
+            return null;
+        }
+        return merge(results);
+    }
+
+    /**
+     * Stop the pool, queries that are already running are left to finish
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Merge lists that are each ordered newest first into one list ordered newest first,
+     * keeping only the first earthquake seen for each event id
+     */
+    public static List<Earthquake> merge(List<List<Earthquake>> lists) {
+        int total = 0;
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(lists.size(), 1));
+        for (List<Earthquake> list : lists) {
+            total += list.size();
+            if (!list.isEmpty()) {
+                heads.add(new Cursor(list));
+            }
+        }
+
+        List<Earthquake> merged = new ArrayList<>(total);
+        Set<String> seenIds = new HashSet<>(total * 2);
+        while (!heads.isEmpty()) {
+            //Take the newest earthquake at the head of any list, then move that list on
+            Cursor cursor = heads.poll();
+            Earthquake earthquake = cursor.current();
+            String id = EarthquakeStore.keyOf(earthquake);
+            if (seenIds.add(id)) {
+                merged.add(earthquake);
+            }
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return the result of the {@param future}, or null if the task failed
+     */
+    private static List<Earthquake> getQuietly(Future<List<Earthquake>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Position within one of the lists being merged, ordered by the time of its current earthquake, newest first
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        private final List<Earthquake> mList;
+        private int mIndex;
+
+        Cursor(List<Earthquake> list) {
+            mList = list;
+        }
+
+        Earthquake current() {
+            return mList.get(mIndex);
+        }
+
+        /**
+         * @return true if there's another earthquake in the list
+         */
+        boolean advance() {
+            return ++mIndex < mList.size();
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            long time = current().getTimeInMilliseconds();
+            long otherTime = other.current().getTimeInMilliseconds();
+            return time > otherTime ? -1 : (time == otherTime ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.example.android.quakereport;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides how a request to the USGS feed is sent, so a slow or failing server doesn't leave the user waiting
+ * on nothing.
+ * A request that fails with a network error or a server error is retried after an exponential backoff with
+ * full jitter, so clients that failed together don't retry together. A request that can be hedged is sent a
+ * second time if the first hasn't answered by the time most requests have (a percentile of the latencies seen
+ * so far), and whichever answers first is used. A {@link CircuitBreaker} turns requests away while the server
+ * keeps failing.
+ * When a request fails for good, the last good response to the same URL is served instead, marked as stale.
+ */
+public class FetchPolicy {
+
+    /**
+     * One attempt at a request
+     */
+    public interface Attempt {
+        /**
+         * Send the request, aborting it if {@param cancellation} is cancelled
+         *
+         * @return the response, or null if it failed in a way that retrying won't fix
+         * @throws IOException if the request failed, retried if it's a network or server error
+         */
+        FeedResponse fetch(CancellationToken cancellation) throws IOException;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(FetchPolicy.class.getSimpleName());
+
+    //Default settings
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 8000;
+    public static final double DEFAULT_HEDGE_PERCENTILE = 90;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    //Successful requests timed before the percentile is trusted enough to hedge on
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    //How often a backoff checks for a cancel
+    private static final long CANCEL_POLL_MILLIS = 100;
+
+    //Most last good responses kept for serving stale
+    private static final int MAX_STALE_RESPONSES = 8;
+
+    //Runs the attempts of hedged requests, shared by every policy
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FetchPolicy #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    //Most attempts per request, including the first
+    private final int mMaxAttempts;
+
+    //Backoff before the first retry, doubled for each retry after it, up to the maximum
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+
+    //Percentile of the latencies past which a hedged request is sent again, NaN disables hedging
+    private final double mHedgePercentile;
+
+    //Turns requests away while the server keeps failing
+    private final CircuitBreaker mCircuitBreaker;
+
+    //Latency of every successful attempt
+    private final Histogram mLatency = new Histogram("fetch.attempt", true);
+
+    //Picks the backoff delays
+    private final Random mRandom = new Random();
+
+    //The last good response for each URL, least recently used first. Guarded by itself.
+    private final LinkedHashMap<String, FeedResponse> mLastGood =
+            new LinkedHashMap<String, FeedResponse>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FeedResponse> eldest) {
+                    return size() > MAX_STALE_RESPONSES;
+                }
+            };
+
+    /**
+     * Create a policy with the default settings
+     */
+    public FetchPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_HEDGE_PERCENTILE,
+                new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS));
+    }
+
+    /**
+     * Create a policy
+     *
+     * @param maxAttempts     the most attempts per request, 1 never retries
+     * @param baseDelayMillis the longest backoff before the first retry
+     * @param maxDelayMillis  the longest backoff before any retry
+     * @param hedgePercentile the latency percentile past which a hedged request is sent again, NaN never hedges
+     * @param circuitBreaker  the breaker every request goes through
+     */
+    public FetchPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double hedgePercentile,
+                       CircuitBreaker circuitBreaker) {
+        if (maxAttempts <= 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry settings: " + maxAttempts + ", "
+                    + baseDelayMillis + ", " + maxDelayMillis);
+        }
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mHedgePercentile = hedgePercentile;
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return the breaker requests go through
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * Send a request through the policy, stopping if {@param cancellation} is cancelled, which may be null
+     *
+     * @param staleKey the key the response is kept under for serving stale, usually its URL, or null if it
+     *                 shouldn't be, i.e. for a conditional request whose caller already has the data
+     * @param hedged   whether the request may be sent twice at once, which it mustn't be if it hands its
+     *                 earthquakes to a listener as they're parsed
+     * @param attempt  sends the request once
+     * @return the response, the last good one marked as stale if the request failed, or null if there isn't one
+     */
+    public FeedResponse execute(String staleKey, boolean hedged, Attempt attempt, CancellationToken cancellation) {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            if (!mCircuitBreaker.allowRequest()) {
+                Metrics.counter(Metrics.FETCH_SHORT_CIRCUITED).increment();
+                return getStale(staleKey);
+            }
+
+            long startNanos = System.nanoTime();
+            Outcome outcome = hedged && !Double.isNaN(mHedgePercentile)
+                    ? runHedged(attempt, cancellation) : runOnce(attempt, cancellation);
+
+            if (CancellationToken.isCancelled(cancellation) || Thread.currentThread().isInterrupted()) {
+                //Neither the server's fault nor a success, so don't count it either way
+                mCircuitBreaker.onAbandoned();
+                return outcome.mResponse;
+            }
+            if (outcome.mResponse != null) {
+                mCircuitBreaker.onSuccess();
+                mLatency.recordSince(startNanos);
+                rememberGood(staleKey, outcome.mResponse);
+                return outcome.mResponse;
+            }
+            if (!outcome.isRetryable()) {
+                //The server answered, just not usefully, so it isn't down
+                mCircuitBreaker.onSuccess();
+                if (outcome.mError != null) {
+                    LOGGER.log(Level.SEVERE, "Problem retrieving the earthquake JSON results", outcome.mError);
+                }
+                return getStale(staleKey);
+            }
+
+            mCircuitBreaker.onFailure();
+            if (attemptNumber >= mMaxAttempts) {
+                LOGGER.log(Level.SEVERE, "Problem retrieving the earthquake JSON results after "
+                        + attemptNumber + " attempts", outcome.mError);
+                return getStale(staleKey);
+            }
+            LOGGER.log(Level.WARNING, "Request failed, retrying", outcome.mError);
+            Metrics.counter(Metrics.FETCH_RETRIES).increment();
+            if (!sleep(backoffMillis(attemptNumber), cancellation)) {
+                mCircuitBreaker.onAbandoned();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return a random backoff before retrying after attempt number {@param attemptNumber}, from 0 up to
+     * the base delay doubled for each attempt so far, capped at the maximum delay
+     */
+    long backoffMillis(int attemptNumber) {
+        long ceiling = mBaseDelayMillis << Math.min(attemptNumber - 1, 30);
+        if (ceiling > mMaxDelayMillis || ceiling < 0) {
+            ceiling = mMaxDelayMillis;
+        }
+        return (long) (mRandom.nextDouble() * (ceiling + 1));
+    }
+
+    /**
+     * @return how long a hedged request waits before being sent again, or -1 if too few requests have been
+     * timed to tell
+     */
+    long getHedgeDelayNanos() {
+        Histogram.Snapshot latency = mLatency.snapshot();
+        if (latency.getCount() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return latency.getPercentile(mHedgePercentile);
+    }
+
+    /**
+     * Send the request once on the calling thread
+     */
+    private static Outcome runOnce(Attempt attempt, CancellationToken cancellation) {
+        try {
+            return new Outcome(attempt.fetch(cancellation), null);
+        } catch (IOException e) {
+            return new Outcome(null, e);
+        }
+    }
+
+    /**
+     * Send the request, and again if it hasn't answered within the hedge delay, using the first good answer.
+     * Each attempt has its own token, so the one that loses can be aborted.
+     */
+    private Outcome runHedged(final Attempt attempt, CancellationToken cancellation) {
+        long hedgeDelayNanos = getHedgeDelayNanos();
+        if (hedgeDelayNanos < 0) {
+            return runOnce(attempt, cancellation);
+        }
+
+        CompletionService<Outcome> completion = new ExecutorCompletionService<>(sExecutor);
+        final List<CancellationToken> attemptCancellations = new ArrayList<>(2);
+        submit(completion, attempt, attemptCancellations);
+        if (cancellation != null) {
+            cancellation.setOnCancel(new Runnable() {
+                @Override
+                public void run() {
+                    cancelAll(attemptCancellations);
+                }
+            });
+        }
+
+        try {
+            int running = 1;
+            Future<Outcome> done = completion.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (done == null && !CancellationToken.isCancelled(cancellation)) {
+                Metrics.counter(Metrics.FETCH_HEDGES).increment();
+                submit(completion, attempt, attemptCancellations);
+                running++;
+            }
+
+            //Take the first good answer, or the last failure if neither is good
+            Outcome outcome = null;
+            while (running > 0) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                running--;
+                outcome = done.get();
+                done = null;
+                if (outcome.mResponse != null) {
+                    break;
+                }
+            }
+            return outcome;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Outcome(null, null);
+        } catch (ExecutionException e) {
+            //Attempts catch their own exceptions, so this is a bug in one
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            if (cancellation != null) {
+                cancellation.setOnCancel(null);
+            }
+            //Abort whichever attempt lost, the winner has already finished
+            cancelAll(attemptCancellations);
+        }
+    }
+
+    /**
+     * Start one attempt on the executor with a token of its own, added to {@param attemptCancellations}
+     */
+    private static void submit(CompletionService<Outcome> completion, final Attempt attempt,
+                               List<CancellationToken> attemptCancellations) {
+        final CancellationToken attemptCancellation = new CancellationToken();
+        synchronized (attemptCancellations) {
+            attemptCancellations.add(attemptCancellation);
+        }
+        completion.submit(new Callable<Outcome>() {
+            @Override
+            public Outcome call() {
+                return runOnce(attempt, attemptCancellation);
+            }
+        });
+    }
+
+    private static void cancelAll(List<CancellationToken> cancellations) {
+        synchronized (cancellations) {
+            for (CancellationToken cancellation : cancellations) {
+                cancellation.cancel();
+            }
+        }
+    }
+
+    /**
+     * Wait for {@param millis}, unless {@param cancellation} is cancelled first
+     *
+     * @return false if the wait was cancelled or interrupted
+     */
+    private static boolean sleep(long millis, CancellationToken cancellation) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        try {
+            while (!CancellationToken.isCancelled(cancellation)) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return true;
+                }
+                Thread.sleep(Math.min(remainingMillis, CANCEL_POLL_MILLIS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Keep {@param response} to serve if a later request for {@param staleKey} fails
+     */
+    private void rememberGood(String staleKey, FeedResponse response) {
+        if (staleKey == null || response.isPartial() || response.isStale() || response.getEarthquakes() == null) {
+            return;
+        }
+        synchronized (mLastGood) {
+            mLastGood.put(staleKey, response);
+        }
+    }
+
+    /**
+     * @return the last good response for {@param staleKey} marked as stale, or null if there isn't one
+     */
+    private FeedResponse getStale(String staleKey) {
+        if (staleKey == null) {
+            return null;
+        }
+        FeedResponse lastGood;
+        synchronized (mLastGood) {
+            lastGood = mLastGood.get(staleKey);
+        }
+        if (lastGood == null) {
+            return null;
+        }
+        Metrics.counter(Metrics.FETCH_STALE).increment();
+        return new FeedResponse(lastGood.getEarthquakes(), false, lastGood.getETag(), lastGood.getLastModified(),
+                false, true);
+    }
+
+    /**
+     * What one attempt, or a hedged pair of them, came to
+     */
+    private static final class Outcome {
+        //The response, or null if the attempt failed
+        final FeedResponse mResponse;
+        //Why the attempt failed, or null if it succeeded or failed without an exception
+        final IOException mError;
+
+        Outcome(FeedResponse response, IOException error) {
+            mResponse = response;
+            mError = error;
+        }
+
+        /**
+         * @return whether the failure was the network or the server, which another attempt might get past
+         */
+        boolean isRetryable() {
+            if (mError == null || mError instanceof MalformedJsonException) {
+                return false;
+            }
+            if (mError instanceof HttpStatusException) {
+                int statusCode = ((HttpStatusException) mError).getStatusCode();
+                //Server errors, Request Timeout and Too Many Requests may pass, anything else won't
+                return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends each snapshot to a text file, as a line with the time followed by a line per metric.
+ * Once the file grows past its maximum size it's started again, so it never fills the disk.
+ */
+public class FileMetricsSink implements MetricsSink {
+
+    private static final Logger LOGGER = Logger.getLogger(FileMetricsSink.class.getSimpleName());
+
+    //The file written to
+    private final File mFile;
+
+    //Size past which the file is started again
+    private final long mMaxBytes;
+
+    /**
+     * Create a sink that appends to {@param file}, starting it again when it's over {@param maxBytes}
+     */
+    public FileMetricsSink(File file, long maxBytes) {
+        mFile = file;
+        mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized void publish(MetricsSnapshot snapshot) {
+        boolean append = mFile.length() < mMaxBytes;
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(mFile, append), "UTF-8");
+            out.write("# " + snapshot.getTimeInMilliseconds() + "\n");
+            for (String line : snapshot.formatLines()) {
+                out.write(line);
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Problem writing metrics to " + mFile, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Problem closing " + mFile, e);
+                }
+            }
+        }
+    }
+}
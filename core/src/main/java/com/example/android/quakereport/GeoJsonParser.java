@@ -0,0 +1,573 @@
+package com.example.android.quakereport;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull-based parser for the USGS GeoJSON feed.
+ * Reads the features straight from the response stream, one token at a time, so only the
+ * earthquake currently being parsed is held in memory alongside the list of results.
+ * The features can also be streamed to an {@link EarthquakeWriter} as they are parsed, without any list,
+ * so a feed of any size is parsed in constant memory.
+ * Parsing can be cancelled between features, leaving the features parsed so far as the result.
+ * The detail GeoJSON of a single event is parsed the same way, skipping the products it doesn't show.
+ */
+public final class GeoJsonParser {
+
+    //Powers of ten a double holds exactly, so dividing digits by one of them rounds correctly
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    //Digits above this no longer fit a double exactly
+    private static final long MAX_EXACT_DIGITS = 1L << 53;
+
+    /**
+     * Callback for receiving earthquakes in batches while the rest of the stream is still being parsed
+     */
+    public interface OnBatchParsedListener {
+        /**
+         * Called on the parsing thread with a new, independent list holding the latest batch
+         *
+         * @param batch    the earthquakes parsed since the previous batch
+         * @param position the index of the first earthquake of the batch within the whole response
+         */
+        void onBatchParsed(List<Earthquake> batch, int position);
+    }
+
+    /**
+     * Private constructor, this class only provides static helper methods
+     */
+    private GeoJsonParser() {
+    }
+
+    /**
+     * Parse every feature in the {@link InputStream} into an {@link Earthquake}.
+     * The stream is not closed by this method.
+     */
+    public static List<Earthquake> parseFeatures(InputStream inputStream) throws IOException {
+        return parseFeatures(inputStream, 0, null);
+    }
+
+    /**
+     * Parse every feature in the {@link InputStream} into an {@link Earthquake}, handing them to the
+     * {@param listener} every {@param batchSize} features as well as returning the complete list.
+     * A batch size of 0 or less, or a null listener, disables batching.
+     * The stream is not closed by this method.
+     */
+    public static List<Earthquake> parseFeatures(InputStream inputStream, int batchSize,
+                                                 OnBatchParsedListener listener) throws IOException {
+        return parseFeatures(inputStream, batchSize, listener, null);
+    }
+
+    /**
+     * Parse the features like {@link #parseFeatures(InputStream, int, OnBatchParsedListener)}, stopping as
+     * soon as {@param cancellation} is cancelled, which may be null. A cancelled parse returns the complete
+     * features read before it stopped, and the error of a stream that failed because it was cancelled
+     * (i.e. its socket was closed) is dropped. The listener isn't called again once cancelled.
+     */
+    public static List<Earthquake> parseFeatures(InputStream inputStream, int batchSize,
+                                                 OnBatchParsedListener listener, CancellationToken cancellation)
+            throws IOException {
+        //Collect the earthquakes into a list, handing them to the listener in batches as they are added
+        BatchingListWriter earthquakes = new BatchingListWriter(batchSize, listener);
+        try {
+            readFeatures(inputStream, earthquakes, cancellation);
+            //Hand over whatever is left from the final, partly filled batch
+            if (!CancellationToken.isCancelled(cancellation)) {
+                earthquakes.publishBatch();
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            //Whatever was cut short by the cancel, the features before it are complete
+            if (!CancellationToken.isCancelled(cancellation)) {
+                throw e;
+            }
+        }
+        return earthquakes.mEarthquakes;
+    }
+
+    /**
+     * Parse every feature in the {@link InputStream}, writing each one to {@param writer} as soon as it's parsed,
+     * and stopping as soon as {@param cancellation} is cancelled, which may be null. Neither the stream nor the
+     * writer is closed by this method.
+     *
+     * @return the number of features written
+     * @throws IOException if the stream can't be read or the writer fails, or the document isn't a feed,
+     *                     unless it was cancelled
+     */
+    public static int streamFeatures(InputStream inputStream, EarthquakeWriter writer,
+                                     CancellationToken cancellation) throws IOException {
+        CountingWriter counter = new CountingWriter(writer);
+        try {
+            readFeatures(inputStream, counter, cancellation);
+        } catch (IllegalStateException | NumberFormatException e) {
+            if (!CancellationToken.isCancelled(cancellation)) {
+                //JsonReader reports documents of the wrong shape with the unchecked exceptions
+                throw new IOException("Problem parsing the earthquake JSON results", e);
+            }
+        } catch (IOException e) {
+            if (!CancellationToken.isCancelled(cancellation)) {
+                throw e;
+            }
+        }
+        return counter.mCount;
+    }
+
+    /**
+     * Parse the detail GeoJSON of a single event, which is a feature on its own rather than a feed.
+     * Of its products, only where the ShakeMap intensity image is gets read, the rest are skipped without
+     * being built. The stream is not closed by this method.
+     *
+     * @throws IOException if the stream can't be read or the document isn't an event
+     */
+    public static EarthquakeDetail parseDetail(InputStream inputStream) throws IOException {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+            return readDetail(reader);
+        } catch (IllegalStateException | NumberFormatException e) {
+            //JsonReader reports documents of the wrong shape with the unchecked exceptions
+            throw new IOException("Problem parsing the earthquake detail JSON", e);
+        }
+    }
+
+    /**
+     * Parse the features into {@param out}, stopping early if {@param cancellation} is cancelled
+     */
+    private static void readFeatures(InputStream inputStream, EarthquakeWriter out, CancellationToken cancellation)
+            throws IOException {
+        //Wrap the stream in a reader that pulls tokens on demand, instead of reading the whole document
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+
+        //Walk the root object until the "features" array is found, skipping everything else
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("features".equals(reader.nextName())) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (CancellationToken.isCancelled(cancellation)) {
+                        return;
+                    }
+                    Earthquake earthquake = readFeature(reader);
+                    if (earthquake != null) {
+                        out.write(earthquake);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read a single feature object, only the "id", "properties" and "geometry" members are materialised
+     *
+     * @return the earthquake, or null if the event is of another type, i.e. a quarry blast or an explosion,
+     * which the summary feeds include but the queries leave out with eventtype=earthquake
+     */
+    private static Earthquake readFeature(JsonReader reader) throws IOException {
+        //Sometimes magnitude is given as null on USGS, so default to 0
+        String id = null;
+        double magnitude = 0;
+        String location = "";
+        long timeInMilliseconds = 0;
+        long updatedInMilliseconds = 0;
+        String detailUrl = "";
+        boolean deleted = false;
+        String type = null;
+        //Longitude, latitude and depth, in the order GeoJSON gives them
+        double[] coordinates = {Double.NaN, Double.NaN, Double.NaN};
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String member = reader.nextName();
+            if ("id".equals(member) && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+                continue;
+            }
+            if ("geometry".equals(member) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readCoordinates(reader, coordinates);
+                continue;
+            }
+            if (!"properties".equals(member) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                //Type, bbox, null properties and so on are not needed, skip them without building them
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "mag":
+                        magnitude = nextDouble(reader);
+                        break;
+                    case "place":
+                        location = reader.nextString();
+                        break;
+                    case "time":
+                        timeInMilliseconds = reader.nextLong();
+                        break;
+                    case "updated":
+                        updatedInMilliseconds = reader.nextLong();
+                        break;
+                    case "url":
+                        detailUrl = reader.nextString();
+                        break;
+                    case "status":
+                        deleted = "deleted".equals(reader.nextString());
+                        break;
+                    case "type":
+                        type = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+
+        //Events without a type are taken to be earthquakes
+        if (type != null && !"earthquake".equals(type)) {
+            return null;
+        }
+
+        //Without an update time, the event is treated as last revised when it happened
+        if (updatedInMilliseconds == 0) {
+            updatedInMilliseconds = timeInMilliseconds;
+        }
+
+        return new Earthquake(id, magnitude, location, timeInMilliseconds, updatedInMilliseconds, detailUrl, deleted,
+                coordinates[0], coordinates[1], coordinates[2]);
+    }
+
+    /**
+     * Read a detail feature object, only the "id", "properties" and "geometry" members are materialised
+     */
+    private static EarthquakeDetail readDetail(JsonReader reader) throws IOException {
+        String id = null;
+        double magnitude = Double.NaN;
+        String magnitudeType = null;
+        String location = null;
+        long timeInMilliseconds = 0;
+        long updatedInMilliseconds = 0;
+        int feltReports = 0;
+        double communityIntensity = Double.NaN;
+        double instrumentalIntensity = Double.NaN;
+        String alertLevel = null;
+        boolean tsunami = false;
+        String types = "";
+        String shakeMapImageUrl = null;
+        String eventPageUrl = null;
+        double[] coordinates = {Double.NaN, Double.NaN, Double.NaN};
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String member = reader.nextName();
+            if ("id".equals(member) && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+                continue;
+            }
+            if ("geometry".equals(member) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readCoordinates(reader, coordinates);
+                continue;
+            }
+            if (!"properties".equals(member) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "mag":
+                        magnitude = nextDouble(reader);
+                        break;
+                    case "magType":
+                        magnitudeType = reader.nextString();
+                        break;
+                    case "place":
+                        location = reader.nextString();
+                        break;
+                    case "time":
+                        timeInMilliseconds = reader.nextLong();
+                        break;
+                    case "updated":
+                        updatedInMilliseconds = reader.nextLong();
+                        break;
+                    case "felt":
+                        feltReports = reader.nextInt();
+                        break;
+                    case "cdi":
+                        communityIntensity = nextDouble(reader);
+                        break;
+                    case "mmi":
+                        instrumentalIntensity = nextDouble(reader);
+                        break;
+                    case "alert":
+                        alertLevel = reader.nextString();
+                        break;
+                    case "tsunami":
+                        tsunami = reader.nextInt() != 0;
+                        break;
+                    case "types":
+                        types = reader.nextString();
+                        break;
+                    case "url":
+                        eventPageUrl = reader.nextString();
+                        break;
+                    case "products":
+                        shakeMapImageUrl = readShakeMapImageUrl(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+
+        if (id == null) {
+            throw new IOException("The earthquake detail JSON has no event id");
+        }
+        if (updatedInMilliseconds == 0) {
+            updatedInMilliseconds = timeInMilliseconds;
+        }
+        //The product types are listed between commas, i.e. ",dyfi,origin,shakemap,"
+        boolean shakeMap = shakeMapImageUrl != null || types.contains(",shakemap,");
+
+        return new EarthquakeDetail(id, magnitude, magnitudeType, location, timeInMilliseconds,
+                updatedInMilliseconds, coordinates[0], coordinates[1], coordinates[2], feltReports,
+                communityIntensity, instrumentalIntensity, alertLevel, tsunami, shakeMap, shakeMapImageUrl,
+                eventPageUrl);
+    }
+
+    /**
+     * Read the products object of a detail feature, which holds most of the document
+     *
+     * @return the URL of the intensity image of the preferred (first) ShakeMap, or null if there isn't one
+     */
+    private static String readShakeMapImageUrl(JsonReader reader) throws IOException {
+        String url = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"shakemap".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                url = readContentUrl(reader, "download/intensity.jpg");
+            }
+            while (reader.hasNext()) {
+                reader.skipValue();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return url;
+    }
+
+    /**
+     * Read a product object
+     *
+     * @return the URL of its content at {@param path}, or null if it has none
+     */
+    private static String readContentUrl(JsonReader reader, String path) throws IOException {
+        String url = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"contents".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!path.equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("url".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                        url = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return url;
+    }
+
+    /**
+     * Read a point geometry object, storing up to the first three of its coordinates in {@param coordinates}
+     */
+    private static void readCoordinates(JsonReader reader, double[] coordinates) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"coordinates".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                if (i < coordinates.length && reader.peek() == JsonToken.NUMBER) {
+                    coordinates[i] = nextDouble(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * @return the next number in the {@param reader}, like {@link JsonReader#nextDouble()} but without the
+     * buffers Double.parseDouble allocates for every number, three or four of which are read per feature
+     */
+    private static double nextDouble(JsonReader reader) throws IOException {
+        return parseDecimal(reader.nextString());
+    }
+
+    /**
+     * @return the value of {@param text}, a JSON number. A plain decimal whose digits and fraction fit a double
+     * exactly is divided down by a power of ten, which rounds the same as Double.parseDouble. Anything else,
+     * i.e. an exponent or too many digits, is left to Double.parseDouble.
+     */
+    static double parseDecimal(String text) {
+        int length = text.length();
+        boolean negative = length > 0 && text.charAt(0) == '-';
+        long digits = 0;
+        int digitCount = 0;
+        //How many digits follow the decimal point, or -1 before it
+        int fractionDigits = -1;
+        for (int i = negative ? 1 : 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = digits * 10 + (c - '0');
+                digitCount++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return Double.parseDouble(text);
+            }
+            //18 digits always fit a long, so this is checked before it could overflow
+            if (digitCount > 18) {
+                return Double.parseDouble(text);
+            }
+        }
+        if (digitCount == 0 || digits > MAX_EXACT_DIGITS || fractionDigits >= EXACT_POWERS_OF_TEN.length) {
+            return Double.parseDouble(text);
+        }
+        double value = fractionDigits > 0 ? digits / EXACT_POWERS_OF_TEN[fractionDigits] : digits;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Collects the earthquakes into a list, handing each batch to a listener as soon as it's complete
+     */
+    private static final class BatchingListWriter implements EarthquakeWriter {
+
+        //Every earthquake parsed
+        final List<Earthquake> mEarthquakes = new ArrayList<>();
+
+        //Batch size and listener, batching is disabled by a size of 0 or less or a null listener
+        private final int mBatchSize;
+        private final OnBatchParsedListener mListener;
+
+        //Index of the first earthquake that has not been handed to the listener yet
+        private int mBatchStart;
+
+        BatchingListWriter(int batchSize, OnBatchParsedListener listener) {
+            mBatchSize = batchSize;
+            mListener = listener;
+        }
+
+        @Override
+        public void write(Earthquake earthquake) {
+            mEarthquakes.add(earthquake);
+            if (mBatchSize > 0 && mEarthquakes.size() - mBatchStart == mBatchSize) {
+                publishBatch();
+            }
+        }
+
+        /**
+         * Copy the earthquakes not handed over yet and pass them to the listener, if there are any
+         */
+        void publishBatch() {
+            if (mListener == null || mBatchSize <= 0 || mEarthquakes.size() == mBatchStart) {
+                return;
+            }
+            List<Earthquake> batch = new ArrayList<>(mEarthquakes.subList(mBatchStart, mEarthquakes.size()));
+            mListener.onBatchParsed(batch, mBatchStart);
+            mBatchStart = mEarthquakes.size();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Passes the earthquakes on to another writer, counting them
+     */
+    private static final class CountingWriter implements EarthquakeWriter {
+
+        private final EarthquakeWriter mWriter;
+        int mCount;
+
+        CountingWriter(EarthquakeWriter writer) {
+            mWriter = writer;
+        }
+
+        @Override
+        public void write(Earthquake earthquake) throws IOException {
+            mWriter.write(earthquake);
+            mCount++;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mWriter.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mWriter.close();
+        }
+    }
+}
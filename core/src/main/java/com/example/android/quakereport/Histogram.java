@@ -0,0 +1,208 @@
+package com.example.android.quakereport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long values, i.e. latencies in nanoseconds or sizes in bytes.
+ * Like an HDR histogram, values are counted in buckets whose width grows with the value: each power of
+ * two is split into {@value #SUB_BUCKETS} equal buckets, so any value is known to within about 6% over the
+ * whole range of a long, in a fixed few kilobytes. Recording a value is a handful of atomic adds, with no
+ * locks or allocation, so it can be used on hot paths from any thread.
+ */
+public class Histogram {
+
+    //Buckets each power of two is split into, and its log
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    //Values below SUB_BUCKETS have a bucket each, every power of two above has SUB_BUCKETS
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    //The name the histogram is reported under
+    private final String mName;
+
+    //Whether the values are nanoseconds, so they're reported as milliseconds
+    private final boolean mTime;
+
+    //Number of values in each bucket
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    //Number of values, their sum and the largest
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Create an empty histogram named {@param name}
+     *
+     * @param time whether the values are durations in nanoseconds
+     */
+    public Histogram(String name, boolean time) {
+        mName = name;
+        mTime = time;
+    }
+
+    /**
+     * @return the name the histogram is reported under
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return whether the values are durations in nanoseconds
+     */
+    public boolean isTime() {
+        return mTime;
+    }
+
+    /**
+     * Count the {@param value}, negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts.incrementAndGet(bucketOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Count the time since {@param startNanos}, a value from {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Forget every value
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * @return a copy of the histogram as it is now. Values recorded while it's taken may be only partly in it.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        return new Snapshot(mName, mTime, counts, total, mSum.get(), mMax.get());
+    }
+
+    /**
+     * @return the bucket {@param value} is counted in
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value counted in {@param bucket}
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * An unchanging copy of a histogram
+     */
+    public static final class Snapshot {
+
+        private final String mName;
+        private final boolean mTime;
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        private Snapshot(String name, boolean time, long[] counts, long count, long sum, long max) {
+            mName = name;
+            mTime = time;
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        /**
+         * @return the name the histogram is reported under
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return whether the values are durations in nanoseconds
+         */
+        public boolean isTime() {
+            return mTime;
+        }
+
+        /**
+         * @return the number of values
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the mean value, or 0 if there are none
+         */
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        /**
+         * @return the largest value
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @return the value that {@param percentile} percent of the values are at or below, to within the
+         * width of its bucket, or 0 if there are no values
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+            long seen = 0;
+            for (int bucket = 0; bucket < mCounts.length; bucket++) {
+                seen += mCounts[bucket];
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(bucket), mMax);
+                }
+            }
+            return mMax;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers a request with a status code that carries no earthquakes
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    //The status code of the response
+    private final int mStatusCode;
+
+    /**
+     * Create an exception for the {@param statusCode} returned by the request to {@param url}
+     */
+    public HttpStatusException(int statusCode, String url) {
+        super("Error response code: " + statusCode + " from " + url);
+        mStatusCode = statusCode;
+    }
+
+    /**
+     * @return the HTTP status code
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+}
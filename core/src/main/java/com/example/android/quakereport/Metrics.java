@@ -0,0 +1,272 @@
+package com.example.android.quakereport;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters and histograms for every stage of a load, from the connection to the row being bound,
+ * shared by the whole process.
+ * Recording is lock-free and allocation free once a metric exists, so the stages can be measured in the
+ * field. A snapshot of everything can be taken at any time, i.e. by tests, and published to the registered
+ * {@link MetricsSink}s, i.e. logcat or a file.
+ * The names of the metrics recorded by the app are the constants below.
+ */
+public final class Metrics {
+
+    //Time to open the connection (DNS, TCP and TLS), close to 0 when a pooled connection is reused
+    public static final String FETCH_CONNECT = "fetch.connect";
+    //Time from the request being sent to the response headers arriving
+    public static final String FETCH_FIRST_BYTE = "fetch.firstByte";
+    //Time to download and parse the body, which are done together as the body streams in
+    public static final String FETCH_BODY = "fetch.body";
+    //Time for the whole request, from the connection to the last feature
+    public static final String FETCH_TOTAL = "fetch.total";
+    //Requests sent, and those that failed
+    public static final String FETCH_REQUESTS = "fetch.requests";
+    public static final String FETCH_ERRORS = "fetch.errors";
+    //Requests sent again after failing, sent a second time for being slow, turned away by the circuit
+    //breaker, and answered with the last good response after failing
+    public static final String FETCH_RETRIES = "fetch.retries";
+    public static final String FETCH_HEDGES = "fetch.hedges";
+    public static final String FETCH_SHORT_CIRCUITED = "fetch.shortCircuited";
+    public static final String FETCH_STALE = "fetch.stale";
+    //Bytes received from the network, before decompression
+    public static final String FETCH_BYTES = "fetch.bytes";
+    //Features parsed
+    public static final String PARSE_FEATURES = "parse.features";
+    //Responses answered without downloading the feed (remembered or 304 Not Modified), and downloaded ones
+    public static final String CACHE_HITS = "cache.hits";
+    public static final String CACHE_MISSES = "cache.misses";
+    //Time for a whole load, and the bytes allocated while it ran
+    public static final String LOAD_TOTAL = "load.total";
+    public static final String LOAD_ALLOCATED_BYTES = "load.allocatedBytes";
+    //Backfill chunks downloaded, and those split in two for hitting the result cap
+    public static final String BACKFILL_CHUNKS = "backfill.chunks";
+    public static final String BACKFILL_SPLITS = "backfill.splits";
+    //Event details found in the cache, fetched because they weren't, prefetched near the rows on screen, and
+    //prefetches cancelled for being scrolled away from before they finished
+    public static final String DETAIL_CACHE_HITS = "detail.cacheHits";
+    public static final String DETAIL_CACHE_MISSES = "detail.cacheMisses";
+    public static final String DETAIL_PREFETCHES = "detail.prefetches";
+    public static final String DETAIL_PREFETCHES_CANCELLED = "detail.prefetchesCancelled";
+    //Time to read the snapshot shown on a cold start
+    public static final String SNAPSHOT_READ = "snapshot.read";
+    //Time to bind one row of the list
+    public static final String ADAPTER_BIND = "adapter.bind";
+    //Time to work out which rows of the list a new result inserts, removes and changes
+    public static final String ADAPTER_DIFF = "adapter.diff";
+    //Time from a result being handed to the list to the list being laid out for drawing
+    public static final String LIST_RENDER = "list.render";
+
+    private static final Logger LOGGER = Logger.getLogger(Metrics.class.getSimpleName());
+
+    /**
+     * Measures the memory allocated by the current thread, or the process where that's all there is
+     */
+    public interface AllocationMeter {
+        /**
+         * @return the bytes allocated so far, or -1 if it can't be measured
+         */
+        long getAllocatedBytes();
+    }
+
+    /**
+     * A counter that only goes up
+     */
+    public static final class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        private Counter() {
+        }
+
+        /**
+         * Add one to the counter
+         */
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        /**
+         * Add {@param delta} to the counter
+         */
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        /**
+         * @return the count so far
+         */
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    //Every metric, by name
+    private static final ConcurrentMap<String, Counter> sCounters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> sHistograms = new ConcurrentHashMap<>();
+
+    //Where snapshots are published
+    private static final List<MetricsSink> sSinks = new CopyOnWriteArrayList<>();
+
+    //Measures allocations, by default the JVM's per-thread count where there is one
+    private static volatile AllocationMeter sAllocationMeter = new ThreadAllocationMeter();
+
+    /**
+     * Private constructor, this class only provides static helper methods
+     */
+    private Metrics() {
+    }
+
+    /**
+     * @return the counter named {@param name}, creating it on first use
+     */
+    public static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = sCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return the histogram of durations in nanoseconds named {@param name}, creating it on first use
+     */
+    public static Histogram timer(String name) {
+        return histogram(name, true);
+    }
+
+    /**
+     * @return the histogram of plain values named {@param name}, i.e. sizes, creating it on first use
+     */
+    public static Histogram histogram(String name) {
+        return histogram(name, false);
+    }
+
+    /**
+     * Use {@param meter} to measure allocations, i.e. one that asks the Android runtime
+     */
+    public static void setAllocationMeter(AllocationMeter meter) {
+        sAllocationMeter = meter;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread (or process, depending on the meter),
+     * or -1 if it can't be measured
+     */
+    public static long getAllocatedBytes() {
+        return sAllocationMeter.getAllocatedBytes();
+    }
+
+    /**
+     * Publish snapshots to {@param sink}
+     */
+    public static void addSink(MetricsSink sink) {
+        sSinks.add(sink);
+    }
+
+    /**
+     * Stop publishing snapshots to {@param sink}
+     */
+    public static void removeSink(MetricsSink sink) {
+        sSinks.remove(sink);
+    }
+
+    /**
+     * @return a copy of every metric as it is now
+     */
+    public static MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(System.currentTimeMillis(), sCounters, sHistograms.values());
+    }
+
+    /**
+     * Take a snapshot and pass it to every sink. A sink that fails is logged and skipped.
+     */
+    public static void publish() {
+        if (sSinks.isEmpty()) {
+            return;
+        }
+        MetricsSnapshot snapshot = snapshot();
+        for (MetricsSink sink : sSinks) {
+            try {
+                sink.publish(snapshot);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Metrics sink failed", e);
+            }
+        }
+    }
+
+    /**
+     * Zero every metric, i.e. between tests
+     */
+    public static void reset() {
+        for (Counter counter : sCounters.values()) {
+            counter.mValue.set(0);
+        }
+        for (Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    private static Histogram histogram(String name, boolean time) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(name, time);
+            histogram = sHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Measures the current thread's allocations through the JVM's com.sun.management.ThreadMXBean.
+     * Looked up by reflection, as java.lang.management doesn't exist on Android, where it measures nothing.
+     * ReflectiveOperationException isn't caught, it's missing from older Android versions.
+     */
+    private static final class ThreadAllocationMeter implements AllocationMeter {
+        private final Object mThreadBean;
+        private final Method mGetThreadAllocatedBytes;
+
+        ThreadAllocationMeter() {
+            Object threadBean = null;
+            Method getThreadAllocatedBytes = null;
+            try {
+                Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+                threadBean = factory.getMethod("getThreadMXBean").invoke(null);
+                Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+                if (beanClass.isInstance(threadBean)) {
+                    getThreadAllocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+                }
+            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+                    | InvocationTargetException | LinkageError e) {
+                //Not available on this platform
+            }
+            mThreadBean = threadBean;
+            mGetThreadAllocatedBytes = getThreadAllocatedBytes;
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            if (mGetThreadAllocatedBytes == null) {
+                return -1;
+            }
+            try {
+                return (Long) mGetThreadAllocatedBytes.invoke(mThreadBean, Thread.currentThread().getId());
+            } catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+}
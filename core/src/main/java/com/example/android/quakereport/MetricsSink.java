@@ -0,0 +1,12 @@
+package com.example.android.quakereport;
+
+/**
+ * Somewhere {@link Metrics} are published to, i.e. logcat or a file
+ */
+public interface MetricsSink {
+
+    /**
+     * Called on the publishing thread with the latest {@param snapshot}
+     */
+    void publish(MetricsSnapshot snapshot);
+}
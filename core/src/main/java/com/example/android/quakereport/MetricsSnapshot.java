@@ -0,0 +1,125 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Every metric at one moment, see {@link Metrics#snapshot()}. Never changes once taken.
+ */
+public class MetricsSnapshot {
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    //When the snapshot was taken
+    private final long mTimeInMilliseconds;
+
+    //Counter values and histogram copies, by name in alphabetical order
+    private final Map<String, Long> mCounters;
+    private final Map<String, Histogram.Snapshot> mHistograms;
+
+    /**
+     * Copy the {@param counters} and {@param histograms} as they are now
+     */
+    MetricsSnapshot(long timeInMilliseconds, Map<String, Metrics.Counter> counters,
+                    Collection<Histogram> histograms) {
+        mTimeInMilliseconds = timeInMilliseconds;
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Metrics.Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, Histogram.Snapshot> histogramSnapshots = new TreeMap<>();
+        for (Histogram histogram : histograms) {
+            histogramSnapshots.put(histogram.getName(), histogram.snapshot());
+        }
+        mCounters = Collections.unmodifiableMap(counterValues);
+        mHistograms = Collections.unmodifiableMap(histogramSnapshots);
+    }
+
+    /**
+     * @return when the snapshot was taken
+     */
+    public long getTimeInMilliseconds() {
+        return mTimeInMilliseconds;
+    }
+
+    /**
+     * @return the value of the counter named {@param name}, 0 if it has never been used
+     */
+    public long getCounter(String name) {
+        Long value = mCounters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return the histogram named {@param name}, or null if it has never been used
+     */
+    public Histogram.Snapshot getHistogram(String name) {
+        return mHistograms.get(name);
+    }
+
+    /**
+     * @return every counter value, by name
+     */
+    public Map<String, Long> getCounters() {
+        return mCounters;
+    }
+
+    /**
+     * @return every histogram, by name
+     */
+    public Map<String, Histogram.Snapshot> getHistograms() {
+        return mHistograms;
+    }
+
+    /**
+     * @return the fraction of responses answered without downloading the feed, or NaN if there have been none
+     */
+    public double getCacheHitRatio() {
+        long hits = getCounter(Metrics.CACHE_HITS);
+        long total = hits + getCounter(Metrics.CACHE_MISSES);
+        return total == 0 ? Double.NaN : (double) hits / total;
+    }
+
+    /**
+     * @return one line of text per metric, i.e. "fetch.bytes 51234" or
+     * "fetch.total count=3 mean=120.4ms p50=98.3ms p90=150.1ms p99=150.1ms max=151.0ms", with the cache
+     * hit ratio last
+     */
+    public List<String> formatLines() {
+        List<String> lines = new ArrayList<>(mCounters.size() + mHistograms.size() + 1);
+        for (Map.Entry<String, Long> entry : mCounters.entrySet()) {
+            lines.add(entry.getKey() + " " + entry.getValue());
+        }
+        for (Histogram.Snapshot histogram : mHistograms.values()) {
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            lines.add(histogram.getName() + " count=" + histogram.getCount()
+                    + " mean=" + format(histogram, histogram.getMean())
+                    + " p50=" + format(histogram, histogram.getPercentile(50))
+                    + " p90=" + format(histogram, histogram.getPercentile(90))
+                    + " p99=" + format(histogram, histogram.getPercentile(99))
+                    + " max=" + format(histogram, histogram.getMax()));
+        }
+        double hitRatio = getCacheHitRatio();
+        if (!Double.isNaN(hitRatio)) {
+            lines.add(String.format(Locale.US, "cache.hitRatio %.3f", hitRatio));
+        }
+        return lines;
+    }
+
+    /**
+     * @return the {@param value}, as milliseconds for a histogram of durations
+     */
+    private static String format(Histogram.Snapshot histogram, double value) {
+        if (histogram.isTime()) {
+            return String.format(Locale.US, "%.1fms", value / NANOS_PER_MILLI);
+        }
+        return String.format(Locale.US, "%.0f", value);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.android.quakereport;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads earthquakes written by {@link NdjsonEarthquakeWriter}, pulling one object at a time from the stream.
+ * Members it doesn't know are skipped, missing coordinates are read as unknown and a missing magnitude as 0,
+ * the same as the feed.
+ */
+final class NdjsonEarthquakeReader implements EarthquakeReader {
+
+    //Pulls tokens from the UTF-8 text as they're needed
+    private final JsonReader mReader;
+
+    //Whether the first token has been looked at
+    private boolean mStarted;
+
+    NdjsonEarthquakeReader(ReadableByteChannel channel) {
+        mReader = new JsonReader(new BufferedReader(Channels.newReader(channel, "UTF-8")));
+        //Lenient reading allows one top level object after another
+        mReader.setLenient(true);
+    }
+
+    @Override
+    public Earthquake read() throws IOException {
+        try {
+            if (isAtEnd()) {
+                return null;
+            }
+            String id = null;
+            long time = 0;
+            long updated = Long.MIN_VALUE;
+            double magnitude = 0;
+            double longitude = Double.NaN;
+            double latitude = Double.NaN;
+            double depth = Double.NaN;
+            String location = "";
+            String url = null;
+            boolean deleted = false;
+
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                if (mReader.peek() == JsonToken.NULL) {
+                    mReader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "id":
+                        id = mReader.nextString();
+                        break;
+                    case "time":
+                        time = mReader.nextLong();
+                        break;
+                    case "updated":
+                        updated = mReader.nextLong();
+                        break;
+                    case "mag":
+                        magnitude = mReader.nextDouble();
+                        break;
+                    case "longitude":
+                        longitude = mReader.nextDouble();
+                        break;
+                    case "latitude":
+                        latitude = mReader.nextDouble();
+                        break;
+                    case "depth":
+                        depth = mReader.nextDouble();
+                        break;
+                    case "place":
+                        location = mReader.nextString();
+                        break;
+                    case "url":
+                        url = mReader.nextString();
+                        break;
+                    case "deleted":
+                        deleted = mReader.nextBoolean();
+                        break;
+                    default:
+                        mReader.skipValue();
+                        break;
+                }
+            }
+            mReader.endObject();
+
+            //An earthquake that has never been revised was last updated when it happened
+            return new Earthquake(id, magnitude, location, time, updated == Long.MIN_VALUE ? time : updated, url,
+                    deleted, longitude, latitude, depth);
+        } catch (IllegalStateException | NumberFormatException e) {
+            //JsonReader reports documents of the wrong shape with the unchecked exceptions
+            throw new IOException("Not an earthquake NDJSON export", e);
+        }
+    }
+
+    /**
+     * @return whether every earthquake has been read. JsonReader reports a document with nothing in it as cut
+     * short rather than ended, so an empty export is only told apart before its first token.
+     */
+    private boolean isAtEnd() throws IOException {
+        if (!mStarted) {
+            mStarted = true;
+            try {
+                return mReader.peek() == JsonToken.END_DOCUMENT;
+            } catch (EOFException e) {
+                return true;
+            }
+        }
+        return mReader.peek() == JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
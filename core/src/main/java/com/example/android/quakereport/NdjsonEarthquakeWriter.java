@@ -0,0 +1,66 @@
+package com.example.android.quakereport;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes earthquakes as newline delimited JSON, an object per line with the same member names as the
+ * properties of the USGS feed. Unknown numbers are written as null, and deleted is only written if true.
+ */
+final class NdjsonEarthquakeWriter implements EarthquakeWriter {
+
+    //Characters encoded to UTF-8 in blocks, then written to the channel
+    private final Writer mOut;
+
+    NdjsonEarthquakeWriter(WritableByteChannel channel) {
+        mOut = new BufferedWriter(Channels.newWriter(channel, "UTF-8"));
+    }
+
+    @Override
+    public void write(Earthquake earthquake) throws IOException {
+        //JsonWriter writes straight through to the buffered writer, and isn't closed so neither is the channel
+        JsonWriter json = new JsonWriter(mOut);
+        json.beginObject();
+        json.name("id").value(earthquake.getId());
+        json.name("time").value(earthquake.getTimeInMilliseconds());
+        json.name("updated").value(earthquake.getUpdatedInMilliseconds());
+        writeNumber(json, "mag", earthquake.getMagnitude());
+        writeNumber(json, "longitude", earthquake.getLongitude());
+        writeNumber(json, "latitude", earthquake.getLatitude());
+        writeNumber(json, "depth", earthquake.getDepth());
+        json.name("place").value(earthquake.getLocation());
+        json.name("url").value(earthquake.getDetailUrl());
+        if (earthquake.isDeleted()) {
+            json.name("deleted").value(true);
+        }
+        json.endObject();
+        mOut.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOut.close();
+    }
+
+    /**
+     * Write {@param value} as the member {@param name}, null if it isn't known, as JSON has no NaN
+     */
+    private static void writeNumber(JsonWriter json, String name, double value) throws IOException {
+        json.name(name);
+        if (Double.isNaN(value)) {
+            json.nullValue();
+        } else {
+            json.value(value);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Helper methods related to requesting and receiving earthquake data from USGS.
+ */
+public final class QueryUtils {
+
+    //Tag for the log messages
+    public static final String LOG_TAG = QueryUtils.class.getSimpleName();
+
+    //Logger for errors, java.util.logging so this works off Android too, where it's forwarded to logcat
+    private static final Logger LOGGER = Logger.getLogger(LOG_TAG);
+
+    //Client every request is sent through, so connections to the server are reused
+    private static volatile UsgsHttpClient sHttpClient = new UsgsHttpClient();
+
+    //Retries, hedges and short-circuits every request, and serves the last good response when one fails
+    private static volatile FetchPolicy sFetchPolicy = new FetchPolicy();
+
+    //How long a response is reused for identical requests, and how many are kept
+    private static final long RESPONSE_TTL_MILLIS = 30000;
+    private static final int MAX_REMEMBERED_RESPONSES = 16;
+
+    //Shares identical requests that are in flight at the same time, or made just after each other
+    private static final RequestCoalescer sRequestCoalescer = new RequestCoalescer(new RequestCoalescer.Fetcher() {
+        @Override
+        public FeedResponse fetch(String requestUrl, String eTag, String lastModified, int batchSize,
+                                  GeoJsonParser.OnBatchParsedListener listener, CancellationToken cancellation) {
+            return fetchFeedUncoalesced(requestUrl, eTag, lastModified, batchSize, listener, cancellation);
+        }
+    }, MAX_REMEMBERED_RESPONSES, RESPONSE_TTL_MILLIS);
+
+    /**
+     * Send every later request through {@param client}, i.e. one with different timeouts
+     */
+    public static void setHttpClient(UsgsHttpClient client) {
+        sHttpClient = client;
+    }
+
+    /**
+     * @return the client requests are sent through
+     */
+    public static UsgsHttpClient getHttpClient() {
+        return sHttpClient;
+    }
+
+    /**
+     * Send every later request through {@param policy}, i.e. one that never retries
+     */
+    public static void setFetchPolicy(FetchPolicy policy) {
+        sFetchPolicy = policy;
+    }
+
+    /**
+     * @return the policy requests are sent through
+     */
+    public static FetchPolicy getFetchPolicy() {
+        return sFetchPolicy;
+    }
+
+    /**
+     * Query the USGS dataset and return an {@link List<Earthquake>} object to represent a single earthquake.
+     */
+    public static List<Earthquake> fetchEarthquakeData(String requestUrl) {
+        return fetchEarthquakeData(requestUrl, 0, null);
+    }
+
+    /**
+     * Query the USGS dataset and return the earthquakes, also handing them to the {@param listener}
+     * in batches of {@param batchSize} as soon as they are parsed.
+     */
+    public static List<Earthquake> fetchEarthquakeData(String requestUrl, int batchSize,
+                                                       GeoJsonParser.OnBatchParsedListener listener) {
+        return fetchEarthquakeData(requestUrl, batchSize, listener, null);
+    }
+
+    /**
+     * Query the USGS dataset like {@link #fetchEarthquakeData(String, int, GeoJsonParser.OnBatchParsedListener)},
+     * stopping if {@param cancellation} is cancelled, in which case the earthquakes parsed so far are returned.
+     * The caller tells a cut short list apart by checking the cancellation. If the request fails, the last
+     * earthquakes returned for the same URL may be returned again, use {@link #fetchFeed} to tell.
+     */
+    public static List<Earthquake> fetchEarthquakeData(String requestUrl, int batchSize,
+                                                       GeoJsonParser.OnBatchParsedListener listener,
+                                                       CancellationToken cancellation) {
+        //Perform an unconditional request, so the response always carries the earthquakes
+        FeedResponse response = fetchFeed(requestUrl, null, null, batchSize, listener, cancellation);
+
+        //Return the List<Earthquake>
+        return response == null ? null : response.getEarthquakes();
+    }
+
+    /**
+     * Query the USGS dataset and write each earthquake to {@param writer} as soon as it's parsed, without keeping
+     * any of them, so a response of any size is exported in constant memory. The writer isn't closed.
+     *
+     * The request isn't shared, retried or answered with stale data like the other queries, as whatever was
+     * written before a failure can't be taken back. It stops as soon as {@param cancellation} is cancelled,
+     * which may be null, leaving the earthquakes written so far.
+     *
+     * @return the number of earthquakes written
+     * @throws IOException if the request fails, the response isn't a feed, or the writer fails
+     */
+    public static int exportEarthquakeData(String requestUrl, EarthquakeWriter writer,
+                                           CancellationToken cancellation) throws IOException {
+        URL url = new URL(requestUrl);
+
+        //Count the request and time it to the last feature
+        Metrics.counter(Metrics.FETCH_REQUESTS).increment();
+        long startNanos = System.nanoTime();
+        UsgsHttpClient.Response httpResponse = null;
+        try {
+            httpResponse = sHttpClient.get(url, null, null, cancellation);
+            int responseCode = httpResponse.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(responseCode, requestUrl);
+            }
+            Metrics.counter(Metrics.CACHE_MISSES).increment();
+            long bodyStartNanos = System.nanoTime();
+            int count = GeoJsonParser.streamFeatures(httpResponse.getBody(), writer, cancellation);
+            Metrics.timer(Metrics.FETCH_BODY).recordSince(bodyStartNanos);
+            Metrics.counter(Metrics.PARSE_FEATURES).add(count);
+            return count;
+        } catch (IOException e) {
+            if (CancellationToken.isCancelled(cancellation)) {
+                //Cancelled before anything was parsed, which isn't an error
+                return 0;
+            }
+            Metrics.counter(Metrics.FETCH_ERRORS).increment();
+            throw e;
+        } finally {
+            if (httpResponse != null) {
+                httpResponse.close();
+            }
+            Metrics.timer(Metrics.FETCH_TOTAL).recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Download and parse the detail GeoJSON of a single event, i.e. from {@link EarthquakeQuery#detailUrl}.
+     *
+     * Like an export, the request isn't shared, retried or answered with stale data, as the caller keeps
+     * details of its own. It stops as soon as {@param cancellation} is cancelled, which may be null.
+     *
+     * @return the detail, or null if it was cancelled
+     * @throws IOException if the request fails or the response isn't an event
+     */
+    public static EarthquakeDetail fetchEarthquakeDetail(String requestUrl, CancellationToken cancellation)
+            throws IOException {
+        URL url = new URL(requestUrl);
+
+        //Count the request and time it to the end of the document
+        Metrics.counter(Metrics.FETCH_REQUESTS).increment();
+        long startNanos = System.nanoTime();
+        UsgsHttpClient.Response httpResponse = null;
+        try {
+            httpResponse = sHttpClient.get(url, null, null, cancellation);
+            int responseCode = httpResponse.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(responseCode, requestUrl);
+            }
+            long bodyStartNanos = System.nanoTime();
+            EarthquakeDetail detail = GeoJsonParser.parseDetail(httpResponse.getBody());
+            Metrics.timer(Metrics.FETCH_BODY).recordSince(bodyStartNanos);
+            return detail;
+        } catch (IOException e) {
+            if (CancellationToken.isCancelled(cancellation)) {
+                //Cancelled, which isn't an error
+                return null;
+            }
+            Metrics.counter(Metrics.FETCH_ERRORS).increment();
+            throw e;
+        } finally {
+            if (httpResponse != null) {
+                httpResponse.close();
+            }
+            Metrics.timer(Metrics.FETCH_TOTAL).recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Query the USGS dataset with a conditional GET, using the {@param eTag} and {@param lastModified}
+     * validators from a previous response (either may be null).
+     *
+     * An identical request that is already running, or has just finished, is shared rather than sent again,
+     * in which case the {@param listener} isn't called and the whole response is returned at the end.
+     *
+     * A request that fails is retried, and if it still fails the last good response to the same unconditional
+     * request is returned instead, marked as stale.
+     *
+     * @return the response, which is marked as not modified if the server answered 304,
+     * or null if there was no usable response
+     */
+    public static FeedResponse fetchFeed(String requestUrl, String eTag, String lastModified, int batchSize,
+                                         GeoJsonParser.OnBatchParsedListener listener) {
+        return fetchFeed(requestUrl, eTag, lastModified, batchSize, listener, null);
+    }
+
+    /**
+     * Query the USGS dataset like {@link #fetchFeed(String, String, String, int, GeoJsonParser.OnBatchParsedListener)},
+     * aborting the request and the parse if {@param cancellation} is cancelled, which may be null.
+     *
+     * @return the response, which is marked as partial and holds the earthquakes parsed before the cancel
+     * if it was cancelled, or null if there was no usable response
+     */
+    public static FeedResponse fetchFeed(String requestUrl, String eTag, String lastModified, int batchSize,
+                                         GeoJsonParser.OnBatchParsedListener listener,
+                                         CancellationToken cancellation) {
+        return sRequestCoalescer.fetch(requestUrl, eTag, lastModified, batchSize, listener, cancellation);
+    }
+
+    /**
+     * Forget the responses kept for identical requests, so the next request goes to the server
+     */
+    public static void clearRememberedResponses() {
+        sRequestCoalescer.clear();
+    }
+
+    /**
+     * Send the request to the server through the fetch policy, without sharing it
+     */
+    private static FeedResponse fetchFeedUncoalesced(String requestUrl, final String eTag, final String lastModified,
+                                                     final int batchSize,
+                                                     final GeoJsonParser.OnBatchParsedListener listener,
+                                                     CancellationToken cancellation) {
+        //Create a URL object
+        final URL url = createUrl(requestUrl);
+
+        //If the URL is null, then return early
+        if (url == null) {
+            return null;
+        }
+
+        //A conditional request's caller already has the data, so there's nothing stale to serve it.
+        //A request whose batches go to a listener can't be sent twice at once, or they would be handed over twice.
+        boolean conditional = eTag != null || lastModified != null;
+        return sFetchPolicy.execute(conditional ? null : requestUrl, listener == null, new FetchPolicy.Attempt() {
+            @Override
+            public FeedResponse fetch(CancellationToken attemptCancellation) throws IOException {
+                return makeHttpRequest(url, eTag, lastModified, batchSize, listener, attemptCancellation);
+            }
+        }, cancellation);
+    }
+
+    /**
+     * Returns new URL object from the given string URL.
+     */
+    private static URL createUrl(String stringUrl) {
+        //Initialise variable
+        URL url = null;
+
+        //Try the creation of a URL, if not catch the exception
+        try {
+            url = new URL(stringUrl);
+        } catch (MalformedURLException e) {
+            //Log the error
+            LOGGER.log(Level.SEVERE, "Error with creating URL", e);
+        }
+        //Return the successful URL
+        return url;
+    }
+
+    /**
+     * Make an HTTP request to the given URL and parse the response as it arrives.
+     * Returns null if the response couldn't be parsed.
+     *
+     * @throws IOException if the request failed, including with an unexpected status code
+     */
+    private static FeedResponse makeHttpRequest(URL url, String eTag, String lastModified, int batchSize,
+                                                GeoJsonParser.OnBatchParsedListener listener,
+                                                CancellationToken cancellation)
+            throws IOException {
+        //Initialise variable
+        FeedResponse response = null;
+
+        //If the URL is null, then return early
+        if (url == null) {
+            return response;
+        }
+
+        //Initialise variable
+        UsgsHttpClient.Response httpResponse = null;
+
+        //Count the request and time it to the last feature
+        Metrics.counter(Metrics.FETCH_REQUESTS).increment();
+        long startNanos = System.nanoTime();
+
+        //Try the connecting to the URL and reading the response, else catch the exception
+        try {
+            //Send the request, conditional on the cached copy's validators
+            httpResponse = sHttpClient.get(url, eTag, lastModified, cancellation);
+
+            int responseCode = httpResponse.getResponseCode();
+            String responseETag = httpResponse.getETag();
+            String responseLastModified = httpResponse.getLastModified();
+
+            //If the request was successful (response code 200), then parse the response from the stream
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                Metrics.counter(Metrics.CACHE_MISSES).increment();
+                long bodyStartNanos = System.nanoTime();
+                List<Earthquake> earthquakes =
+                        GeoJsonParser.parseFeatures(httpResponse.getBody(), batchSize, listener, cancellation);
+                Metrics.timer(Metrics.FETCH_BODY).recordSince(bodyStartNanos);
+                Metrics.counter(Metrics.PARSE_FEATURES).add(earthquakes.size());
+                response = new FeedResponse(earthquakes, false, responseETag, responseLastModified,
+                        CancellationToken.isCancelled(cancellation));
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                //The cached copy is still current, nothing was sent
+                Metrics.counter(Metrics.CACHE_HITS).increment();
+                response = new FeedResponse(null, true, responseETag, responseLastModified);
+            } else {
+                //Let the fetch policy decide whether it's worth another try
+                throw new HttpStatusException(responseCode, url.toString());
+            }
+        } catch (IOException e) {
+            if (CancellationToken.isCancelled(cancellation)) {
+                //Cancelled before anything was parsed, which isn't an error
+                response = new FeedResponse(new ArrayList<Earthquake>(), false, null, null, true);
+            } else {
+                //Pass the error on to the fetch policy, which may retry it
+                Metrics.counter(Metrics.FETCH_ERRORS).increment();
+                throw e;
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            if (CancellationToken.isCancelled(cancellation)) {
+                response = new FeedResponse(new ArrayList<Earthquake>(), false, null, null, true);
+            } else {
+                //Log the error, JsonReader reports documents of the wrong shape with the unchecked exceptions
+                Metrics.counter(Metrics.FETCH_ERRORS).increment();
+                LOGGER.log(Level.SEVERE, "Problem parsing the earthquake JSON results", e);
+            }
+        } finally {
+            //Finish the response, which leaves the connection open for the next request
+            if (httpResponse != null) {
+                httpResponse.close();
+            }
+            Metrics.timer(Metrics.FETCH_TOTAL).recordSince(startNanos);
+        }
+        //Return the response
+        return response;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Shares feed requests between callers that ask for the same thing at the same time.
+ * The first caller for a request runs it on its own thread, and anyone asking for the same request
+ * while it's in flight waits for that result instead of sending another. Successful responses are
+ * also remembered for a short time, in a small least recently used map, so a request repeated
+ * straight afterwards (i.e. by a recreated screen) is answered without the network.
+ * Requests are matched on their URL with the query parameters sorted, plus the cache validators.
+ * Only the first caller's batch listener is called, callers that join a running request get the
+ * whole response once it has finished. As responses are shared, their earthquakes must not be changed.
+ * Partial responses, from a request its caller cancelled, are never remembered or shared: a caller that
+ * joined a request which was cut short sends its own. Stale responses are shared but never remembered, so the
+ * next request goes back to the server.
+ */
+public class RequestCoalescer {
+
+    /**
+     * Performs the actual request
+     */
+    public interface Fetcher {
+        /**
+         * @return the response, or null if there was no usable response
+         */
+        FeedResponse fetch(String requestUrl, String eTag, String lastModified, int batchSize,
+                           GeoJsonParser.OnBatchParsedListener listener, CancellationToken cancellation);
+    }
+
+    //How often a caller waiting on someone else's request checks whether it has been cancelled
+    private static final long CANCEL_POLL_MILLIS = 100;
+
+    //Sends the requests
+    private final Fetcher mFetcher;
+
+    //Most responses remembered at once
+    private final int mMaxEntries;
+
+    //How long a response is remembered for
+    private final long mTimeToLiveMillis;
+
+    //Requests that are running, by key
+    private final ConcurrentMap<String, FutureTask<FeedResponse>> mInFlight = new ConcurrentHashMap<>();
+
+    //Recent responses by key, least recently used first. Guarded by itself.
+    private final LinkedHashMap<String, MemoEntry> mMemo;
+
+    /**
+     * Create a coalescer that sends requests through {@param fetcher}, remembering up to {@param maxEntries}
+     * responses for {@param timeToLiveMillis} each
+     */
+    public RequestCoalescer(Fetcher fetcher, int maxEntries, long timeToLiveMillis) {
+        mFetcher = fetcher;
+        mMaxEntries = maxEntries;
+        mTimeToLiveMillis = timeToLiveMillis;
+        mMemo = new LinkedHashMap<String, MemoEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MemoEntry> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the response for the request, from memory, from a matching request that's already running,
+     * or by sending it on the calling thread
+     *
+     * @param cancellation cancels the request if it's sent on this thread, or stops waiting for someone
+     *                     else's, may be null
+     * @return the response, or null if there was no usable response, the thread was interrupted while waiting
+     * or the wait was cancelled
+     */
+    public FeedResponse fetch(final String requestUrl, final String eTag, final String lastModified,
+                              final int batchSize, final GeoJsonParser.OnBatchParsedListener listener,
+                              final CancellationToken cancellation) {
+        final String key = buildKey(requestUrl, eTag, lastModified);
+
+        while (true) {
+            FeedResponse remembered = getRemembered(key);
+            if (remembered != null) {
+                Metrics.counter(Metrics.CACHE_HITS).increment();
+                return remembered;
+            }
+
+            //Join the running request, or become the one that runs it
+            FutureTask<FeedResponse> task = new FutureTask<>(new Callable<FeedResponse>() {
+                @Override
+                public FeedResponse call() {
+                    return mFetcher.fetch(requestUrl, eTag, lastModified, batchSize, listener, cancellation);
+                }
+            });
+            FutureTask<FeedResponse> running = mInFlight.putIfAbsent(key, task);
+            if (running == null) {
+                try {
+                    task.run();
+                    FeedResponse response = getQuietly(task);
+                    //Remember the response before anyone can miss both it and the running request
+                    if (response != null && !response.isPartial() && !response.isStale()) {
+                        remember(key, response);
+                    }
+                    return response;
+                } finally {
+                    mInFlight.remove(key, task);
+                }
+            }
+
+            FeedResponse response;
+            try {
+                response = await(running, cancellation);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+            //The request was cut short by its own caller, so go again unless this caller is cancelled too
+            if (response == null || !response.isPartial()) {
+                if (response != null) {
+                    //Shared with the running request, so nothing was downloaded for this caller
+                    Metrics.counter(Metrics.CACHE_HITS).increment();
+                }
+                return response;
+            }
+            if (CancellationToken.isCancelled(cancellation)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the result of someone else's {@param running} request, or null if {@param cancellation} was
+     * cancelled first
+     */
+    private static FeedResponse await(FutureTask<FeedResponse> running, CancellationToken cancellation)
+            throws InterruptedException, ExecutionException {
+        if (cancellation == null) {
+            return running.get();
+        }
+        while (!cancellation.isCancelled()) {
+            try {
+                return running.get(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                //Still running, check the cancellation again
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget every remembered response, requests that are running are left alone
+     */
+    public void clear() {
+        synchronized (mMemo) {
+            mMemo.clear();
+        }
+    }
+
+    /**
+     * @return the {@param url} with its scheme and host in lower case, its fragment removed and its query
+     * parameters sorted by name, so URLs that ask for the same thing are equal
+     */
+    public static String normalizeUrl(String url) {
+        int fragmentStart = url.indexOf('#');
+        if (fragmentStart >= 0) {
+            url = url.substring(0, fragmentStart);
+        }
+        int queryStart = url.indexOf('?');
+        String base = queryStart >= 0 ? url.substring(0, queryStart) : url;
+        String query = queryStart >= 0 ? url.substring(queryStart + 1) : "";
+
+        //The scheme and host aren't case sensitive, the path is
+        int hostStart = base.indexOf("://");
+        if (hostStart >= 0) {
+            int pathStart = base.indexOf('/', hostStart + 3);
+            int hostEnd = pathStart >= 0 ? pathStart : base.length();
+            base = base.substring(0, hostEnd).toLowerCase(Locale.US) + base.substring(hostEnd);
+        }
+
+        List<String> parameters = new ArrayList<>();
+        for (String parameter : query.split("&")) {
+            if (!parameter.isEmpty()) {
+                parameters.add(parameter);
+            }
+        }
+        //The sort is stable, so repeated parameters keep their order
+        Collections.sort(parameters, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                return parameterName(first).compareTo(parameterName(second));
+            }
+        });
+
+        StringBuilder normalized = new StringBuilder(url.length()).append(base);
+        for (int i = 0; i < parameters.size(); i++) {
+            normalized.append(i == 0 ? '?' : '&').append(parameters.get(i));
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @return the key requests are matched on
+     */
+    private static String buildKey(String requestUrl, String eTag, String lastModified) {
+        return normalizeUrl(requestUrl) + '\n' + eTag + '\n' + lastModified;
+    }
+
+    /**
+     * @return the name part of a {@param parameter} in the form name=value
+     */
+    private static String parameterName(String parameter) {
+        int valueStart = parameter.indexOf('=');
+        return valueStart >= 0 ? parameter.substring(0, valueStart) : parameter;
+    }
+
+    /**
+     * @return the remembered response for {@param key}, or null if there isn't one or it has expired
+     */
+    private FeedResponse getRemembered(String key) {
+        synchronized (mMemo) {
+            MemoEntry entry = mMemo.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() >= entry.mExpiresAt) {
+                mMemo.remove(key);
+                return null;
+            }
+            return entry.mResponse;
+        }
+    }
+
+    private void remember(String key, FeedResponse response) {
+        if (mMaxEntries <= 0 || mTimeToLiveMillis <= 0) {
+            return;
+        }
+        synchronized (mMemo) {
+            mMemo.put(key, new MemoEntry(response, System.currentTimeMillis() + mTimeToLiveMillis));
+        }
+    }
+
+    /**
+     * @return the result of the finished {@param task}, or null if it failed
+     */
+    private static FeedResponse getQuietly(FutureTask<FeedResponse> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A remembered response and when it stops being used
+     */
+    private static final class MemoEntry {
+        final FeedResponse mResponse;
+        final long mExpiresAt;
+
+        MemoEntry(FeedResponse response, long expiresAt) {
+            mResponse = response;
+            mExpiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.quakereport;
+
+/**
+ * An ordered selection of rows, seen through a range of an array of row numbers.
+ * Views made by {@link EarthquakeQueryEngine} share the engine's sorted arrays rather than copying
+ * them, so making one costs nothing beyond finding the ends of its range.
+ */
+public final class RowView {
+
+    //The row numbers, and the range of them in the view
+    private final int[] mRows;
+    private final int mFrom;
+    private final int mTo;
+
+    //Whether the range is read from its end to its start
+    private final boolean mReversed;
+
+    /**
+     * Create a view of the rows in {@param rows} from {@param from} up to but not including {@param to},
+     * read backwards if {@param reversed} is true. The array must not be changed afterwards.
+     */
+    public RowView(int[] rows, int from, int to, boolean reversed) {
+        if (from < 0 || to > rows.length || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + " to " + to + ", length " + rows.length);
+        }
+        mRows = rows;
+        mFrom = from;
+        mTo = to;
+        mReversed = reversed;
+    }
+
+    /**
+     * @return the number of rows in the view
+     */
+    public int size() {
+        return mTo - mFrom;
+    }
+
+    /**
+     * @return the row number at {@param position} in the view
+     */
+    public int getRow(int position) {
+        if (position < 0 || position >= mTo - mFrom) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + (mTo - mFrom));
+        }
+        return mReversed ? mRows[mTo - 1 - position] : mRows[mFrom + position];
+    }
+}
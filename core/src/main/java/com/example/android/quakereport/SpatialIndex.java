@@ -0,0 +1,435 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory grid index over earthquake locations, for radius, bounding box and nearest neighbour queries.
+ * The globe is divided into cells of equal latitude and longitude size, and only the cells that hold
+ * earthquakes are kept, in a map from cell number to the entries inside it. A query only looks at the
+ * cells that can overlap it, so its cost depends on the number of earthquakes nearby rather than the
+ * total. Entries are the row numbers of an {@link EarthquakeTable}, rows without coordinates are left out.
+ * Like the table, an index is only ever appended to, and one that another thread can see must be copied
+ * with {@link #SpatialIndex(SpatialIndex)} before it's changed. The copy shares the source's cells until
+ * it writes to them, so copying costs the size of the map rather than of the entries.
+ */
+public class SpatialIndex {
+
+    //Mean radius of the Earth, used for every distance
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    //Size of a cell, one degree is about 111km at the equator
+    private static final double DEFAULT_CELL_SIZE_DEGREES = 1.0;
+
+    //Capacity of an empty index and of a new cell
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int CELL_CAPACITY = 4;
+
+    //Size of a cell in degrees, and the number of cells in each direction
+    private final double mCellSize;
+    private final int mLatitudeCells;
+    private final int mLongitudeCells;
+
+    //Entries, each one a row and where it is
+    private int mSize;
+    private int[] mRows;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+
+    //Cells that hold at least one entry, by cell number
+    private final Map<Integer, Cell> mCells;
+
+    /**
+     * Create an empty index with one degree cells
+     */
+    public SpatialIndex() {
+        this(DEFAULT_CELL_SIZE_DEGREES);
+    }
+
+    /**
+     * Create an empty index with cells of {@param cellSizeDegrees} square
+     */
+    public SpatialIndex(double cellSizeDegrees) {
+        if (!(cellSizeDegrees > 0) || cellSizeDegrees > 180) {
+            throw new IllegalArgumentException("Cell size must be above 0 and at most 180 degrees: " + cellSizeDegrees);
+        }
+        mCellSize = cellSizeDegrees;
+        mLatitudeCells = (int) Math.ceil(180 / cellSizeDegrees);
+        mLongitudeCells = (int) Math.ceil(360 / cellSizeDegrees);
+        mRows = new int[DEFAULT_CAPACITY];
+        mLatitudes = new double[DEFAULT_CAPACITY];
+        mLongitudes = new double[DEFAULT_CAPACITY];
+        mCells = new HashMap<>();
+    }
+
+    /**
+     * Create a copy of {@param source}, so it can be appended to without changing the source
+     */
+    public SpatialIndex(SpatialIndex source) {
+        mCellSize = source.mCellSize;
+        mLatitudeCells = source.mLatitudeCells;
+        mLongitudeCells = source.mLongitudeCells;
+        mSize = source.mSize;
+        int capacity = Math.max(source.mSize, DEFAULT_CAPACITY);
+        mRows = Arrays.copyOf(source.mRows, capacity);
+        mLatitudes = Arrays.copyOf(source.mLatitudes, capacity);
+        mLongitudes = Arrays.copyOf(source.mLongitudes, capacity);
+        //The cells are still owned by the source, they are copied the first time this index adds to them
+        mCells = new HashMap<>(source.mCells);
+    }
+
+    /**
+     * Add {@param row} at the given location
+     *
+     * @return false if either coordinate is NaN, in which case nothing is added
+     */
+    public boolean add(int row, double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return false;
+        }
+        ensureCapacity(mSize + 1);
+        int entry = mSize++;
+        mRows[entry] = row;
+        mLatitudes[entry] = latitude;
+        mLongitudes[entry] = longitude;
+
+        Integer key = cellOf(latitudeCell(latitude), longitudeCell(longitude));
+        Cell cell = mCells.get(key);
+        if (cell == null) {
+            cell = new Cell(this, new int[CELL_CAPACITY], 0);
+            mCells.put(key, cell);
+        } else if (cell.mOwner != this) {
+            cell = new Cell(this, Arrays.copyOf(cell.mEntries, cell.mCount + CELL_CAPACITY), cell.mCount);
+            mCells.put(key, cell);
+        }
+        cell.add(entry);
+        return true;
+    }
+
+    /**
+     * Add every row of {@param table} from {@param fromRow} onwards, i.e. the rows appended since the last call
+     */
+    public void addAll(EarthquakeTable table, int fromRow) {
+        ensureCapacity(mSize + table.size() - fromRow);
+        EarthquakeTable.Row cursor = table.newRow();
+        for (int row = fromRow; row < table.size(); row++) {
+            cursor.moveTo(row);
+            add(row, cursor.getLatitude(), cursor.getLongitude());
+        }
+    }
+
+    /**
+     * @return the number of rows in the index
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the rows within {@param radiusKm} of the point, in no particular order
+     */
+    public int[] withinRadius(double latitude, double longitude, double radiusKm) {
+        Hits hits = new Hits();
+        collectWithinRadius(latitude, longitude, radiusKm, hits);
+        return hits.toRows(mRows);
+    }
+
+    /**
+     * @return the rows inside the bounding box, in no particular order. A box whose minimum longitude
+     * is greater than its maximum crosses the antimeridian.
+     */
+    public int[] withinBoundingBox(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        boolean crossesAntimeridian = minLongitude > maxLongitude;
+        double longitudeSpan = crossesAntimeridian ? maxLongitude + 360 - minLongitude : maxLongitude - minLongitude;
+
+        Hits candidates = new Hits();
+        collectCells(minLatitude, maxLatitude, minLongitude, longitudeSpan, candidates);
+
+        Hits hits = new Hits();
+        for (int i = 0; i < candidates.mCount; i++) {
+            int entry = candidates.mEntries[i];
+            double latitude = mLatitudes[entry];
+            double longitude = mLongitudes[entry];
+            boolean longitudeInside = crossesAntimeridian
+                    ? longitude >= minLongitude || longitude <= maxLongitude
+                    : longitude >= minLongitude && longitude <= maxLongitude;
+            if (longitudeInside && latitude >= minLatitude && latitude <= maxLatitude) {
+                hits.add(entry);
+            }
+        }
+        return hits.toRows(mRows);
+    }
+
+    /**
+     * @return the {@param count} rows nearest to the point, nearest first, or every row if there are fewer
+     */
+    public int[] nearest(double latitude, double longitude, int count) {
+        count = Math.min(count, mSize);
+        if (count <= 0) {
+            return new int[0];
+        }
+
+        //Search rings of cells outwards from the point until there are enough candidates
+        Hits candidates = new Hits();
+        int centreLatitudeCell = latitudeCell(latitude);
+        int centreLongitudeCell = longitudeCell(longitude);
+        for (int ring = 0; candidates.mCount < count; ring++) {
+            //Once a ring would wrap around the globe or look at more cells than are in use, take everything
+            if (2 * ring + 1 >= mLongitudeCells || (long) (2 * ring + 1) * (2 * ring + 1) > mCells.size() * 4L) {
+                candidates = allEntries();
+                break;
+            }
+            collectRing(centreLatitudeCell, centreLongitudeCell, ring, candidates);
+        }
+
+        //The candidates aren't necessarily the nearest, but nothing nearer can be further than the
+        //count-th nearest of them, so a radius query of that distance finds the exact answer
+        double[] distances = new double[candidates.mCount];
+        for (int i = 0; i < candidates.mCount; i++) {
+            distances[i] = distanceToEntry(latitude, longitude, candidates.mEntries[i]);
+        }
+        Arrays.sort(distances);
+        double radiusKm = distances[count - 1];
+
+        Hits hits = new Hits();
+        collectWithinRadius(latitude, longitude, radiusKm, hits);
+        return nearestRows(latitude, longitude, hits, count);
+    }
+
+    /**
+     * @return the great circle distance in kilometres between the two points, in degrees
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double sinHalfLatitude = Math.sin((lat2 - lat1) / 2);
+        double sinHalfLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinHalfLatitude * sinHalfLatitude
+                + Math.cos(lat1) * Math.cos(lat2) * sinHalfLongitude * sinHalfLongitude;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Add the entries within {@param radiusKm} of the point to {@param hits}
+     */
+    private void collectWithinRadius(double latitude, double longitude, double radiusKm, Hits hits) {
+        if (radiusKm < 0) {
+            return;
+        }
+        //Bounding box of the circle, from its angular radius
+        double angularRadius = radiusKm / EARTH_RADIUS_KM;
+        double radiusDegrees = Math.toDegrees(angularRadius);
+        double minLatitude = latitude - radiusDegrees;
+        double maxLatitude = latitude + radiusDegrees;
+        double longitudeSpan;
+        if (minLatitude <= -90 || maxLatitude >= 90 || angularRadius >= Math.PI / 2) {
+            //The circle covers a pole, so it can reach every longitude
+            longitudeSpan = 360;
+        } else {
+            double halfSpan = Math.toDegrees(Math.asin(Math.min(1,
+                    Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude)))));
+            longitudeSpan = 2 * halfSpan;
+        }
+
+        Hits candidates = new Hits();
+        collectCells(minLatitude, maxLatitude, longitude - longitudeSpan / 2, longitudeSpan, candidates);
+        for (int i = 0; i < candidates.mCount; i++) {
+            int entry = candidates.mEntries[i];
+            if (distanceToEntry(latitude, longitude, entry) <= radiusKm) {
+                hits.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Add every entry in the cells overlapping the latitude range and the longitude range that starts
+     * at {@param minLongitude} and goes east for {@param longitudeSpan} degrees
+     */
+    private void collectCells(double minLatitude, double maxLatitude, double minLongitude, double longitudeSpan,
+                              Hits candidates) {
+        int firstLatitudeCell = latitudeCell(Math.max(minLatitude, -90));
+        int lastLatitudeCell = latitudeCell(Math.min(maxLatitude, 90));
+        if (firstLatitudeCell > lastLatitudeCell) {
+            return;
+        }
+        int longitudeCells = longitudeSpan >= 360 ? mLongitudeCells
+                : Math.min(mLongitudeCells, (int) Math.floor((minLongitude + longitudeSpan + 180) / mCellSize)
+                - (int) Math.floor((minLongitude + 180) / mCellSize) + 1);
+
+        //A large range is cheaper to answer by going through the cells that are in use
+        long rangeCells = (long) (lastLatitudeCell - firstLatitudeCell + 1) * longitudeCells;
+        if (rangeCells > mCells.size()) {
+            int firstLongitudeCell = longitudeCell(minLongitude);
+            for (Map.Entry<Integer, Cell> entry : mCells.entrySet()) {
+                int latitudeCell = entry.getKey() / mLongitudeCells;
+                int longitudeOffset = floorMod(entry.getKey() % mLongitudeCells - firstLongitudeCell, mLongitudeCells);
+                if (latitudeCell >= firstLatitudeCell && latitudeCell <= lastLatitudeCell
+                        && longitudeOffset < longitudeCells) {
+                    candidates.addAll(entry.getValue());
+                }
+            }
+            return;
+        }
+
+        int firstLongitudeCell = longitudeCell(minLongitude);
+        for (int latitudeCell = firstLatitudeCell; latitudeCell <= lastLatitudeCell; latitudeCell++) {
+            for (int i = 0; i < longitudeCells; i++) {
+                Cell cell = mCells.get(cellOf(latitudeCell, (firstLongitudeCell + i) % mLongitudeCells));
+                if (cell != null) {
+                    candidates.addAll(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add every entry in the cells exactly {@param ring} cells away from the centre cell
+     */
+    private void collectRing(int centreLatitudeCell, int centreLongitudeCell, int ring, Hits candidates) {
+        for (int latitudeCell = centreLatitudeCell - ring; latitudeCell <= centreLatitudeCell + ring; latitudeCell++) {
+            if (latitudeCell < 0 || latitudeCell >= mLatitudeCells) {
+                continue;
+            }
+            //Only the first and last rows of the ring are full, the rows between just have their two ends
+            boolean edgeRow = Math.abs(latitudeCell - centreLatitudeCell) == ring;
+            int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+            for (int offset = -ring; offset <= ring; offset += step) {
+                int longitudeCell = floorMod(centreLongitudeCell + offset, mLongitudeCells);
+                Cell cell = mCells.get(cellOf(latitudeCell, longitudeCell));
+                if (cell != null) {
+                    candidates.addAll(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the {@param count} rows of the {@param hits} nearest to the point, nearest first
+     */
+    private int[] nearestRows(final double latitude, final double longitude, Hits hits, int count) {
+        final double[] distances = new double[hits.mCount];
+        Integer[] order = new Integer[hits.mCount];
+        for (int i = 0; i < hits.mCount; i++) {
+            distances[i] = distanceToEntry(latitude, longitude, hits.mEntries[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(distances[first], distances[second]);
+            }
+        });
+
+        int[] rows = new int[Math.min(count, hits.mCount)];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = mRows[hits.mEntries[order[i]]];
+        }
+        return rows;
+    }
+
+    /**
+     * @return every entry in the index
+     */
+    private Hits allEntries() {
+        Hits hits = new Hits();
+        hits.ensureCapacity(mSize);
+        for (int entry = 0; entry < mSize; entry++) {
+            hits.add(entry);
+        }
+        return hits;
+    }
+
+    private double distanceToEntry(double latitude, double longitude, int entry) {
+        return distanceKm(latitude, longitude, mLatitudes[entry], mLongitudes[entry]);
+    }
+
+    private int latitudeCell(double latitude) {
+        return Math.max(0, Math.min(mLatitudeCells - 1, (int) Math.floor((latitude + 90) / mCellSize)));
+    }
+
+    private int longitudeCell(double longitude) {
+        return floorMod((int) Math.floor((longitude + 180) / mCellSize), mLongitudeCells);
+    }
+
+    private int cellOf(int latitudeCell, int longitudeCell) {
+        return latitudeCell * mLongitudeCells + longitudeCell;
+    }
+
+    private static int floorMod(int value, int divisor) {
+        int remainder = value % divisor;
+        return remainder < 0 ? remainder + divisor : remainder;
+    }
+
+    /**
+     * Grow the entries so they can hold at least {@param capacity}
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mRows.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mRows.length + (mRows.length >> 1));
+        mRows = Arrays.copyOf(mRows, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+    }
+
+    /**
+     * The entries inside one cell, owned by the index that created it and only ever appended to by that index
+     */
+    private static final class Cell {
+        final SpatialIndex mOwner;
+        int[] mEntries;
+        int mCount;
+
+        Cell(SpatialIndex owner, int[] entries, int count) {
+            mOwner = owner;
+            mEntries = entries;
+            mCount = count;
+        }
+
+        void add(int entry) {
+            if (mCount == mEntries.length) {
+                mEntries = Arrays.copyOf(mEntries, mCount * 2);
+            }
+            mEntries[mCount++] = entry;
+        }
+    }
+
+    /**
+     * Growable list of entries found by a query
+     */
+    private static final class Hits {
+        int[] mEntries = new int[DEFAULT_CAPACITY];
+        int mCount;
+
+        void add(int entry) {
+            ensureCapacity(mCount + 1);
+            mEntries[mCount++] = entry;
+        }
+
+        void addAll(Cell cell) {
+            ensureCapacity(mCount + cell.mCount);
+            System.arraycopy(cell.mEntries, 0, mEntries, mCount, cell.mCount);
+            mCount += cell.mCount;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > mEntries.length) {
+                mEntries = Arrays.copyOf(mEntries, Math.max(capacity, mEntries.length * 2));
+            }
+        }
+
+        /**
+         * @return the rows of the entries found
+         */
+        int[] toRows(int[] rows) {
+            int[] result = new int[mCount];
+            for (int i = 0; i < mCount; i++) {
+                result[i] = rows[mEntries[i]];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.quakereport;
+
+/**
+ * Bounded pool of Strings, so text that repeats across many earthquakes (place names, URL prefixes) is held once.
+ * Each String goes in a slot picked by its hash, replacing whatever was there, so the pool never holds more than
+ * its capacity and the most recently seen text wins. A String found in its slot is returned instead of a new one,
+ * and part of a String can be looked up without cutting it out first, so a hit allocates nothing.
+ * Slots are read and written without locking. A String never changes once created, so a thread sees either the
+ * old or the new String in a slot, and a lost write only costs a duplicate.
+ */
+final class StringPool {
+
+    //Slots, a power of two long
+    private final String[] mSlots;
+
+    /**
+     * Create a pool holding at most {@param capacity} Strings, rounded up to a power of two
+     */
+    StringPool(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mSlots = new String[size];
+    }
+
+    /**
+     * @return a String equal to {@param text} from the pool, putting it in if it isn't there, or null for null
+     */
+    String intern(String text) {
+        return text == null ? null : intern(text, 0, text.length());
+    }
+
+    /**
+     * @return a String equal to the part of {@param text} from {@param start} up to {@param end} from the pool,
+     * only cutting it out of the text if it isn't there already
+     */
+    String intern(String text, int start, int end) {
+        int length = end - start;
+        //The same hash as String.hashCode(), worked out over just the part
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        //Spread the high bits down, as the slot only uses the low ones
+        int slot = (hash ^ (hash >>> 16)) & (mSlots.length - 1);
+
+        String pooled = mSlots[slot];
+        if (pooled != null && pooled.length() == length && pooled.regionMatches(0, text, start, length)) {
+            return pooled;
+        }
+        String value = start == 0 && end == text.length() ? text : text.substring(start, end);
+        mSlots[slot] = value;
+        return value;
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP client for the USGS endpoints.
+ * Responses are requested gzip compressed and decompressed as they are read. Connections are never
+ * disconnected after a complete response: the body is read to the end and closed instead, which hands
+ * the socket back to the platform's keep-alive pool, so the next request to the same host skips the
+ * TCP and TLS handshakes.
+ * A request can be given a {@link CancellationToken}, cancelling it disconnects the connection, which
+ * unblocks a request waiting on the server or a body in the middle of being read.
+ * The time to connect and to the first byte of the response, and the bytes received, are recorded in
+ * {@link Metrics}.
+ */
+public class UsgsHttpClient {
+
+    //Default timeouts, so the user is never waiting for long periods of time if there is no data
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+    //Most bytes skipped to finish an unread body so its connection can be reused, larger bodies are dropped
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+
+    //Size of the buffer between the socket and the decompressor
+    private static final int BUFFER_SIZE = 8192;
+
+    //Timeouts for every request
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    static {
+        //Keep-alive is on by default, but make sure nothing has switched it off for this process
+        System.setProperty("http.keepAlive", "true");
+    }
+
+    /**
+     * Create a client with the default timeouts
+     */
+    public UsgsHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a client with the given timeouts, in milliseconds
+     */
+    public UsgsHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @return the connect timeout, in milliseconds
+     */
+    public int getConnectTimeoutMillis() {
+        return mConnectTimeoutMillis;
+    }
+
+    /**
+     * @return the read timeout, in milliseconds
+     */
+    public int getReadTimeoutMillis() {
+        return mReadTimeoutMillis;
+    }
+
+    /**
+     * Send a GET request to {@param url}, as a conditional GET if {@param eTag} or {@param lastModified} is set.
+     * The returned response must be closed.
+     */
+    public Response get(URL url, String eTag, String lastModified) throws IOException {
+        return get(url, eTag, lastModified, null);
+    }
+
+    /**
+     * Send a GET request to {@param url} that is aborted if {@param cancellation} is cancelled, which may be null.
+     * A request cancelled before the response arrives throws an IOException.
+     * The returned response must be closed.
+     */
+    public Response get(URL url, String eTag, String lastModified, CancellationToken cancellation)
+            throws IOException {
+        if (CancellationToken.isCancelled(cancellation)) {
+            throw new IOException("Request cancelled: " + url);
+        }
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (cancellation != null) {
+            cancellation.setOnCancel(new Runnable() {
+                @Override
+                public void run() {
+                    connection.disconnect();
+                }
+            });
+        }
+        try {
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            connection.setRequestMethod("GET");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection.setRequestProperty("Connection", "keep-alive");
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            //Connect separately, so the handshakes are timed apart from the server's response
+            long startNanos = System.nanoTime();
+            connection.connect();
+            Metrics.timer(Metrics.FETCH_CONNECT).recordSince(startNanos);
+
+            //Read the status once, it sends the request and waits for the response headers
+            startNanos = System.nanoTime();
+            int responseCode = connection.getResponseCode();
+            Metrics.timer(Metrics.FETCH_FIRST_BYTE).recordSince(startNanos);
+            return new Response(connection, responseCode, cancellation);
+        } catch (IOException | RuntimeException e) {
+            //The connection is in an unknown state, so don't let it be reused
+            if (cancellation != null) {
+                cancellation.setOnCancel(null);
+            }
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * A response from the server, whose body is decompressed while it's read
+     */
+    public static final class Response implements Closeable {
+
+        private final HttpURLConnection mConnection;
+        private final int mResponseCode;
+        private final CancellationToken mCancellation;
+        private InputStream mBody;
+        private boolean mClosed;
+
+        private Response(HttpURLConnection connection, int responseCode, CancellationToken cancellation) {
+            mConnection = connection;
+            mResponseCode = responseCode;
+            mCancellation = cancellation;
+        }
+
+        /**
+         * @return the HTTP status code
+         */
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * @return the ETag response header, or null
+         */
+        public String getETag() {
+            return mConnection.getHeaderField("ETag");
+        }
+
+        /**
+         * @return the Last-Modified response header, or null
+         */
+        public String getLastModified() {
+            return mConnection.getHeaderField("Last-Modified");
+        }
+
+        /**
+         * @return the uncompressed body of a successful response, buffered
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream raw = new BufferedInputStream(
+                        new CountingInputStream(mConnection.getInputStream()), BUFFER_SIZE);
+                if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    mBody = new GZIPInputStream(raw, BUFFER_SIZE);
+                } else {
+                    mBody = raw;
+                }
+            }
+            return mBody;
+        }
+
+        /**
+         * Finish the response. A short unread body is read to the end so the connection can be reused,
+         * anything else disconnects it, as does a cancelled request.
+         */
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+
+            //The connection may go back to the pool, so a later cancel mustn't disconnect it
+            if (mCancellation != null) {
+                mCancellation.setOnCancel(null);
+                if (mCancellation.isCancelled()) {
+                    mConnection.disconnect();
+                    closeQuietly(mBody);
+                    return;
+                }
+            }
+
+            InputStream stream = null;
+            try {
+                stream = mBody != null ? mBody : openUnreadStream();
+                if (stream != null && !drain(stream)) {
+                    mConnection.disconnect();
+                }
+            } catch (IOException e) {
+                mConnection.disconnect();
+            } finally {
+                closeQuietly(stream);
+            }
+        }
+
+        /**
+         * @return the stream of a body that was never asked for, the error stream for a failed request
+         */
+        private InputStream openUnreadStream() throws IOException {
+            if (mResponseCode >= 400) {
+                return mConnection.getErrorStream();
+            }
+            return mConnection.getInputStream();
+        }
+
+        /**
+         * Skip the rest of the {@param stream}
+         *
+         * @return true if the end was reached within the limit
+         */
+        private static boolean drain(InputStream stream) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long drained = 0;
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void closeQuietly(Closeable closeable) {
+            if (closeable == null) {
+                return;
+            }
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //Nothing more can be done with it
+            }
+        }
+    }
+
+    /**
+     * Adds the bytes read through it to the {@link Metrics#FETCH_BYTES} counter
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final Metrics.Counter mBytes = Metrics.counter(Metrics.FETCH_BYTES);
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                mBytes.increment();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mBytes.add(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            if (skipped > 0) {
+                mBytes.add(skipped);
+            }
+            return skipped;
+        }
+    }
+}
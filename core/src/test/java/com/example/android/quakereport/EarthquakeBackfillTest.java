@@ -0,0 +1,318 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EarthquakeBackfill}, against a stand-in for the FDSN query endpoint
+ */
+public class EarthquakeBackfillTest {
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private EarthquakeStore mStore;
+    private File mCheckpointFile;
+
+    //The range backfilled, the 16 hours up to the last whole second
+    private long mStart;
+    private long mEnd;
+
+    @Before
+    public void setUp() {
+        mStore = new EarthquakeStore(new File(mFolder.getRoot(), "earthquakes.store"), 1000, TimeUnit.DAYS.toMillis(2));
+        mCheckpointFile = new File(mFolder.getRoot(), "backfill.checkpoint");
+        mEnd = System.currentTimeMillis() / 1000 * 1000;
+        mStart = mEnd - 16 * HOUR_MILLIS;
+        //Never retry or short-circuit, so each test sees exactly the requests it makes
+        QueryUtils.setFetchPolicy(new FetchPolicy(1, 0, 0, Double.NaN, new CircuitBreaker(1000, 1)));
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setFetchPolicy(new FetchPolicy());
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @Test
+    public void splitsAChunkThatComesBackFull() throws Exception {
+        //Twelve earthquakes in the first hour, more than fit in one response
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            times.add(mStart + 60 * 1000 + i * 4 * 60 * 1000);
+        }
+        FdsnHandler handler = new FdsnHandler(times);
+        FixtureServer server = new FixtureServer(handler);
+        EarthquakeBackfill backfill = new EarthquakeBackfill(mStore, mCheckpointFile, 1, 5, 16 * HOUR_MILLIS);
+        try {
+            EarthquakeBackfill.Result result = backfill.run(range(server), null);
+
+            assertTrue(result.isComplete());
+            assertTrue(result.getSplitCount() > 0);
+            assertEquals(0, result.getFailedChunkCount());
+            assertEquals(0, result.getTruncatedChunkCount());
+            assertEquals(12, mStore.size());
+            //No response held more than the limit
+            for (int count : handler.mCounts) {
+                assertTrue(count <= 5);
+            }
+        } finally {
+            backfill.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void reportsAChunkTooShortToSplitThatComesBackFull() throws Exception {
+        //Six earthquakes within a few milliseconds, one more than fits in a response however short the chunk
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            times.add(mEnd - HOUR_MILLIS + i);
+        }
+        FixtureServer server = new FixtureServer(new FdsnHandler(times));
+        EarthquakeBackfill backfill = new EarthquakeBackfill(mStore, mCheckpointFile, 1, 5, 16 * HOUR_MILLIS);
+        try {
+            EarthquakeBackfill.Result result = backfill.run(range(server), null);
+
+            assertFalse(result.isComplete());
+            assertEquals(1, result.getTruncatedChunkCount());
+            assertEquals(0, result.getFailedChunkCount());
+            assertEquals(5, mStore.size());
+        } finally {
+            backfill.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void keepsWhatWasSavedBefore() throws Exception {
+        EarthquakeStore saved = new EarthquakeStore(new File(mFolder.getRoot(), "earthquakes.store"), 1000,
+                TimeUnit.DAYS.toMillis(2));
+        saved.putAll(Arrays.asList(new Earthquake("saved", 4.0, "Before", mStart - HOUR_MILLIS, "")));
+        saved.save();
+
+        FixtureServer server = new FixtureServer(new FdsnHandler(Arrays.asList(mEnd - HOUR_MILLIS / 2)));
+        EarthquakeBackfill backfill = new EarthquakeBackfill(mStore, mCheckpointFile, 1, 100, 16 * HOUR_MILLIS);
+        try {
+            assertTrue(backfill.run(range(server), null).isComplete());
+        } finally {
+            backfill.shutdown();
+            server.stop();
+        }
+
+        EarthquakeStore loaded = new EarthquakeStore(new File(mFolder.getRoot(), "earthquakes.store"), 1000,
+                TimeUnit.DAYS.toMillis(2));
+        loaded.load();
+        assertEquals(2, loaded.size());
+    }
+
+    @Test
+    public void growsChunksThatComeBackMostlyEmpty() throws Exception {
+        FdsnHandler handler = new FdsnHandler(Arrays.asList(mStart + HOUR_MILLIS / 2, mEnd - HOUR_MILLIS / 2));
+        FixtureServer server = new FixtureServer(handler);
+        EarthquakeBackfill backfill = new EarthquakeBackfill(mStore, mCheckpointFile, 1, 100, HOUR_MILLIS);
+        try {
+            EarthquakeBackfill.Result result = backfill.run(range(server), null);
+
+            //Chunks of 1, 2, 4 and 8 hours, then the hour that's left
+            assertTrue(result.isComplete());
+            assertEquals(5, result.getChunkCount());
+            assertEquals(0, result.getSplitCount());
+            assertEquals(Arrays.asList(1L, 2L, 4L, 8L, 1L), handler.chunkHours());
+            assertEquals(2, mStore.size());
+        } finally {
+            backfill.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void failedChunksAreLeftForTheNextRun() throws Exception {
+        long broken = mEnd - 3 * HOUR_MILLIS / 2;
+        FdsnHandler handler = new FdsnHandler(Arrays.asList(mEnd - HOUR_MILLIS / 2, broken, mStart + HOUR_MILLIS / 2));
+        handler.mBrokenTime = broken;
+        FixtureServer server = new FixtureServer(handler);
+        EarthquakeBackfill backfill = new EarthquakeBackfill(mStore, mCheckpointFile, 1, 100, HOUR_MILLIS);
+        try {
+            EarthquakeBackfill.Result result = backfill.run(range(server), null);
+            assertFalse(result.isComplete());
+            assertEquals(1, result.getFailedChunkCount());
+            assertEquals(2, mStore.size());
+
+            //Once the server recovers, the next run only asks for the chunk that failed
+            handler.mBrokenTime = -1;
+            int requests = server.mQueries.size();
+            QueryUtils.clearRememberedResponses();
+            result = backfill.run(range(server), null);
+            assertTrue(result.isComplete());
+            assertEquals(0, result.getFailedChunkCount());
+            assertEquals(requests + 1, server.mQueries.size());
+            assertEquals(3, mStore.size());
+        } finally {
+            backfill.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void resumesFromTheCheckpointAfterACancel() throws Exception {
+        List<Long> times = new ArrayList<>();
+        for (int hour = 0; hour < 16; hour++) {
+            times.add(mStart + hour * HOUR_MILLIS + HOUR_MILLIS / 2);
+        }
+        FdsnHandler handler = new FdsnHandler(times);
+        CancellationToken cancellation = new CancellationToken();
+        handler.mCancellation = cancellation;
+        handler.mCancelAtRequest = 3;
+        FixtureServer server = new FixtureServer(handler);
+        EarthquakeBackfill backfill = new EarthquakeBackfill(mStore, mCheckpointFile, 1, 100, HOUR_MILLIS);
+        try {
+            //The third chunk is cancelled while it's downloading
+            EarthquakeBackfill.Result result = backfill.run(range(server), cancellation);
+            assertFalse(result.isComplete());
+            assertEquals(2, result.getChunkCount());
+            assertEquals(3, server.mQueries.size());
+            assertTrue(mCheckpointFile.exists());
+
+            //A new engine and store, as after a restart, carry on with the cancelled chunk
+            backfill.shutdown();
+            mStore = new EarthquakeStore(new File(mFolder.getRoot(), "earthquakes.store"), 1000,
+                    TimeUnit.DAYS.toMillis(2));
+            backfill = new EarthquakeBackfill(mStore, mCheckpointFile, 1, 100, HOUR_MILLIS);
+            QueryUtils.clearRememberedResponses();
+            result = backfill.run(range(server), new CancellationToken());
+
+            assertTrue(result.isComplete());
+            assertEquals(16, mStore.size());
+            List<long[]> windows = handler.mWindows;
+            assertEquals(windows.get(2)[0], windows.get(3)[0]);
+            assertEquals(windows.get(2)[1], windows.get(3)[1]);
+            for (int i = 3; i < windows.size(); i++) {
+                //Nothing downloaded by the first run is asked for again
+                assertTrue(windows.get(i)[1] <= windows.get(1)[0]);
+            }
+        } finally {
+            backfill.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * @return the query over the whole range, sent to {@param server}
+     */
+    private EarthquakeQuery range(FixtureServer server) {
+        return new EarthquakeQuery.Builder()
+                .setEndpoint(server.url("/query"))
+                .setTimeWindow(mStart, mEnd)
+                .build();
+    }
+
+    /**
+     * Answers queries with the earthquakes at the fixed times in their window, newest first, up to their limit
+     */
+    private static final class FdsnHandler implements FixtureServer.Handler {
+
+        private final List<Long> mTimes;
+
+        //The start and end of every request, and how many earthquakes each was answered with
+        final List<long[]> mWindows = new ArrayList<>();
+        final List<Integer> mCounts = new ArrayList<>();
+
+        //Requests with this time in their window fail, -1 for none
+        volatile long mBrokenTime = -1;
+
+        //Cancelled when the request with this number, counting from 1, comes in
+        CancellationToken mCancellation;
+        int mCancelAtRequest;
+
+        FdsnHandler(List<Long> times) {
+            mTimes = times;
+        }
+
+        @Override
+        public synchronized void handle(HttpExchange exchange) throws IOException {
+            long start = 0;
+            long end = Long.MAX_VALUE;
+            int limit = Integer.MAX_VALUE;
+            for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+                String[] pair = parameter.split("=", 2);
+                if ("starttime".equals(pair[0])) {
+                    start = parseDate(pair[1]);
+                } else if ("endtime".equals(pair[0])) {
+                    end = parseDate(pair[1]);
+                } else if ("limit".equals(pair[0])) {
+                    limit = Integer.parseInt(pair[1]);
+                }
+            }
+            mWindows.add(new long[]{start, end});
+
+            if (mCancellation != null && mWindows.size() == mCancelAtRequest) {
+                mCancellation.cancel();
+            }
+            if (mBrokenTime >= start && mBrokenTime < end) {
+                mCounts.add(-1);
+                FixtureServer.send(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, null, null);
+                return;
+            }
+
+            List<Long> inWindow = new ArrayList<>();
+            for (long time : mTimes) {
+                if (time >= start && time < end) {
+                    inWindow.add(time);
+                }
+            }
+            List<String> features = new ArrayList<>();
+            for (int i = inWindow.size() - 1; i >= 0 && features.size() < limit; i--) {
+                long time = inWindow.get(i);
+                features.add(FixtureServer.feature("t" + time, 3.0, "Place", time));
+            }
+            mCounts.add(features.size());
+            FixtureServer.send(exchange, HttpURLConnection.HTTP_OK, FixtureServer.feed(features), null);
+        }
+
+        /**
+         * @return the length of each request's window in whole hours
+         */
+        synchronized List<Long> chunkHours() {
+            List<Long> hours = new ArrayList<>();
+            for (long[] window : mWindows) {
+                hours.add((window[1] - window[0]) / HOUR_MILLIS);
+            }
+            return hours;
+        }
+
+        private static long parseDate(String date) throws IOException {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            try {
+                return dateFormat.parse(date).getTime();
+            } catch (ParseException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EarthquakeDiff}, applying the operations it dispatches to the old list of ids and checking
+ * that gives the new list
+ */
+public class EarthquakeDiffTest {
+
+    @Test
+    public void insertAtHead() {
+        EarthquakeDiff diff = assertTurnsInto(ids("a", "b", "c"), ids("x", "y", "a", "b", "c"));
+        assertEquals(2, diff.getTouchedCount());
+    }
+
+    @Test
+    public void removal() {
+        EarthquakeDiff diff = assertTurnsInto(ids("a", "b", "c", "d", "e"), ids("a", "c", "e"));
+        assertEquals(2, diff.getTouchedCount());
+    }
+
+    @Test
+    public void revisionOnly() {
+        List<Earthquake> oldList = ids("a", "b", "c");
+        List<Earthquake> newList = ids("a", "b", "c");
+        newList.set(1, revise(newList.get(1)));
+        EarthquakeDiff diff = assertTurnsInto(oldList, newList);
+        assertEquals(1, diff.getTouchedCount());
+    }
+
+    @Test
+    public void moves() {
+        assertTurnsInto(ids("a", "b", "c", "d", "e"), ids("e", "a", "b", "d", "c"));
+        assertTurnsInto(ids("a", "b", "c", "d"), ids("d", "c", "b", "a"));
+    }
+
+    @Test
+    public void emptyToNonEmptyAndBack() {
+        assertTurnsInto(ids(), ids("a", "b"));
+        assertTurnsInto(ids("a", "b"), ids());
+        assertTrue(assertTurnsInto(ids(), ids()).isEmpty());
+    }
+
+    @Test
+    public void sameListHasNoChanges() {
+        EarthquakeDiff diff = assertTurnsInto(ids("a", "b", "c"), ids("a", "b", "c"));
+        assertTrue(diff.isEmpty());
+        assertEquals(0, diff.getTouchedCount());
+    }
+
+    @Test
+    public void randomListsTurnIntoEachOther() {
+        Random random = new Random(3);
+        for (int round = 0; round < 300; round++) {
+            List<String> pool = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                pool.add("us" + i);
+            }
+            Collections.shuffle(pool, random);
+            List<Earthquake> oldList = ids(pool.subList(0, random.nextInt(25)).toArray(new String[0]));
+
+            //Keep some of the old ones, revised or not, in a partly shuffled order, and mix in new ones
+            List<Earthquake> newList = new ArrayList<>();
+            for (Earthquake earthquake : oldList) {
+                if (random.nextInt(4) != 0) {
+                    newList.add(random.nextInt(5) == 0 ? revise(earthquake) : earthquake);
+                }
+            }
+            for (int i = 0; i < newList.size(); i++) {
+                if (random.nextInt(6) == 0) {
+                    Collections.swap(newList, i, random.nextInt(newList.size()));
+                }
+            }
+            for (String id : pool.subList(25, 25 + random.nextInt(10))) {
+                newList.add(random.nextInt(newList.size() + 1), earthquake(id, 3.0));
+            }
+            assertTurnsInto(oldList, newList);
+        }
+    }
+
+    /**
+     * Work out the diff between the lists, apply it to the old list's ids and check that gives the new list's,
+     * with every row whose text changed reported as changed or inserted
+     *
+     * @return the diff
+     */
+    private static EarthquakeDiff assertTurnsInto(List<Earthquake> oldList, List<Earthquake> newList) {
+        final EarthquakeDisplayModel oldModel = new EarthquakeDisplayModel();
+        oldModel.addAll(oldList);
+        EarthquakeDisplayModel newModel = new EarthquakeDisplayModel();
+        newModel.addAll(newList);
+        EarthquakeDiff diff = EarthquakeDiff.calculate(oldModel, null, newModel, null);
+
+        //Each row is the old row it was, or -1 once inserted, and whether it was reported as changed
+        final List<Integer> rows = new ArrayList<>();
+        final List<Boolean> changed = new ArrayList<>();
+        for (int row = 0; row < oldList.size(); row++) {
+            rows.add(row);
+            changed.add(false);
+        }
+        diff.dispatchTo(new EarthquakeDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    rows.add(position, -1);
+                    changed.add(position, false);
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    rows.remove(position);
+                    changed.remove(position);
+                }
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                for (int i = position; i < position + count; i++) {
+                    assertTrue("Changed row " + i + " was just inserted", rows.get(i) >= 0);
+                    changed.set(i, true);
+                }
+            }
+        });
+
+        List<String> ids = new ArrayList<>();
+        for (int position = 0; position < rows.size(); position++) {
+            int oldRow = rows.get(position);
+            if (oldRow < 0) {
+                ids.add(newList.get(position).getId());
+                continue;
+            }
+            ids.add(oldList.get(oldRow).getId());
+            if (position < newList.size()) {
+                boolean sameText = oldModel.getMagnitudeText(oldRow).equals(newModel.getMagnitudeText(position));
+                assertEquals("Row " + position + " of " + idsOf(newList), !sameText, changed.get(position));
+            }
+        }
+        assertEquals(idsOf(oldList) + " -> " + idsOf(newList), idsOf(newList), ids);
+        return diff;
+    }
+
+    private static List<Earthquake> ids(String... ids) {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (String id : ids) {
+            earthquakes.add(earthquake(id, 3.0));
+        }
+        return earthquakes;
+    }
+
+    private static List<String> idsOf(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * @return {@param earthquake} as revised to a larger magnitude
+     */
+    private static Earthquake revise(Earthquake earthquake) {
+        return earthquake(earthquake.getId(), earthquake.getMagnitude() + 0.5);
+    }
+
+    private static Earthquake earthquake(String id, double magnitude) {
+        return new Earthquake(id, magnitude, "10km N of Town", 1500000000000L,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id);
+    }
+}
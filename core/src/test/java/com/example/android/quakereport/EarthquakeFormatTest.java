@@ -0,0 +1,132 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for every {@link EarthquakeFormat}, writing earthquakes out and checking they read back the same
+ */
+public class EarthquakeFormatTest {
+
+    private static final long TIME = 1500000000000L;
+
+    @Test
+    public void everyFieldReadsBackTheSame() throws IOException {
+        StringBuilder longLocation = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            longLocation.append("Ridge, ");
+        }
+        List<Earthquake> earthquakes = Arrays.asList(
+                new Earthquake("us1", 4.5, "10km N of Ridgecrest, CA", TIME, TIME + 1000,
+                        "https://earthquake.usgs.gov/earthquakes/eventpage/us1", false, -117.6, 35.7, 8.25),
+                //Text that has to be quoted or escaped
+                new Earthquake("us\"2\"", 3.25, "Line one,\nline \"two\"\r\nand a \\ backslash", TIME, TIME,
+                        "https://example.com/a,b?c=\"d\"", true, 0.1, -0.2, 0),
+                //Nothing known but the time
+                new Earthquake(null, 0, "", TIME - 1, TIME - 1, null, false, Double.NaN, Double.NaN, Double.NaN),
+                new Earthquake("us4", -1.5, "Caf\u00e9, \u00cele-de-France \u65e5\u672c \ud83c\udf0b", 0, 0, "", false,
+                        180, -90, 700),
+                //Longer than the binary writer's buffer
+                new Earthquake("us5", 9.1, longLocation.toString(), Long.MAX_VALUE, Long.MAX_VALUE - 1,
+                        "https://earthquake.usgs.gov/earthquakes/eventpage/us5", false,
+                        Double.MIN_VALUE, -Double.MAX_VALUE, 1e-300));
+
+        for (EarthquakeFormat format : EarthquakeFormat.values()) {
+            List<Earthquake> read = readBack(format, write(format, earthquakes));
+            assertEquals(format.toString(), earthquakes.size(), read.size());
+            for (int i = 0; i < earthquakes.size(); i++) {
+                assertSameEarthquake(format + " earthquake " + i, earthquakes.get(i), read.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void emptyExportReadsBackEmpty() throws IOException {
+        for (EarthquakeFormat format : EarthquakeFormat.values()) {
+            byte[] written = write(format, Collections.<Earthquake>emptyList());
+            assertEquals(format.toString(), 0, readBack(format, written).size());
+        }
+    }
+
+    @Test
+    public void cutShortExportIsRejected() throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            earthquakes.add(new Earthquake("us" + i, 4.5, "10km N of Town, CA", TIME + i, "https://x/us" + i));
+        }
+        //The text formats end at a line, so only a cut through a line can be told apart
+        for (EarthquakeFormat format : EarthquakeFormat.values()) {
+            byte[] written = write(format, earthquakes);
+            try {
+                readBack(format, Arrays.copyOf(written, written.length / 2));
+                fail(format + " read a cut short export");
+            } catch (IOException expected) {
+                //Expected
+            }
+        }
+    }
+
+    @Test
+    public void formatIsFoundFromTheFileName() {
+        assertEquals(EarthquakeFormat.CSV, EarthquakeFormat.forFileName("export.csv"));
+        assertEquals(EarthquakeFormat.NDJSON, EarthquakeFormat.forFileName("a.b.ndjson"));
+        assertEquals(EarthquakeFormat.BINARY, EarthquakeFormat.forFileName("export.quakes"));
+        assertNull(EarthquakeFormat.forFileName("export.json"));
+        assertNull(EarthquakeFormat.forFileName("csv"));
+    }
+
+    private static byte[] write(EarthquakeFormat format, List<Earthquake> earthquakes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EarthquakeWriter writer = format.newWriter(Channels.newChannel(bytes));
+        try {
+            for (Earthquake earthquake : earthquakes) {
+                writer.write(earthquake);
+            }
+        } finally {
+            writer.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Earthquake> readBack(EarthquakeFormat format, byte[] written) throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeReader reader = format.newReader(Channels.newChannel(new ByteArrayInputStream(written)));
+        try {
+            for (Earthquake earthquake = reader.read(); earthquake != null; earthquake = reader.read()) {
+                earthquakes.add(earthquake);
+            }
+        } finally {
+            reader.close();
+        }
+        return earthquakes;
+    }
+
+    private static void assertSameEarthquake(String message, Earthquake expected, Earthquake actual) {
+        assertEquals(message, expected.getId(), actual.getId());
+        assertEquals(message, expected.getMagnitude(), actual.getMagnitude(), 0);
+        assertEquals(message, expected.getLocation(), actual.getLocation());
+        assertEquals(message, expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+        assertEquals(message, expected.getUpdatedInMilliseconds(), actual.getUpdatedInMilliseconds());
+        assertEquals(message, expected.getDetailUrl(), actual.getDetailUrl());
+        assertEquals(message, expected.isDeleted(), actual.isDeleted());
+        //Compared bit for bit, so NaN has to come back as NaN
+        assertEquals(message, Double.doubleToLongBits(expected.getLongitude()),
+                Double.doubleToLongBits(actual.getLongitude()));
+        assertEquals(message, Double.doubleToLongBits(expected.getLatitude()),
+                Double.doubleToLongBits(actual.getLatitude()));
+        assertEquals(message, Double.doubleToLongBits(expected.getDepth()),
+                Double.doubleToLongBits(actual.getDepth()));
+    }
+}
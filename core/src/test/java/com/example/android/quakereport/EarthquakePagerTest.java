@@ -0,0 +1,292 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EarthquakePager}, paging through a {@link FixtureServer} that answers the offset/limit
+ * parameters and the delta queries of an {@link EarthquakeSync} the way USGS does
+ */
+public class EarthquakePagerTest {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    //Recent enough for the events to be kept by the store, to the second
+    private static final long TIME = (System.currentTimeMillis() - DAY_MILLIS / 2) / 1000 * 1000;
+
+    private static final int PAGE_SIZE = 4;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    //Every event the server has, newest first, and those it has deleted
+    private final List<Integer> mEvents = new CopyOnWriteArrayList<>();
+    private final List<Integer> mDeleted = new CopyOnWriteArrayList<>();
+
+    //The magnitude and last update of events that have been revised
+    private final Map<Integer, Double> mMagnitudes = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> mUpdates = new ConcurrentHashMap<>();
+
+    private FixtureServer mServer;
+    private EarthquakePager mPager;
+    private EarthquakeStore mStore;
+    private EarthquakeSync mSync;
+
+    @Before
+    public void setUp() throws IOException {
+        QueryUtils.setFetchPolicy(new FetchPolicy(1, 0, 0, Double.NaN, new CircuitBreaker(1000, 1)));
+        QueryUtils.clearRememberedResponses();
+        for (int event = 10; event > 0; event--) {
+            mEvents.add(event);
+        }
+        mServer = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getQuery();
+                List<String> features = new ArrayList<>();
+                if (query.contains("updatedafter=")) {
+                    //A delta sync, answered with every event updated since, deleted ones included
+                    long updatedAfter = parseDate(parameter(query, "updatedafter"));
+                    for (int event = 1; event <= 20; event++) {
+                        if ((mEvents.contains(event) || mDeleted.contains(event)) && updatedOf(event) > updatedAfter) {
+                            features.add(feature(event));
+                        }
+                    }
+                } else {
+                    //Offsets start from 1
+                    int from = Math.min(Integer.parseInt(parameter(query, "offset")) - 1, mEvents.size());
+                    int to = Math.min(from + Integer.parseInt(parameter(query, "limit")), mEvents.size());
+                    for (int event : mEvents.subList(from, to)) {
+                        features.add(feature(event));
+                    }
+                }
+                FixtureServer.send(exchange, HttpURLConnection.HTTP_OK, FixtureServer.feed(features), null);
+            }
+        });
+        mPager = new EarthquakePager(mServer.url("/query?orderby=time"), PAGE_SIZE);
+        mStore = new EarthquakeStore(new File(mFolder.getRoot(), "earthquakes.store"), 100, DAY_MILLIS);
+        mSync = new EarthquakeSync(mStore);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        QueryUtils.setFetchPolicy(new FetchPolicy());
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @Test
+    public void pagesFollowOnFromEachOther() {
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7"), idsOf(loadNextPage(null)));
+        assertEquals(Arrays.asList("us6", "us5", "us4", "us3"), idsOf(loadNextPage(null)));
+        assertTrue(mPager.hasMorePages());
+        assertEquals(Arrays.asList("us2", "us1"), idsOf(loadNextPage(null)));
+        assertFalse(mPager.hasMorePages());
+
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7", "us6", "us5", "us4", "us3", "us2", "us1"),
+                idsOf(mPager.getEarthquakes()));
+        assertEquals(Arrays.asList("orderby=time&offset=1&limit=4", "orderby=time&offset=5&limit=4",
+                "orderby=time&offset=9&limit=4"), mServer.mQueries);
+    }
+
+    @Test
+    public void overlappingPageIsNotShownTwice() {
+        loadNextPage(null);
+        //A new event pushes the last one of the first page onto the second
+        mEvents.add(0, 11);
+        assertEquals(Arrays.asList("us6", "us5", "us4"), idsOf(loadNextPage(null)));
+
+        //The next page still starts after every row the server returned
+        assertEquals(8, mPager.getFetchedCount());
+        assertEquals(7, mPager.size());
+        assertEquals(Arrays.asList("us3", "us2", "us1"), idsOf(loadNextPage(null)));
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7", "us6", "us5", "us4", "us3", "us2", "us1"),
+                idsOf(mPager.getEarthquakes()));
+    }
+
+    @Test
+    public void batchesArePositionedWhereTheyAreAppended() {
+        final List<String> batched = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        GeoJsonParser.OnBatchParsedListener listener = new GeoJsonParser.OnBatchParsedListener() {
+            @Override
+            public void onBatchParsed(List<Earthquake> earthquakes, int position) {
+                positions.add(position);
+                batched.addAll(idsOf(earthquakes));
+            }
+        };
+        loadNextPage(listener);
+        mEvents.add(0, 11);
+        mEvents.add(0, 12);
+        loadNextPage(listener);
+
+        //Batches of one, the two rows already shown are dropped and the rest follow straight on
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7", "us6", "us5"), batched);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), positions);
+        assertEquals(batched, idsOf(mPager.getEarthquakes()));
+    }
+
+    @Test
+    public void syncBetweenPagesKeepsTheirPlace() {
+        FeedResponse first = mPager.fetchNextPage(mSync, 0, null, null);
+        assertNotNull(first);
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7"), idsOf(mPager.getEarthquakes()));
+
+        //A new event, one deleted and one revised on the first page, and one revised further on
+        mEvents.add(0, 11);
+        mUpdates.put(11, TIME + 100000);
+        mEvents.remove(Integer.valueOf(8));
+        mDeleted.add(8);
+        mUpdates.put(8, TIME + 101000);
+        mMagnitudes.put(9, 5.5);
+        mUpdates.put(9, TIME + 102000);
+        mMagnitudes.put(3, 6.5);
+        mUpdates.put(3, TIME + 103000);
+
+        int revision = mPager.getRevision();
+        assertTrue(mPager.sync(mSync, null));
+        assertTrue(mPager.getRevision() != revision);
+        assertEquals(Arrays.asList("us11", "us10", "us9", "us7"), idsOf(mPager.getEarthquakes()));
+        assertEquals(5.5, mPager.getEarthquakes().get(2).getMagnitude(), 0);
+        assertEquals(4, mPager.getFetchedCount());
+
+        //The second page follows straight on from the first one as the server has it now
+        assertNotNull(mPager.fetchNextPage(mSync, 0, null, null));
+        assertNotNull(mPager.fetchNextPage(mSync, 0, null, null));
+        assertFalse(mPager.hasMorePages());
+        assertEquals(Arrays.asList("us11", "us10", "us9", "us7", "us6", "us5", "us4", "us3", "us2", "us1"),
+                idsOf(mPager.getEarthquakes()));
+        assertEquals(6.5, mPager.getEarthquakes().get(7).getMagnitude(), 0);
+
+        //Every page was saved in the store, with the changes merged in
+        assertEquals(10, mStore.size());
+        assertEquals(TIME + 103000, mStore.getSyncMark(mServer.url("/query?orderby=time")));
+    }
+
+    @Test
+    public void newEventMergedAfterTheNextPageIsCountedOnce() {
+        loadNextPage(null);
+        mEvents.add(0, 11);
+        mUpdates.put(11, TIME + 100000);
+        //The second page is fetched before the new event is merged, so it repeats us7
+        assertEquals(Arrays.asList("us6", "us5", "us4"), idsOf(loadNextPage(null)));
+
+        assertTrue(mPager.merge(Arrays.asList(earthquake(11))));
+        assertEquals(8, mPager.getFetchedCount());
+        assertEquals(Arrays.asList("us3", "us2", "us1"), idsOf(loadNextPage(null)));
+        assertEquals(Arrays.asList("us11", "us10", "us9", "us8", "us7", "us6", "us5", "us4", "us3", "us2", "us1"),
+                idsOf(mPager.getEarthquakes()));
+    }
+
+    @Test
+    public void firstPageIsFetchedEvenIfTheQueryWasSyncedBefore() {
+        //Left by an earlier session
+        String queryUrl = mServer.url("/query?orderby=time");
+        mStore.putAll(Arrays.asList(earthquake(12)));
+        mStore.setSyncMark(queryUrl, TIME - 1000);
+
+        assertNotNull(mPager.fetchNextPage(mSync, 0, null, null));
+        assertEquals(Arrays.asList("orderby=time&offset=1&limit=4"), mServer.mQueries);
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7"), idsOf(mPager.getEarthquakes()));
+        //The mark is left alone, so the next sync still asks for everything changed since it
+        assertEquals(TIME - 1000, mStore.getSyncMark(queryUrl));
+    }
+
+    @Test
+    public void resetStartsAgainFromTheFirstPage() {
+        loadNextPage(null);
+        loadNextPage(null);
+        mPager.reset();
+        assertEquals(0, mPager.size());
+        assertEquals(0, mPager.getFetchedCount());
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7"), idsOf(loadNextPage(null)));
+    }
+
+    /**
+     * Fetch the next page and add it, passing its batches of one to the {@param listener}, which may be null
+     *
+     * @return the earthquakes the page appended
+     */
+    private List<Earthquake> loadNextPage(GeoJsonParser.OnBatchParsedListener listener) {
+        FeedResponse response = QueryUtils.fetchFeed(mPager.getNextPageUrl(), null, null, listener == null ? 0 : 1,
+                listener == null ? null : mPager.filterBatches(listener));
+        assertNotNull(response);
+        return mPager.addPage(response.getEarthquakes());
+    }
+
+    private static String parameter(String query, String name) {
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        throw new AssertionError("No " + name + " in " + query);
+    }
+
+    private static long parseDate(String date) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return dateFormat.parse(date).getTime();
+        } catch (ParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private long updatedOf(int event) {
+        Long updated = mUpdates.get(event);
+        return updated == null ? TIME + event * 1000L : updated;
+    }
+
+    private double magnitudeOf(int event) {
+        Double magnitude = mMagnitudes.get(event);
+        return magnitude == null ? 3.0 : magnitude;
+    }
+
+    /**
+     * @return the event as the server has it now, marked deleted if it has been
+     */
+    private String feature(int event) {
+        String feature = FixtureServer.feature("us" + event, "earthquake", magnitudeOf(event), "Town",
+                TIME + event * 1000L, updatedOf(event));
+        return mDeleted.contains(event) ? feature.replace("\"reviewed\"", "\"deleted\"") : feature;
+    }
+
+    private Earthquake earthquake(int event) {
+        return new Earthquake("us" + event, magnitudeOf(event), "Town", TIME + event * 1000L, updatedOf(event),
+                "", false);
+    }
+
+    private static List<String> idsOf(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link EarthquakeQueryEngine} and the {@link RowView}s it hands out, checking every view against
+ * a scan of every row
+ */
+public class EarthquakeQueryEngineTest {
+
+    private static final long TIME = 1500000000000L;
+
+    private EarthquakeTable mTable;
+    private EarthquakeQueryEngine mEngine;
+
+    @Before
+    public void setUp() {
+        //Magnitudes to one decimal place and times to the minute, so there are plenty of ties
+        Random random = new Random(5);
+        mTable = new EarthquakeTable();
+        mEngine = new EarthquakeQueryEngine();
+        for (int batch = 0; batch < 6; batch++) {
+            int rows = batch == 0 ? 1 : random.nextInt(400);
+            for (int i = 0; i < rows; i++) {
+                double magnitude = Math.round(random.nextDouble() * 80) / 10.0;
+                long time = TIME + random.nextInt(2000) * 60000L;
+                mTable.add(new Earthquake("us" + mTable.size(), magnitude, "Town", time, ""));
+            }
+            //Appended a batch at a time, the way pages and batches arrive
+            mEngine.addAll(mTable, mEngine.size());
+        }
+    }
+
+    @Test
+    public void sortedMatchesAScan() {
+        for (EarthquakeQueryEngine.SortOrder order : EarthquakeQueryEngine.SortOrder.values()) {
+            assertRows(order.toString(), scan(Double.NaN, Double.NaN, 0, 0, order), mEngine.sorted(order));
+        }
+    }
+
+    @Test
+    public void minMagnitudeMatchesAScan() {
+        for (double minMagnitude : new double[]{0, 2.5, 4.5, 4.55, 7.9, 8.0, 9.0}) {
+            for (EarthquakeQueryEngine.SortOrder order : EarthquakeQueryEngine.SortOrder.values()) {
+                assertRows(order + " from M" + minMagnitude, scan(minMagnitude, Double.NaN, 0, 0, order),
+                        mEngine.filter(minMagnitude, Double.NaN, 0, 0, order));
+            }
+        }
+    }
+
+    @Test
+    public void timeRangeMatchesAScan() {
+        long[][] windows = {{TIME, TIME + 600 * 60000L}, {TIME + 1000 * 60000L, 0}, {0, TIME + 30 * 60000L},
+                {TIME + 777 * 60000L, TIME + 777 * 60000L}, {TIME - 60000L, TIME - 1}, {TIME + 500 * 60000L, TIME}};
+        for (long[] window : windows) {
+            for (EarthquakeQueryEngine.SortOrder order : EarthquakeQueryEngine.SortOrder.values()) {
+                assertRows(order + " from " + window[0] + " to " + window[1],
+                        scan(Double.NaN, Double.NaN, window[0], window[1], order),
+                        mEngine.filter(Double.NaN, Double.NaN, window[0], window[1], order));
+            }
+        }
+    }
+
+    @Test
+    public void magnitudeAndTimeTogetherMatchAScan() {
+        //Narrow and wide on each side, so both ranges get walked
+        double[][] bands = {{2.0, 6.0}, {7.5, Double.NaN}, {Double.NaN, 0.5}, {4.0, 4.0}};
+        long[][] windows = {{TIME, TIME + 1900 * 60000L}, {TIME + 100 * 60000L, TIME + 110 * 60000L}};
+        for (double[] band : bands) {
+            for (long[] window : windows) {
+                for (EarthquakeQueryEngine.SortOrder order : EarthquakeQueryEngine.SortOrder.values()) {
+                    assertRows(order + " M" + band[0] + "-" + band[1] + " from " + window[0],
+                            scan(band[0], band[1], window[0], window[1], order),
+                            mEngine.filter(band[0], band[1], window[0], window[1], order));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void viewsDontChangeWhenRowsAreAppended() {
+        RowView before = mEngine.filter(3.0, Double.NaN, 0, 0, EarthquakeQueryEngine.SortOrder.LARGEST_FIRST);
+        List<Integer> expected = scan(3.0, Double.NaN, 0, 0, EarthquakeQueryEngine.SortOrder.LARGEST_FIRST);
+
+        EarthquakeQueryEngine copy = new EarthquakeQueryEngine(mEngine);
+        mTable.add(new Earthquake("us-new", 9.5, "Town", TIME, ""));
+        copy.addAll(mTable, copy.size());
+
+        assertRows("after the append", expected, before);
+        assertEquals(mTable.size() - 1, mEngine.size());
+        assertEquals(mTable.size() - 1, copy.filter(9.5, Double.NaN, 0, 0,
+                EarthquakeQueryEngine.SortOrder.LARGEST_FIRST).getRow(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void viewRejectsPositionsOutsideIt() {
+        RowView view = new RowView(new int[]{4, 5, 6, 7}, 1, 3, true);
+        assertEquals(6, view.getRow(0));
+        assertEquals(5, view.getRow(1));
+        view.getRow(2);
+    }
+
+    /**
+     * @return the rows that pass the filter in {@param order}, found by checking every one and sorting them,
+     * with NaN and 0 leaving the ends open like {@link EarthquakeQueryEngine#filter}
+     */
+    private List<Integer> scan(double minMagnitude, double maxMagnitude, long startTime, long endTime,
+                               EarthquakeQueryEngine.SortOrder order) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < mTable.size(); row++) {
+            double magnitude = mTable.getMagnitude(row);
+            long time = mTable.getTimeInMilliseconds(row);
+            if ((Double.isNaN(minMagnitude) || magnitude >= minMagnitude)
+                    && (Double.isNaN(maxMagnitude) || magnitude <= maxMagnitude)
+                    && (startTime == 0 || time >= startTime) && (endTime == 0 || time <= endTime)) {
+                rows.add(row);
+            }
+        }
+
+        final boolean byMagnitude = order == EarthquakeQueryEngine.SortOrder.LARGEST_FIRST
+                || order == EarthquakeQueryEngine.SortOrder.SMALLEST_FIRST;
+        //Smallest first by the key, then time, then row, and the other way round for the descending orders
+        Collections.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                int compared = byMagnitude
+                        ? Double.compare(mTable.getMagnitude(first), mTable.getMagnitude(second)) : 0;
+                if (compared == 0) {
+                    compared = Long.compare(mTable.getTimeInMilliseconds(first),
+                            mTable.getTimeInMilliseconds(second));
+                }
+                return compared != 0 ? compared : Integer.compare(first, second);
+            }
+        });
+        if (order == EarthquakeQueryEngine.SortOrder.LARGEST_FIRST
+                || order == EarthquakeQueryEngine.SortOrder.NEWEST_FIRST) {
+            Collections.reverse(rows);
+        }
+        return rows;
+    }
+
+    private static void assertRows(String message, List<Integer> expected, RowView view) {
+        List<Integer> actual = new ArrayList<>();
+        for (int position = 0; position < view.size(); position++) {
+            actual.add(view.getRow(position));
+        }
+        assertEquals(message, expected, actual);
+    }
+}
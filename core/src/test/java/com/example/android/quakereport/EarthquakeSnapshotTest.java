@@ -0,0 +1,162 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link EarthquakeSnapshot}
+ */
+public class EarthquakeSnapshotTest {
+
+    //Where the CRC and the format version are in the header
+    private static final int VERSION_OFFSET = 4;
+    private static final int CRC_OFFSET = 16;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private EarthquakeDisplayModel mModel;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "earthquakes.snapshot");
+        mModel = new EarthquakeDisplayModel();
+        mModel.addAll(Arrays.asList(
+                new Earthquake("us1", 4.5, "10km N of Town", 1500000000000L, 1500000100000L,
+                        "https://earthquake.usgs.gov/earthquakes/eventpage/us1", false, -120.5, 35.25, 8.5),
+                new Earthquake("us2", 6.1, "Fiji region", 1500000500000L, 1500000500000L,
+                        "https://earthquake.usgs.gov/earthquakes/eventpage/us2-old", false, 178.0, -17.5, 550),
+                new Earthquake("us3", 2.2, "5km SE of Town", 1499999000000L, 1499999000000L,
+                        null, false, Double.NaN, Double.NaN, Double.NaN)));
+    }
+
+    @Test
+    public void writeThenReadKeepsEveryRow() throws IOException {
+        EarthquakeSnapshot.write(mFile, mModel);
+        EarthquakeDisplayModel read = EarthquakeSnapshot.read(mFile);
+
+        assertNotNull(read);
+        assertEquals(mModel.size(), read.size());
+        EarthquakeTable expected = mModel.getTable();
+        EarthquakeTable actual = read.getTable();
+        for (int row = 0; row < mModel.size(); row++) {
+            assertEquals(expected.getId(row), actual.getId(row));
+            assertEquals(expected.getMagnitude(row), actual.getMagnitude(row), 0);
+            assertEquals(expected.getLocation(row), actual.getLocation(row));
+            assertEquals(expected.getLocationOffset(row), actual.getLocationOffset(row));
+            assertEquals(expected.getTimeInMilliseconds(row), actual.getTimeInMilliseconds(row));
+            assertEquals(expected.getUpdatedInMilliseconds(row), actual.getUpdatedInMilliseconds(row));
+            assertEquals(expected.getDetailUrl(row), actual.getDetailUrl(row));
+            assertEquals(expected.getLongitude(row), actual.getLongitude(row), 0);
+            assertEquals(expected.getLatitude(row), actual.getLatitude(row), 0);
+            assertEquals(expected.getDepth(row), actual.getDepth(row), 0);
+            assertEquals(mModel.getDateText(row), read.getDateText(row));
+            assertEquals(mModel.getTimeText(row), read.getTimeText(row));
+            assertEquals(mModel.getMagnitudeText(row), read.getMagnitudeText(row));
+        }
+        assertNull(actual.getDetailUrl(2));
+        for (EarthquakeQueryEngine.SortOrder order : EarthquakeQueryEngine.SortOrder.values()) {
+            RowView expectedRows = mModel.getQueryEngine().sorted(order);
+            RowView actualRows = read.getQueryEngine().sorted(order);
+            for (int position = 0; position < expectedRows.size(); position++) {
+                assertEquals(expectedRows.getRow(position), actualRows.getRow(position));
+            }
+        }
+    }
+
+    @Test
+    public void missingFileReadsAsNull() throws IOException {
+        assertNull(EarthquakeSnapshot.read(mFile));
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        EarthquakeSnapshot.write(mFile, mModel);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 7);
+        file.close();
+        assertRejected();
+    }
+
+    @Test
+    public void flippedCrcByteIsRejected() throws IOException {
+        EarthquakeSnapshot.write(mFile, mModel);
+        flipByte(CRC_OFFSET + 7);
+        assertRejected();
+    }
+
+    @Test
+    public void flippedPayloadByteIsRejected() throws IOException {
+        EarthquakeSnapshot.write(mFile, mModel);
+        flipByte((int) mFile.length() - 3);
+        assertRejected();
+    }
+
+    @Test
+    public void otherFormatVersionIsRejected() throws IOException {
+        EarthquakeSnapshot.write(mFile, mModel);
+        flipByte(VERSION_OFFSET + 3);
+        assertRejected();
+    }
+
+    @Test
+    public void changedTextFormatKeyFormatsTheTextsAgain() throws IOException {
+        TimeZone timeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            EarthquakeDisplayModel written = new EarthquakeDisplayModel(new EarthquakeTable(mModel.getTable(), 3));
+            EarthquakeSnapshot.write(mFile, written);
+
+            //The texts saved for UTC aren't used in another time zone
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            EarthquakeDisplayModel read = EarthquakeSnapshot.read(mFile);
+            EarthquakeDisplayModel formatted = new EarthquakeDisplayModel(new EarthquakeTable(mModel.getTable(), 3));
+            assertNotNull(read);
+            for (int row = 0; row < read.size(); row++) {
+                assertEquals(formatted.getTimeText(row), read.getTimeText(row));
+                assertNotEquals(written.getTimeText(row), read.getTimeText(row));
+            }
+        } finally {
+            TimeZone.setDefault(timeZone);
+        }
+    }
+
+    /**
+     * Flip every bit of the byte at {@param position} in the snapshot
+     */
+    private void flipByte(int position) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(~value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertRejected() {
+        try {
+            EarthquakeSnapshot.read(mFile);
+            fail("A damaged snapshot should be rejected");
+        } catch (IOException expected) {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link EarthquakeStatistics}, checking that statistics merged from partitions match the same
+ * earthquakes counted in a single pass
+ */
+public class EarthquakeStatisticsTest {
+
+    private static final long TIME = 1500000000000L;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final int WINDOW_HOURS = 24;
+
+    private static final String[] LOCATIONS = {"10km N of Adak, Alaska", "Adak, Alaska", "Mid-Atlantic Ridge",
+            "5km SW of Ridgecrest, CA", "Volcano, Hawaii", "Fiji region"};
+
+    @Test
+    public void mergedPartitionsMatchASinglePass() throws InterruptedException {
+        Random random = new Random(11);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                //Spread over three windows, so older hours have to drop out of the ring as partitions merge
+                List<Earthquake> earthquakes = randomEarthquakes(random, 1 + random.nextInt(500), 3 * WINDOW_HOURS);
+                EarthquakeStatistics single = new EarthquakeStatistics(WINDOW_HOURS);
+                single.addAll(earthquakes);
+
+                List<List<Earthquake>> partitions = partition(random, earthquakes, 1 + random.nextInt(8));
+                assertSameStatistics("round " + round, single,
+                        EarthquakeStatistics.aggregate(partitions, WINDOW_HOURS, executor), latestTime(earthquakes));
+
+                //Merged by hand in the other order, which mustn't matter either
+                EarthquakeStatistics reversed = new EarthquakeStatistics(WINDOW_HOURS);
+                for (int i = partitions.size() - 1; i >= 0; i--) {
+                    EarthquakeStatistics statistics = new EarthquakeStatistics(WINDOW_HOURS);
+                    statistics.addAll(partitions.get(i));
+                    reversed.merge(statistics);
+                }
+                assertSameStatistics("round " + round + " reversed", single, reversed, latestTime(earthquakes));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void removingMatchesNeverAdding() {
+        Random random = new Random(12);
+        List<Earthquake> earthquakes = randomEarthquakes(random, 300, WINDOW_HOURS);
+        List<Earthquake> kept = new ArrayList<>();
+        EarthquakeStatistics statistics = new EarthquakeStatistics(WINDOW_HOURS);
+        statistics.addAll(earthquakes);
+        for (Earthquake earthquake : earthquakes) {
+            if (random.nextBoolean()) {
+                statistics.remove(earthquake);
+            } else {
+                kept.add(earthquake);
+            }
+        }
+
+        EarthquakeStatistics expected = new EarthquakeStatistics(WINDOW_HOURS);
+        expected.addAll(kept);
+        assertSameStatistics("after removing", expected, statistics, latestTime(earthquakes));
+    }
+
+    @Test
+    public void emptyPartitionsMergeToEmpty() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<List<Earthquake>> partitions = Arrays.asList(new ArrayList<Earthquake>(), new ArrayList<Earthquake>());
+            EarthquakeStatistics merged = EarthquakeStatistics.aggregate(partitions, WINDOW_HOURS, executor);
+            assertEquals(0, merged.getCount());
+            assertEquals(Double.NaN, merged.getMeanMagnitude(), 0);
+            assertEquals(0, merged.getRegions().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void statisticsOverDifferentWindowsDontMerge() {
+        new EarthquakeStatistics(WINDOW_HOURS).merge(new EarthquakeStatistics(WINDOW_HOURS + 1));
+    }
+
+    /**
+     * @return {@param count} earthquakes at random times over {@param hours} hours, with magnitudes to a tenth
+     */
+    private static List<Earthquake> randomEarthquakes(Random random, int count, int hours) {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double magnitude = Math.round(random.nextDouble() * 110 - 10) / 10.0;
+            long time = TIME + (long) (random.nextDouble() * hours * HOUR_MILLIS);
+            earthquakes.add(new Earthquake("us" + i, magnitude, LOCATIONS[random.nextInt(LOCATIONS.length)],
+                    time, ""));
+        }
+        return earthquakes;
+    }
+
+    /**
+     * @return the {@param earthquakes} dealt out at random into {@param count} partitions, some maybe empty
+     */
+    private static List<List<Earthquake>> partition(Random random, List<Earthquake> earthquakes, int count) {
+        List<List<Earthquake>> partitions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            partitions.add(new ArrayList<Earthquake>());
+        }
+        for (Earthquake earthquake : earthquakes) {
+            partitions.get(random.nextInt(count)).add(earthquake);
+        }
+        return partitions;
+    }
+
+    private static long latestTime(List<Earthquake> earthquakes) {
+        long latest = Long.MIN_VALUE;
+        for (Earthquake earthquake : earthquakes) {
+            latest = Math.max(latest, earthquake.getTimeInMilliseconds());
+        }
+        return latest;
+    }
+
+    /**
+     * Check every figure {@param actual} gives matches {@param expected}, with the hourly ones taken up to
+     * {@param now}. Magnitudes are summed in a different order, so their means are only compared closely.
+     */
+    private static void assertSameStatistics(String message, EarthquakeStatistics expected,
+                                             EarthquakeStatistics actual, long now) {
+        assertEquals(message, expected.getCount(), actual.getCount());
+        assertEquals(message, expected.getMeanMagnitude(), actual.getMeanMagnitude(), 1e-9);
+        assertArrayEquals(message, expected.getBandCounts(), actual.getBandCounts());
+        for (int hours = 1; hours <= WINDOW_HOURS; hours++) {
+            assertArrayEquals(message + " over " + hours + "h", expected.getHourlyCounts(now, hours),
+                    actual.getHourlyCounts(now, hours));
+            assertEquals(message + " over " + hours + "h", expected.getHourlyRate(now, hours),
+                    actual.getHourlyRate(now, hours), 0);
+            assertEquals(message + " over " + hours + "h", expected.getRollingAverageMagnitude(now, hours),
+                    actual.getRollingAverageMagnitude(now, hours), 1e-9);
+        }
+        assertEquals(message, expected.getRegions(), actual.getRegions());
+        for (String region : expected.getRegions()) {
+            assertEquals(message + " in " + region, expected.getRegionCount(region), actual.getRegionCount(region));
+            assertEquals(message + " in " + region, expected.getMaxMagnitude(region),
+                    actual.getMaxMagnitude(region), 0);
+        }
+    }
+}
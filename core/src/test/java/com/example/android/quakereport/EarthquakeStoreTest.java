@@ -0,0 +1,238 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link EarthquakeStore}, and the conditional GET it keeps the validators for
+ */
+public class EarthquakeStoreTest {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private long mNow;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), "earthquakes.store");
+        mNow = System.currentTimeMillis();
+        //Never retry or short-circuit, so each test sees exactly the requests it makes
+        QueryUtils.setFetchPolicy(new FetchPolicy(1, 0, 0, Double.NaN, new CircuitBreaker(1000, 1)));
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setFetchPolicy(new FetchPolicy());
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @Test
+    public void saveThenLoadKeepsEverything() throws IOException {
+        EarthquakeStore store = new EarthquakeStore(mFile, 100, 30 * DAY_MILLIS);
+        Earthquake first = new Earthquake("us1", 4.5, "10km N of Town", mNow - 1000, mNow - 500,
+                "https://example.com/us1", false, -120.5, 35.25, 8.5);
+        Earthquake second = new Earthquake("us2", 3.1, "Somewhere", mNow - 2000, mNow - 2000,
+                null, false, Double.NaN, Double.NaN, Double.NaN);
+        store.putAll(Arrays.asList(first, second));
+        store.setValidators("https://example.com/feed", "\"v1\"", null);
+        store.setSyncMark("https://example.com/query", mNow - 500);
+        store.save();
+
+        EarthquakeStore loaded = new EarthquakeStore(mFile, 100, 30 * DAY_MILLIS);
+        loaded.load();
+        List<Earthquake> earthquakes = loaded.getEarthquakes();
+        assertEquals(2, earthquakes.size());
+        assertSame(first, earthquakes.get(0));
+        assertSame(second, earthquakes.get(1));
+        assertEquals("\"v1\"", loaded.getETag("https://example.com/feed"));
+        assertNull(loaded.getLastModified("https://example.com/feed"));
+        assertEquals(mNow - 500, loaded.getSyncMark("https://example.com/query"));
+        assertEquals(2, loaded.getStatistics().getCount());
+    }
+
+    @Test
+    public void earthquakesWithoutIdOrUrlAreKeptApart() throws IOException {
+        EarthquakeStore store = new EarthquakeStore(mFile, 100, 30 * DAY_MILLIS);
+        store.putAll(Arrays.asList(
+                new Earthquake(null, 2.0, "Place A", mNow - 1000, ""),
+                new Earthquake(null, 2.5, "Place B", mNow - 2000, "")));
+        assertEquals(2, store.size());
+
+        store.save();
+        EarthquakeStore loaded = new EarthquakeStore(mFile, 100, 30 * DAY_MILLIS);
+        loaded.load();
+        assertEquals(2, loaded.size());
+        assertNull(loaded.getEarthquakes().get(0).getId());
+    }
+
+    @Test
+    public void evictsOldEarthquakesThenTheOldestBeyondTheLimit() {
+        EarthquakeStore store = new EarthquakeStore(mFile, 2, DAY_MILLIS);
+        store.putAll(Arrays.asList(
+                new Earthquake("old", 5.0, "Old", mNow - 2 * DAY_MILLIS, ""),
+                new Earthquake("a", 3.0, "A", mNow - 3000, ""),
+                new Earthquake("b", 3.0, "B", mNow - 2000, ""),
+                new Earthquake("c", 3.0, "C", mNow - 1000, "")));
+
+        List<Earthquake> earthquakes = store.getEarthquakes();
+        assertEquals(2, earthquakes.size());
+        assertEquals("c", earthquakes.get(0).getId());
+        assertEquals("b", earthquakes.get(1).getId());
+        assertEquals(2, store.getStatistics().getCount());
+    }
+
+    @Test
+    public void deletedEarthquakesAreRemoved() {
+        EarthquakeStore store = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+        store.putAll(Arrays.asList(new Earthquake("a", 3.0, "A", mNow - 1000, "")));
+        store.putAll(Arrays.asList(new Earthquake("a", 3.0, "A", mNow - 1000, mNow, "", true)));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void damagedFileLeavesTheStoreEmpty() throws IOException {
+        EarthquakeStore store = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+        store.putAll(Arrays.asList(new Earthquake("a", 3.0, "A", mNow - 1000, ""),
+                new Earthquake("b", 3.0, "B", mNow - 2000, "")));
+        store.setValidators("https://example.com/feed", "\"v1\"", null);
+        store.save();
+
+        //Cut the file off part way through the earthquakes
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        EarthquakeStore damaged = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+        try {
+            damaged.load();
+            fail("A truncated store should fail to load");
+        } catch (IOException expected) {
+            //Expected
+        }
+        assertEquals(0, damaged.size());
+        assertNull(damaged.getETag("https://example.com/feed"));
+        assertEquals(0, damaged.getStatistics().getCount());
+    }
+
+    @Test
+    public void fileOfAnotherVersionIsIgnored() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[]{0, 0, 0, 99, 1, 2, 3});
+        out.close();
+
+        EarthquakeStore store = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+        store.load();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void revalidatesWithTheSavedETag() throws IOException {
+        final String[] eTag = {"\"v1\""};
+        final String[] feed = {FixtureServer.feed(Arrays.asList(
+                FixtureServer.feature("us1", 4.5, "Place A", mNow - 1000),
+                FixtureServer.feature("us2", 3.5, "Place B", mNow - 2000)))};
+        FixtureServer server = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (eTag[0].equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    FixtureServer.send(exchange, HttpURLConnection.HTTP_NOT_MODIFIED, null, eTag[0]);
+                } else {
+                    FixtureServer.send(exchange, HttpURLConnection.HTTP_OK, feed[0], eTag[0]);
+                }
+            }
+        });
+        try {
+            String fullUrl = server.url("/feed");
+
+            //The first sync is unconditional, and keeps the ETag it's answered with
+            EarthquakeStore store = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+            EarthquakeSync sync = new EarthquakeSync(store);
+            List<Earthquake> synced = sync.sync(server.url("/query?a"), fullUrl, 0, null);
+            assertNotNull(synced);
+            assertEquals(2, synced.size());
+            assertNull(server.mIfNoneMatches.get(0));
+            assertEquals("\"v1\"", store.getETag(fullUrl));
+            store.save();
+
+            //A store read back from disk revalidates the full feed and is told it hasn't changed
+            EarthquakeStore loaded = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+            loaded.load();
+            synced = new EarthquakeSync(loaded).sync(server.url("/query?b"), fullUrl, 0, null);
+            assertEquals("\"v1\"", server.mIfNoneMatches.get(1));
+            assertNotNull(synced);
+            assertEquals(2, synced.size());
+
+            //Once the feed changes, the revalidation gets it in full with the new ETag. The 304 is remembered
+            //for identical requests for a while, so forget it to go back to the server.
+            eTag[0] = "\"v2\"";
+            QueryUtils.clearRememberedResponses();
+            feed[0] = FixtureServer.feed(Arrays.asList(FixtureServer.feature("us3", 5.0, "Place C", mNow - 500)));
+            synced = new EarthquakeSync(loaded).sync(server.url("/query?c"), fullUrl, 0, null);
+            assertEquals("\"v1\"", server.mIfNoneMatches.get(2));
+            assertNotNull(synced);
+            assertEquals(3, synced.size());
+            assertEquals("\"v2\"", loaded.getETag(fullUrl));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void conditionalFetchReportsNotModified() throws IOException {
+        FixtureServer server = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                FixtureServer.send(exchange, HttpURLConnection.HTTP_NOT_MODIFIED, null, "\"v1\"");
+            }
+        });
+        try {
+            FeedResponse response = QueryUtils.fetchFeed(server.url("/feed"), "\"v1\"", null, 0, null);
+            assertNotNull(response);
+            assertTrue(response.isNotModified());
+            assertFalse(response.isStale());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Check {@param actual} was read back the same as {@param expected} was saved
+     */
+    private static void assertSame(Earthquake expected, Earthquake actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+        assertEquals(expected.getLocation(), actual.getLocation());
+        assertEquals(expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+        assertEquals(expected.getUpdatedInMilliseconds(), actual.getUpdatedInMilliseconds());
+        assertEquals(expected.getDetailUrl(), actual.getDetailUrl());
+        assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+        assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+        assertEquals(expected.getDepth(), actual.getDepth(), 0);
+    }
+}
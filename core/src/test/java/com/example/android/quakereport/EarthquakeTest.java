@@ -0,0 +1,92 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link Earthquake}, and that its location and URL come back whole from the pooled parts they're
+ * split into
+ */
+public class EarthquakeTest {
+
+    //Locations with and without an offset, and with "of" in awkward places
+    private static final List<String> LOCATIONS = Arrays.asList(
+            "74km NW of San Francisco, CA", "Fiji region", "South of the Fiji Islands", "Gulf of",
+            "offshore Northern California", "of", "", "12 km SSE of Volcano, Hawaii", "Sea of Okhotsk",
+            "5km N of Petrolia, CA");
+
+    //URLs ending in the id, ending in something else, with no '/', ending in '/', empty and missing
+    private static final List<String> URLS = Arrays.asList(
+            "https://earthquake.usgs.gov/earthquakes/eventpage/us1000abcd",
+            "https://earthquake.usgs.gov/earthquakes/eventpage/us1000abcd#executive",
+            "eventpage", "https://earthquake.usgs.gov/earthquakes/eventpage/", "", null);
+
+    @Test
+    public void locationAndUrlComeBackWhole() {
+        for (String location : LOCATIONS) {
+            for (String url : URLS) {
+                Earthquake earthquake = new Earthquake("us1000abcd", 4.5, location, 1500000000000L, 1500000000000L,
+                        url, false, 0, 0, 0);
+                assertEquals(location, earthquake.getLocation());
+                assertEquals(location, earthquake.getLocationOffset() + earthquake.getPrimaryLocation());
+                assertEquals(url, earthquake.getDetailUrl());
+            }
+        }
+    }
+
+    @Test
+    public void tableGivesBackTheSameLocationAndUrl() {
+        EarthquakeTable table = new EarthquakeTable();
+        for (String location : LOCATIONS) {
+            for (String url : URLS) {
+                table.add(new Earthquake(null, 3.0, location, 1500000000000L, url));
+            }
+        }
+        int row = 0;
+        for (String location : LOCATIONS) {
+            for (String url : URLS) {
+                assertEquals(location, table.getLocation(row));
+                assertEquals(url, table.getDetailUrl(row));
+                assertEquals(url, table.get(row).getDetailUrl());
+                row++;
+            }
+        }
+    }
+
+    @Test
+    public void locationIsSplitAtTheOffset() {
+        Earthquake earthquake = new Earthquake("us1", 4.5, "74km NW of San Francisco, CA", 0, "");
+        assertEquals("74km NW of ", earthquake.getLocationOffset());
+        assertEquals("San Francisco, CA", earthquake.getPrimaryLocation());
+
+        earthquake = new Earthquake("us2", 4.5, "Fiji region", 0, "");
+        assertEquals("", earthquake.getLocationOffset());
+        assertEquals("Fiji region", earthquake.getPrimaryLocation());
+    }
+
+    @Test
+    public void sharedPartsAreHeldOnce() {
+        Earthquake first = new Earthquake("us1", 4.5, "10km N of Town", 0,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/us1");
+        Earthquake second = new Earthquake("us2", 3.5, new String("20km S of Town"), 0,
+                new String("https://earthquake.usgs.gov/earthquakes/eventpage/us2"));
+        assertSame(first.getPrimaryLocation(), second.getPrimaryLocation());
+        assertSame(first.getDetailUrlPrefix(), second.getDetailUrlPrefix());
+        //A URL ending in the id keeps the id rather than a copy of it
+        assertSame(second.getId(), second.getDetailUrlSuffix());
+    }
+
+    @Test
+    public void missingUrlHasNoParts() {
+        Earthquake earthquake = new Earthquake("us1", 4.5, "Town", 0, 0, null, false, 0, 0, 0);
+        assertNull(earthquake.getDetailUrl());
+        assertNull(earthquake.getDetailUrlPrefix());
+        assertNull(earthquake.getDetailUrlSuffix());
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link FeedPoller}, and merging what it finds into an {@link EarthquakeStore}
+ */
+public class FeedPollerTest {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "earthquakes.store");
+        mNow = System.currentTimeMillis();
+        //Never retry or short-circuit, so each test sees exactly the requests it makes
+        QueryUtils.setFetchPolicy(new FetchPolicy(1, 0, 0, Double.NaN, new CircuitBreaker(1000, 1)));
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setFetchPolicy(new FetchPolicy());
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @Test
+    public void pollBeforeTheFirstLoadKeepsTheSavedEarthquakes() throws IOException {
+        //Saved by an earlier run: one earthquake the poll revises, and one it doesn't mention
+        EarthquakeStore saved = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+        saved.putAll(Arrays.asList(
+                new Earthquake("us1", 4.0, "Old place", mNow - 3000, mNow - 3000, "", false,
+                        Double.NaN, Double.NaN, Double.NaN),
+                new Earthquake("us2", 3.0, "Untouched", mNow - 5000, "")));
+        saved.save();
+
+        FixtureServer server = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                FixtureServer.send(exchange, HttpURLConnection.HTTP_OK, FixtureServer.feed(Arrays.asList(
+                        FixtureServer.feature("us1", "earthquake", 4.2, "Revised place", mNow - 3000, mNow - 1000),
+                        FixtureServer.feature("us3", 2.8, "New place", mNow - 500))), "\"v1\"");
+            }
+        });
+        try {
+            //Merge and save the way the loader does, before anything has loaded the store
+            final EarthquakeStore store = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+            FeedPoller poller = new FeedPoller(server.url("/feed"), Double.NaN);
+            poller.addListener(new FeedPoller.OnEarthquakesChangedListener() {
+                @Override
+                public void onEarthquakesChanged(List<Earthquake> changed) {
+                    store.putAll(changed);
+                    try {
+                        store.save();
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            poller.poll(null);
+        } finally {
+            server.stop();
+        }
+
+        EarthquakeStore loaded = new EarthquakeStore(mFile, 100, DAY_MILLIS);
+        loaded.load();
+        List<Earthquake> earthquakes = loaded.getEarthquakes();
+        assertEquals(3, earthquakes.size());
+        assertEquals("us3", earthquakes.get(0).getId());
+        assertEquals("us1", earthquakes.get(1).getId());
+        assertEquals("Revised place", earthquakes.get(1).getLocation());
+        assertEquals(mNow - 1000, earthquakes.get(1).getUpdatedInMilliseconds());
+        assertEquals("us2", earthquakes.get(2).getId());
+    }
+
+    @Test
+    public void pollPassesOnOnlyEarthquakes() throws IOException {
+        FixtureServer server = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                FixtureServer.send(exchange, HttpURLConnection.HTTP_OK, FixtureServer.feed(Arrays.asList(
+                        FixtureServer.feature("us1", 2.6, "Fault", mNow - 1000),
+                        FixtureServer.feature("us2", "quarry blast", 2.5, "Quarry", mNow - 2000, mNow - 2000),
+                        FixtureServer.feature("us3", "explosion", 2.7, "Range", mNow - 3000, mNow - 3000),
+                        FixtureServer.feature("us4", "ice quake", 2.9, "Glacier", mNow - 4000, mNow - 4000))),
+                        "\"v1\"");
+            }
+        });
+        final List<Earthquake> passedOn = new ArrayList<>();
+        try {
+            FeedPoller poller = new FeedPoller(server.url("/feed"), Double.NaN);
+            poller.addListener(new FeedPoller.OnEarthquakesChangedListener() {
+                @Override
+                public void onEarthquakesChanged(List<Earthquake> changed) {
+                    passedOn.addAll(changed);
+                }
+            });
+            poller.poll(null);
+        } finally {
+            server.stop();
+        }
+
+        assertEquals(1, passedOn.size());
+        assertEquals("us1", passedOn.get(0).getId());
+    }
+}
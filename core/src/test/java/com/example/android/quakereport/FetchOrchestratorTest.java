@@ -0,0 +1,134 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link FetchOrchestrator}, merging slices fetched from a {@link FixtureServer}
+ */
+public class FetchOrchestratorTest {
+
+    private static final long TIME = 1500000000000L;
+
+    private FixtureServer mServer;
+    private FetchOrchestrator mOrchestrator;
+
+    @Before
+    public void setUp() throws IOException {
+        //Never retry, so a failed slice fails straight away
+        QueryUtils.setFetchPolicy(new FetchPolicy(1, 0, 0, Double.NaN, new CircuitBreaker(1000, 1)));
+        QueryUtils.clearRememberedResponses();
+        //Each slice is a path, answered newest first, with the events at its edges in the slices either side too
+        mServer = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                List<String> features;
+                if (path.equals("/newest")) {
+                    features = Arrays.asList(feature(10), feature(9), feature(8), feature(7));
+                } else if (path.equals("/middle")) {
+                    features = Arrays.asList(feature(7), feature(6), feature(5), feature(4));
+                } else if (path.equals("/oldest")) {
+                    features = Arrays.asList(feature(5), feature(4), feature(3), feature(1));
+                } else if (path.equals("/empty")) {
+                    features = new ArrayList<>();
+                } else {
+                    FixtureServer.send(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, null, null);
+                    return;
+                }
+                FixtureServer.send(exchange, HttpURLConnection.HTTP_OK, FixtureServer.feed(features), null);
+            }
+        });
+        mOrchestrator = new FetchOrchestrator(3);
+    }
+
+    @After
+    public void tearDown() {
+        mOrchestrator.shutdown();
+        mServer.stop();
+        QueryUtils.setFetchPolicy(new FetchPolicy());
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @Test
+    public void overlappingSlicesMergeNewestFirstWithoutDuplicates() throws InterruptedException {
+        List<Earthquake> merged = mOrchestrator.fetchAll(queries("/oldest", "/newest", "/empty", "/middle"));
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7", "us6", "us5", "us4", "us3", "us1"), idsOf(merged));
+    }
+
+    @Test
+    public void failedSliceAddsNothing() throws InterruptedException {
+        List<Earthquake> merged = mOrchestrator.fetchAll(queries("/newest", "/broken", "/oldest"));
+        assertEquals(Arrays.asList("us10", "us9", "us8", "us7", "us5", "us4", "us3", "us1"), idsOf(merged));
+    }
+
+    @Test
+    public void everySliceFailingGivesNull() throws InterruptedException {
+        assertNull(mOrchestrator.fetchAll(queries("/broken", "/broken")));
+    }
+
+    @Test
+    public void mergeMatchesTheUnionSortedNewestFirst() {
+        Random random = new Random(9);
+        for (int round = 0; round < 200; round++) {
+            //Events a second apart, each in a few random lists
+            int events = random.nextInt(60);
+            List<List<Earthquake>> lists = new ArrayList<>();
+            int listCount = 1 + random.nextInt(6);
+            for (int i = 0; i < listCount; i++) {
+                lists.add(new ArrayList<Earthquake>());
+            }
+            List<String> expected = new ArrayList<>();
+            for (int event = events; event > 0; event--) {
+                boolean inAny = false;
+                for (List<Earthquake> list : lists) {
+                    if (random.nextInt(3) == 0) {
+                        list.add(earthquake(event));
+                        inAny = true;
+                    }
+                }
+                if (inAny) {
+                    expected.add("us" + event);
+                }
+            }
+            assertEquals(expected, idsOf(FetchOrchestrator.merge(lists)));
+        }
+    }
+
+    private List<EarthquakeQuery> queries(String... paths) {
+        List<EarthquakeQuery> queries = new ArrayList<>();
+        for (String path : paths) {
+            queries.add(new EarthquakeQuery.Builder().setEndpoint(mServer.url(path)).build());
+        }
+        return queries;
+    }
+
+    private static String feature(int event) {
+        return FixtureServer.feature("us" + event, 3.0, "Town", TIME + event * 1000L);
+    }
+
+    private static Earthquake earthquake(int event) {
+        return new Earthquake("us" + event, 3.0, "Town", TIME + event * 1000L, "");
+    }
+
+    private static List<String> idsOf(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link FetchPolicy} and {@link CircuitBreaker}, with requests sent through {@link QueryUtils}
+ * to a {@link FixtureServer}
+ */
+public class FetchPolicyTest {
+
+    private static final long TIME = 1500000000000L;
+
+    //Answered with the status at the head of the list, then with the feed once it runs out
+    private final List<Integer> mStatuses = new CopyOnWriteArrayList<>();
+    private FixtureServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        Metrics.reset();
+        QueryUtils.clearRememberedResponses();
+        mServer = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int status = mStatuses.isEmpty() ? HttpURLConnection.HTTP_OK : mStatuses.remove(0);
+                FixtureServer.send(exchange, status, status == HttpURLConnection.HTTP_OK
+                        ? FixtureServer.feed(Arrays.asList(FixtureServer.feature("us1", 4.5, "Town", TIME)))
+                        : null, null);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        QueryUtils.setFetchPolicy(new FetchPolicy());
+        QueryUtils.clearRememberedResponses();
+        Metrics.reset();
+    }
+
+    @Test
+    public void serverErrorIsRetriedUntilItSucceeds() {
+        QueryUtils.setFetchPolicy(new FetchPolicy(3, 0, 0, Double.NaN, new CircuitBreaker(1000, 1)));
+        mStatuses.addAll(Arrays.asList(HttpURLConnection.HTTP_UNAVAILABLE, HttpURLConnection.HTTP_UNAVAILABLE));
+
+        FeedResponse response = fetch();
+        assertNotNull(response);
+        assertFalse(response.isStale());
+        assertEquals(1, response.getEarthquakes().size());
+        assertEquals(3, mServer.mQueries.size());
+        assertEquals(2, Metrics.snapshot().getCounter(Metrics.FETCH_RETRIES));
+    }
+
+    @Test
+    public void notFoundIsNotRetried() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+        QueryUtils.setFetchPolicy(new FetchPolicy(3, 0, 0, Double.NaN, breaker));
+        mStatuses.add(HttpURLConnection.HTTP_NOT_FOUND);
+
+        assertNull(fetch());
+        assertEquals(1, mServer.mQueries.size());
+        //The server answered, so it isn't counted against it
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void breakerOpensAfterTheThresholdAndLetsOneTrialThrough() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, 300);
+        QueryUtils.setFetchPolicy(new FetchPolicy(1, 0, 0, Double.NaN, breaker));
+        for (int i = 0; i < 4; i++) {
+            mStatuses.add(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        }
+
+        assertNull(fetch());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNull(fetch());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        //Turned away without a request while open
+        assertNull(fetch());
+        assertEquals(2, mServer.mQueries.size());
+        assertEquals(1, Metrics.snapshot().getCounter(Metrics.FETCH_SHORT_CIRCUITED));
+
+        //Once the wait is over one trial goes through, and its failure opens the breaker again straight away
+        Thread.sleep(400);
+        assertNull(fetch());
+        assertEquals(3, mServer.mQueries.size());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertNull(fetch());
+        assertEquals(3, mServer.mQueries.size());
+
+        //A trial that succeeds closes it
+        Thread.sleep(400);
+        mStatuses.clear();
+        assertNotNull(fetch());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(4, mServer.mQueries.size());
+    }
+
+    @Test
+    public void halfOpenBreakerLetsExactlyOneTrialThrough() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(100);
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        //Everything else waits on the trial
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        //A trial that's abandoned lets another one through
+        breaker.onAbandoned();
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void lastGoodResponseIsServedStaleAfterAFailure() {
+        QueryUtils.setFetchPolicy(new FetchPolicy(2, 0, 0, Double.NaN, new CircuitBreaker(1000, 1)));
+        FeedResponse good = fetch();
+        assertNotNull(good);
+
+        //Forget the shared response, so the next request goes to the server
+        QueryUtils.clearRememberedResponses();
+        mStatuses.addAll(Arrays.asList(HttpURLConnection.HTTP_UNAVAILABLE, HttpURLConnection.HTTP_UNAVAILABLE));
+        FeedResponse stale = fetch();
+        assertNotNull(stale);
+        assertTrue(stale.isStale());
+        assertEquals(good.getEarthquakes(), stale.getEarthquakes());
+        assertEquals(3, mServer.mQueries.size());
+        assertEquals(1, Metrics.snapshot().getCounter(Metrics.FETCH_STALE));
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws IOException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger slowRequests = new AtomicInteger();
+        FixtureServer server = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                //Once a request has been held up, the hedge behind it is answered straight away
+                if (exchange.getRequestURI().getPath().equals("/slow") && slowRequests.getAndIncrement() == 0) {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                FixtureServer.send(exchange, HttpURLConnection.HTTP_OK,
+                        FixtureServer.feed(Arrays.asList(FixtureServer.feature("us1", 4.5, "Town", TIME))), null);
+            }
+        });
+        try {
+            FetchPolicy policy = new FetchPolicy(1, 0, 0, 50, new CircuitBreaker(1000, 1));
+            QueryUtils.setFetchPolicy(policy);
+            //Time enough requests for the policy to know how long one usually takes
+            while (policy.getHedgeDelayNanos() < 0) {
+                assertNotNull(QueryUtils.fetchFeed(server.url("/fast"), null, null, 0, null));
+                QueryUtils.clearRememberedResponses();
+            }
+
+            long startNanos = System.nanoTime();
+            FeedResponse response = QueryUtils.fetchFeed(server.url("/slow"), null, null, 0, null);
+            long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            assertNotNull(response);
+            assertEquals(1, response.getEarthquakes().size());
+            assertEquals(2, slowRequests.get());
+            assertEquals(1, Metrics.snapshot().getCounter(Metrics.FETCH_HEDGES));
+            assertTrue("Took " + tookMillis + "ms", tookMillis < 5000);
+        } finally {
+            release.countDown();
+            server.stop();
+        }
+    }
+
+    private FeedResponse fetch() {
+        return QueryUtils.fetchFeed(mServer.url("/feed"), null, null, 0, null);
+    }
+}
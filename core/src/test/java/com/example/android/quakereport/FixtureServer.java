@@ -0,0 +1,122 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the USGS server, answering requests on the loopback interface, so the fetch paths
+ * can be tested on the JVM without the network
+ */
+final class FixtureServer {
+
+    /**
+     * Answers one request
+     */
+    interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private final HttpServer mServer;
+
+    //The query string of every request, in the order they came in
+    final List<String> mQueries = new CopyOnWriteArrayList<>();
+
+    //The If-None-Match header of every request, null where it had none
+    final List<String> mIfNoneMatches = new CopyOnWriteArrayList<>();
+
+    /**
+     * Start a server passing every request to {@param handler}, on its own threads
+     */
+    FixtureServer(final Handler handler) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getRawQuery();
+                mQueries.add(query == null ? "" : query);
+                mIfNoneMatches.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+                try {
+                    handler.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    /**
+     * @return the URL of {@param path} on this server
+     */
+    String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    void stop() {
+        mServer.stop(0);
+    }
+
+    /**
+     * Answer the {@param exchange} with {@param status} and the {@param body}, which may be null,
+     * and the {@param eTag}, which may be null
+     */
+    static void send(HttpExchange exchange, int status, String body, String eTag) throws IOException {
+        if (eTag != null) {
+            exchange.getResponseHeaders().set("ETag", eTag);
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * @return a GeoJSON feature of an event of {@param type}, i.e. "earthquake" or "quarry blast"
+     */
+    static String feature(String id, String type, double magnitude, String place, long time, long updated) {
+        return String.format(Locale.US, "{\"type\":\"Feature\",\"properties\":{\"mag\":%s,\"place\":\"%s\","
+                        + "\"time\":%d,\"updated\":%d,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/%s\","
+                        + "\"status\":\"reviewed\",\"type\":\"%s\"},"
+                        + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[-120.5,35.25,8.5]},\"id\":\"%s\"}",
+                magnitude, place, time, updated, id, type, id);
+    }
+
+    /**
+     * @return a GeoJSON feature of an earthquake
+     */
+    static String feature(String id, double magnitude, String place, long time) {
+        return feature(id, "earthquake", magnitude, place, time, time);
+    }
+
+    /**
+     * @return a GeoJSON feed of the {@param features}
+     */
+    static String feed(List<String> features) {
+        StringBuilder feed = new StringBuilder("{\"type\":\"FeatureCollection\",\"metadata\":{},\"features\":[");
+        for (int i = 0; i < features.size(); i++) {
+            if (i > 0) {
+                feed.append(',');
+            }
+            feed.append(features.get(i));
+        }
+        return feed.append("]}").toString();
+    }
+}
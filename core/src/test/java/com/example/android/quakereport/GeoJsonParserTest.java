@@ -0,0 +1,189 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link GeoJsonParser}
+ */
+public class GeoJsonParserTest {
+
+    private static final long TIME = 1500000000000L;
+
+    @Test
+    public void nullPropertiesAreDefaulted() throws IOException {
+        List<Earthquake> earthquakes = GeoJsonParser.parseFeatures(stream("{\"type\":\"FeatureCollection\","
+                + "\"features\":[{\"type\":\"Feature\",\"properties\":{\"mag\":null,\"place\":null,"
+                + "\"time\":1500000000000,\"updated\":null,\"url\":null,\"status\":null,\"type\":null},"
+                + "\"geometry\":null,\"id\":\"us1\"},"
+                + "{\"type\":\"Feature\",\"properties\":null,\"geometry\":null,\"id\":null}]}"));
+
+        assertEquals(2, earthquakes.size());
+        Earthquake earthquake = earthquakes.get(0);
+        assertEquals("us1", earthquake.getId());
+        assertEquals(0, earthquake.getMagnitude(), 0);
+        assertEquals("", earthquake.getLocation());
+        //Without an update time it counts as revised when it happened
+        assertEquals(TIME, earthquake.getUpdatedInMilliseconds());
+        assertEquals("", earthquake.getDetailUrl());
+        assertTrue(Double.isNaN(earthquake.getLongitude()));
+        assertNull(earthquakes.get(1).getId());
+        assertEquals(0, earthquakes.get(1).getTimeInMilliseconds());
+    }
+
+    @Test
+    public void unknownMembersAndGeometryAreSkipped() throws IOException {
+        List<Earthquake> earthquakes = GeoJsonParser.parseFeatures(stream("{\"bbox\":[1,2,3,4],"
+                + "\"metadata\":{\"count\":1,\"nested\":{\"features\":[1]}},\"type\":\"FeatureCollection\","
+                + "\"features\":[{\"extra\":[{\"id\":\"not this\"}],\"type\":\"Feature\","
+                + "\"geometry\":{\"type\":\"Point\",\"crs\":{\"x\":1},\"coordinates\":[-120.5,35.25,8.5,99]},"
+                + "\"properties\":{\"mag\":4.5,\"products\":{\"a\":[1,2]},\"place\":\"10km N of Town\","
+                + "\"time\":1500000000000,\"sig\":\"high\"},\"id\":\"us1\"}],\"trailer\":true}"));
+
+        assertEquals(1, earthquakes.size());
+        Earthquake earthquake = earthquakes.get(0);
+        assertEquals("us1", earthquake.getId());
+        assertEquals(4.5, earthquake.getMagnitude(), 0);
+        assertEquals("10km N of Town", earthquake.getLocation());
+        assertEquals(-120.5, earthquake.getLongitude(), 0);
+        assertEquals(35.25, earthquake.getLatitude(), 0);
+        assertEquals(8.5, earthquake.getDepth(), 0);
+    }
+
+    @Test
+    public void eventsOfOtherTypesAreDropped() throws IOException {
+        List<Earthquake> earthquakes = GeoJsonParser.parseFeatures(stream(FixtureServer.feed(Arrays.asList(
+                FixtureServer.feature("us1", 4.5, "Town", TIME),
+                FixtureServer.feature("us2", "quarry blast", 1.5, "Quarry", TIME, TIME),
+                FixtureServer.feature("us3", "explosion", 2.0, "Range", TIME, TIME),
+                FixtureServer.feature("us4", 3.5, "Town", TIME)))));
+
+        assertEquals(Arrays.asList("us1", "us4"), idsOf(earthquakes));
+    }
+
+    @Test
+    public void batchesArriveInOrderWithTheirPositions() throws IOException {
+        final List<Integer> positions = new ArrayList<>();
+        final List<Earthquake> batched = new ArrayList<>();
+        List<Earthquake> earthquakes = GeoJsonParser.parseFeatures(stream(feed(11)), 4,
+                new GeoJsonParser.OnBatchParsedListener() {
+                    @Override
+                    public void onBatchParsed(List<Earthquake> batch, int position) {
+                        assertEquals(batched.size(), position);
+                        positions.add(position);
+                        batched.addAll(batch);
+                    }
+                });
+
+        assertEquals(Arrays.asList(0, 4, 8), positions);
+        assertEquals(11, earthquakes.size());
+        assertEquals(idsOf(earthquakes), idsOf(batched));
+    }
+
+    @Test
+    public void cancelMidArrayReturnsTheFeaturesBeforeIt() throws IOException {
+        final CancellationToken cancellation = new CancellationToken();
+        final List<Integer> positions = new ArrayList<>();
+        List<Earthquake> earthquakes = GeoJsonParser.parseFeatures(stream(feed(20)), 3,
+                new GeoJsonParser.OnBatchParsedListener() {
+                    @Override
+                    public void onBatchParsed(List<Earthquake> batch, int position) {
+                        positions.add(position);
+                        if (position == 3) {
+                            cancellation.cancel();
+                        }
+                    }
+                }, cancellation);
+
+        //Parsing stops at the next feature, and the listener isn't called again
+        assertEquals(Arrays.asList(0, 3), positions);
+        assertEquals(idsOf(GeoJsonParser.parseFeatures(stream(feed(6)))), idsOf(earthquakes));
+    }
+
+    @Test
+    public void cancelledStreamThatFailsReturnsTheFeaturesBeforeIt() throws IOException {
+        final CancellationToken cancellation = new CancellationToken();
+        final byte[] document = feed(20).getBytes(Charset.forName("UTF-8"));
+        //Cancelled and failing half way through, the way a closed socket does
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(document)) {
+            private int mRead;
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (mRead >= document.length / 2) {
+                    cancellation.cancel();
+                    throw new SocketException("Socket closed");
+                }
+                int count = super.read(buffer, offset, Math.min(length, 64));
+                mRead += count;
+                return count;
+            }
+        };
+        List<Earthquake> earthquakes = GeoJsonParser.parseFeatures(in, 0, null, cancellation);
+
+        assertTrue(earthquakes.size() > 0 && earthquakes.size() < 20);
+        List<String> expected = idsOf(GeoJsonParser.parseFeatures(stream(feed(20))));
+        assertEquals(expected.subList(0, earthquakes.size()), idsOf(earthquakes));
+    }
+
+    @Test
+    public void decimalsParseTheSameAsDoubleParseDouble() {
+        String[] numbers = {"0", "-0", "0.0", "-0.0", "4.5", "-120.5", "35.25", "179.99999", "-89.123456789",
+                "0.1", "0.3", "2.675", "9007199254740993", "123456789012345678", "1234567890123456789",
+                "0.00000000000000000000001", "1e3", "-2.5E-4", "1.7976931348623157e308", "12.300"};
+        for (String number : numbers) {
+            assertParsedExactly(number);
+        }
+
+        //Coordinates and magnitudes written to as many places as USGS uses, and a few more
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            double value = (random.nextDouble() - 0.5) * 360;
+            int places = random.nextInt(12);
+            assertParsedExactly(String.format(Locale.US, "%." + places + "f", value));
+        }
+    }
+
+    /**
+     * @return a feed of {@param count} earthquakes, with ids from us0
+     */
+    private static String feed(int count) {
+        List<String> features = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            features.add(FixtureServer.feature("us" + i, 2.5 + i / 10.0, i + "km N of Town", TIME - i * 1000));
+        }
+        return FixtureServer.feed(features);
+    }
+
+    private static InputStream stream(String document) {
+        return new ByteArrayInputStream(document.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static List<String> idsOf(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    private static void assertParsedExactly(String number) {
+        assertEquals(number, Double.doubleToRawLongBits(Double.parseDouble(number)),
+                Double.doubleToRawLongBits(GeoJsonParser.parseDecimal(number)));
+    }
+}
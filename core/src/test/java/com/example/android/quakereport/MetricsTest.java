@@ -0,0 +1,123 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Metrics}, {@link Histogram} and the {@link MetricsSnapshot} they are read through
+ */
+public class MetricsTest {
+
+    @Before
+    public void setUp() {
+        Metrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void snapshotHoldsWhatWasRecorded() {
+        Metrics.counter("test.requests").increment();
+        Metrics.counter("test.requests").increment();
+        Metrics.counter("test.bytes").add(1500);
+        Histogram sizes = Metrics.histogram("test.sizes");
+        sizes.record(10);
+        sizes.record(20);
+        sizes.record(-5);
+        Metrics.timer("test.latency").recordSince(System.nanoTime());
+
+        MetricsSnapshot snapshot = Metrics.snapshot();
+        assertEquals(2, snapshot.getCounter("test.requests"));
+        assertEquals(1500, snapshot.getCounter("test.bytes"));
+        assertEquals(0, snapshot.getCounter("test.unused"));
+
+        Histogram.Snapshot sizesSnapshot = snapshot.getHistogram("test.sizes");
+        assertNotNull(sizesSnapshot);
+        assertEquals(3, sizesSnapshot.getCount());
+        assertEquals(10, sizesSnapshot.getMean(), 1e-9);
+        assertEquals(20, sizesSnapshot.getMax());
+        assertEquals(0, sizesSnapshot.getPercentile(0));
+        assertEquals(20, sizesSnapshot.getPercentile(100));
+        assertEquals(1, snapshot.getHistogram("test.latency").getCount());
+        assertTrue(snapshot.getHistogram("test.latency").isTime());
+
+        //Recording more doesn't change a snapshot already taken
+        sizes.record(30);
+        assertEquals(3, sizesSnapshot.getCount());
+    }
+
+    @Test
+    public void percentileIsWithinTheBucketWidth() {
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        Histogram histogram = new Histogram("test.values", false);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 30);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = snapshot.getPercentile(percentile);
+            //Reported as the top of the exact value's bucket, which is a sixteenth of its power of two wide
+            assertTrue(percentile + ": " + reported + " < " + exact, reported >= exact);
+            assertTrue(percentile + ": " + reported + " - " + exact, reported - exact <= exact / 16);
+        }
+        assertEquals(values[values.length - 1], snapshot.getMax());
+    }
+
+    @Test
+    public void bucketsAgreeAtPowersOfTwo() {
+        for (int exponent = 0; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            for (long value : new long[]{power - 1, power, power + 1}) {
+                int bucket = Histogram.bucketOf(value);
+                long highest = Histogram.highestValueIn(bucket);
+                assertTrue(value + " is above its bucket", value <= highest);
+                assertEquals(bucket, Histogram.bucketOf(highest));
+                //The next value starts the next bucket
+                assertEquals(bucket + 1, Histogram.bucketOf(highest + 1));
+            }
+            if (exponent > 0) {
+                assertEquals(Histogram.bucketOf(power - 1) + 1, Histogram.bucketOf(power));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueIn(Histogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        Metrics.counter("test.requests").add(7);
+        Histogram latency = Metrics.timer("test.latency");
+        latency.record(1000);
+        latency.record(2000000);
+
+        Metrics.reset();
+
+        MetricsSnapshot snapshot = Metrics.snapshot();
+        assertEquals(0, snapshot.getCounter("test.requests"));
+        Histogram.Snapshot latencySnapshot = snapshot.getHistogram("test.latency");
+        assertEquals(0, latencySnapshot.getCount());
+        assertEquals(0, latencySnapshot.getMax());
+        assertEquals(0, latencySnapshot.getPercentile(50));
+        for (Histogram.Snapshot histogram : snapshot.getHistograms().values()) {
+            assertEquals(histogram.getName(), 0, histogram.getCount());
+        }
+        for (long value : snapshot.getCounters().values()) {
+            assertEquals(0, value);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link RequestCoalescer}
+ */
+public class RequestCoalescerTest {
+
+    private static final long TIME = 1500000000000L;
+
+    //Every URL the fetcher was asked for, in order
+    private final List<String> mFetched = new ArrayList<>();
+
+    //What the fetcher answers with next
+    private boolean mAnswerPartial;
+    private boolean mAnswerStale;
+
+    private final RequestCoalescer.Fetcher mFetcher = new RequestCoalescer.Fetcher() {
+        @Override
+        public FeedResponse fetch(String requestUrl, String eTag, String lastModified, int batchSize,
+                                  GeoJsonParser.OnBatchParsedListener listener, CancellationToken cancellation) {
+            synchronized (mFetched) {
+                mFetched.add(requestUrl);
+            }
+            return new FeedResponse(new ArrayList<Earthquake>(), false, null, null, mAnswerPartial, mAnswerStale);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        //Never retry, so the server sees exactly the requests that get past the coalescer
+        QueryUtils.setFetchPolicy(new FetchPolicy(1, 0, 0, Double.NaN, new CircuitBreaker(1000, 1)));
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setFetchPolicy(new FetchPolicy());
+        QueryUtils.clearRememberedResponses();
+    }
+
+    @Test
+    public void concurrentIdenticalRequestsHitTheServerOnce() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final FixtureServer server = new FixtureServer(new FixtureServer.Handler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                //Hold the first request until everyone else has asked for the same thing
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                FixtureServer.send(exchange, HttpURLConnection.HTTP_OK,
+                        FixtureServer.feed(Arrays.asList(FixtureServer.feature("us1", 4.5, "Town", TIME))), null);
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<FeedResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                //The same query, with its parameters in a different order every other time
+                final String url = server.url(i % 2 == 0 ? "/query?format=geojson&limit=10"
+                        : "/query?limit=10&format=geojson");
+                responses.add(executor.submit(new Callable<FeedResponse>() {
+                    @Override
+                    public FeedResponse call() {
+                        return QueryUtils.fetchFeed(url, null, null, 0, null);
+                    }
+                }));
+            }
+            Thread.sleep(500);
+            release.countDown();
+
+            FeedResponse first = responses.get(0).get(10, TimeUnit.SECONDS);
+            assertNotNull(first);
+            assertEquals(1, first.getEarthquakes().size());
+            for (Future<FeedResponse> response : responses) {
+                assertSame(first, response.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, server.mQueries.size());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void rememberedResponseExpires() throws InterruptedException {
+        RequestCoalescer coalescer = new RequestCoalescer(mFetcher, 4, 200);
+        FeedResponse first = coalescer.fetch("http://example.com/query?a=1", null, null, 0, null, null);
+        assertSame(first, coalescer.fetch("http://EXAMPLE.com/query?a=1#top", null, null, 0, null, null));
+        assertEquals(1, mFetched.size());
+
+        Thread.sleep(300);
+        coalescer.fetch("http://example.com/query?a=1", null, null, 0, null, null);
+        assertEquals(2, mFetched.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedResponseIsEvicted() {
+        RequestCoalescer coalescer = new RequestCoalescer(mFetcher, 2, 60000);
+        coalescer.fetch("http://example.com/a", null, null, 0, null, null);
+        coalescer.fetch("http://example.com/b", null, null, 0, null, null);
+        //Using a makes b the least recently used, so c evicts it
+        coalescer.fetch("http://example.com/a", null, null, 0, null, null);
+        coalescer.fetch("http://example.com/c", null, null, 0, null, null);
+        assertEquals(3, mFetched.size());
+
+        coalescer.fetch("http://example.com/a", null, null, 0, null, null);
+        coalescer.fetch("http://example.com/c", null, null, 0, null, null);
+        assertEquals(3, mFetched.size());
+        coalescer.fetch("http://example.com/b", null, null, 0, null, null);
+        assertEquals(Arrays.asList("http://example.com/a", "http://example.com/b", "http://example.com/c",
+                "http://example.com/b"), mFetched);
+    }
+
+    @Test
+    public void validatorsAreMatchedToo() {
+        RequestCoalescer coalescer = new RequestCoalescer(mFetcher, 4, 60000);
+        coalescer.fetch("http://example.com/a", null, null, 0, null, null);
+        coalescer.fetch("http://example.com/a", "\"v1\"", null, 0, null, null);
+        coalescer.fetch("http://example.com/a", "\"v1\"", null, 0, null, null);
+        assertEquals(2, mFetched.size());
+    }
+
+    @Test
+    public void partialAndStaleResponsesAreNotRemembered() {
+        RequestCoalescer coalescer = new RequestCoalescer(mFetcher, 4, 60000);
+        mAnswerPartial = true;
+        coalescer.fetch("http://example.com/a", null, null, 0, null, null);
+        coalescer.fetch("http://example.com/a", null, null, 0, null, null);
+        mAnswerPartial = false;
+        mAnswerStale = true;
+        coalescer.fetch("http://example.com/a", null, null, 0, null, null);
+        coalescer.fetch("http://example.com/a", null, null, 0, null, null);
+        assertEquals(4, mFetched.size());
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SpatialIndex}, checking every query against a scan of every point
+ */
+public class SpatialIndexTest {
+
+    //Query points: random ones, then on and either side of the antimeridian and at and near each pole
+    private static final double[][] EDGE_POINTS = {
+            {0, 180}, {0, -180}, {10, 179.95}, {-10, -179.95}, {52.5, 179.5}, {52.5, -179.5},
+            {90, 0}, {-90, 0}, {89.9, 45}, {89.9, -135}, {-89.9, 179.9}, {-89.5, -0.5}};
+
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private List<double[]> mQueries;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(7);
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            //Uniform over the sphere, so the poles get their share
+            points.add(new double[]{Math.toDegrees(Math.asin(2 * random.nextDouble() - 1)),
+                    random.nextDouble() * 360 - 180});
+        }
+        //Crowds on the antimeridian and around the poles, where the cells wrap and shrink
+        for (int i = 0; i < 300; i++) {
+            double fromAntimeridian = random.nextDouble() * 2;
+            points.add(new double[]{random.nextDouble() * 40 - 20,
+                    random.nextBoolean() ? 180 - fromAntimeridian : -180 + fromAntimeridian});
+            points.add(new double[]{90 - random.nextDouble() * 2, random.nextDouble() * 360 - 180});
+            points.add(new double[]{-90 + random.nextDouble() * 2, random.nextDouble() * 360 - 180});
+        }
+        points.add(new double[]{90, 0});
+        points.add(new double[]{-90, 180});
+        points.add(new double[]{0, 180});
+        points.add(new double[]{0, -180});
+
+        mLatitudes = new double[points.size()];
+        mLongitudes = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            mLatitudes[i] = points.get(i)[0];
+            mLongitudes[i] = points.get(i)[1];
+        }
+
+        mQueries = new ArrayList<>(Arrays.asList(EDGE_POINTS));
+        for (int i = 0; i < 40; i++) {
+            mQueries.add(new double[]{Math.toDegrees(Math.asin(2 * random.nextDouble() - 1)),
+                    random.nextDouble() * 360 - 180});
+        }
+    }
+
+    @Test
+    public void withinRadiusMatchesAScan() {
+        for (double cellSize : new double[]{1, 7.5, 45}) {
+            SpatialIndex index = newIndex(cellSize);
+            for (double[] query : mQueries) {
+                for (double radiusKm : new double[]{0, 50, 300, 2500, 20100}) {
+                    int[] expected = scanWithinRadius(query[0], query[1], radiusKm);
+                    int[] actual = index.withinRadius(query[0], query[1], radiusKm);
+                    Arrays.sort(actual);
+                    assertArrayEquals(describe(cellSize, query) + " radius " + radiusKm, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nearestMatchesAScan() {
+        for (double cellSize : new double[]{1, 7.5, 45}) {
+            SpatialIndex index = newIndex(cellSize);
+            for (double[] query : mQueries) {
+                for (int count : new int[]{1, 5, 60}) {
+                    double[] expected = scanNearestDistances(query[0], query[1], count);
+                    int[] rows = index.nearest(query[0], query[1], count);
+                    assertEquals(describe(cellSize, query), count, rows.length);
+
+                    //Ties may come back in either order, so compare the distances, nearest first
+                    Set<Integer> seen = new HashSet<>();
+                    for (int i = 0; i < rows.length; i++) {
+                        assertTrue(describe(cellSize, query) + " repeats row " + rows[i], seen.add(rows[i]));
+                        double distance = SpatialIndex.distanceKm(query[0], query[1],
+                                mLatitudes[rows[i]], mLongitudes[rows[i]]);
+                        assertEquals(describe(cellSize, query) + " neighbour " + i, expected[i], distance, 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nearestReturnsEveryRowWhenThereAreFewer() {
+        SpatialIndex index = new SpatialIndex();
+        index.add(0, 89.9, 10);
+        index.add(1, -89.9, -170);
+        index.add(2, Double.NaN, 0);
+        assertEquals(2, index.size());
+
+        int[] rows = index.nearest(80, 0, 10);
+        assertArrayEquals(new int[]{0, 1}, rows);
+    }
+
+    @Test
+    public void boundingBoxAcrossTheAntimeridianMatchesAScan() {
+        SpatialIndex index = newIndex(1);
+        int[] actual = index.withinBoundingBox(-15, 15, 178, -178);
+        Arrays.sort(actual);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int row = 0; row < mLatitudes.length; row++) {
+            if (mLatitudes[row] >= -15 && mLatitudes[row] <= 15
+                    && (mLongitudes[row] >= 178 || mLongitudes[row] <= -178)) {
+                expected.add(row);
+            }
+        }
+        assertArrayEquals(toArray(expected), actual);
+    }
+
+    /**
+     * @return an index of every point, with cells of {@param cellSize} degrees
+     */
+    private SpatialIndex newIndex(double cellSize) {
+        SpatialIndex index = new SpatialIndex(cellSize);
+        for (int row = 0; row < mLatitudes.length; row++) {
+            index.add(row, mLatitudes[row], mLongitudes[row]);
+        }
+        return index;
+    }
+
+    /**
+     * @return the rows within {@param radiusKm} of the point, in order, found by checking every one
+     */
+    private int[] scanWithinRadius(double latitude, double longitude, double radiusKm) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < mLatitudes.length; row++) {
+            if (SpatialIndex.distanceKm(latitude, longitude, mLatitudes[row], mLongitudes[row]) <= radiusKm) {
+                rows.add(row);
+            }
+        }
+        return toArray(rows);
+    }
+
+    /**
+     * @return the distances to the {@param count} nearest points, nearest first, found by checking every one
+     */
+    private double[] scanNearestDistances(double latitude, double longitude, int count) {
+        double[] distances = new double[mLatitudes.length];
+        for (int row = 0; row < mLatitudes.length; row++) {
+            distances[row] = SpatialIndex.distanceKm(latitude, longitude, mLatitudes[row], mLongitudes[row]);
+        }
+        Arrays.sort(distances);
+        return Arrays.copyOf(distances, count);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private static String describe(double cellSize, double[] query) {
+        return cellSize + " degree cells, at " + query[0] + ", " + query[1];
+    }
+}